@@ -0,0 +1,209 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.CodedOutputStream;
+import org.kududb.ColumnSchema;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.WireProtocol;
+import org.kududb.rpc.RpcHeader;
+import org.kududb.tserver.Tserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the schemas, rows and wire data that the benchmarks run on, without a cluster.
+ */
+final class BenchmarkData {
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Creates a schema with IDs, like the ones the master returns.
+   * @param numKeyColumns how many primary key columns there are, of type {@code keyType}
+   * @param keyType the type of the primary key columns
+   * @param numColumns how many columns there are in total, the other ones of type
+   *                   {@code columnType}
+   * @param columnType the type of the non-key columns
+   * @param nullable true to make the non-key columns nullable
+   * @return the schema
+   */
+  static Schema createSchema(int numKeyColumns, Type keyType, int numColumns, Type columnType,
+                             boolean nullable) {
+    List<ColumnSchema> columns = new ArrayList<ColumnSchema>(numColumns);
+    List<Integer> columnIds = new ArrayList<Integer>(numColumns);
+    for (int i = 0; i < numColumns; i++) {
+      boolean isKey = i < numKeyColumns;
+      columns.add(new ColumnSchema.ColumnSchemaBuilder("c" + i, isKey ? keyType : columnType)
+          .key(isKey)
+          .nullable(!isKey && nullable)
+          .build());
+      columnIds.add(i);
+    }
+    return new Schema(columns, columnIds);
+  }
+
+  /**
+   * Creates a partition schema that ranges over the primary key, and optionally hashes it.
+   * @param schema the table's schema
+   * @param numHashBuckets the number of buckets to hash the primary key into, or 0 to not hash
+   * @return the partition schema
+   */
+  static PartitionSchema createPartitionSchema(Schema schema, int numHashBuckets) {
+    // The columns' IDs are their indexes, see createSchema().
+    List<Integer> keyIds = new ArrayList<Integer>(schema.getPrimaryKeyColumnCount());
+    for (int i = 0; i < schema.getPrimaryKeyColumnCount(); i++) {
+      keyIds.add(i);
+    }
+    ImmutableList<PartitionSchema.HashBucketSchema> hashBucketSchemas = numHashBuckets == 0 ?
+        ImmutableList.<PartitionSchema.HashBucketSchema>of() :
+        ImmutableList.of(new PartitionSchema.HashBucketSchema(keyIds, numHashBuckets, 0));
+    return new PartitionSchema(new PartitionSchema.RangeSchema(keyIds), hashBucketSchemas,
+        schema);
+  }
+
+  /**
+   * Creates a table that isn't attached to a client, enough to create operations.
+   */
+  static KuduTable createTable(Schema schema) {
+    return new KuduTable(null, "benchmark", "benchmark", schema,
+        createPartitionSchema(schema, 0));
+  }
+
+  /**
+   * Sets all the columns of a row from a number, a third of the nullable ones are set to null.
+   * @param row the row to fill
+   * @param key a number that's unique to the row
+   */
+  static void fillRow(PartialRow row, int key) {
+    Schema schema = row.getSchema();
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      ColumnSchema column = schema.getColumnByIndex(i);
+      if (column.isNullable() && (key + i) % 3 == 0) {
+        row.setNull(i);
+        continue;
+      }
+      long value = column.isKey() ? key : (long) key * 31 + i;
+      switch (column.getType()) {
+        case INT8: row.addByte(i, (byte) value); break;
+        case INT16: row.addShort(i, (short) value); break;
+        case INT32: row.addInt(i, (int) value); break;
+        case INT64: row.addLong(i, value); break;
+        case TIMESTAMP: row.addLong(i, value); break;
+        case BOOL: row.addBoolean(i, value % 2 == 0); break;
+        case FLOAT: row.addFloat(i, value); break;
+        case DOUBLE: row.addDouble(i, value); break;
+        case STRING: row.addString(i, "value-" + value); break;
+        case BINARY: row.addBinary(i, Bytes.fromString("value-" + value)); break;
+        default: throw new IllegalArgumentException("Unsupported type " + column.getType());
+      }
+    }
+  }
+
+  /**
+   * Creates rows filled by {@link #fillRow(PartialRow, int)}, with keys from 0.
+   */
+  static List<PartialRow> createRows(Schema schema, int numRows) {
+    List<PartialRow> rows = new ArrayList<PartialRow>(numRows);
+    for (int i = 0; i < numRows; i++) {
+      PartialRow row = schema.newPartialRow();
+      fillRow(row, i);
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  /**
+   * Encodes rows in the row-wise format tablet servers send to scanners.
+   * @param rows the rows to encode, all the columns must be set
+   * @param rowsData where the fixed size part of the rows is written
+   * @param indirectData where the strings and binary values are written
+   */
+  static void encodeRowBlock(List<PartialRow> rows, ByteArrayOutputStream rowsData,
+                             ByteArrayOutputStream indirectData) {
+    Schema schema = rows.get(0).getSchema();
+    ByteBuffer buffer = ByteBuffer.allocate(schema.getRowSize()).order(ByteOrder.LITTLE_ENDIAN);
+    for (PartialRow row : rows) {
+      buffer.clear();
+      for (int i = 0; i < schema.getColumnCount(); i++) {
+        Type type = schema.getColumnByIndex(i).getType();
+        if (row.isSetToNull(i)) {
+          buffer.position(buffer.position() + type.getSize());
+        } else if (type == Type.STRING || type == Type.BINARY) {
+          int index = (int) Bytes.getLong(row.getRowAlloc(), schema.getColumnOffset(i));
+          byte[] value = row.getVarLengthData().get(index);
+          buffer.putLong(indirectData.size());
+          buffer.putLong(value.length);
+          indirectData.write(value, 0, value.length);
+        } else {
+          buffer.put(row.getRowAlloc(), schema.getColumnOffset(i), type.getSize());
+        }
+      }
+      if (schema.hasNullableColumns()) {
+        buffer.put(Bytes.fromBitSet(row.getNullsBitSet(), schema.getColumnCount()));
+      }
+      rowsData.write(buffer.array(), 0, buffer.position());
+    }
+  }
+
+  /**
+   * Frames a scan response carrying rows the way a tablet server sends it, see
+   * {@link CallResponse}.
+   * @param rows the rows to send
+   * @return the response, starting with its 4-byte length
+   */
+  static byte[] encodeScanResponse(List<PartialRow> rows) throws IOException {
+    ByteArrayOutputStream rowsData = new ByteArrayOutputStream();
+    ByteArrayOutputStream indirectData = new ByteArrayOutputStream();
+    encodeRowBlock(rows, rowsData, indirectData);
+
+    Tserver.ScanResponsePB main = Tserver.ScanResponsePB.newBuilder()
+        .setData(WireProtocol.RowwiseRowBlockPB.newBuilder()
+            .setNumRows(rows.size())
+            .setRowsSidecar(0)
+            .setIndirectDataSidecar(1))
+        .setHasMoreResults(true)
+        .build();
+    int mainSize = main.getSerializedSize();
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder()
+        .setCallId(1)
+        .addSidecarOffsets(mainSize)
+        .addSidecarOffsets(mainSize + rowsData.size())
+        .build();
+    int messageSize = mainSize + rowsData.size() + indirectData.size();
+    int totalSize = CodedOutputStream.computeRawVarint32Size(header.getSerializedSize()) +
+        header.getSerializedSize() + CodedOutputStream.computeRawVarint32Size(messageSize) +
+        messageSize;
+
+    byte[] buf = new byte[4 + totalSize];
+    ByteBuffer.wrap(buf).putInt(totalSize);
+    CodedOutputStream out = CodedOutputStream.newInstance(buf, 4, totalSize);
+    out.writeRawVarint32(header.getSerializedSize());
+    header.writeTo(out);
+    out.writeRawVarint32(messageSize);
+    main.writeTo(out);
+    out.writeRawBytes(rowsData.toByteArray());
+    out.writeRawBytes(indirectData.toByteArray());
+    out.checkNoSpaceLeft();
+    return buf;
+  }
+}
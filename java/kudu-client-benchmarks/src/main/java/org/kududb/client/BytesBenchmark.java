@@ -0,0 +1,72 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Bytes#memcmp(byte[], byte[])}, which the client calls to find the tablet of
+ * every key it looks up in its cache of tablet locations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BytesBenchmark {
+
+  @Param({"4", "16", "64", "1024"})
+  public int length;
+
+  private byte[] key;
+  private byte[] sameKey;
+  private byte[] lastByteDiffers;
+
+  @Setup
+  public void setUp() {
+    key = new byte[length];
+    for (int i = 0; i < length; i++) {
+      key[i] = (byte) i;
+    }
+    sameKey = key.clone();
+    lastByteDiffers = key.clone();
+    lastByteDiffers[length - 1]++;
+  }
+
+  /**
+   * The worst case, all the bytes have to be compared.
+   */
+  @Benchmark
+  public int memcmpEqual() {
+    return Bytes.memcmp(key, sameKey);
+  }
+
+  @Benchmark
+  public int memcmpLastByteDiffers() {
+    return Bytes.memcmp(key, lastByteDiffers);
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to encode the primary and partition keys of a batch of rows, which
+ * the client does for every operation it sends and every scan bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyEncoderBenchmark {
+
+  @Param({"1", "3"})
+  public int numKeyColumns;
+
+  @Param({"INT32", "INT64", "STRING"})
+  public Type keyType;
+
+  @Param({"0", "16"})
+  public int numHashBuckets;
+
+  @Param({"1", "100", "1000"})
+  public int batchSize;
+
+  private final KeyEncoder encoder = new KeyEncoder();
+  private PartitionSchema partitionSchema;
+  private List<PartialRow> rows;
+
+  @Setup
+  public void setUp() {
+    Schema schema = BenchmarkData.createSchema(numKeyColumns, keyType, numKeyColumns + 1,
+        Type.INT32, false);
+    partitionSchema = BenchmarkData.createPartitionSchema(schema, numHashBuckets);
+    rows = BenchmarkData.createRows(schema, batchSize);
+  }
+
+  @Benchmark
+  public void encodePrimaryKey(Blackhole blackhole) {
+    for (PartialRow row : rows) {
+      blackhole.consume(encoder.encodePrimaryKey(row));
+    }
+  }
+
+  @Benchmark
+  public void encodePartitionKey(Blackhole blackhole) {
+    for (PartialRow row : rows) {
+      blackhole.consume(encoder.encodePartitionKey(row, partitionSchema));
+    }
+  }
+}
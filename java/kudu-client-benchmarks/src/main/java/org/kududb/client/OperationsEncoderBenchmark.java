@@ -0,0 +1,75 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.WireProtocol.RowOperationsPB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to encode a batch of inserts into the row operations of a write
+ * request, see {@link Operation.OperationsEncoder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationsEncoderBenchmark {
+
+  @Param({"4", "16", "64"})
+  public int numColumns;
+
+  @Param({"INT32", "INT64", "DOUBLE", "STRING"})
+  public Type columnType;
+
+  @Param({"false", "true"})
+  public boolean nullable;
+
+  @Param({"1", "100", "1000"})
+  public int batchSize;
+
+  private Operation[] operations;
+
+  @Setup
+  public void setUp() {
+    Schema schema = BenchmarkData.createSchema(1, Type.INT32, numColumns, columnType, nullable);
+    KuduTable table = BenchmarkData.createTable(schema);
+    operations = new Operation[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      Insert insert = table.newInsert();
+      BenchmarkData.fillRow(insert.getRow(), i);
+      operations[i] = insert;
+    }
+  }
+
+  @Benchmark
+  public RowOperationsPB encodeOperations() {
+    return new Operation.OperationsEncoder().encodeOperations(operations);
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.tserver.Tserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the two halves of receiving scan results: parsing the RPC response into a
+ * {@link RowResultIterator}, then reading every column of every row through {@link RowResult}'s
+ * getters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanResponseBenchmark {
+
+  @Param({"4", "16", "64"})
+  public int numColumns;
+
+  @Param({"INT32", "INT64", "DOUBLE", "STRING"})
+  public Type columnType;
+
+  @Param({"false", "true"})
+  public boolean nullable;
+
+  @Param({"1", "100", "1000"})
+  public int batchSize;
+
+  private Schema schema;
+  private byte[] response;
+  private RowResult rowResult;
+
+  @Setup
+  public void setUp() throws Exception {
+    schema = BenchmarkData.createSchema(1, Type.INT32, numColumns, columnType, nullable);
+    response = BenchmarkData.encodeScanResponse(BenchmarkData.createRows(schema, batchSize));
+    CallResponse callResponse = new CallResponse(ChannelBuffers.wrappedBuffer(response));
+    rowResult = new RowResult(schema, callResponse.getSidecarBuffer(0),
+        callResponse.getSidecarBuffer(1));
+  }
+
+  @Benchmark
+  public RowResultIterator parseResponse() {
+    CallResponse callResponse = new CallResponse(ChannelBuffers.wrappedBuffer(response));
+    Tserver.ScanResponsePB.Builder builder = Tserver.ScanResponsePB.newBuilder();
+    KuduRpc.readProtobuf(callResponse.getPBMessage(), builder);
+    return new RowResultIterator(0, null, schema, builder.getData(), callResponse);
+  }
+
+  @Benchmark
+  public void readRows(Blackhole blackhole) {
+    for (int row = 0; row < batchSize; row++) {
+      rowResult.advancePointerTo(row);
+      for (int column = 0; column < numColumns; column++) {
+        if (rowResult.isNull(column)) {
+          continue;
+        }
+        switch (schema.getColumnByIndex(column).getType()) {
+          case INT32: blackhole.consume(rowResult.getInt(column)); break;
+          case INT64: blackhole.consume(rowResult.getLong(column)); break;
+          case DOUBLE: blackhole.consume(rowResult.getDouble(column)); break;
+          case STRING: blackhole.consume(rowResult.getString(column)); break;
+          default: throw new IllegalStateException("Unexpected column " + column);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce.tools;
+
+import org.kududb.ColumnSchema;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.client.Bytes;
+import org.kududb.client.PartialRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link ImportCsvMapper} turns lines of CSV into rows: each line of a five
+ * column table is parsed by {@link CsvParser} and decoded into a {@link PartialRow}. The time
+ * is per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportCsvBenchmark {
+
+  private static final String COLUMNS = "key,int64,double,string,bool";
+  private static final int NUM_LINES = 1000;
+
+  /** Whether the string column is quoted, with quotes and a separator to unescape. */
+  @Param({"false", "true"})
+  public boolean quote;
+
+  private byte[][] lines;
+  private byte[] buffer;
+  private CsvParser parser;
+  private CsvRowDecoder decoder;
+  private PartialRow row;
+
+  @Setup
+  public void setUp() {
+    List<ColumnSchema> columns = new ArrayList<ColumnSchema>(5);
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("int64", Type.INT64).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("double", Type.DOUBLE).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("string", Type.STRING).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("bool", Type.BOOL).build());
+    Schema schema = new Schema(columns);
+
+    Random random = new Random(0);
+    lines = new byte[NUM_LINES][];
+    int maxLength = 0;
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < NUM_LINES; i++) {
+      buf.setLength(0);
+      buf.append(i).append('\t');
+      buf.append(random.nextLong()).append('\t');
+      buf.append(random.nextDouble() * 1000).append('\t');
+      if (quote) {
+        buf.append("\"some \"\"quoted\"\" string\t").append(i).append('"');
+      } else {
+        buf.append("some string ").append(i);
+      }
+      buf.append('\t').append(random.nextBoolean());
+      lines[i] = Bytes.fromString(buf.toString());
+      maxLength = Math.max(maxLength, lines[i].length);
+    }
+    buffer = new byte[maxLength];
+
+    parser = new CsvParser(COLUMNS, "\t", quote ? "\"" : null);
+    decoder = new CsvRowDecoder(schema, parser.getColumnNames());
+    row = schema.newPartialRow();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LINES)
+  public PartialRow parseAndDecode() throws CsvParser.BadCsvLineException {
+    for (byte[] line : lines) {
+      // Like a Text that gets reused, and since quoted lines get modified in place.
+      System.arraycopy(line, 0, buffer, 0, line.length);
+      row.reset();
+      decoder.decode(parser.parse(buffer, line.length), row);
+    }
+    return row;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.future;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bridges the {@link Deferred} objects returned by the asynchronous client to
+ * {@link CompletableFuture}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class DeferredFutures {
+
+  private DeferredFutures() {
+  }
+
+  /**
+   * Creates a future that completes with the result of a Deferred.
+   * <p>
+   * The future is completed from the thread that calls the Deferred back, which is usually
+   * one of the client's I/O threads. Dependent stages that aren't added with one of the
+   * {@code *Async} methods run in that thread, so they must not block.
+   * <p>
+   * Cancelling the future doesn't cancel the RPC behind the Deferred.
+   * @param d the Deferred to follow, no other callback should be added to it after this call
+   * @return a future that completes normally with the Deferred's result, or exceptionally with
+   * the exception the Deferred was errbacked with
+   */
+  public static <T> CompletableFuture<T> toCompletableFuture(Deferred<T> d) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    completeWith(future, d);
+    return future;
+  }
+
+  /**
+   * Completes a future with the result of a Deferred, see {@link #toCompletableFuture}.
+   */
+  static <T> void completeWith(final CompletableFuture<T> future, Deferred<T> d) {
+    d.addCallbacks(new Callback<Void, T>() {
+      @Override
+      public Void call(T result) {
+        future.complete(result);
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "complete future";
+      }
+    }, new Callback<Void, Exception>() {
+      @Override
+      public Void call(Exception e) {
+        future.completeExceptionally(e);
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "complete future exceptionally";
+      }
+    });
+  }
+}
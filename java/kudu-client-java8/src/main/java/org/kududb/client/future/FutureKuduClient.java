@@ -0,0 +1,202 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.future;
+
+import org.kududb.Schema;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.AlterTableBuilder;
+import org.kududb.client.AlterTableResponse;
+import org.kududb.client.AsyncKuduClient;
+import org.kududb.client.AsyncKuduScanner;
+import org.kududb.client.CreateTableBuilder;
+import org.kududb.client.DeleteTableResponse;
+import org.kududb.client.IsAlterTableDoneResponse;
+import org.kududb.client.KuduTable;
+import org.kududb.client.ListTablesResponse;
+import org.kududb.client.ListTabletServersResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.kududb.client.future.DeferredFutures.toCompletableFuture;
+
+/**
+ * A thread-safe client for Kudu whose methods return {@link CompletableFuture}s.
+ * <p>
+ * This class acts as a wrapper around {@link AsyncKuduClient}, like
+ * {@link org.kududb.client.KuduClient}, except that it never blocks: the futures are completed
+ * from the client's I/O threads, see {@link DeferredFutures#toCompletableFuture}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class FutureKuduClient implements AutoCloseable {
+
+  private final AsyncKuduClient asyncClient;
+
+  /**
+   * Wraps an asynchronous client. Shutting down this client shuts it down too.
+   * @param asyncClient the client to send the RPCs with
+   */
+  public FutureKuduClient(AsyncKuduClient asyncClient) {
+    this.asyncClient = asyncClient;
+  }
+
+  /**
+   * Create a table on the cluster with the specified name and schema. Default table
+   * configurations are used, mainly the table will have one tablet.
+   * @param name Table's name
+   * @param schema Table's schema
+   * @return a future of an object to communicate with the created table
+   */
+  public CompletableFuture<KuduTable> createTable(String name, Schema schema) {
+    return toCompletableFuture(asyncClient.createTable(name, schema));
+  }
+
+  /**
+   * Create a table on the cluster with the specified name, schema, and table configurations.
+   * @param name the table's name
+   * @param schema the table's schema
+   * @param builder a builder containing the table's configurations
+   * @return a future of an object to communicate with the created table
+   */
+  public CompletableFuture<KuduTable> createTable(String name, Schema schema,
+                                                  CreateTableBuilder builder) {
+    return toCompletableFuture(asyncClient.createTable(name, schema, builder));
+  }
+
+  /**
+   * Delete a table on the cluster with the specified name.
+   * @param name the table's name
+   * @return a future of an rpc response object
+   */
+  public CompletableFuture<DeleteTableResponse> deleteTable(String name) {
+    return toCompletableFuture(asyncClient.deleteTable(name));
+  }
+
+  /**
+   * Alter a table on the cluster as specified by the builder.
+   *
+   * When the future completes it only indicates that the master accepted the alter
+   * command, use {@link #isAlterTableDone(String)} to know when the alter finishes.
+   * @param name the table's name, if this is a table rename then the old table name must be passed
+   * @param atb the alter table builder
+   * @return a future of an rpc response object
+   */
+  public CompletableFuture<AlterTableResponse> alterTable(String name, AlterTableBuilder atb) {
+    return toCompletableFuture(asyncClient.alterTable(name, atb));
+  }
+
+  /**
+   * Ask the master if the alter command for the specified table is done.
+   * @param name the table's name, if this is a table rename then the new table name must be
+   * passed
+   * @return a future of an rpc response object
+   * @throws Exception if the request couldn't be sent
+   */
+  public CompletableFuture<IsAlterTableDoneResponse> isAlterTableDone(String name)
+      throws Exception {
+    return toCompletableFuture(asyncClient.isAlterTableDone(name));
+  }
+
+  /**
+   * Get the list of running tablet servers.
+   * @return a future of a list of tablet servers
+   */
+  public CompletableFuture<ListTabletServersResponse> listTabletServers() {
+    return toCompletableFuture(asyncClient.listTabletServers());
+  }
+
+  /**
+   * Get the list of all the tables.
+   * @return a future of a list of all the tables
+   */
+  public CompletableFuture<ListTablesResponse> getTablesList() {
+    return getTablesList(null);
+  }
+
+  /**
+   * Get a list of table names. Passing a null filter returns all the tables. When a filter is
+   * specified, it only returns tables that satisfy a substring match.
+   * @param nameFilter an optional table name filter
+   * @return a future of the list of table names
+   */
+  public CompletableFuture<ListTablesResponse> getTablesList(String nameFilter) {
+    return toCompletableFuture(asyncClient.getTablesList(nameFilter));
+  }
+
+  /**
+   * Test if a table exists.
+   * @param name a non-null table name
+   * @return a future of true if the table exists, else false
+   */
+  public CompletableFuture<Boolean> tableExists(String name) {
+    return toCompletableFuture(asyncClient.tableExists(name));
+  }
+
+  /**
+   * Open the table with the given name. If the table was just created, the future completes
+   * once all its tablets have also been created.
+   * @param name table to open
+   * @return a future of a KuduTable if the table exists, else of a MasterErrorException
+   */
+  public CompletableFuture<KuduTable> openTable(String name) {
+    return toCompletableFuture(asyncClient.openTable(name));
+  }
+
+  /**
+   * Create a new session for interacting with the cluster.
+   * User is responsible for destroying the session object.
+   * This is a fully local operation (no RPCs or blocking).
+   * @return a new session
+   */
+  public FutureKuduSession newSession() {
+    return new FutureKuduSession(asyncClient.newSession());
+  }
+
+  /**
+   * Creates a new scanner builder for a particular table. Wrap the scanners it builds with
+   * {@link FutureKuduScanner#FutureKuduScanner(AsyncKuduScanner)}.
+   * @param table the table you intend to scan
+   * @return a new scanner builder for this table
+   */
+  public AsyncKuduScanner.AsyncKuduScannerBuilder newScannerBuilder(KuduTable table) {
+    return asyncClient.newScannerBuilder(table);
+  }
+
+  /**
+   * Performs a graceful shutdown of this instance.
+   * @return a future that completes once all the sessions were flushed and the connections
+   * closed
+   */
+  public CompletableFuture<Void> shutdown() {
+    return toCompletableFuture(asyncClient.shutdown()).thenApply(ignored -> null);
+  }
+
+  /**
+   * Invokes {@link #shutdown()} and waits for the configured admin timeout. This is the only
+   * method of this class that blocks.
+   * @throws Exception if an error happens while closing the connections
+   */
+  @Override
+  public void close() throws Exception {
+    asyncClient.close();
+  }
+
+  /**
+   * @return the asynchronous client this one wraps
+   */
+  public AsyncKuduClient getAsyncClient() {
+    return asyncClient;
+  }
+}
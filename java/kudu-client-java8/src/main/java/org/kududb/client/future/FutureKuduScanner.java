@@ -0,0 +1,130 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.future;
+
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.AsyncKuduScanner;
+import org.kududb.client.RowResultIterator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import static org.kududb.client.future.DeferredFutures.toCompletableFuture;
+
+/**
+ * Version of {@link AsyncKuduScanner} whose methods return {@link CompletableFuture}s.
+ * Like the scanner it wraps, it isn't thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class FutureKuduScanner {
+
+  private final AsyncKuduScanner asyncScanner;
+
+  /**
+   * Wraps an asynchronous scanner, see {@link FutureKuduClient#newScannerBuilder}.
+   * @param asyncScanner the scanner to read the rows with
+   */
+  public FutureKuduScanner(AsyncKuduScanner asyncScanner) {
+    this.asyncScanner = asyncScanner;
+  }
+
+  /**
+   * Tells if the last rpc returned that there might be more rows to scan.
+   * @return true if there might be more data to scan, else false
+   */
+  public boolean hasMoreRows() {
+    return asyncScanner.hasMoreRows();
+  }
+
+  /**
+   * Scans a number of rows. Only one call may be outstanding at a time.
+   * @return a future of the rows, see {@link AsyncKuduScanner#nextRows()}
+   */
+  public CompletableFuture<RowResultIterator> nextRows() {
+    return toCompletableFuture(asyncScanner.nextRows());
+  }
+
+  /**
+   * Scans all the remaining rows, one batch after the other, without blocking. The scanner is
+   * closed by the server once the last batch is read.
+   * @param consumer called with each batch of rows, from the client's I/O threads or from
+   * the caller's thread, so it must not block
+   * @return a future that completes once all the rows were consumed, or exceptionally with the
+   * first error, be it from the scan or from the consumer
+   */
+  public CompletableFuture<Void> forEachBatch(Consumer<RowResultIterator> consumer) {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    scanNext(consumer, done);
+    return done;
+  }
+
+  /**
+   * Reads the batches that are already available in a loop, and goes on from a callback once
+   * it has to wait for one. Chaining a stage per batch instead would grow the stack whenever
+   * batches are ready right away.
+   */
+  private void scanNext(final Consumer<RowResultIterator> consumer,
+                        final CompletableFuture<Void> done) {
+    while (asyncScanner.hasMoreRows()) {
+      CompletableFuture<RowResultIterator> next = nextRows();
+      if (!next.isDone()) {
+        next.whenComplete((rows, e) -> {
+          if (e != null) {
+            done.completeExceptionally(e);
+          } else if (consume(consumer, rows, done)) {
+            scanNext(consumer, done);
+          }
+        });
+        return;
+      }
+      RowResultIterator rows;
+      try {
+        rows = next.join();
+      } catch (CompletionException e) {
+        done.completeExceptionally(e.getCause());
+        return;
+      }
+      if (!consume(consumer, rows, done)) {
+        return;
+      }
+    }
+    done.complete(null);
+  }
+
+  private static boolean consume(Consumer<RowResultIterator> consumer, RowResultIterator rows,
+                                 CompletableFuture<Void> done) {
+    try {
+      if (rows != null) {
+        consumer.accept(rows);
+      }
+      return true;
+    } catch (RuntimeException e) {
+      done.completeExceptionally(e);
+      return false;
+    }
+  }
+
+  /**
+   * Closes this scanner (don't forget to call this when you're done with it!).
+   * <p>
+   * Closing a scanner already closed has no effect.
+   * @return a future that completes once the scanner is closed
+   */
+  public CompletableFuture<RowResultIterator> close() {
+    return toCompletableFuture(asyncScanner.close());
+  }
+}
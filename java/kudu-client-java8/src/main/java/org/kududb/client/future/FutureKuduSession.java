@@ -0,0 +1,232 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.future;
+
+import com.stumbleupon.async.Callback;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.AsyncKuduSession;
+import org.kududb.client.ExternalConsistencyMode;
+import org.kududb.client.Operation;
+import org.kududb.client.OperationResponse;
+import org.kududb.client.PleaseThrottleException;
+import org.kududb.client.SessionConfiguration;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.kududb.client.future.DeferredFutures.toCompletableFuture;
+
+/**
+ * Version of {@link AsyncKuduSession} whose methods return {@link CompletableFuture}s.
+ * <p>
+ * Unlike {@link AsyncKuduSession#apply}, {@link #apply} never throws
+ * {@link PleaseThrottleException}: an operation that can't be buffered yet is applied again
+ * once the buffer that was in its way is flushed, without blocking the caller. The operations
+ * applied after it wait behind it, so that they reach the session in the order they were
+ * applied. Callers that apply operations faster than they can be written should bound how many
+ * of the returned futures are outstanding, since the waiting operations use memory.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class FutureKuduSession implements SessionConfiguration {
+
+  private final AsyncKuduSession session;
+
+  // The operations waiting for a buffer to be flushed, in the order they were applied. Guarded
+  // by 'this'.
+  private final Deque<PendingOperation> pending = new ArrayDeque<>();
+
+  // Completed once 'pending' is empty again, null when it's already empty. Guarded by 'this'.
+  private CompletableFuture<Void> pendingApplied;
+
+  private static final class PendingOperation {
+    final Operation operation;
+    final CompletableFuture<OperationResponse> future;
+
+    PendingOperation(Operation operation, CompletableFuture<OperationResponse> future) {
+      this.operation = operation;
+      this.future = future;
+    }
+  }
+
+  /**
+   * Wraps an asynchronous session.
+   * @param session the session to apply the operations to
+   */
+  public FutureKuduSession(AsyncKuduSession session) {
+    this.session = session;
+  }
+
+  /**
+   * Applies an operation. What the returned future waits for depends on the flush mode, like
+   * for {@link AsyncKuduSession#apply}: in AUTO_FLUSH_SYNC it completes once the operation is
+   * persisted, in the other modes once the batch it was buffered in is.
+   * @param operation operation to apply
+   * @return a future of the operation's response
+   */
+  public synchronized CompletableFuture<OperationResponse> apply(Operation operation) {
+    CompletableFuture<OperationResponse> future = new CompletableFuture<>();
+    pending.add(new PendingOperation(operation, future));
+    if (pending.size() == 1) {
+      applyPending();
+    }
+    return future;
+  }
+
+  /**
+   * Applies the pending operations in order, until one of them is throttled. That one is tried
+   * again once the buffer that was in its way is flushed.
+   */
+  private synchronized void applyPending() {
+    while (!pending.isEmpty()) {
+      PendingOperation next = pending.peek();
+      try {
+        DeferredFutures.completeWith(next.future, session.apply(next.operation));
+      } catch (PleaseThrottleException pte) {
+        if (pendingApplied == null) {
+          pendingApplied = new CompletableFuture<>();
+        }
+        // Try again whether the flush worked or not. The buffer's result is passed on
+        // untouched, the session and other callers depend on it.
+        pte.getDeferred().addBoth(new Callback<Object, Object>() {
+          @Override
+          public Object call(Object arg) {
+            applyPending();
+            return arg;
+          }
+
+          @Override
+          public String toString() {
+            return "apply after PleaseThrottleException";
+          }
+        });
+        return;
+      } catch (Exception e) {
+        next.future.completeExceptionally(e);
+      }
+      pending.remove();
+    }
+    if (pendingApplied != null) {
+      pendingApplied.complete(null);
+      pendingApplied = null;
+    }
+  }
+
+  /**
+   * Flushes the buffered operations, once the ones that are waiting for room in the buffers
+   * were applied.
+   * @return a future that completes when everything that was applied at the time of the call
+   * has been flushed, see {@link AsyncKuduSession#flush()}
+   */
+  public CompletableFuture<List<OperationResponse>> flush() {
+    return afterPendingApplied().thenCompose(v -> toCompletableFuture(session.flush()));
+  }
+
+  /**
+   * Flushes the buffered operations and marks this sessions as closed, once the ones that are
+   * waiting for room in the buffers were applied.
+   * @return a future that completes when everything that was applied at the time of the call
+   * has been flushed
+   */
+  public CompletableFuture<List<OperationResponse>> close() {
+    return afterPendingApplied().thenCompose(v -> toCompletableFuture(session.close()));
+  }
+
+  private synchronized CompletableFuture<Void> afterPendingApplied() {
+    return pendingApplied == null ? CompletableFuture.completedFuture(null) : pendingApplied;
+  }
+
+  @Override
+  public FlushMode getFlushMode() {
+    return session.getFlushMode();
+  }
+
+  @Override
+  public void setFlushMode(FlushMode flushMode) {
+    session.setFlushMode(flushMode);
+  }
+
+  @Override
+  public void setMutationBufferSpace(int size) {
+    session.setMutationBufferSpace(size);
+  }
+
+  @Override
+  public void setMutationBufferLowWatermark(float mutationBufferLowWatermarkPercentage) {
+    session.setMutationBufferLowWatermark(mutationBufferLowWatermarkPercentage);
+  }
+
+  @Override
+  public void setFlushInterval(int interval) {
+    session.setFlushInterval(interval);
+  }
+
+  @Override
+  public long getTimeoutMillis() {
+    return session.getTimeoutMillis();
+  }
+
+  @Override
+  public void setTimeoutMillis(long timeout) {
+    session.setTimeoutMillis(timeout);
+  }
+
+  @Override
+  public boolean isClosed() {
+    return session.isClosed();
+  }
+
+  @Override
+  public boolean hasPendingOperations() {
+    return session.hasPendingOperations();
+  }
+
+  @Override
+  public void setExternalConsistencyMode(ExternalConsistencyMode consistencyMode) {
+    session.setExternalConsistencyMode(consistencyMode);
+  }
+
+  @Override
+  public boolean isIgnoreAllDuplicateRows() {
+    return session.isIgnoreAllDuplicateRows();
+  }
+
+  @Override
+  public void setIgnoreAllDuplicateRows(boolean ignoreAllDuplicateRows) {
+    session.setIgnoreAllDuplicateRows(ignoreAllDuplicateRows);
+  }
+
+  @Override
+  public boolean isCoalesceMutations() {
+    return session.isCoalesceMutations();
+  }
+
+  @Override
+  public void setCoalesceMutations(boolean coalesceMutations) {
+    session.setCoalesceMutations(coalesceMutations);
+  }
+
+  @Override
+  public Priority getPriority() {
+    return session.getPriority();
+  }
+
+  @Override
+  public void setPriority(Priority priority) {
+    session.setPriority(priority);
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.reactive;
+
+import com.stumbleupon.async.Callback;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.AsyncKuduScanner;
+import org.kududb.client.RowResultIterator;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the batches of rows of a scan to a Reactive Streams {@link Subscriber}.
+ * <p>
+ * The scan only goes on while the subscriber asks for more: a batch is requested from the
+ * tablet server when there's outstanding demand, and none is requested otherwise, so a slow
+ * subscriber holds the scan back instead of having batches pile up in memory. The scanner
+ * protocol allows a single request per scanner at a time, so there's at most one in flight
+ * whatever the demand is. Empty batches, for example the ones of tablets that have no matching
+ * rows, aren't published and don't count against the demand.
+ * <p>
+ * Cancelling the subscription closes the scanner on the tablet server, right away or once the
+ * request in flight returns.
+ * <p>
+ * A scanner can only be read once, so a publisher only accepts a single subscriber. The
+ * subscriber is signaled from the client's I/O threads or from the thread that calls
+ * {@link Subscription#request(long)}, so it must not block.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ScannerPublisher implements Publisher<RowResultIterator> {
+
+  private final AsyncKuduScanner scanner;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  /**
+   * @param scanner a scanner that wasn't read from yet, it shouldn't be used directly anymore
+   */
+  public ScannerPublisher(AsyncKuduScanner scanner) {
+    this.scanner = scanner;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super RowResultIterator> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    if (!subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      subscriber.onError(new IllegalStateException("This scan already has a subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new ScanSubscription(subscriber));
+  }
+
+  /**
+   * Serializes the signals with a work-in-progress counter: whoever increments it from 0 runs
+   * {@link #drain()}, the other threads only make it loop once more. The fields that aren't
+   * volatile are only touched from the drain loop.
+   */
+  private final class ScanSubscription implements Subscription {
+    private final Subscriber<? super RowResultIterator> subscriber;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    // Set by the callbacks of the request in flight.
+    private volatile boolean fetched;
+    private volatile RowResultIterator fetchedRows;
+    private volatile Exception fetchError;
+
+    private boolean fetching;
+    private boolean done;
+    private Throwable badRequest;
+
+    ScanSubscription(Subscriber<? super RowResultIterator> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        badRequest = new IllegalArgumentException("Requested " + n + " batches, must be > 0");
+        cancelled = true;
+      } else {
+        long current;
+        long next;
+        do {
+          current = requested.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!requested.compareAndSet(current, next));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        if (!done) {
+          drainOnce();
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drainOnce() {
+      if (fetched) {
+        fetched = false;
+        fetching = false;
+        RowResultIterator rows = fetchedRows;
+        Exception error = fetchError;
+        fetchedRows = null;
+        fetchError = null;
+        if (error != null) {
+          done = true;
+          if (!cancelled) {
+            subscriber.onError(error);
+          }
+          return;
+        }
+        if (!cancelled && rows != null && rows.getNumRows() > 0) {
+          requested.decrementAndGet();
+          subscriber.onNext(rows);
+        }
+      }
+      if (fetching) {
+        return;
+      }
+      if (cancelled) {
+        done = true;
+        scanner.close();
+        if (badRequest != null) {
+          subscriber.onError(badRequest);
+        }
+        return;
+      }
+      if (!scanner.hasMoreRows()) {
+        done = true;
+        subscriber.onComplete();
+        return;
+      }
+      if (requested.get() > 0) {
+        fetching = true;
+        // The callbacks may run right away, in which case the loop goes around once more.
+        scanner.nextRows().addCallbacks(new Callback<Void, RowResultIterator>() {
+          @Override
+          public Void call(RowResultIterator rows) {
+            fetchedRows = rows;
+            fetched = true;
+            drain();
+            return null;
+          }
+
+          @Override
+          public String toString() {
+            return "publish scanned rows";
+          }
+        }, new Callback<Void, Exception>() {
+          @Override
+          public Void call(Exception e) {
+            fetchError = e;
+            fetched = true;
+            drain();
+            return null;
+          }
+
+          @Override
+          public String toString() {
+            return "publish scan error";
+          }
+        });
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+import org.kududb.client.AsyncKuduClient;
+import org.kududb.client.BaseKuduTest;
+import org.kududb.client.CreateTableBuilder;
+import org.kududb.client.Insert;
+import org.kududb.client.KuduTable;
+import org.kududb.client.MasterErrorException;
+import org.kududb.client.OperationResponse;
+import org.kududb.client.PartialRow;
+import org.kududb.client.RowResult;
+import org.kududb.client.SessionConfiguration;
+import org.kududb.client.SimulatedCluster;
+import org.kududb.client.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link CompletableFuture} API against a {@link SimulatedCluster}.
+ */
+public class TestFutureKuduClient {
+
+  private static final String TABLE_NAME = "futures";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+  private static final int NUM_ROWS = 1000;
+
+  private SimulatedCluster cluster;
+  private FutureKuduClient client;
+  private KuduTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(1);
+    cluster.start();
+    client = new FutureKuduClient(
+        new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build());
+    CreateTableBuilder builder = new CreateTableBuilder();
+    for (int key : new int[] {250, 500, 750}) {
+      PartialRow splitRow = SCHEMA.newPartialRow();
+      splitRow.addInt(0, key);
+      builder.addSplitRow(splitRow);
+    }
+    table = get(client.createTable(TABLE_NAME, SCHEMA, builder));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.close();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testWriteAndScan() throws Exception {
+    assertTrue(get(client.tableExists(TABLE_NAME)));
+    FutureKuduSession session = client.newSession();
+    List<CompletableFuture<OperationResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      responses.add(session.apply(createInsert(i)));
+    }
+    for (CompletableFuture<OperationResponse> response : responses) {
+      assertFalse(get(response).hasRowError());
+    }
+    assertEquals(NUM_ROWS, countRows());
+  }
+
+  /**
+   * The operations that don't fit in the buffers are applied again later instead of failing.
+   */
+  @Test(timeout = 100000)
+  public void testThrottling() throws Exception {
+    FutureKuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    session.setMutationBufferSpace(10);
+    List<CompletableFuture<OperationResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      responses.add(session.apply(createInsert(i)));
+    }
+    get(CompletableFuture.allOf(responses.toArray(new CompletableFuture[responses.size()])));
+    get(session.flush());
+    for (CompletableFuture<OperationResponse> response : responses) {
+      assertFalse(get(response).hasRowError());
+    }
+    assertEquals(NUM_ROWS, countRows());
+  }
+
+  /**
+   * The operations applied after a throttled one wait behind it, the last update of a row wins.
+   */
+  @Test(timeout = 100000)
+  public void testThrottlingKeepsOrder() throws Exception {
+    FutureKuduSession session = client.newSession();
+    assertFalse(get(session.apply(createInsert(1))).hasRowError());
+    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    session.setMutationBufferSpace(10);
+    cluster.setLatencyMillis(1);
+    List<CompletableFuture<OperationResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Update update = table.newUpdate();
+      update.getRow().addInt(0, 1);
+      update.getRow().addInt(1, i);
+      responses.add(session.apply(update));
+    }
+    get(session.flush());
+    for (CompletableFuture<OperationResponse> response : responses) {
+      assertTrue(response.isDone());
+      assertFalse(get(response).hasRowError());
+    }
+    FutureKuduScanner scanner = new FutureKuduScanner(client.newScannerBuilder(table).build());
+    AtomicInteger value = new AtomicInteger(-1);
+    get(scanner.forEachBatch(rows -> {
+      for (RowResult row : rows) {
+        value.set(row.getInt(1));
+      }
+    }));
+    assertEquals(NUM_ROWS - 1, value.get());
+  }
+
+  @Test(timeout = 100000)
+  public void testErrors() throws Exception {
+    try {
+      get(client.openTable("missing"));
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof MasterErrorException);
+    }
+
+    FutureKuduSession session = client.newSession();
+    assertFalse(get(session.apply(createInsert(1))).hasRowError());
+    assertTrue(get(session.apply(createInsert(1))).hasRowError());
+
+    FutureKuduScanner scanner = new FutureKuduScanner(
+        client.newScannerBuilder(table).build());
+    try {
+      get(scanner.forEachBatch(rows -> {
+        throw new IllegalStateException("consumer failed");
+      }));
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  private int countRows() throws Exception {
+    FutureKuduScanner scanner = new FutureKuduScanner(
+        client.newScannerBuilder(table).maxNumBytes(1024).build());
+    AtomicInteger count = new AtomicInteger();
+    get(scanner.forEachBatch(rows -> count.addAndGet(rows.getNumRows())));
+    return count.get();
+  }
+
+  private Insert createInsert(int key) {
+    Insert insert = table.newInsert();
+    PartialRow row = insert.getRow();
+    row.addInt(0, key);
+    row.addInt(1, key * 2);
+    row.addInt(2, key * 3);
+    row.addString(3, "row " + key);
+    row.addBoolean(4, key % 2 == 0);
+    return insert;
+  }
+
+  private static <T> T get(CompletableFuture<T> future) throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,189 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client.reactive;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+import org.kududb.client.AsyncKuduClient;
+import org.kududb.client.AsyncKuduSession;
+import org.kududb.client.BaseKuduTest;
+import org.kududb.client.Insert;
+import org.kududb.client.KuduTable;
+import org.kududb.client.PartialRow;
+import org.kududb.client.RowResultIterator;
+import org.kududb.client.SessionConfiguration;
+import org.kududb.client.SimulatedCluster;
+import org.kududb.client.SimulatedServer;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link ScannerPublisher} against a {@link SimulatedCluster} with a single tablet, read
+ * in small batches.
+ */
+public class TestScannerPublisher {
+
+  private static final String TABLE_NAME = "publisher";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+  private static final int NUM_ROWS = 1000;
+  private static final String SCAN = "Scan";
+
+  private SimulatedCluster cluster;
+  private SimulatedServer tserver;
+  private AsyncKuduClient client;
+  private KuduTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(1);
+    cluster.start();
+    tserver = cluster.getTabletServers().get(0);
+    client = new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build();
+    table = client.createTable(TABLE_NAME, SCHEMA).join();
+    AsyncKuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(NUM_ROWS);
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Insert insert = table.newInsert();
+      PartialRow row = insert.getRow();
+      row.addInt(0, i);
+      row.addInt(1, i);
+      row.addInt(2, i);
+      row.addString(3, "row " + i);
+      row.addBoolean(4, false);
+      session.apply(insert);
+    }
+    session.flush().join();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown().join();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testDemandDrivesTheScan() throws Exception {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    newPublisher().subscribe(subscriber);
+    assertEquals(0, tserver.getRpcCount(SCAN));
+
+    subscriber.subscription.request(1);
+    int rows = subscriber.nextBatch().getNumRows();
+    assertTrue(rows > 0 && rows < NUM_ROWS);
+    // Nothing else is fetched until more is requested.
+    Thread.sleep(200);
+    assertEquals(1, tserver.getRpcCount(SCAN));
+    assertTrue(subscriber.signals.isEmpty());
+
+    subscriber.subscription.request(Long.MAX_VALUE);
+    Object signal;
+    while ((signal = subscriber.next()) instanceof RowResultIterator) {
+      rows += ((RowResultIterator) signal).getNumRows();
+    }
+    assertEquals(COMPLETE, signal);
+    assertEquals(NUM_ROWS, rows);
+    assertEquals(0, tserver.getOpenScannerCount());
+  }
+
+  @Test(timeout = 100000)
+  public void testCancelClosesTheScanner() throws Exception {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    newPublisher().subscribe(subscriber);
+    subscriber.subscription.request(1);
+    subscriber.nextBatch();
+    assertEquals(1, tserver.getOpenScannerCount());
+
+    subscriber.subscription.cancel();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (tserver.getOpenScannerCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, tserver.getOpenScannerCount());
+    subscriber.subscription.request(1);
+    Thread.sleep(200);
+    assertTrue(subscriber.signals.isEmpty());
+  }
+
+  @Test(timeout = 100000)
+  public void testSingleSubscriber() throws Exception {
+    ScannerPublisher publisher = newPublisher();
+    RecordingSubscriber first = new RecordingSubscriber();
+    publisher.subscribe(first);
+    RecordingSubscriber second = new RecordingSubscriber();
+    publisher.subscribe(second);
+    assertTrue(second.next() instanceof IllegalStateException);
+
+    first.subscription.request(0);
+    assertTrue(first.next() instanceof IllegalArgumentException);
+  }
+
+  private ScannerPublisher newPublisher() {
+    return new ScannerPublisher(client.newScannerBuilder(table).maxNumBytes(1024).build());
+  }
+
+  private static final Object COMPLETE = new Object();
+
+  /**
+   * Queues what it's signaled, with {@link #COMPLETE} for the completion.
+   */
+  private static class RecordingSubscriber implements Subscriber<RowResultIterator> {
+    final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    volatile Subscription subscription;
+
+    @Override
+    public void onSubscribe(Subscription s) {
+      subscription = s;
+    }
+
+    @Override
+    public void onNext(RowResultIterator rows) {
+      signals.add(rows);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      signals.add(t);
+    }
+
+    @Override
+    public void onComplete() {
+      signals.add(COMPLETE);
+    }
+
+    Object next() throws InterruptedException {
+      Object signal = signals.poll(10, TimeUnit.SECONDS);
+      assertNotNull(signal);
+      return signal;
+    }
+
+    RowResultIterator nextBatch() throws InterruptedException {
+      Object signal = next();
+      assertTrue(String.valueOf(signal), signal instanceof RowResultIterator);
+      return (RowResultIterator) signal;
+    }
+  }
+}
@@ -22,12 +22,15 @@ import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
 import org.kududb.client.Bytes;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Column-separated values parser that gives access to the different columns inside each line of
  * data.
+ * <p>
+ * Fields can optionally be quoted, in which case they can contain the separator, and a quote is
+ * escaped by doubling it. Parsing doesn't allocate, the columns are located with offsets into the
+ * line's bytes.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Unstable
@@ -35,72 +38,169 @@ public class CsvParser {
 
   private final byte separatorByte;
 
+  private final boolean quoted;
+  private final byte quoteByte;
+
   private final int maxColumnCount;
 
   private final List<String> columnNames;
 
+  // Returned by every call to parse().
+  private final ParsedLine parsedLine;
+
   /**
    * @param columnsSpecification the list of columns to parse out, comma separated.
    * @param separatorStr The 1 byte separator.
    */
   public CsvParser(String columnsSpecification, String separatorStr) {
+    this(columnsSpecification, separatorStr, null);
+  }
+
+  /**
+   * @param columnsSpecification the list of columns to parse out, comma separated.
+   * @param separatorStr The 1 byte separator.
+   * @param quoteStr The 1 byte quote, or null if fields aren't quoted.
+   */
+  public CsvParser(String columnsSpecification, String separatorStr, String quoteStr) {
     // Configure separator
     byte[] separator = Bytes.fromString(separatorStr);
     Preconditions.checkArgument(separator.length == 1, "CsvParser only supports single-byte " +
         "separators");
     separatorByte = separator[0];
 
+    // Configure quote
+    if (quoteStr == null) {
+      quoted = false;
+      quoteByte = 0;
+    } else {
+      byte[] quote = Bytes.fromString(quoteStr);
+      Preconditions.checkArgument(quote.length == 1, "CsvParser only supports single-byte " +
+          "quotes");
+      Preconditions.checkArgument(quote[0] != separatorByte, "The quote and the separator " +
+          "must be different");
+      quoted = true;
+      quoteByte = quote[0];
+    }
+
     // Configure columns
     columnNames = Lists.newArrayList(Splitter.on(',').trimResults().split(columnsSpecification));
 
     maxColumnCount = columnNames.size();
+    parsedLine = new ParsedLine(maxColumnCount);
   }
 
   /**
-   * Creates a ParsedLine of a line of data.
+   * @return the names of the columns, in the order in which they appear in each line
+   */
+  List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  /**
+   * Creates a ParsedLine of a line of data. The same ParsedLine is returned by every call,
+   * so it's only valid until the next one.
+   * <p>
+   * Quoted fields that contain escaped quotes are unescaped in place, so this may modify
+   * the line's bytes.
    * @param lineBytes Whole line as a byte array.
    * @param length How long the line really is in the byte array
    * @return A parsed line of CSV.
    * @throws BadCsvLineException
    */
   public ParsedLine parse(byte[] lineBytes, int length) throws BadCsvLineException {
-    // Enumerate separator offsets
-    List<Integer> tabOffsets = new ArrayList<Integer>(maxColumnCount);
-    for (int i = 0; i < length; i++) {
-      if (lineBytes[i] == separatorByte) {
-        tabOffsets.add(i);
+    final int[] starts = parsedLine.starts;
+    final int[] ends = parsedLine.ends;
+    int count = 0;
+    boolean sawSeparator = false;
+    int start = 0;
+    while (true) {
+      int fieldStart;
+      int fieldEnd;
+      int end;
+      if (quoted && start < length && lineBytes[start] == quoteByte) {
+        fieldStart = start + 1;
+        // Where the unescaped bytes go, it only falls behind once we see an escaped quote.
+        int write = fieldStart;
+        int read = fieldStart;
+        boolean closed = false;
+        while (read < length) {
+          byte b = lineBytes[read];
+          if (b == quoteByte) {
+            if (read + 1 < length && lineBytes[read + 1] == quoteByte) {
+              lineBytes[write++] = quoteByte;
+              read += 2;
+              continue;
+            }
+            closed = true;
+            read++;
+            break;
+          }
+          if (write != read) {
+            lineBytes[write] = b;
+          }
+          write++;
+          read++;
+        }
+        if (!closed) {
+          throw new BadCsvLineException("Unterminated quoted field");
+        }
+        if (read < length && lineBytes[read] != separatorByte) {
+          throw new BadCsvLineException("Unexpected character after a quoted field");
+        }
+        fieldEnd = write;
+        end = read;
+      } else {
+        end = start;
+        while (end < length && lineBytes[end] != separatorByte) {
+          end++;
+        }
+        fieldStart = start;
+        fieldEnd = end;
       }
-    }
-    if (tabOffsets.isEmpty()) {
-      throw new BadCsvLineException("No delimiter");
-    }
 
-    // trailing separator shouldn't count as a column
-    if (lineBytes[length - 1] != separatorByte) {
-      tabOffsets.add(length);
+      if (count == maxColumnCount) {
+        throw new BadCsvLineException("Excessive columns");
+      }
+      starts[count] = fieldStart;
+      ends[count] = fieldEnd;
+      count++;
+
+      if (end == length) {
+        break;
+      }
+      sawSeparator = true;
+      start = end + 1;
+      // trailing separator shouldn't count as a column
+      if (start == length) {
+        break;
+      }
     }
 
-    if (tabOffsets.size() > maxColumnCount) {
-      throw new BadCsvLineException("Excessive columns");
+    if (!sawSeparator) {
+      throw new BadCsvLineException("No delimiter");
     }
 
-    if (tabOffsets.size() < maxColumnCount) {
+    if (count < maxColumnCount) {
       throw new BadCsvLineException("Not enough columns");
     }
 
-    return new ParsedLine(tabOffsets, lineBytes);
+    parsedLine.lineBytes = lineBytes;
+    parsedLine.count = count;
+    return parsedLine;
   }
 
   /**
    * Helper class that knows where the columns are situated in the line.
    */
   class ParsedLine {
-    private final List<Integer> tabOffsets;
-    private final byte[] lineBytes;
+    private final int[] starts;
+    private final int[] ends;
+    private int count;
+    private byte[] lineBytes;
 
-    ParsedLine(List<Integer> tabOffsets, byte[] lineBytes) {
-      this.tabOffsets = tabOffsets;
-      this.lineBytes = lineBytes;
+    ParsedLine(int maxColumnCount) {
+      this.starts = new int[maxColumnCount];
+      this.ends = new int[maxColumnCount];
     }
 
     /**
@@ -109,11 +209,7 @@ public class CsvParser {
      * @return Offset in the line.
      */
     public int getColumnOffset(int idx) {
-      if (idx > 0) {
-        return tabOffsets.get(idx - 1) + 1;
-      } else {
-        return 0;
-      }
+      return starts[idx];
     }
 
     /**
@@ -122,7 +218,7 @@ public class CsvParser {
      * @return Column's length.
      */
     public int getColumnLength(int idx) {
-      return tabOffsets.get(idx) - getColumnOffset(idx);
+      return ends[idx] - starts[idx];
     }
 
     /**
@@ -130,7 +226,7 @@ public class CsvParser {
      * @return Number of columns.
      */
     public int getColumnCount() {
-      return tabOffsets.size();
+      return count;
     }
 
     /**
@@ -0,0 +1,168 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce.tools;
+
+import org.kududb.ColumnSchema;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.client.Bytes;
+import org.kududb.client.PartialRow;
+
+import java.util.List;
+
+/**
+ * Turns the columns of a {@link CsvParser.ParsedLine} into the cells of a {@link PartialRow}.
+ * <p>
+ * The columns are resolved against the schema once, then every line is decoded straight from its
+ * bytes: integers and booleans are parsed without creating strings, and strings are copied out
+ * of the line as UTF-8.
+ */
+@InterfaceAudience.Private
+class CsvRowDecoder {
+
+  private final int[] columnIndexes;
+  private final Type[] columnTypes;
+
+  /**
+   * @param schema the schema of the table the rows go to
+   * @param columnNames the names of the columns, in the order in which they appear in each line
+   * @throws IllegalArgumentException if a column doesn't exist or has an unsupported type
+   */
+  CsvRowDecoder(Schema schema, List<String> columnNames) {
+    this.columnIndexes = new int[columnNames.size()];
+    this.columnTypes = new Type[columnNames.size()];
+    for (int i = 0; i < columnIndexes.length; i++) {
+      columnIndexes[i] = schema.getColumnIndex(columnNames.get(i));
+      ColumnSchema column = schema.getColumnByIndex(columnIndexes[i]);
+      switch (column.getType()) {
+        case BOOL:
+        case INT8:
+        case INT16:
+        case INT32:
+        case INT64:
+        case STRING:
+        case FLOAT:
+        case DOUBLE:
+          columnTypes[i] = column.getType();
+          break;
+        default:
+          throw new IllegalArgumentException("Type " + column.getType() + " not recognized");
+      }
+    }
+  }
+
+  /**
+   * Adds the cells of a line to a row.
+   * @param line a parsed line, which has as many columns as this decoder
+   * @param row the row to fill
+   * @throws IllegalArgumentException if a value doesn't match its column's type
+   */
+  void decode(CsvParser.ParsedLine line, PartialRow row) {
+    byte[] bytes = line.getLineBytes();
+    for (int i = 0; i < columnIndexes.length; i++) {
+      int index = columnIndexes[i];
+      int offset = line.getColumnOffset(i);
+      int length = line.getColumnLength(i);
+      switch (columnTypes[i]) {
+        case BOOL:
+          row.addBoolean(index, parseBoolean(bytes, offset, length));
+          break;
+        case INT8:
+          row.addByte(index, (byte) parseLong(bytes, offset, length,
+              Byte.MIN_VALUE, Byte.MAX_VALUE));
+          break;
+        case INT16:
+          row.addShort(index, (short) parseLong(bytes, offset, length,
+              Short.MIN_VALUE, Short.MAX_VALUE));
+          break;
+        case INT32:
+          row.addInt(index, (int) parseLong(bytes, offset, length,
+              Integer.MIN_VALUE, Integer.MAX_VALUE));
+          break;
+        case INT64:
+          row.addLong(index, parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE));
+          break;
+        case STRING:
+          row.addStringUtf8(index, bytes, offset, length);
+          break;
+        case FLOAT:
+          row.addFloat(index, Float.parseFloat(Bytes.getString(bytes, offset, length)));
+          break;
+        case DOUBLE:
+          row.addDouble(index, Double.parseDouble(Bytes.getString(bytes, offset, length)));
+          break;
+        default:
+          throw new AssertionError(columnTypes[i]);
+      }
+    }
+  }
+
+  /**
+   * Same as {@link Boolean#parseBoolean(String)}: "true", ignoring case, is true and everything
+   * else is false.
+   */
+  static boolean parseBoolean(byte[] bytes, int offset, int length) {
+    return length == 4 &&
+        (bytes[offset] | 0x20) == 't' &&
+        (bytes[offset + 1] | 0x20) == 'r' &&
+        (bytes[offset + 2] | 0x20) == 'u' &&
+        (bytes[offset + 3] | 0x20) == 'e';
+  }
+
+  /**
+   * Parses a decimal integer the way {@link Long#parseLong(String)} does, with an optional sign,
+   * but only accepting ASCII digits.
+   * @param min the smallest acceptable value
+   * @param max the largest acceptable value
+   * @throws NumberFormatException if the bytes aren't an integer between min and max
+   */
+  static long parseLong(byte[] bytes, int offset, int length, long min, long max) {
+    if (length == 0) {
+      throw numberFormatException(bytes, offset, length);
+    }
+    int i = offset;
+    int end = offset + length;
+    boolean negative = false;
+    if (bytes[i] == '-' || bytes[i] == '+') {
+      negative = bytes[i] == '-';
+      i++;
+      if (i == end) {
+        throw numberFormatException(bytes, offset, length);
+      }
+    }
+    // Accumulates negatively since there's one more negative value than positive ones.
+    long limit = negative ? min : -max;
+    long multiplyLimit = limit / 10;
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9 || result < multiplyLimit) {
+        throw numberFormatException(bytes, offset, length);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw numberFormatException(bytes, offset, length);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  private static NumberFormatException numberFormatException(byte[] bytes, int offset,
+                                                             int length) {
+    return new NumberFormatException("For input string: \"" +
+        Bytes.getString(bytes, offset, length) + "\"");
+  }
+}
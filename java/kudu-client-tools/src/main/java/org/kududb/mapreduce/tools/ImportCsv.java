@@ -42,6 +42,7 @@ public class ImportCsv extends Configured implements Tool {
   static final String NAME = "importcsv";
   static final String DEFAULT_SEPARATOR = "\t";
   static final String SEPARATOR_CONF_KEY = "importcsv.separator";
+  static final String QUOTE_CONF_KEY = "importcsv.quote";
   static final String JOB_NAME_CONF_KEY = "importcsv.job.name";
   static final String SKIP_LINES_CONF_KEY = "importcsv.skip.bad.lines";
   static final String COLUMNS_NAMES_KEY = "importcsv.column.names";
@@ -93,6 +94,8 @@ public class ImportCsv extends Configured implements Tool {
             "Other options that may be specified with -D include:\n" +
             "  -D" + SKIP_LINES_CONF_KEY + "=false - fail if encountering an invalid line\n" +
             "  '-D" + SEPARATOR_CONF_KEY + "=|' - eg separate on pipes instead of tabs\n" +
+            "  '-D" + QUOTE_CONF_KEY + "=\"' - fields can be quoted, quotes are escaped by " +
+            "doubling them\n" +
             "  -D" + JOB_NAME_CONF_KEY + "=jobName - use the specified mapreduce job name for the" +
             " import.\n" +
             CommandLineParser.getHelpSnippet();
@@ -15,7 +15,6 @@
  */
 package org.kududb.mapreduce.tools;
 
-import org.kududb.ColumnSchema;
 import org.kududb.Schema;
 import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
@@ -47,6 +46,7 @@ public class ImportCsvMapper extends Mapper<LongWritable, Text, NullWritable, Op
   private Counter badLineCount;
 
   private CsvParser parser;
+  private CsvRowDecoder decoder;
 
   private KuduTable table;
   private Schema schema;
@@ -66,10 +66,12 @@ public class ImportCsvMapper extends Mapper<LongWritable, Text, NullWritable, Op
     this.skipBadLines = conf.getBoolean(ImportCsv.SKIP_LINES_CONF_KEY, true);
     this.badLineCount = context.getCounter(ImportCsv.Counters.BAD_LINES);
 
-    this.parser = new CsvParser(conf.get(ImportCsv.COLUMNS_NAMES_KEY), this.separator);
+    this.parser = new CsvParser(conf.get(ImportCsv.COLUMNS_NAMES_KEY), this.separator,
+        conf.get(ImportCsv.QUOTE_CONF_KEY));
 
     this.table = KuduTableMapReduceUtil.getTableFromContext(context);
     this.schema = this.table.getSchema();
+    this.decoder = new CsvRowDecoder(this.schema, this.parser.getColumnNames());
   }
 
   /**
@@ -85,41 +87,7 @@ public class ImportCsvMapper extends Mapper<LongWritable, Text, NullWritable, Op
       CsvParser.ParsedLine parsed = this.parser.parse(lineBytes, value.getLength());
 
       Insert insert = this.table.newInsert();
-      PartialRow row = insert.getRow();
-      for (int i = 0; i < parsed.getColumnCount(); i++) {
-        String colName = parsed.getColumnName(i);
-        ColumnSchema col = this.schema.getColumn(colName);
-        String colValue = Bytes.getString(parsed.getLineBytes(), parsed.getColumnOffset(i),
-            parsed.getColumnLength(i));
-        switch (col.getType()) {
-          case BOOL:
-            row.addBoolean(colName, Boolean.parseBoolean(colValue));
-            break;
-          case INT8:
-            row.addByte(colName, Byte.parseByte(colValue));
-            break;
-          case INT16:
-            row.addShort(colName, Short.parseShort(colValue));
-            break;
-          case INT32:
-            row.addInt(colName, Integer.parseInt(colValue));
-            break;
-          case INT64:
-            row.addLong(colName, Long.parseLong(colValue));
-            break;
-          case STRING:
-            row.addString(colName, colValue);
-            break;
-          case FLOAT:
-            row.addFloat(colName, Float.parseFloat(colValue));
-            break;
-          case DOUBLE:
-            row.addDouble(colName, Double.parseDouble(colValue));
-            break;
-          default:
-            throw new IllegalArgumentException("Type " + col.getType() + " not recognized");
-        }
-      }
+      this.decoder.decode(parsed, insert.getRow());
       context.write(NULL_KEY, insert);
     } catch (CsvParser.BadCsvLineException badLine) {
       if (this.skipBadLines) {
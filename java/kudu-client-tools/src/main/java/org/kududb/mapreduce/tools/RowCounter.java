@@ -17,9 +17,11 @@ import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
 import org.kududb.mapreduce.CommandLineParser;
 import org.kududb.mapreduce.KuduTableMapReduceUtil;
+import org.kududb.mapreduce.KuduTableRowCountInputFormat;
 import org.kududb.client.RowResult;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -55,6 +57,20 @@ public class RowCounter extends Configured implements Tool {
     }
   }
 
+  /**
+   * Row counter that gets the number of rows in each batch instead of the rows, used when no
+   * columns need to be read.
+   */
+  static class BatchRowCounterMapper extends
+      Mapper<NullWritable, LongWritable, NullWritable, NullWritable> {
+
+    @Override
+    protected void map(NullWritable key, LongWritable value, Context context) throws IOException,
+        InterruptedException {
+      context.getCounter(Counters.ROWS).increment(value.get());
+    }
+  }
+
   /**
    * Sets up the actual job.
    *
@@ -69,13 +85,11 @@ public class RowCounter extends Configured implements Tool {
 
     String columnProjection = conf.get(COLUMN_PROJECTION_KEY);
 
-    Class<RowCounterMapper> mapperClass = RowCounterMapper.class;
     String tableName = args[0];
 
     String jobName = NAME + "_" + tableName;
     Job job = new Job(conf, jobName);
-    job.setJarByClass(mapperClass);
-    job.setMapperClass(mapperClass);
+    job.setJarByClass(RowCounter.class);
     job.setNumReduceTasks(0);
     job.setOutputFormatClass(NullOutputFormat.class);
     new KuduTableMapReduceUtil.TableInputFormatConfiguratorWithCommandLineParser(
@@ -83,6 +97,13 @@ public class RowCounter extends Configured implements Tool {
         tableName,
         columnProjection)
         .configure();
+    if (columnProjection == null) {
+      // Nothing needs to be read, so only count the rows in each batch.
+      job.setInputFormatClass(KuduTableRowCountInputFormat.class);
+      job.setMapperClass(BatchRowCounterMapper.class);
+    } else {
+      job.setMapperClass(RowCounterMapper.class);
+    }
     return job;
   }
 
@@ -99,9 +120,9 @@ public class RowCounter extends Configured implements Tool {
             "\n" +
             "Other options that may be specified with -D include:\n" +
             "  -D" + COLUMN_PROJECTION_KEY + "=a,b,c - comma-separated list of columns to read " +
-            "as part of the row count. By default, none are read so that the count is as fast " +
-            "as possible. When specifying columns that are keys, they must be at the beginning" +
-            ".\n" +
+            "as part of the row count. By default, none are read and the tablet servers only " +
+            "send the number of rows in each batch so that the count is as fast as possible. " +
+            "When specifying columns that are keys, they must be at the beginning.\n" +
             CommandLineParser.getHelpSnippet();
 
     System.err.println(usage);
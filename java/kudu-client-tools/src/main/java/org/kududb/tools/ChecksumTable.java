@@ -0,0 +1,249 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.tools;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.AsyncKuduClient;
+import org.kududb.client.Bytes;
+import org.kududb.client.KuduTable;
+import org.kududb.client.LocatedTablet;
+import org.kududb.mapreduce.CommandLineParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies a table by having the tablet servers checksum its rows at a snapshot, so that only the
+ * checksums go over the network. The tablets are checksummed in parallel. Optionally, every
+ * replica of every tablet is checksummed and the ones that differ from their leader are reported,
+ * and the same table in another cluster is checksummed at the same snapshot and compared, for
+ * example to verify a migration.
+ * <p>
+ * A table's checksum doesn't depend on its partitioning, so the two clusters' tables only need
+ * the same schema and rows to match.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class ChecksumTable extends Configured implements Tool {
+
+  static final String NAME = "checksumtable";
+  static final String PARALLELISM_KEY = "checksumtable.parallelism";
+  static final int DEFAULT_PARALLELISM = 16;
+  static final String REPLICAS_KEY = "checksumtable.replicas";
+  static final String SNAPSHOT_TIMESTAMP_KEY = "checksumtable.snapshot.timestamp";
+  static final String PEER_MASTER_ADDRESSES_KEY = "checksumtable.peer.master.addresses";
+
+  /**
+   * Checksums a table at a snapshot.
+   * @param client the client to checksum with
+   * @param table the table to checksum
+   * @param snapshotTimestamp the hybrid time to read at
+   * @param parallelism how many tablets are checksummed at the same time
+   * @param checkReplicas true to checksum every replica instead of only the leaders
+   * @param mismatches where the replicas that don't match their leader are described
+   * @return the table's checksum
+   * @throws Exception if a tablet couldn't be checksummed
+   */
+  public static long checksumTable(AsyncKuduClient client, KuduTable table,
+                                   long snapshotTimestamp, int parallelism,
+                                   boolean checkReplicas, Queue<String> mismatches)
+      throws Exception {
+    Queue<LocatedTablet> tablets = new ConcurrentLinkedQueue<LocatedTablet>(
+        table.getTabletsLocations(client.getDefaultAdminOperationTimeoutMs()));
+    AtomicLong checksum = new AtomicLong();
+    int numWorkers = Math.max(1, Math.min(parallelism, tablets.size()));
+    List<Deferred<Void>> workers = new ArrayList<Deferred<Void>>(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+      workers.add(new TabletChecksummer(client, table, snapshotTimestamp, checkReplicas, tablets,
+          checksum, mismatches).checksumNextTablet());
+    }
+    Deferred.group(workers).join();
+    return checksum.get();
+  }
+
+  /**
+   * Checksums tablets one after the other, until there's none left.
+   */
+  private static class TabletChecksummer implements Callback<Deferred<Void>, ArrayList<Long>> {
+    private final AsyncKuduClient client;
+    private final KuduTable table;
+    private final long snapshotTimestamp;
+    private final boolean checkReplicas;
+    private final Queue<LocatedTablet> tablets;
+    private final AtomicLong checksum;
+    private final Queue<String> mismatches;
+    private LocatedTablet tablet;
+    private List<LocatedTablet.Replica> replicas;
+
+    TabletChecksummer(AsyncKuduClient client, KuduTable table, long snapshotTimestamp,
+                      boolean checkReplicas, Queue<LocatedTablet> tablets, AtomicLong checksum,
+                      Queue<String> mismatches) {
+      this.client = client;
+      this.table = table;
+      this.snapshotTimestamp = snapshotTimestamp;
+      this.checkReplicas = checkReplicas;
+      this.tablets = tablets;
+      this.checksum = checksum;
+      this.mismatches = mismatches;
+    }
+
+    Deferred<Void> checksumNextTablet() {
+      tablet = tablets.poll();
+      if (tablet == null) {
+        return Deferred.fromResult(null);
+      }
+      List<Deferred<Long>> checksums = new ArrayList<Deferred<Long>>();
+      if (checkReplicas) {
+        replicas = tablet.getReplicas();
+        for (LocatedTablet.Replica replica : replicas) {
+          checksums.add(client.checksumTablet(table, tablet, replica.getUuid(),
+              snapshotTimestamp));
+        }
+      } else {
+        checksums.add(client.checksumTablet(table, tablet, null, snapshotTimestamp));
+      }
+      return Deferred.group(checksums).addCallbackDeferring(this);
+    }
+
+    @Override
+    public Deferred<Void> call(ArrayList<Long> checksums) throws Exception {
+      // The leader's checksum is the reference, or the first replica's if there's no leader.
+      int reference = 0;
+      if (checkReplicas) {
+        LocatedTablet.Replica leader = tablet.getLeaderReplica();
+        for (int i = 0; i < replicas.size(); i++) {
+          if (replicas.get(i) == leader) {
+            reference = i;
+          }
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+          if (!checksums.get(i).equals(checksums.get(reference))) {
+            mismatches.add("Tablet " + Bytes.getString(tablet.getTabletId()) + ": replica on " +
+                describe(replicas.get(i)) + " has checksum " + checksums.get(i) + " but " +
+                describe(replicas.get(reference)) + " has " + checksums.get(reference));
+          }
+        }
+      }
+      checksum.addAndGet(checksums.get(reference));
+      return checksumNextTablet();
+    }
+
+    private static String describe(LocatedTablet.Replica replica) {
+      return replica.getUuid() + " (" + replica.getRpcHost() + ":" + replica.getRpcPort() + ")";
+    }
+
+    @Override
+    public String toString() {
+      return "checksum tablets of " + table.getName();
+    }
+  }
+
+  /*
+   * @param errorMsg Error message. Can be null.
+   */
+  private static void usage(final String errorMsg) {
+    if (errorMsg != null && errorMsg.length() > 0) {
+      System.err.println("ERROR: " + errorMsg);
+    }
+    String usage =
+        "Usage: " + NAME + " <table.name>\n\n" +
+            "Checksums all the rows in the given table on the tablet servers, at a snapshot, and " +
+            "prints the checksum. Exits with 1 if replicas or clusters don't match.\n" +
+            "\n" +
+            "Other options that may be specified with -D include:\n" +
+            "  -D" + PARALLELISM_KEY + "=N - how many tablets to checksum at the same time, " +
+            "defaults to " + DEFAULT_PARALLELISM + "\n" +
+            "  -D" + REPLICAS_KEY + "=true - checksum every replica and report the ones that " +
+            "don't match their leader\n" +
+            "  -D" + SNAPSHOT_TIMESTAMP_KEY + "=TIMESTAMP - the hybrid time to read at, " +
+            "defaults to the current time of the tablet servers\n" +
+            "  -D" + PEER_MASTER_ADDRESSES_KEY + "=ADDRESSES - also checksum the table with " +
+            "the same name in the cluster with these Masters, and compare\n" +
+            CommandLineParser.getHelpSnippet();
+
+    System.err.println(usage);
+  }
+
+  @Override
+  public int run(String[] otherArgs) throws Exception {
+    if (otherArgs.length != 1) {
+      usage("Wrong number of arguments: " + otherArgs.length);
+      return -1;
+    }
+    Configuration conf = getConf();
+    String tableName = otherArgs[0];
+    int parallelism = conf.getInt(PARALLELISM_KEY, DEFAULT_PARALLELISM);
+    boolean checkReplicas = conf.getBoolean(REPLICAS_KEY, false);
+    Queue<String> mismatches = new ConcurrentLinkedQueue<String>();
+    long checksum;
+    long snapshotTimestamp;
+    AsyncKuduClient client = new CommandLineParser(conf).getAsyncClient();
+    try {
+      KuduTable table = client.openTable(tableName)
+          .join(client.getDefaultAdminOperationTimeoutMs());
+      snapshotTimestamp = conf.getLong(SNAPSHOT_TIMESTAMP_KEY, AsyncKuduClient.NO_TIMESTAMP);
+      if (snapshotTimestamp == AsyncKuduClient.NO_TIMESTAMP) {
+        // The local clock may be ahead of the servers', they'd reject it as a snapshot.
+        snapshotTimestamp = client.getServerTimestamp(table)
+            .join(client.getDefaultAdminOperationTimeoutMs());
+      }
+      checksum = checksumTable(client, table, snapshotTimestamp, parallelism, checkReplicas,
+          mismatches);
+    } finally {
+      client.shutdown().join();
+    }
+    System.out.println("Checksum of " + tableName + " at snapshot " + snapshotTimestamp + ": " +
+        checksum);
+
+    String peerMasterAddresses = conf.get(PEER_MASTER_ADDRESSES_KEY);
+    if (peerMasterAddresses != null) {
+      Configuration peerConf = new Configuration(conf);
+      peerConf.set(CommandLineParser.MASTER_ADDRESSES_KEY, peerMasterAddresses);
+      AsyncKuduClient peerClient = new CommandLineParser(peerConf).getAsyncClient();
+      try {
+        KuduTable peerTable = peerClient.openTable(tableName)
+            .join(peerClient.getDefaultAdminOperationTimeoutMs());
+        long peerChecksum = checksumTable(peerClient, peerTable, snapshotTimestamp, parallelism,
+            checkReplicas, mismatches);
+        System.out.println("Checksum of " + tableName + " in " + peerMasterAddresses + ": " +
+            peerChecksum);
+        if (peerChecksum != checksum) {
+          mismatches.add("The tables in the two clusters don't match");
+        }
+      } finally {
+        peerClient.shutdown().join();
+      }
+    }
+
+    for (String mismatch : mismatches) {
+      System.err.println(mismatch);
+    }
+    return mismatches.isEmpty() ? 0 : 1;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(new ChecksumTable(), args);
+    System.exit(status);
+  }
+}
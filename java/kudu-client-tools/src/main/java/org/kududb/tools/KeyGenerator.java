@@ -0,0 +1,174 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.tools;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the keys that {@link LoadGenerator} writes and reads. Implementations are thread-safe,
+ * the randomness comes from the {@link Random} that each caller passes.
+ */
+abstract class KeyGenerator {
+
+  enum Distribution {
+    /** Every write gets a new key, starting at 0. Reads are uniform over the keys written. */
+    SEQUENTIAL,
+    /** Every key in the key space is as likely to be picked. */
+    UNIFORM,
+    /** A few keys of the key space are picked most of the time, see {@link Zipfian}. */
+    ZIPFIAN
+  }
+
+  /**
+   * @return the key of the next row to write
+   */
+  abstract long nextWriteKey(Random random);
+
+  /**
+   * @return the key of the next row to read
+   */
+  abstract long nextReadKey(Random random);
+
+  /**
+   * Creates a generator.
+   * @param distribution how the keys are distributed
+   * @param keySpace how many different keys there are, not used by
+   *                 {@link Distribution#SEQUENTIAL}
+   * @param zipfianTheta the skew of {@link Distribution#ZIPFIAN}, between 0 and 1 exclusive
+   * @return a new generator
+   */
+  static KeyGenerator create(Distribution distribution, long keySpace, double zipfianTheta) {
+    switch (distribution) {
+      case SEQUENTIAL: return new Sequential();
+      case UNIFORM: return new Uniform(keySpace);
+      case ZIPFIAN: return new Zipfian(keySpace, zipfianTheta);
+      default: throw new IllegalArgumentException("Unknown distribution " + distribution);
+    }
+  }
+
+  /**
+   * @return a number picked uniformly in [0, bound)
+   */
+  static long nextLong(Random random, long bound) {
+    // Not perfectly uniform when bound isn't a power of two, but close enough for load.
+    return (random.nextLong() & Long.MAX_VALUE) % bound;
+  }
+
+  static class Sequential extends KeyGenerator {
+    private final AtomicLong nextKey = new AtomicLong();
+
+    @Override
+    long nextWriteKey(Random random) {
+      return nextKey.getAndIncrement();
+    }
+
+    @Override
+    long nextReadKey(Random random) {
+      return nextLong(random, Math.max(1, nextKey.get()));
+    }
+  }
+
+  static class Uniform extends KeyGenerator {
+    private final long keySpace;
+
+    Uniform(long keySpace) {
+      Preconditions.checkArgument(keySpace > 0, "The key space must be positive");
+      this.keySpace = keySpace;
+    }
+
+    @Override
+    long nextWriteKey(Random random) {
+      return nextLong(random, keySpace);
+    }
+
+    @Override
+    long nextReadKey(Random random) {
+      return nextLong(random, keySpace);
+    }
+  }
+
+  /**
+   * Picks keys following a Zipfian distribution, with the algorithm from "Quickly Generating
+   * Billion-Record Synthetic Databases" by Gray et al, like YCSB does. The probability of the
+   * key of rank i is proportional to 1 / i^theta.
+   * <p>
+   * The popular ranks are hashed over the key space, otherwise the hottest keys would all be
+   * next to each other and land in the same tablet. Creating a generator takes time linear in
+   * the size of the key space.
+   */
+  static class Zipfian extends KeyGenerator {
+    private final long keySpace;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+
+    Zipfian(long keySpace, double theta) {
+      Preconditions.checkArgument(keySpace > 0, "The key space must be positive");
+      Preconditions.checkArgument(theta > 0 && theta < 1,
+          "The Zipfian theta must be between 0 and 1 exclusive, not %s", theta);
+      this.keySpace = keySpace;
+      this.theta = theta;
+      this.zetan = zeta(keySpace, theta);
+      this.alpha = 1.0 / (1.0 - theta);
+      this.eta = (1 - Math.pow(2.0 / keySpace, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    private static double zeta(long n, double theta) {
+      double sum = 0;
+      for (long i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, theta);
+      }
+      return sum;
+    }
+
+    /**
+     * @return the rank of the next key, 0 being the most popular one
+     */
+    long nextRank(Random random) {
+      double u = random.nextDouble();
+      double uz = u * zetan;
+      if (uz < 1) {
+        return 0;
+      }
+      if (uz < 1 + Math.pow(0.5, theta)) {
+        return 1;
+      }
+      return Math.min(keySpace - 1, (long) (keySpace * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    @Override
+    long nextWriteKey(Random random) {
+      return scramble(nextRank(random));
+    }
+
+    @Override
+    long nextReadKey(Random random) {
+      return scramble(nextRank(random));
+    }
+
+    private long scramble(long rank) {
+      // 64-bit FNV-1a over the rank's bytes.
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < 8; i++) {
+        hash ^= (rank >>> (i * 8)) & 0xff;
+        hash *= 0x100000001b3L;
+      }
+      return (hash & Long.MAX_VALUE) % keySpace;
+    }
+  }
+}
@@ -0,0 +1,524 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.tools;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.kududb.ColumnSchema;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.AsyncKuduClient;
+import org.kududb.client.AsyncKuduScanner;
+import org.kududb.client.AsyncKuduSession;
+import org.kududb.client.CreateTableBuilder;
+import org.kududb.client.KuduTable;
+import org.kududb.client.LatencyHistogram;
+import org.kududb.client.Operation;
+import org.kududb.client.OperationResponse;
+import org.kududb.client.PartialRow;
+import org.kududb.client.PleaseThrottleException;
+import org.kududb.client.RowResultIterator;
+import org.kududb.client.SessionConfiguration;
+import org.kududb.mapreduce.CommandLineParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Generates a write and read load on a table from a single process, without MapReduce. Each
+ * thread has its own {@link AsyncKuduSession} and keeps many operations in flight, reads are
+ * scans of a single row. The throughput and the latencies of the writes and the reads are
+ * printed at every interval, and for the whole run at the end.
+ * <p>
+ * The table is created if it doesn't exist, with an INT64 key hashed into buckets and string
+ * columns. An existing table can be used if its primary key is a single INT32 or INT64 column,
+ * its other columns are filled with random values of their type.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class LoadGenerator extends Configured implements Tool {
+
+  static final String NAME = "loadgen";
+  static final String THREADS_KEY = "loadgen.threads";
+  static final int DEFAULT_THREADS = 8;
+  static final String DURATION_KEY = "loadgen.duration.seconds";
+  static final long DEFAULT_DURATION = 60;
+  static final String OPERATIONS_KEY = "loadgen.operations";
+  static final String DISTRIBUTION_KEY = "loadgen.key.distribution";
+  static final String DEFAULT_DISTRIBUTION = "sequential";
+  static final String KEY_SPACE_KEY = "loadgen.key.space";
+  static final long DEFAULT_KEY_SPACE = 1000000;
+  static final String ZIPFIAN_THETA_KEY = "loadgen.zipfian.theta";
+  static final double DEFAULT_ZIPFIAN_THETA = 0.99;
+  static final String WRITE_TYPE_KEY = "loadgen.write.type";
+  static final String DEFAULT_WRITE_TYPE = "insert";
+  static final String READ_RATIO_KEY = "loadgen.read.ratio";
+  static final String TARGET_RATE_KEY = "loadgen.target.rate";
+  static final String NUM_COLUMNS_KEY = "loadgen.num.columns";
+  static final int DEFAULT_NUM_COLUMNS = 4;
+  static final String VALUE_LENGTH_KEY = "loadgen.value.length";
+  static final int DEFAULT_VALUE_LENGTH = 32;
+  static final String NUM_BUCKETS_KEY = "loadgen.num.buckets";
+  static final int DEFAULT_NUM_BUCKETS = 8;
+  static final String FLUSH_MODE_KEY = "loadgen.flush.mode";
+  static final String DEFAULT_FLUSH_MODE = "AUTO_FLUSH_BACKGROUND";
+  static final String BUFFER_SPACE_KEY = "loadgen.buffer.space";
+  static final int DEFAULT_BUFFER_SPACE = 1000;
+  static final String FLUSH_INTERVAL_KEY = "loadgen.flush.interval.ms";
+  static final int DEFAULT_FLUSH_INTERVAL = 1000;
+  static final String MAX_IN_FLIGHT_KEY = "loadgen.max.in.flight";
+  static final int DEFAULT_MAX_IN_FLIGHT = 2000;
+  static final String REPORT_INTERVAL_KEY = "loadgen.report.interval.seconds";
+  static final int DEFAULT_REPORT_INTERVAL = 10;
+
+  // How many different values each worker picks its strings from.
+  private static final int NUM_RANDOM_VALUES = 128;
+
+  private Configuration conf;
+  private AsyncKuduClient client;
+  private KuduTable table;
+  private KeyGenerator keyGenerator;
+  private boolean updates;
+  private double readRatio;
+  private int valueLength;
+  private long operationTimeoutMs;
+  private long deadlineNanos;
+  private final AtomicLong remainingOperations = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicBoolean stopped = new AtomicBoolean();
+  private final Stats writes = new Stats();
+  private final Stats reads = new Stats();
+  private final AtomicBoolean firstErrorPrinted = new AtomicBoolean();
+
+  /**
+   * The latencies and the errors of one kind of operation. Workers record in the current
+   * interval's histogram, the reporter swaps it with an empty one and adds it to the total.
+   * Recording holds the read lock and swapping the write one, so that no latency is recorded in
+   * a histogram that was already reported.
+   */
+  private static class Stats {
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by 'lock'.
+    LatencyHistogram interval = new LatencyHistogram();
+    final LatencyHistogram total = new LatencyHistogram();
+    final AtomicLong intervalErrors = new AtomicLong();
+    long totalErrors;
+
+    void record(long startNanos) {
+      long micros = (System.nanoTime() - startNanos) / 1000;
+      lock.readLock().lock();
+      try {
+        interval.record(micros);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    String report(String name, double seconds, LatencyHistogram histogram, long errors) {
+      return String.format("  %s: %.1f ops/s, errors=%d, %s", name,
+          histogram.getTotalCount() / seconds, errors, histogram);
+    }
+
+    /**
+     * Ends the current interval.
+     * @return the line to print for it
+     */
+    String endInterval(String name, double seconds) {
+      LatencyHistogram histogram;
+      lock.writeLock().lock();
+      try {
+        histogram = interval;
+        interval = new LatencyHistogram();
+      } finally {
+        lock.writeLock().unlock();
+      }
+      long errors = intervalErrors.getAndSet(0);
+      total.add(histogram);
+      totalErrors += errors;
+      return report(name, seconds, histogram, errors);
+    }
+  }
+
+  /**
+   * Applies operations in a loop until the load is over, then flushes and waits for the ones
+   * that are still in flight.
+   */
+  private class Worker implements Runnable {
+    private final AsyncKuduSession session;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final long nanosPerOperation;
+    private final Random random = new Random();
+    private final String[] values = new String[NUM_RANDOM_VALUES];
+    private final int bufferSpace;
+    private int buffered;
+
+    Worker(int maxInFlight, long nanosPerOperation) {
+      this.maxInFlight = maxInFlight;
+      this.inFlight = new Semaphore(maxInFlight);
+      this.nanosPerOperation = nanosPerOperation;
+      this.bufferSpace = conf.getInt(BUFFER_SPACE_KEY, DEFAULT_BUFFER_SPACE);
+      session = client.newSession();
+      session.setFlushMode(SessionConfiguration.FlushMode.valueOf(
+          conf.get(FLUSH_MODE_KEY, DEFAULT_FLUSH_MODE).toUpperCase()));
+      session.setMutationBufferSpace(bufferSpace);
+      session.setFlushInterval(conf.getInt(FLUSH_INTERVAL_KEY, DEFAULT_FLUSH_INTERVAL));
+      session.setTimeoutMillis(operationTimeoutMs);
+      // Random keys come back, only the first insert of a key can succeed.
+      session.setIgnoreAllDuplicateRows(!(keyGenerator instanceof KeyGenerator.Sequential));
+      for (int i = 0; i < values.length; i++) {
+        StringBuilder value = new StringBuilder(valueLength);
+        for (int j = 0; j < valueLength; j++) {
+          value.append((char) ('a' + random.nextInt(26)));
+        }
+        values[i] = value.toString();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        long nextStartNanos = System.nanoTime();
+        while (!stopped.get() && System.nanoTime() < deadlineNanos &&
+            remainingOperations.getAndDecrement() > 0) {
+          long startNanos = System.nanoTime();
+          if (nanosPerOperation > 0) {
+            nextStartNanos += nanosPerOperation;
+            long sleepNanos = nextStartNanos - startNanos;
+            if (sleepNanos > 0) {
+              TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+            // Latencies are measured from when the operation should have started, so that
+            // falling behind the target rate shows in them.
+            startNanos = nextStartNanos;
+          }
+          inFlight.acquire();
+          if (readRatio > 0 && random.nextDouble() < readRatio) {
+            read(startNanos);
+          } else {
+            write(startNanos);
+          }
+        }
+        session.flush();
+        inFlight.acquire(maxInFlight);
+        session.close().join(operationTimeoutMs);
+      } catch (Exception e) {
+        recordError(writes, e);
+        stopped.set(true);
+      }
+    }
+
+    private void write(final long startNanos) throws Exception {
+      Operation operation = updates ? table.newUpdate() : table.newInsert();
+      fillRow(operation.getRow(), keyGenerator.nextWriteKey(random));
+      Deferred<OperationResponse> d;
+      while (true) {
+        try {
+          d = session.apply(operation);
+          break;
+        } catch (PleaseThrottleException pte) {
+          // This session's buffers are full, wait for one of them to be flushed.
+          try {
+            pte.getDeferred().join(operationTimeoutMs);
+          } catch (Exception e) {
+            // The flush failed, the rows it held were already counted as errors.
+          }
+        }
+      }
+      d.addCallbacks(new Callback<Void, OperationResponse>() {
+        @Override
+        public Void call(OperationResponse response) throws Exception {
+          writes.record(startNanos);
+          if (response.hasRowError()) {
+            recordError(writes, response.getRowError());
+          }
+          inFlight.release();
+          return null;
+        }
+      }, new Callback<Void, Exception>() {
+        @Override
+        public Void call(Exception e) throws Exception {
+          recordError(writes, e);
+          inFlight.release();
+          return null;
+        }
+      });
+      if (session.getFlushMode() == SessionConfiguration.FlushMode.MANUAL_FLUSH &&
+          ++buffered >= bufferSpace) {
+        buffered = 0;
+        session.flush();
+      }
+    }
+
+    private void read(final long startNanos) {
+      long key = keyGenerator.nextReadKey(random);
+      PartialRow lowerBound = table.getSchema().newPartialRow();
+      setKey(lowerBound, key);
+      AsyncKuduScanner.AsyncKuduScannerBuilder builder = client.newScannerBuilder(table)
+          .lowerBound(lowerBound);
+      // There's no key after the largest one, the scan then goes until the end of the table.
+      if (!isLargestKey(key)) {
+        PartialRow upperBound = table.getSchema().newPartialRow();
+        setKey(upperBound, key + 1);
+        builder.exclusiveUpperBound(upperBound);
+      }
+      final AsyncKuduScanner scanner = builder.build();
+      final Callback<Void, Exception> errback = new Callback<Void, Exception>() {
+        @Override
+        public Void call(Exception e) throws Exception {
+          recordError(reads, e);
+          inFlight.release();
+          return null;
+        }
+      };
+      scanner.nextRows().addCallbacks(new Callback<Void, RowResultIterator>() {
+        @Override
+        public Void call(RowResultIterator rows) throws Exception {
+          // The key bounds don't prune the hash buckets, the row can be in any of the tablets
+          // so they're all scanned until it's found.
+          if (scanner.hasMoreRows()) {
+            if (rows == null || rows.getNumRows() == 0) {
+              scanner.nextRows().addCallbacks(this, errback);
+              return null;
+            }
+            scanner.close();
+          }
+          reads.record(startNanos);
+          inFlight.release();
+          return null;
+        }
+      }, errback);
+    }
+
+    private void fillRow(PartialRow row, long key) {
+      setKey(row, key);
+      Schema schema = table.getSchema();
+      for (int i = 1; i < schema.getColumnCount(); i++) {
+        ColumnSchema column = schema.getColumnByIndex(i);
+        switch (column.getType()) {
+          case INT8: row.addByte(i, (byte) random.nextInt()); break;
+          case INT16: row.addShort(i, (short) random.nextInt()); break;
+          case INT32: row.addInt(i, random.nextInt()); break;
+          case INT64: row.addLong(i, random.nextLong()); break;
+          case TIMESTAMP: row.addLong(i, System.currentTimeMillis() * 1000); break;
+          case BOOL: row.addBoolean(i, random.nextBoolean()); break;
+          case FLOAT: row.addFloat(i, random.nextFloat()); break;
+          case DOUBLE: row.addDouble(i, random.nextDouble()); break;
+          case STRING: row.addString(i, values[random.nextInt(values.length)]); break;
+          case BINARY: row.addBinary(i, values[random.nextInt(values.length)].getBytes()); break;
+          default: throw new IllegalArgumentException("Unsupported type " + column.getType());
+        }
+      }
+    }
+
+    private boolean isLargestKey(long key) {
+      if (table.getSchema().getColumnByIndex(0).getType() == Type.INT32) {
+        return (int) key == Integer.MAX_VALUE;
+      }
+      return key == Long.MAX_VALUE;
+    }
+
+    private void setKey(PartialRow row, long key) {
+      if (table.getSchema().getColumnByIndex(0).getType() == Type.INT32) {
+        row.addInt(0, (int) key);
+      } else {
+        row.addLong(0, key);
+      }
+    }
+  }
+
+  private void recordError(Stats stats, Object error) {
+    stats.intervalErrors.incrementAndGet();
+    if (firstErrorPrinted.compareAndSet(false, true)) {
+      System.err.println("First error: " + error);
+    }
+  }
+
+  /**
+   * Creates the table with an INT64 key and string columns, the key is hashed into buckets.
+   */
+  private KuduTable createTable(String tableName, int numReplicas) throws Exception {
+    List<ColumnSchema> columns = new ArrayList<ColumnSchema>();
+    columns.add(new ColumnSchema.ColumnSchemaBuilder("key", Type.INT64).key(true).build());
+    for (int i = 0; i < conf.getInt(NUM_COLUMNS_KEY, DEFAULT_NUM_COLUMNS); i++) {
+      columns.add(new ColumnSchema.ColumnSchemaBuilder("c" + i, Type.STRING).build());
+    }
+    CreateTableBuilder builder = new CreateTableBuilder();
+    builder.addHashPartitions(Collections.singletonList("key"),
+        conf.getInt(NUM_BUCKETS_KEY, DEFAULT_NUM_BUCKETS));
+    builder.setNumReplicas(numReplicas);
+    return client.createTable(tableName, new Schema(columns), builder)
+        .join(client.getDefaultAdminOperationTimeoutMs());
+  }
+
+  /*
+   * @param errorMsg Error message. Can be null.
+   */
+  private static void usage(final String errorMsg) {
+    if (errorMsg != null && errorMsg.length() > 0) {
+      System.err.println("ERROR: " + errorMsg);
+    }
+    String usage =
+        "Usage: " + NAME + " <table.name>\n\n" +
+            "Writes and reads rows of the given table from this process, and reports the " +
+            "throughput and the latencies.\n" +
+            "The table is created if it doesn't exist, otherwise its primary key must be a " +
+            "single INT32 or INT64 column.\n" +
+            "\n" +
+            "Other options that may be specified with -D include:\n" +
+            "  -D" + THREADS_KEY + "=N - how many threads apply operations, defaults to " +
+            DEFAULT_THREADS + "\n" +
+            "  -D" + DURATION_KEY + "=N - how long to run for, defaults to " +
+            DEFAULT_DURATION + "\n" +
+            "  -D" + OPERATIONS_KEY + "=N - stop after this many operations, defaults to no " +
+            "limit\n" +
+            "  -D" + DISTRIBUTION_KEY + "=sequential|uniform|zipfian - how the keys are " +
+            "picked, defaults to " + DEFAULT_DISTRIBUTION + "\n" +
+            "  -D" + KEY_SPACE_KEY + "=N - how many different keys uniform and zipfian pick " +
+            "from, defaults to " + DEFAULT_KEY_SPACE + "\n" +
+            "  -D" + ZIPFIAN_THETA_KEY + "=X - how skewed zipfian is, between 0 and 1, " +
+            "defaults to " + DEFAULT_ZIPFIAN_THETA + "\n" +
+            "  -D" + WRITE_TYPE_KEY + "=insert|update - the kind of writes, updates of keys " +
+            "that don't exist count as errors, defaults to " + DEFAULT_WRITE_TYPE + "\n" +
+            "  -D" + READ_RATIO_KEY + "=X - the fraction of the operations that are reads, " +
+            "defaults to 0\n" +
+            "  -D" + TARGET_RATE_KEY + "=N - how many operations per second to apply in " +
+            "total, defaults to as many as possible\n" +
+            "  -D" + NUM_COLUMNS_KEY + "=N - how many string columns the created table has, " +
+            "defaults to " + DEFAULT_NUM_COLUMNS + "\n" +
+            "  -D" + VALUE_LENGTH_KEY + "=N - how long the written strings are, defaults to " +
+            DEFAULT_VALUE_LENGTH + "\n" +
+            "  -D" + NUM_BUCKETS_KEY + "=N - how many hash buckets the created table has, " +
+            "defaults to " + DEFAULT_NUM_BUCKETS + "\n" +
+            "  -D" + FLUSH_MODE_KEY + "=AUTO_FLUSH_SYNC|AUTO_FLUSH_BACKGROUND|MANUAL_FLUSH - " +
+            "the sessions' flush mode, defaults to " + DEFAULT_FLUSH_MODE + "\n" +
+            "  -D" + BUFFER_SPACE_KEY + "=N - how many operations the sessions buffer, " +
+            "defaults to " + DEFAULT_BUFFER_SPACE + "\n" +
+            "  -D" + FLUSH_INTERVAL_KEY + "=N - how often background flushes happen, " +
+            "defaults to " + DEFAULT_FLUSH_INTERVAL + "\n" +
+            "  -D" + MAX_IN_FLIGHT_KEY + "=N - how many operations each thread has in flight " +
+            "at most, defaults to " + DEFAULT_MAX_IN_FLIGHT + "\n" +
+            "  -D" + REPORT_INTERVAL_KEY + "=N - how often to report, defaults to " +
+            DEFAULT_REPORT_INTERVAL + "\n" +
+            CommandLineParser.getHelpSnippet();
+
+    System.err.println(usage);
+  }
+
+  @Override
+  public int run(String[] otherArgs) throws Exception {
+    if (otherArgs.length != 1) {
+      usage("Wrong number of arguments: " + otherArgs.length);
+      return -1;
+    }
+    conf = getConf();
+    CommandLineParser parser = new CommandLineParser(conf);
+    client = parser.getAsyncClient();
+    try {
+      String tableName = otherArgs[0];
+      if (client.tableExists(tableName).join(client.getDefaultAdminOperationTimeoutMs())) {
+        table = client.openTable(tableName).join(client.getDefaultAdminOperationTimeoutMs());
+      } else {
+        table = createTable(tableName, parser.getNumReplicas());
+      }
+      Schema schema = table.getSchema();
+      Type keyType = schema.getColumnByIndex(0).getType();
+      if (schema.getPrimaryKeyColumnCount() != 1 ||
+          (keyType != Type.INT32 && keyType != Type.INT64)) {
+        usage("The primary key of " + tableName + " must be a single INT32 or INT64 column");
+        return -1;
+      }
+
+      keyGenerator = KeyGenerator.create(
+          KeyGenerator.Distribution.valueOf(
+              conf.get(DISTRIBUTION_KEY, DEFAULT_DISTRIBUTION).toUpperCase()),
+          conf.getLong(KEY_SPACE_KEY, DEFAULT_KEY_SPACE),
+          conf.getDouble(ZIPFIAN_THETA_KEY, DEFAULT_ZIPFIAN_THETA));
+      updates = conf.get(WRITE_TYPE_KEY, DEFAULT_WRITE_TYPE).equalsIgnoreCase("update");
+      readRatio = conf.getDouble(READ_RATIO_KEY, 0);
+      valueLength = conf.getInt(VALUE_LENGTH_KEY, DEFAULT_VALUE_LENGTH);
+      operationTimeoutMs = parser.getOperationTimeoutMs();
+      long operations = conf.getLong(OPERATIONS_KEY, 0);
+      if (operations > 0) {
+        remainingOperations.set(operations);
+      }
+
+      int numThreads = conf.getInt(THREADS_KEY, DEFAULT_THREADS);
+      long targetRate = conf.getLong(TARGET_RATE_KEY, 0);
+      long nanosPerOperation = targetRate > 0 ? numThreads * 1000000000L / targetRate : 0;
+      int maxInFlight = conf.getInt(MAX_IN_FLIGHT_KEY, DEFAULT_MAX_IN_FLIGHT);
+      long startNanos = System.nanoTime();
+      deadlineNanos = startNanos +
+          TimeUnit.SECONDS.toNanos(conf.getLong(DURATION_KEY, DEFAULT_DURATION));
+      List<Thread> threads = new ArrayList<Thread>(numThreads);
+      for (int i = 0; i < numThreads; i++) {
+        Thread thread = new Thread(new Worker(maxInFlight, nanosPerOperation),
+            NAME + "-worker-" + i);
+        thread.start();
+        threads.add(thread);
+      }
+
+      long reportIntervalNanos =
+          TimeUnit.SECONDS.toNanos(conf.getInt(REPORT_INTERVAL_KEY, DEFAULT_REPORT_INTERVAL));
+      long intervalStartNanos = startNanos;
+      for (Thread thread : threads) {
+        while (thread.isAlive()) {
+          long remainingNanos = intervalStartNanos + reportIntervalNanos - System.nanoTime();
+          if (remainingNanos > 0) {
+            TimeUnit.NANOSECONDS.timedJoin(thread, remainingNanos);
+          } else {
+            long now = System.nanoTime();
+            printInterval(startNanos, intervalStartNanos, now);
+            intervalStartNanos = now;
+          }
+        }
+      }
+      long endNanos = System.nanoTime();
+      printInterval(startNanos, intervalStartNanos, endNanos);
+
+      double seconds = (endNanos - startNanos) / 1e9;
+      System.out.println(String.format("Total after %.1fs:", seconds));
+      System.out.println(writes.report("writes", seconds, writes.total, writes.totalErrors));
+      System.out.println(reads.report("reads", seconds, reads.total, reads.totalErrors));
+      return writes.totalErrors + reads.totalErrors == 0 ? 0 : 1;
+    } finally {
+      client.shutdown().join();
+    }
+  }
+
+  private void printInterval(long startNanos, long intervalStartNanos, long nowNanos) {
+    double seconds = (nowNanos - intervalStartNanos) / 1e9;
+    System.out.println(String.format("[%.1fs]", (nowNanos - startNanos) / 1e9));
+    System.out.println(writes.endInterval("writes", seconds));
+    System.out.println(reads.endInterval("reads", seconds));
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(new LoadGenerator(), args);
+    System.exit(status);
+  }
+}
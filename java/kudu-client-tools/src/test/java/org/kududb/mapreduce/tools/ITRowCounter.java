@@ -16,6 +16,8 @@ package org.kududb.mapreduce.tools;
 import org.kududb.mapreduce.CommandLineParser;
 import org.kududb.mapreduce.HadoopTestingUtility;
 import org.kududb.client.BaseKuduTest;
+import org.kududb.client.KuduTable;
+import org.kududb.tools.CountRows;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.GenericOptionsParser;
@@ -61,5 +63,22 @@ public class ITRowCounter extends BaseKuduTest {
     assertTrue("Job did not end properly", job.waitForCompletion(true));
 
     assertEquals(9, job.getCounters().findCounter(RowCounter.Counters.ROWS).getValue());
+
+    // Reading a column goes through the rows instead of only counting the batches.
+    conf.set(RowCounter.COLUMN_PROJECTION_KEY, "key");
+    parser = new GenericOptionsParser(conf, args);
+    job = RowCounter.createSubmittableJob(parser.getConfiguration(), parser.getRemainingArgs());
+    assertTrue("Job did not end properly", job.waitForCompletion(true));
+
+    assertEquals(9, job.getCounters().findCounter(RowCounter.Counters.ROWS).getValue());
+  }
+
+  @Test
+  public void testCountRows() throws Exception {
+    String tableName = TABLE_NAME + "-countrows";
+    createFourTabletsTableWithNineRows(tableName);
+    KuduTable table = client.openTable(tableName).join(DEFAULT_SLEEP);
+    assertEquals(9, CountRows.countRows(client, table, 1));
+    assertEquals(9, CountRows.countRows(client, table, 16));
   }
 }
@@ -0,0 +1,125 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce.tools;
+
+import org.junit.Test;
+import org.kududb.client.Bytes;
+
+import static org.junit.Assert.*;
+
+public class TestCsvParser {
+
+  private static String[] parse(CsvParser parser, String line)
+      throws CsvParser.BadCsvLineException {
+    byte[] bytes = Bytes.fromString(line);
+    CsvParser.ParsedLine parsed = parser.parse(bytes, bytes.length);
+    String[] columns = new String[parsed.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = Bytes.getString(parsed.getLineBytes(), parsed.getColumnOffset(i),
+          parsed.getColumnLength(i));
+    }
+    return columns;
+  }
+
+  private static void assertBadLine(CsvParser parser, String line, String error) {
+    try {
+      parse(parser, line);
+      fail("Should not have parsed " + line);
+    } catch (CsvParser.BadCsvLineException e) {
+      assertEquals(error, e.getMessage());
+    }
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    CsvParser parser = new CsvParser("a,b,c", "\t");
+    assertArrayEquals(new String[] { "1", "two", "3.0" }, parse(parser, "1\ttwo\t3.0"));
+    assertArrayEquals(new String[] { "", "", "" }, parse(parser, "\t\t\t"));
+    // A trailing separator doesn't count as a column.
+    assertArrayEquals(new String[] { "1", "", "3" }, parse(parser, "1\t\t3\t"));
+    // Quotes are only special when enabled.
+    assertArrayEquals(new String[] { "\"a", "b\"", "c" }, parse(parser, "\"a\tb\"\tc"));
+
+    assertBadLine(parser, "no separator", "No delimiter");
+    assertBadLine(parser, "1\t2", "Not enough columns");
+    assertBadLine(parser, "1\t2\t3\t4", "Excessive columns");
+  }
+
+  @Test
+  public void testParseQuoted() throws Exception {
+    CsvParser parser = new CsvParser("a,b,c", ",", "\"");
+    assertArrayEquals(new String[] { "1", "a, b", "" }, parse(parser, "1,\"a, b\",\"\""));
+    assertArrayEquals(new String[] { "say \"hi\"", "\"", "x" },
+        parse(parser, "\"say \"\"hi\"\"\",\"\"\"\",x"));
+    // Quotes in the middle of a field are kept as is.
+    assertArrayEquals(new String[] { "a\"b", "c", "d" }, parse(parser, "a\"b,c,d"));
+
+    assertBadLine(parser, "1,\"unterminated,3", "Unterminated quoted field");
+    assertBadLine(parser, "1,\"a\"b,3", "Unexpected character after a quoted field");
+    assertBadLine(parser, "1,\"b,c\"", "Not enough columns");
+    assertBadLine(parser, "\"a,b,c\"", "No delimiter");
+  }
+
+  @Test
+  public void testParseLong() {
+    assertEquals(0, parseLong("0"));
+    assertEquals(42, parseLong("+42"));
+    assertEquals(-42, parseLong("-42"));
+    assertEquals(Long.MAX_VALUE, parseLong(String.valueOf(Long.MAX_VALUE)));
+    assertEquals(Long.MIN_VALUE, parseLong(String.valueOf(Long.MIN_VALUE)));
+    assertEquals(Byte.MIN_VALUE, parseLong("-128", Byte.MIN_VALUE, Byte.MAX_VALUE));
+    assertEquals(Byte.MAX_VALUE, parseLong("127", Byte.MIN_VALUE, Byte.MAX_VALUE));
+
+    for (String bad : new String[] { "", "-", "+", "1a", " 1", "1.0", "9223372036854775808",
+        "-9223372036854775809", "99999999999999999999" }) {
+      try {
+        parseLong(bad);
+        fail("Should not have parsed " + bad);
+      } catch (NumberFormatException e) {
+        // expected
+      }
+    }
+    try {
+      parseLong("128", Byte.MIN_VALUE, Byte.MAX_VALUE);
+      fail("Should not have parsed a value out of range");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+    try {
+      parseLong("-129", Byte.MIN_VALUE, Byte.MAX_VALUE);
+      fail("Should not have parsed a value out of range");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testParseBoolean() {
+    for (String s : new String[] { "true", "TRUE", "True", "false", "", "yes", "truex", "1" }) {
+      byte[] bytes = Bytes.fromString("x" + s + "x");
+      assertEquals(s, Boolean.parseBoolean(s),
+          CsvRowDecoder.parseBoolean(bytes, 1, bytes.length - 2));
+    }
+  }
+
+  private static long parseLong(String s) {
+    return parseLong(s, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  private static long parseLong(String s, long min, long max) {
+    // Surrounded by digits to make sure the bounds are respected.
+    byte[] bytes = Bytes.fromString("1" + s + "1");
+    return CsvRowDecoder.parseLong(bytes, 1, bytes.length - 2, min, max);
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+import org.kududb.client.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts the rows of a table on a {@link SimulatedCluster}.
+ */
+public class TestCountRows {
+
+  private static final String TABLE_NAME = "count";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+
+  private SimulatedCluster cluster;
+  private AsyncKuduClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(1);
+    cluster.start();
+    client = new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown().join();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testServersClockBehind() throws Exception {
+    // A snapshot taken from the local clock would be in the servers' future.
+    cluster.setClockOffsetMillis(-60000);
+    CreateTableBuilder builder = new CreateTableBuilder();
+    for (int key : new int[] {10, 20}) {
+      PartialRow splitRow = SCHEMA.newPartialRow();
+      splitRow.addInt(0, key);
+      builder.addSplitRow(splitRow);
+    }
+    KuduTable table = client.createTable(TABLE_NAME, SCHEMA, builder).join();
+    AsyncKuduSession session = client.newSession();
+    for (int key = 0; key < 30; key++) {
+      Insert insert = table.newInsert();
+      PartialRow row = insert.getRow();
+      row.addInt(0, key);
+      row.addInt(1, key);
+      row.addInt(2, key);
+      row.addString(3, "a string");
+      row.addBoolean(4, true);
+      session.apply(insert).join();
+    }
+    session.close().join();
+
+    assertEquals(30, CountRows.countRows(client, table, 1));
+    assertEquals(30, CountRows.countRows(client, table, 16));
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.tools;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestKeyGenerator {
+
+  private static final int KEY_SPACE = 1000;
+  private static final int NUM_KEYS = 100000;
+
+  private final Random random = new Random(1);
+
+  @Test
+  public void testSequential() {
+    KeyGenerator generator = KeyGenerator.create(KeyGenerator.Distribution.SEQUENTIAL, 0, 0);
+    assertEquals(0, generator.nextReadKey(random));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, generator.nextWriteKey(random));
+    }
+    for (int i = 0; i < 100; i++) {
+      long key = generator.nextReadKey(random);
+      assertTrue(key >= 0 && key < 10);
+    }
+  }
+
+  @Test
+  public void testUniform() {
+    int[] counts = countKeys(KeyGenerator.create(KeyGenerator.Distribution.UNIFORM, KEY_SPACE, 0));
+    for (int count : counts) {
+      // 100 on average.
+      assertTrue(count > 50 && count < 150);
+    }
+  }
+
+  @Test
+  public void testZipfian() {
+    int[] counts = countKeys(
+        KeyGenerator.create(KeyGenerator.Distribution.ZIPFIAN, KEY_SPACE, 0.99));
+    int max = 0;
+    int unused = 0;
+    for (int count : counts) {
+      max = Math.max(max, count);
+      if (count == 0) {
+        unused++;
+      }
+    }
+    // The most popular key has a probability of about 1 / zeta(1000, 0.99), which is 13%.
+    assertTrue("max: " + max, max > NUM_KEYS / 10);
+    assertTrue("unused: " + unused, unused > 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZipfianBadTheta() {
+    KeyGenerator.create(KeyGenerator.Distribution.ZIPFIAN, KEY_SPACE, 1);
+  }
+
+  private int[] countKeys(KeyGenerator generator) {
+    int[] counts = new int[KEY_SPACE];
+    for (int i = 0; i < NUM_KEYS; i++) {
+      long key = i % 2 == 0 ? generator.nextWriteKey(random) : generator.nextReadKey(random);
+      assertTrue(key >= 0 && key < KEY_SPACE);
+      counts[(int) key]++;
+    }
+    return counts;
+  }
+}
@@ -33,10 +33,12 @@ public abstract class AbstractKuduScannerBuilder
   final List<Tserver.ColumnRangePredicatePB> columnRangePredicates;
 
   AsyncKuduScanner.ReadMode readMode = AsyncKuduScanner.ReadMode.READ_LATEST;
+  ReplicaSelection replicaSelection = ReplicaSelection.LEADER_ONLY;
   int maxNumBytes = 1024*1024;
   long limit = Long.MAX_VALUE;
   boolean prefetching = false;
   boolean cacheBlocks = true;
+  boolean directBuffers = false;
   long htTimestamp = AsyncKuduClient.NO_TIMESTAMP;
   byte[] lowerBoundPrimaryKey = AsyncKuduClient.EMPTY_ARRAY;
   byte[] upperBoundPrimaryKey = AsyncKuduClient.EMPTY_ARRAY;
@@ -146,8 +148,35 @@ public abstract class AbstractKuduScannerBuilder
   }
 
   /**
-   * Sets a previously encoded HT timestamp as a snapshot timestamp, for tests. None is used by
-   * default.
+   * Sets whether the rows returned by the tablet servers are received in off-heap memory shared
+   * through the client instead of Java byte arrays, disabled by default.
+   * <p>
+   * This saves copying and garbage collecting the data of large scans, but each
+   * {@link RowResultIterator} must then be given back by calling
+   * {@link RowResultIterator#release()} once its rows were read. Iterators that aren't released
+   * only prevent their memory from being reused.
+   * @param directBuffers a boolean that indicates if the rows should be received off-heap
+   * @return this instance
+   */
+  public S directBuffers(boolean directBuffers) {
+    this.directBuffers = directBuffers;
+    return (S) this;
+  }
+
+  /**
+   * Sets which replica of each tablet is scanned, the default is to scan the leader.
+   * @param replicaSelection a replica selection policy for the scanner
+   * @return this instance
+   */
+  public S replicaSelection(ReplicaSelection replicaSelection) {
+    this.replicaSelection = replicaSelection;
+    return (S) this;
+  }
+
+  /**
+   * Sets a previously encoded HT timestamp as a snapshot timestamp, see
+   * {@link org.kududb.util.HybridTimeUtil}. This is used by tests and to have multiple scanners
+   * read the same snapshot. None is used by default.
    * @param htTimestamp a long representing a HybridClock-encoded timestamp
    * @return this instance
    * @throws IllegalArgumentException if the timestamp is less than 0
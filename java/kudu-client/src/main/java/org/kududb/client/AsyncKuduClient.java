@@ -29,6 +29,7 @@ package org.kududb.client;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
@@ -67,6 +68,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -76,6 +78,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.kududb.client.ExternalConsistencyMode.CLIENT_PROPAGATED;
@@ -124,6 +127,14 @@ public class AsyncKuduClient implements AutoCloseable {
   public static final int NO_TIMESTAMP = -1;
   public static final long DEFAULT_OPERATION_TIMEOUT_MS = 10000;
   public static final long DEFAULT_SOCKET_READ_TIMEOUT_MS = 5000;
+  public static final long DEFAULT_TABLET_LOCATIONS_TTL_MS = 5 * 60 * 1000;
+  static final int MAX_POOLED_DIRECT_BUFFERS = 16;
+  static final int MAX_SLOW_RPC_TRACES = 100;
+  /**
+   * How many times an RPC can be retried right away, trying the other replicas and then asking
+   * the master where the leader is, before we start sleeping between the retries.
+   */
+  static final int MAX_IMMEDIATE_RETRIES = 4;
 
   private final ClientSocketChannelFactory channelFactory;
 
@@ -193,6 +204,8 @@ public class AsyncKuduClient implements AutoCloseable {
   static final String MASTER_TABLE_NAME_PLACEHOLDER =  "Kudu Master";
   final KuduTable masterTable;
   private final List<HostAndPort> masterAddresses;
+  private final MasterLeaderTracker masterLeaderTracker = new MasterLeaderTracker(this);
+  private final TabletLookupAggregator tabletLookupAggregator = new TabletLookupAggregator(this);
 
   private final HashedWheelTimer timer = new HashedWheelTimer(20, MILLISECONDS);
 
@@ -219,12 +232,46 @@ public class AsyncKuduClient implements AutoCloseable {
 
   private final Random sleepRandomizer = new Random();
 
+  /**
+   * Direct buffers used by the scanners that receive their rows off-heap.
+   * @see AbstractKuduScannerBuilder#directBuffers(boolean)
+   */
+  private final DirectBufferPool directBufferPool = new DirectBufferPool(MAX_POOLED_DIRECT_BUFFERS);
+
+  private final ClientMetrics metrics = new ClientMetrics();
+
+  /**
+   * RPCs that take at least this long get their trace logged, 0 if tracing is disabled.
+   * @see AsyncKuduClientBuilder#slowRpcTraceThresholdMs(long)
+   */
+  private final long slowRpcTraceThresholdMs;
+
+  private final double rpcTraceSamplingRate;
+
+  /**
+   * The traces of the latest slow RPCs, the oldest ones are evicted first.
+   */
+  @GuardedBy("slowRpcTraces")
+  private final ArrayDeque<String> slowRpcTraces = new ArrayDeque<String>(MAX_SLOW_RPC_TRACES);
+
   private final long defaultOperationTimeoutMs;
 
   private final long defaultAdminOperationTimeoutMs;
 
   private final long defaultSocketReadTimeoutMs;
 
+  /**
+   * How long we trust the locations we got from the master, in nanoseconds.
+   * @see AsyncKuduClientBuilder#tabletLocationsTtlMs(long)
+   */
+  private final long tabletLocationsTtlNanos;
+
+  /**
+   * Whether the high-priority RPCs get their own connections.
+   * @see AsyncKuduClientBuilder#priorityConnections(boolean)
+   */
+  private final boolean priorityConnections;
+
   private volatile boolean closed;
 
   private AsyncKuduClient(AsyncKuduClientBuilder b) {
@@ -235,6 +282,10 @@ public class AsyncKuduClient implements AutoCloseable {
     this.defaultOperationTimeoutMs = b.defaultOperationTimeoutMs;
     this.defaultAdminOperationTimeoutMs = b.defaultAdminOperationTimeoutMs;
     this.defaultSocketReadTimeoutMs = b.defaultSocketReadTimeoutMs;
+    this.slowRpcTraceThresholdMs = b.slowRpcTraceThresholdMs;
+    this.rpcTraceSamplingRate = b.rpcTraceSamplingRate;
+    this.tabletLocationsTtlNanos = MILLISECONDS.toNanos(b.tabletLocationsTtlMs);
+    this.priorityConnections = b.priorityConnections;
   }
 
   /**
@@ -257,6 +308,44 @@ public class AsyncKuduClient implements AutoCloseable {
     return lastPropagatedTimestamp;
   }
 
+  /**
+   * Gets the current time of the tablet servers by opening a snapshot scan on the first tablet
+   * of a table and letting the server pick the snapshot. Unlike the local clock, it's never
+   * rejected as being in the future when used as the snapshot of other scans, and it's at least
+   * the last timestamp this client propagated so those scans see this client's writes.
+   * @param table the table to ask a tablet server of
+   * @return a deferred HT timestamp
+   */
+  public Deferred<Long> getServerTimestamp(KuduTable table) {
+    final AsyncKuduScanner scanner = newScannerBuilder(table)
+        .setProjectedColumnNames(Collections.<String>emptyList())
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .cacheBlocks(false)
+        .build();
+    // The first response has the snapshot timestamp, which updates the propagated timestamp.
+    return scanner.nextRows().addCallbackDeferring(
+        new Callback<Deferred<Long>, RowResultIterator>() {
+          @Override
+          public Deferred<Long> call(RowResultIterator rows) {
+            final long timestamp = getLastPropagatedTimestamp();
+            if (!scanner.hasMoreRows()) {
+              return Deferred.fromResult(timestamp);
+            }
+            return scanner.close().addCallback(new Callback<Long, RowResultIterator>() {
+              @Override
+              public Long call(RowResultIterator ignored) {
+                return timestamp;
+              }
+            });
+          }
+
+          @Override
+          public String toString() {
+            return "get the server timestamp";
+          }
+        });
+  }
+
   /**
    * Create a table on the cluster with the specified name and schema. Default table
    * configurations are used, mainly the table will have one tablet.
@@ -509,6 +598,90 @@ public class AsyncKuduClient implements AutoCloseable {
     return defaultSocketReadTimeoutMs;
   }
 
+  /**
+   * Get the metrics that this client has been collecting since it was created.
+   * @return this client's metrics
+   */
+  public ClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Periodically calls the specified reporter with this client's metrics, until the client is
+   * shut down.
+   * @param reporter the reporter to call, must not block
+   * @param intervalMs the time between two reports, in milliseconds
+   */
+  public void addMetricsReporter(final MetricsReporter reporter, final long intervalMs) {
+    checkIsClosed();
+    Preconditions.checkArgument(intervalMs > 0, "The interval must be positive, got %s",
+        intervalMs);
+    final class ReportTask implements TimerTask {
+      public void run(final Timeout timeout) {
+        if (closed) {
+          return;
+        }
+        try {
+          reporter.report(metrics);
+        } catch (Exception e) {
+          LOG.warn("Metrics reporter " + reporter + " threw an exception", e);
+        }
+        newTimeout(this, intervalMs);
+      }
+    }
+    newTimeout(new ReportTask(), intervalMs);
+  }
+
+  /**
+   * Get the traces of the latest RPCs that took longer than the threshold set with
+   * {@link AsyncKuduClientBuilder#slowRpcTraceThresholdMs(long)}. Each trace lists the stages the
+   * RPC went through, like waiting on a tablet lookup, sitting in a session's buffer, waiting for
+   * a connection, being on the wire or waiting to be retried, along with the time at which it
+   * reached them.
+   * @return up to the latest 100 traces, oldest first
+   */
+  public List<String> getSlowRpcTraces() {
+    synchronized (slowRpcTraces) {
+      return new ArrayList<String>(slowRpcTraces);
+    }
+  }
+
+  /**
+   * Starts a trace for a new RPC, if tracing is enabled and the RPC gets sampled.
+   * @return a new trace, or null
+   */
+  RpcTrace newRpcTrace() {
+    if (slowRpcTraceThresholdMs == 0 ||
+        (rpcTraceSamplingRate < 1 && sleepRandomizer.nextDouble() >= rpcTraceSamplingRate)) {
+      return null;
+    }
+    RpcTrace trace = new RpcTrace();
+    trace.record(RpcTrace.Stage.CREATED);
+    return trace;
+  }
+
+  /**
+   * Called by RPCs when they complete so that we can keep the traces of the slow ones.
+   * @param rpc the RPC that completed
+   * @param trace the RPC's trace
+   */
+  void rpcTraceCompleted(KuduRpc<?> rpc, RpcTrace trace) {
+    if (trace.getDurationNanos() < MILLISECONDS.toNanos(slowRpcTraceThresholdMs)) {
+      return;
+    }
+    RemoteTablet tablet = rpc.getTablet();
+    String description = rpc.method() + " RPC" +
+        (tablet == null ? "" : " to tablet " + tablet.getTabletIdAsString()) +
+        " attempt=" + rpc.attempt + ": " + trace;
+    LOG.warn("Slow " + description);
+    synchronized (slowRpcTraces) {
+      if (slowRpcTraces.size() == MAX_SLOW_RPC_TRACES) {
+        slowRpcTraces.removeFirst();
+      }
+      slowRpcTraces.addLast(description);
+    }
+  }
+
   /**
    * Creates a new {@link AsyncKuduScanner.AsyncKuduScannerBuilder} for a particular table.
    * @param table the name of the table you intend to scan.
@@ -567,6 +740,14 @@ public class AsyncKuduClient implements AutoCloseable {
     }
   }
 
+  /**
+   * Package-private access point for {@link AsyncKuduScanner}s that receive their rows off-heap.
+   * @return the pool of direct buffers shared by this client's scanners
+   */
+  DirectBufferPool getDirectBufferPool() {
+    return directBufferPool;
+  }
+
   /**
    * Package-private access point for {@link AsyncKuduScanner}s to scan more rows.
    * @param scanner The scanner to use.
@@ -574,7 +755,7 @@ public class AsyncKuduClient implements AutoCloseable {
    */
   Deferred<AsyncKuduScanner.Response> scanNextRows(final AsyncKuduScanner scanner) {
     final RemoteTablet tablet = scanner.currentTablet();
-    final TabletClient client = clientFor(tablet);
+    final TabletClient client = clientForScanner(scanner, tablet);
     final KuduRpc<AsyncKuduScanner.Response> next_request = scanner.getNextRowsRequest();
     final Deferred<AsyncKuduScanner.Response> d = next_request.getDeferred();
     if (client == null) {
@@ -601,7 +782,7 @@ public class AsyncKuduClient implements AutoCloseable {
       return Deferred.fromResult(null);
     }
 
-    final TabletClient client = clientFor(tablet);
+    final TabletClient client = clientForScanner(scanner, tablet);
     if (client == null) {
       // Oops, we no longer know anything about this client or tabletSlice.  Our
       // cache was probably invalidated while the client was scanning.  So
@@ -616,11 +797,167 @@ public class AsyncKuduClient implements AutoCloseable {
     return d;
   }
 
+  /**
+   * Checksums all the rows of a table at a snapshot. The tablet servers compute the checksums
+   * and only send those back, so this is much cheaper than scanning the table to verify it. All
+   * the tablets are checksummed at the same time, by their leaders.
+   * <p>
+   * A table's checksum is the sum of the checksums of its rows, so it doesn't depend on how the
+   * table is partitioned: two copies of a table, in two clusters for example, have the same
+   * checksum at a snapshot if they have the same schema and the same rows.
+   * @param table the table to checksum
+   * @param snapshotTimestamp the hybrid time to read at, see
+   * {@link org.kududb.util.HybridTimeUtil}
+   * @return a deferred checksum
+   */
+  public Deferred<Long> checksumTable(KuduTable table, long snapshotTimestamp) {
+    checkIsClosed();
+    Preconditions.checkArgument(snapshotTimestamp != NO_TIMESTAMP,
+        "A snapshot timestamp is required");
+    return checksumTablets(table, EMPTY_ARRAY, snapshotTimestamp,
+        new ArrayList<Deferred<Long>>(), null);
+  }
+
+  /**
+   * Checksums the tablets that start at or after a partition key as their locations come back
+   * from the master, then sums all the checksums once the last tablet was found. The master
+   * leaves out the tablets that aren't running, so the walk stops at the first gap between two
+   * tablets and looks the next one up again a bit later, until it shows up or the admin
+   * operation timeout expires.
+   * @param gapDeadline when the lookups started to find no tablet at the partition key, or null
+   * if the previous lookup found one
+   */
+  private Deferred<Long> checksumTablets(final KuduTable table, final byte[] startPartitionKey,
+                                         final long snapshotTimestamp,
+                                         final List<Deferred<Long>> checksums,
+                                         final DeadlineTracker gapDeadline) {
+    metrics.recordMasterLookup();
+    GetTableLocationsRequest rpc = new GetTableLocationsRequest(masterTable, startPartitionKey,
+        null, table.getTableId());
+    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    return sendRpcToTablet(rpc).addCallbackDeferring(
+        new Callback<Deferred<Long>, Master.GetTableLocationsResponsePB>() {
+          @Override
+          public Deferred<Long> call(Master.GetTableLocationsResponsePB response) {
+            byte[] nextPartitionKey = startPartitionKey;
+            for (Master.TabletLocationsPB tabletPb : response.getTabletLocationsList()) {
+              LocatedTablet tablet = new LocatedTablet(tabletPb);
+              Partition partition = tablet.getPartition();
+              if (Bytes.memcmp(partition.getPartitionKeyStart(), nextPartitionKey) > 0) {
+                break;
+              }
+              checksums.add(checksumTablet(table, tablet, null, snapshotTimestamp));
+              nextPartitionKey = partition.getPartitionKeyEnd();
+              if (nextPartitionKey.length == 0) {
+                return sumChecksums(checksums);
+              }
+            }
+            if (nextPartitionKey != startPartitionKey) {
+              return checksumTablets(table, nextPartitionKey, snapshotTimestamp, checksums, null);
+            }
+            return retryChecksumLookup(table, startPartitionKey, snapshotTimestamp, checksums,
+                gapDeadline);
+          }
+
+          @Override
+          public String toString() {
+            return "checksum the tablets of " + table.getName();
+          }
+        });
+  }
+
+  /**
+   * Looks up the tablet that starts at a partition key again after a delay, for
+   * {@link #checksumTablets}.
+   */
+  private Deferred<Long> retryChecksumLookup(final KuduTable table, final byte[] partitionKey,
+                                             final long snapshotTimestamp,
+                                             final List<Deferred<Long>> checksums,
+                                             DeadlineTracker gapDeadline) {
+    if (gapDeadline == null) {
+      gapDeadline = new DeadlineTracker();
+      gapDeadline.setDeadline(defaultAdminOperationTimeoutMs);
+    }
+    long sleepTime = SLEEP_TIME + sleepRandomizer.nextInt(50);
+    if (gapDeadline.wouldSleepingTimeout(sleepTime)) {
+      return Deferred.fromError(new NonRecoverableException("The master didn't return the " +
+          "tablet of " + table.getName() + " that starts at partition key " +
+          Bytes.pretty(partitionKey) + " for " + gapDeadline.getElapsedMillis() +
+          "ms, it isn't running"));
+    }
+    metrics.recordRetry(ClientMetrics.RetryCause.TABLET_NOT_RUNNING);
+    final DeadlineTracker deadline = gapDeadline;
+    final Deferred<Long> d = new Deferred<Long>();
+    newTimeout(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) {
+        checksumTablets(table, partitionKey, snapshotTimestamp, checksums, deadline).chain(d);
+      }
+    }, sleepTime);
+    return d;
+  }
+
+  private static Deferred<Long> sumChecksums(List<Deferred<Long>> checksums) {
+    return Deferred.group(checksums).addCallback(new Callback<Long, ArrayList<Long>>() {
+      @Override
+      public Long call(ArrayList<Long> tabletChecksums) {
+        long checksum = 0;
+        for (Long tabletChecksum : tabletChecksums) {
+          checksum += tabletChecksum;
+        }
+        return checksum;
+      }
+    });
+  }
+
+  /**
+   * Checksums all the rows of a tablet at a snapshot, on one of its replicas. Checksumming every
+   * replica of a tablet at the same snapshot tells if they have diverged.
+   * @param table the table the tablet belongs to
+   * @param tablet the tablet to checksum
+   * @param replicaUuid the UUID of the replica to checksum, see
+   * {@link LocatedTablet.Replica#getUuid()}, or null to checksum the leader
+   * @param snapshotTimestamp the hybrid time to read at, see
+   * {@link org.kududb.util.HybridTimeUtil}
+   * @return a deferred checksum
+   */
+  public Deferred<Long> checksumTablet(KuduTable table, LocatedTablet tablet, String replicaUuid,
+                                       long snapshotTimestamp) {
+    checkIsClosed();
+    Preconditions.checkArgument(snapshotTimestamp != NO_TIMESTAMP,
+        "A snapshot timestamp is required");
+    return sendChecksumRequest(new ChecksumRequest(table,
+        tablet.getPartition().getPartitionKeyStart(), replicaUuid, snapshotTimestamp));
+  }
+
+  /**
+   * Sends a checksum request then the ones that continue it until the tablet is exhausted.
+   */
+  private Deferred<Long> sendChecksumRequest(final ChecksumRequest rpc) {
+    rpc.setTimeoutMillis(defaultOperationTimeoutMs);
+    return sendRpcToTablet(rpc).addCallbackDeferring(
+        new Callback<Deferred<Long>, ChecksumResponse>() {
+          @Override
+          public Deferred<Long> call(ChecksumResponse response) {
+            if (response.hasMoreResults()) {
+              return sendChecksumRequest(rpc.nextRequest(response));
+            }
+            return Deferred.fromResult(response.getChecksum());
+          }
+
+          @Override
+          public String toString() {
+            return "continue " + rpc;
+          }
+        });
+  }
+
   <R> Deferred<R> sendRpcToTablet(final KuduRpc<R> request) {
     if (cannotRetryRequest(request)) {
       return tooManyAttemptsOrTimeout(request, null);
     }
     request.attempt++;
+    request.traceStage(RpcTrace.Stage.SENDING);
     final String tableId = request.getTable().getTableId();
     byte[] partitionKey = null;
     if (request instanceof KuduRpc.HasKey) {
@@ -637,8 +974,15 @@ public class AsyncKuduClient implements AutoCloseable {
     }
 
     if (tablet != null) {
-      TabletClient tabletClient = clientFor(tablet);
+      if (tablet.isDueForRefresh()) {
+        refreshTabletLocations(request.getTable(), tablet);
+      }
+      TabletClient tabletClient = clientFor(tablet, request);
       if (tabletClient != null) {
+        if (priorityConnections &&
+            request.getPriority() == SessionConfiguration.Priority.HIGH) {
+          tabletClient = tabletClient.getPriorityLane();
+        }
         request.setTablet(tablet);
         final Deferred<R> d = request.getDeferred();
         tabletClient.sendRpc(request);
@@ -656,8 +1000,10 @@ public class AsyncKuduClient implements AutoCloseable {
           new RetryRpcCB<R, Master.IsCreateTableDoneResponsePB>(request),
           getDelayedIsCreateTableDoneErrback(request));
     }
-    Callback<Deferred<R>, Master.GetTableLocationsResponsePB> cb = new RetryRpcCB<>(request);
+    Callback<Deferred<R>, Master.GetTableLocationsResponsePB> cb =
+        new RetryAfterLookupCB<>(request, partitionKey);
     Callback<Deferred<R>, Exception> eb = new RetryRpcErrback<>(request);
+    request.traceStage(RpcTrace.Stage.LOOKUP_STARTED);
     Deferred<Master.GetTableLocationsResponsePB> returnedD =
         locateTablet(request.getTable(), partitionKey);
     return AsyncUtil.addCallbacksDeferring(returnedD, cb, eb);
@@ -687,6 +1033,53 @@ public class AsyncKuduClient implements AutoCloseable {
     }
   }
 
+  /**
+   * Callback used to retry a RPC once its tablet was looked up. The master leaves out the
+   * tablets that aren't running, for example right after the table was created or while a
+   * tablet is being moved, so if the lookup didn't find the RPC's tablet we look it up again
+   * after sleeping.
+   */
+  final class RetryAfterLookupCB<R> implements
+      Callback<Deferred<R>, Master.GetTableLocationsResponsePB> {
+    private final KuduRpc<R> request;
+    private final byte[] partitionKey;
+
+    RetryAfterLookupCB(KuduRpc<R> request, byte[] partitionKey) {
+      this.request = request;
+      this.partitionKey = partitionKey;
+    }
+
+    public Deferred<R> call(final Master.GetTableLocationsResponsePB response) {
+      String tableId = request.getTable().getTableId();
+      if (isTabletNotRunning(tableId, partitionKey)) {
+        metrics.recordRetry(ClientMetrics.RetryCause.TABLET_NOT_RUNNING);
+        Deferred<R> d = request.getDeferred();
+        delayedSendRpcToTablet(request, new NonRecoverableException("The tablet that covers " +
+            "partition key " + Bytes.pretty(partitionKey) + " in table " + tableId +
+            " isn't running"));
+        return d;
+      }
+      return sendRpcToTablet(request);
+    }
+
+    public String toString() {
+      return "retry RPC after lookup";
+    }
+  }
+
+  /**
+   * Checks if a lookup that just completed didn't return the tablet that covers a partition key.
+   * Every key is covered by a tablet, so it means the master left that tablet out because it
+   * isn't running yet.
+   * @param tableId the table that was looked up
+   * @param partitionKey the partition key that was looked up, can be null
+   * @return true if the key's tablet should be looked up again later
+   */
+  boolean isTabletNotRunning(String tableId, byte[] partitionKey) {
+    return partitionKey != null && !isMasterTable(tableId) &&
+        !tablesNotServed.contains(tableId) && getTablet(tableId, partitionKey) == null;
+  }
+
   /**
    * "Errback" used to delayed-retry a RPC if it fails due to no leader master being found.
    * Other exceptions are passed through to be handled by the caller.
@@ -707,16 +1100,16 @@ public class AsyncKuduClient implements AutoCloseable {
     @Override
     public Deferred<R> call(Exception arg) {
       if (arg instanceof NoLeaderMasterFoundException) {
-        // If we could not find the leader master, try looking up the leader master
-        // again.
+        // The master leader tracker already looked up the leader master a few times without
+        // finding it, back off before looking it up again.
+        metrics.recordRetry(ClientMetrics.RetryCause.NO_LEADER_MASTER);
         Deferred<R> d = request.getDeferred();
-        // TODO: Handle the situation when multiple in-flight RPCs are queued waiting
-        // for the leader master to be determine (either after a failure or at initialization
-        // time). This could re-use some of the existing piping in place for non-master tablets.
         delayedSendRpcToTablet(request, (NoLeaderMasterFoundException) arg);
         return d;
       }
-      // Pass all other exceptions through.
+      // Pass all other exceptions through. The RPC may be a retry that nothing else is going to
+      // complete, so it gets the exception too.
+      request.errback(arg);
       return Deferred.fromError(arg);
     }
 
@@ -841,8 +1234,10 @@ public class AsyncKuduClient implements AutoCloseable {
           new Exception("Exception created to collect stack trace"));
       attemptCount = 1;
     }
+    // The attempts that were retried right away don't count towards the backoff.
+    int sleepingAttempts = Math.max(1, attemptCount - rpc.immediateRetries);
     // TODO backoffs? Sleep in increments of 500 ms, plus some random time up to 50
-    long sleepTime = (attemptCount * SLEEP_TIME) + sleepRandomizer.nextInt(50);
+    long sleepTime = (sleepingAttempts * SLEEP_TIME) + sleepRandomizer.nextInt(50);
     if (LOG.isDebugEnabled()) {
       LOG.debug("Going to sleep for " + sleepTime + " at retry " + rpc.attempt);
     }
@@ -863,6 +1258,11 @@ public class AsyncKuduClient implements AutoCloseable {
     }
   }
 
+  @VisibleForTesting
+  MasterLeaderTracker getMasterLeaderTracker() {
+    return masterLeaderTracker;
+  }
+
   /**
    * This method first clears tabletsCache and then tablet2client without any regards for
    * calls to {@link #discoverTablets}. Call only when AsyncKuduClient is in a steady state.
@@ -879,6 +1279,53 @@ public class AsyncKuduClient implements AutoCloseable {
     }
   }
 
+  /**
+   * Finds the server that holds an open scanner. Scanners that only read from leaders keep
+   * following the leader like they always did.
+   */
+  private TabletClient clientForScanner(AsyncKuduScanner scanner, RemoteTablet tablet) {
+    if (tablet == null || scanner.getReplicaSelection() == ReplicaSelection.LEADER_ONLY ||
+        scanner.currentTsUUID() == null) {
+      return clientFor(tablet);
+    }
+    return tablet.getTabletServer(scanner.currentTsUUID());
+  }
+
+  /**
+   * Picks the server to send an RPC to. Checksums can target a specific replica, and have to
+   * stay on the server that opened their scanner.
+   */
+  private TabletClient clientFor(RemoteTablet tablet, KuduRpc<?> request) {
+    if (request instanceof ChecksumRequest && ((ChecksumRequest) request).getTsUUID() != null) {
+      return tablet.getTabletServer(((ChecksumRequest) request).getTsUUID());
+    }
+    return clientFor(tablet, request.getReplicaSelection());
+  }
+
+  /**
+   * Picks the server to send an RPC to.
+   * @param tablet the tablet the RPC is for, may be null
+   * @param replicaSelection which replicas the RPC can be sent to
+   * @return a server, or null if we need to locate the tablet again
+   */
+  TabletClient clientFor(RemoteTablet tablet, ReplicaSelection replicaSelection) {
+    if (tablet == null || replicaSelection == ReplicaSelection.LEADER_ONLY) {
+      return clientFor(tablet);
+    }
+    synchronized (tablet.tabletServers) {
+      if (tablet.localTabletServer != null) {
+        return tablet.localTabletServer;
+      }
+      if (tablet.tabletServers.isEmpty()) {
+        return null;
+      }
+      if (tablet.leaderIndex == RemoteTablet.NO_LEADER_INDEX) {
+        return tablet.tabletServers.get(0);
+      }
+      return tablet.tabletServers.get(tablet.leaderIndex);
+    }
+  }
+
   TabletClient clientFor(RemoteTablet tablet) {
     if (tablet == null) {
       return null;
@@ -934,12 +1381,18 @@ public class AsyncKuduClient implements AutoCloseable {
   }
 
   /**
-   * Sends a getTableLocations RPC to the master to find the table's tablets.
+   * Sends a getTableLocations RPC to the master to find the table's tablets. Lookups of a
+   * partition key go through {@link TabletLookupAggregator}, which batches them per table.
    * @param table table to lookup
    * @param partitionKey can be null, if not we'll find the exact tablet that contains it
    * @return Deferred to track the progress
    */
   Deferred<Master.GetTableLocationsResponsePB> locateTablet(KuduTable table, byte[] partitionKey) {
+    if (partitionKey != null && !isMasterTable(table.getTableId())) {
+      // Batched with the other lookups of the table, which only has one in flight at a time so
+      // there's no need for a permit.
+      return tabletLookupAggregator.lookup(table, partitionKey);
+    }
     final boolean has_permit = acquireMasterLookupPermit();
     String tableId = table.getTableId();
     if (!has_permit) {
@@ -951,19 +1404,21 @@ public class AsyncKuduClient implements AutoCloseable {
         return Deferred.fromResult(null);  // Looks like no lookup needed.
       }
     }
+    metrics.recordMasterLookup();
     GetTableLocationsRequest rpc =
         new GetTableLocationsRequest(masterTable, partitionKey, partitionKey, tableId);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
     final Deferred<Master.GetTableLocationsResponsePB> d;
 
     // If we know this is going to the master, check the master consensus configuration (as specified by
-    // 'masterAddresses' field) to determine and cache the current leader.
+    // 'masterAddresses' field) to determine and cache the current leader. The tracker shares
+    // the lookup with all the other RPCs that are waiting for the leader, and caches it itself.
     if (isMasterTable(tableId)) {
-      d = getMasterTableLocationsPB();
+      d = masterLeaderTracker.locateLeader();
     } else {
       d = sendRpcToTablet(rpc);
+      d.addCallback(new MasterLookupCB(table));
     }
-    d.addCallback(new MasterLookupCB(table));
     if (has_permit) {
       d.addBoth(new ReleaseMasterLookupPermit<Master.GetTableLocationsResponsePB>());
     }
@@ -972,7 +1427,8 @@ public class AsyncKuduClient implements AutoCloseable {
 
   /**
    * Update the master config: send RPCs to all config members, use the returned data to
-   * fill a {@link Master.GetTabletLocationsResponsePB} object.
+   * fill a {@link Master.GetTabletLocationsResponsePB} object. RPCs that need the leader
+   * master go through {@link MasterLeaderTracker} instead, which shares this lookup among them.
    * @return An initialized Deferred object to hold the response.
    */
   Deferred<Master.GetTableLocationsResponsePB> getMasterTableLocationsPB() {
@@ -1027,6 +1483,7 @@ public class AsyncKuduClient implements AutoCloseable {
         throw new NonRecoverableException("Took too long getting the list of tablets, " +
             "deadline=" + deadline);
       }
+      metrics.recordMasterLookup();
       GetTableLocationsRequest rpc =
           new GetTableLocationsRequest(masterTable, startPartitionKey, endPartitionKey, tableId);
       rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
@@ -1066,23 +1523,65 @@ public class AsyncKuduClient implements AutoCloseable {
   /**
    * We're handling a tablet server that's telling us it doesn't have the tablet we're asking for.
    * We're in the context of decode() meaning we need to either callback or retry later.
+   * <p>
+   * The server is removed from the tablet's replicas and the RPC is retried right away on the
+   * next one. Once there are no replicas left, the retry goes to the master to find out where the
+   * tablet is now. If that doesn't help, for example because the tablet is still being copied
+   * to that server, we back off.
    */
   <R> void handleTabletNotFound(final KuduRpc<R> rpc, KuduException ex, TabletClient server) {
-    invalidateTabletCache(rpc.getTablet(), server);
-    handleRetryableError(rpc, ex);
+    invalidateTabletCache(rpc, server);
+    metrics.recordRetry(ex instanceof ConnectionResetException ?
+        ClientMetrics.RetryCause.CONNECTION_RESET : ClientMetrics.RetryCause.TABLET_NOT_FOUND);
+    retryRpcRightAway(rpc, ex);
   }
 
   /**
    * A tablet server is letting us know that it isn't the specified tablet's leader in response
    * a RPC, so we need to demote it and retry.
+   * <p>
+   * The retry goes right away to the next replica, while the tablet's locations get refreshed in
+   * the background since the master likely knows who the new leader is. When we run out of
+   * replicas the retry asks the master directly, then we back off. For the masters, the
+   * retry waits for {@link MasterLeaderTracker} to find the new leader.
    */
   <R> void handleNotLeader(final KuduRpc<R> rpc, KuduException ex, TabletClient server) {
-    rpc.getTablet().demoteLeader(server);
-    handleRetryableError(rpc, ex);
+    RemoteTablet tablet = rpc.getTablet();
+    tablet.demoteLeader(server);
+    metrics.recordRetry(ClientMetrics.RetryCause.NOT_LEADER);
+    if (!isMasterTable(tablet.getTableId())) {
+      refreshTabletLocations(rpc.getTable(), tablet);
+    }
+    retryRpcRightAway(rpc, ex);
+  }
+
+  /**
+   * The separate connection a high-priority RPC was sent on was lost. Unlike
+   * {@link #handleTabletNotFound}, nothing is invalidated since the server's main connection
+   * would tell us if the server went away.
+   */
+  <R> void handlePriorityLaneReset(final KuduRpc<R> rpc, KuduException ex) {
+    metrics.recordRetry(ClientMetrics.RetryCause.CONNECTION_RESET);
+    retryRpcRightAway(rpc, ex);
+  }
+
+  /**
+   * Retries an RPC without sleeping if it hasn't been retried this way too many times already,
+   * else schedules it to be retried later.
+   * @see #MAX_IMMEDIATE_RETRIES
+   */
+  private <R> void retryRpcRightAway(final KuduRpc<R> rpc, KuduException ex) {
+    if (rpc.immediateRetries >= MAX_IMMEDIATE_RETRIES) {
+      delayedSendRpcToTablet(rpc, ex);
+      return;
+    }
+    rpc.immediateRetries++;
+    sendRpcToTablet(rpc);
   }
 
   <R> void handleRetryableError(final KuduRpc<R> rpc, KuduException ex) {
     // TODO we don't always need to sleep, maybe another replica can serve this RPC.
+    metrics.recordRetry(ClientMetrics.RetryCause.SERVER_BUSY);
     delayedSendRpcToTablet(rpc, ex);
   }
 
@@ -1102,17 +1601,25 @@ public class AsyncKuduClient implements AutoCloseable {
       // Don't let it retry.
       return;
     }
+    rpc.traceStage(RpcTrace.Stage.RETRY_SCHEDULED);
     newTimeout(new RetryTimer(), sleepTime);
   }
 
   /**
-   * Remove the tablet server from the RemoteTablet's locations. Right now nothing is removing
-   * the tablet itself from the caches.
+   * Remove the tablet server from the RemoteTablet's locations. If there are other replicas left
+   * then the locations are refreshed in the background, else they are expired so that the next
+   * RPC for this tablet asks the master where it is. The other tablets aren't affected.
    */
-  private void invalidateTabletCache(RemoteTablet tablet, TabletClient server) {
+  private void invalidateTabletCache(KuduRpc<?> rpc, TabletClient server) {
+    RemoteTablet tablet = rpc.getTablet();
     LOG.info("Removing server " + server.getUuid() + " from this tablet's cache " +
         tablet.getTabletIdAsString());
     tablet.removeTabletServer(server);
+    if (clientFor(tablet) == null) {
+      tablet.expireLocations();
+    } else if (!isMasterTable(tablet.getTableId())) {
+      refreshTabletLocations(rpc.getTable(), tablet);
+    }
   }
 
   /** Callback executed when a master lookup completes.  */
@@ -1155,12 +1662,72 @@ public class AsyncKuduClient implements AutoCloseable {
     masterLookups.release();
   }
 
+  /**
+   * Starts looking up the locations of a tablet, and of the ones that follow it, without making
+   * anyone wait on the result. Only one refresh per tablet is done at a time, and we give up
+   * right away if we're already doing too many master lookups since the current locations can
+   * still be used until they expire.
+   * @param table the tablet's table
+   * @param tablet the tablet whose locations are due for a refresh
+   */
+  private void refreshTabletLocations(final KuduTable table, final RemoteTablet tablet) {
+    if (!tablet.refreshInFlight.compareAndSet(false, true)) {
+      return;
+    }
+    if (!masterLookups.tryAcquire()) {
+      tablet.refreshInFlight.set(false);
+      return;
+    }
+    metrics.recordMasterLookup();
+    final byte[] partitionKey = tablet.getPartition().getPartitionKeyStart();
+    GetTableLocationsRequest rpc = new GetTableLocationsRequest(masterTable, partitionKey,
+        partitionKey, table.getTableId());
+    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    // Generic so that an Exception can be passed in without a cast, like we do for
+    // ReleaseMasterLookupPermit.
+    final class RefreshDoneCB<T> implements Callback<Object, T> {
+      public Object call(final T arg) {
+        releaseMasterLookupPermit();
+        try {
+          if (arg instanceof Master.GetTableLocationsResponsePB) {
+            discoverTablets(table, (Master.GetTableLocationsResponsePB) arg);
+          } else {
+            LOG.debug("Couldn't refresh the locations of tablet {}: {}", tablet, arg);
+          }
+        } catch (NonRecoverableException e) {
+          LOG.debug("Couldn't refresh the locations of tablet " + tablet, e);
+        } finally {
+          tablet.refreshInFlight.set(false);
+        }
+        return null;
+      }
+      public String toString() {
+        return "refresh the locations of tablet " + tablet;
+      }
+    }
+    sendRpcToTablet(rpc).addBoth(new RefreshDoneCB<Master.GetTableLocationsResponsePB>());
+  }
+
+  /**
+   * Caches the tablet locations returned by the master. The master leaves out the tablets that
+   * aren't running, so a range it didn't return a tablet for may still be covered.
+   * @param table the table that was looked up
+   * @param response the master's response
+   * @throws NonRecoverableException if none of a tablet's locations could be resolved
+   */
   @VisibleForTesting
   void discoverTablets(KuduTable table, Master.GetTableLocationsResponsePB response)
       throws NonRecoverableException {
     String tableId = table.getTableId();
     String tableName = table.getName();
     if (response.getTabletLocationsCount() == 0) {
+      ConcurrentSkipListMap<byte[], RemoteTablet> knownTablets = tabletsCache.get(tableId);
+      if (knownTablets != null && !knownTablets.isEmpty()) {
+        // The table is served, only the tablets that were looked up aren't running. The RPCs
+        // for them look them up again, see isTabletNotRunning().
+        LOG.debug("The tablets that were looked up in table {} aren't running", tableName);
+        return;
+      }
       // Keep a note that the table exists but it's not served yet, we'll retry.
       if (LOG.isDebugEnabled()) {
         LOG.debug("Table {} has not been created yet", tableName);
@@ -1228,7 +1795,8 @@ public class AsyncKuduClient implements AutoCloseable {
       return null;
     }
 
-    // We currently only have one master tablet.
+    // We currently only have one master tablet. Its locations don't expire, masters are found
+    // through the addresses we were given.
     if (isMasterTable(tableId)) {
       if (tablets.firstEntry() == null) {
         return null;
@@ -1251,6 +1819,12 @@ public class AsyncKuduClient implements AutoCloseable {
       return null;
     }
 
+    // Expired locations aren't trusted anymore, the caller will have to ask the master again
+    // which will refresh that same RemoteTablet.
+    if (tabletPair.getValue().isExpired()) {
+      return null;
+    }
+
     return tabletPair.getValue();
   }
 
@@ -1297,11 +1871,28 @@ public class AsyncKuduClient implements AutoCloseable {
         return client;
       }
       final TabletClientPipeline pipeline = new TabletClientPipeline();
-      client = pipeline.init(uuid);
+      client = pipeline.init(uuid, host, port, null);
       chan = channelFactory.newChannel(pipeline);
       ip2client.put(hostport, client);  // This is guaranteed to return null.
     }
     this.client2tablets.put(client, new ArrayList<RemoteTablet>());
+    connect(chan, host, port);
+    return client;
+  }
+
+  /**
+   * Opens a separate connection to the server of the given client, for its high-priority RPCs.
+   * It isn't cached, the owner keeps track of it.
+   * @see TabletClient#getPriorityLane()
+   */
+  TabletClient newPriorityLane(TabletClient owner, String uuid, String host, int port) {
+    final TabletClientPipeline pipeline = new TabletClientPipeline();
+    TabletClient lane = pipeline.init(uuid, host, port, owner);
+    connect(channelFactory.newChannel(pipeline), host, port);
+    return lane;
+  }
+
+  private void connect(SocketChannel chan, String host, int port) {
     final SocketChannelConfig config = chan.getConfig();
     config.setConnectTimeoutMillis(5000);
     config.setTcpNoDelay(true);
@@ -1310,7 +1901,6 @@ public class AsyncKuduClient implements AutoCloseable {
     // TCP_KEEPIDLE.  And of course the default timeout is >2h. Sigh.
     config.setKeepAlive(true);
     chan.connect(new InetSocketAddress(host, port));  // Won't block.
-    return client;
   }
 
   /**
@@ -1589,8 +2179,9 @@ public class AsyncKuduClient implements AutoCloseable {
      */
     private boolean disconnected = false;
 
-    TabletClient init(String uuid) {
-      final TabletClient client = new TabletClient(AsyncKuduClient.this, uuid);
+    TabletClient init(String uuid, String host, int port, TabletClient laneOwner) {
+      final TabletClient client =
+          new TabletClient(AsyncKuduClient.this, uuid, host, port, laneOwner);
       if (defaultSocketReadTimeoutMs > 0) {
         super.addLast("timeout-handler",
             new ReadTimeoutHandler(timer,
@@ -1640,6 +2231,10 @@ public class AsyncKuduClient implements AutoCloseable {
       disconnected = true;  // So we don't clean up the same client twice.
       try {
         final TabletClient client = super.get(TabletClient.class);
+        if (client.isPriorityLane()) {
+          // Not in the caches, and the owner's entries for the same address must stay.
+          return;
+        }
         SocketAddress remote = super.getChannel().getRemoteAddress();
         // At this point Netty gives us no easy way to access the
         // SocketAddress of the peer we tried to connect to. This
@@ -1755,11 +2350,45 @@ public class AsyncKuduClient implements AutoCloseable {
     private final ArrayList<TabletClient> tabletServers = new ArrayList<TabletClient>();
     private final Partition partition;
     private int leaderIndex = NO_LEADER_INDEX;
+    /** A replica that runs on this host, if any. Guarded by tabletServers. */
+    private TabletClient localTabletServer;
+
+    /**
+     * When the locations stop being trusted, as given by {@link System#nanoTime()}. Read without
+     * synchronization in the fast path of every RPC.
+     */
+    private volatile long locationsExpirationNanos;
+    /** Set while a background refresh of the locations is in flight. */
+    final AtomicBoolean refreshInFlight = new AtomicBoolean();
 
     RemoteTablet(String tableId, Slice tabletId, Partition partition) {
       this.tabletId = tabletId;
       this.tableId = tableId;
       this.partition = partition;
+      this.locationsExpirationNanos = System.nanoTime();
+    }
+
+    /**
+     * @return true if the locations are past their TTL, or were invalidated
+     */
+    boolean isExpired() {
+      return !isMasterTable(tableId) && System.nanoTime() - locationsExpirationNanos >= 0;
+    }
+
+    /**
+     * @return true if the locations are in the last quarter of their TTL, in which case we
+     * refresh them in the background so that they don't expire while they are being used
+     */
+    boolean isDueForRefresh() {
+      return !isMasterTable(tableId) &&
+          System.nanoTime() - (locationsExpirationNanos - tabletLocationsTtlNanos / 4) >= 0;
+    }
+
+    /**
+     * Makes the next RPC for this tablet look it up again.
+     */
+    void expireLocations() {
+      locationsExpirationNanos = System.nanoTime();
     }
 
     void refreshServers(Master.TabletLocationsPB tabletLocations) throws NonRecoverableException {
@@ -1767,6 +2396,7 @@ public class AsyncKuduClient implements AutoCloseable {
       synchronized (tabletServers) { // TODO not a fat lock with IP resolving in it
         tabletServers.clear();
         leaderIndex = NO_LEADER_INDEX;
+        localTabletServer = null;
         List<UnknownHostException> lookupExceptions =
             new ArrayList<>(tabletLocations.getReplicasCount());
         for (Master.TabletLocationsPB.ReplicaPB replica : tabletLocations.getReplicasList()) {
@@ -1801,6 +2431,7 @@ public class AsyncKuduClient implements AutoCloseable {
           throw new NonRecoverableException("Couldn't find any valid locations, exceptions: " +
               lookupExceptions);
         }
+        locationsExpirationNanos = System.nanoTime() + tabletLocationsTtlNanos;
       }
     }
 
@@ -1826,6 +2457,9 @@ public class AsyncKuduClient implements AutoCloseable {
           } else {
             tabletServers.add(client);
           }
+          if (localTabletServer == null && NetUtil.isLocalAddress(ip)) {
+            localTabletServer = client;
+          }
           tablets.add(this);
         }
       }
@@ -1851,6 +2485,9 @@ public class AsyncKuduClient implements AutoCloseable {
         }
 
         tabletServers.remove(index);
+        if (localTabletServer == ts) {
+          localTabletServer = null;
+        }
         if (leaderIndex == index && leaderIndex == tabletServers.size()) {
           leaderIndex = NO_LEADER_INDEX;
         } else if (leaderIndex > index) {
@@ -1887,6 +2524,21 @@ public class AsyncKuduClient implements AutoCloseable {
       }
     }
 
+    /**
+     * @param uuid the UUID of one of this tablet's replicas
+     * @return the matching server, or null if we don't know about it anymore
+     */
+    TabletClient getTabletServer(String uuid) {
+      synchronized (tabletServers) {
+        for (TabletClient ts : tabletServers) {
+          if (ts.getUuid().equals(uuid)) {
+            return ts;
+          }
+        }
+        return null;
+      }
+    }
+
     public String getTableId() {
       return tableId;
     }
@@ -1954,6 +2606,10 @@ public class AsyncKuduClient implements AutoCloseable {
     private long defaultAdminOperationTimeoutMs = DEFAULT_OPERATION_TIMEOUT_MS;
     private long defaultOperationTimeoutMs = DEFAULT_OPERATION_TIMEOUT_MS;
     private long defaultSocketReadTimeoutMs = DEFAULT_SOCKET_READ_TIMEOUT_MS;
+    private long slowRpcTraceThresholdMs = 0;
+    private double rpcTraceSamplingRate = 1;
+    private long tabletLocationsTtlMs = DEFAULT_TABLET_LOCATIONS_TTL_MS;
+    private boolean priorityConnections = false;
 
     private Executor bossExecutor;
     private Executor workerExecutor;
@@ -2032,6 +2688,66 @@ public class AsyncKuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Enables RPC tracing: the client records when each RPC goes through the different stages
+     * of its life, and logs the traces of the ones that took at least the specified time. They
+     * are also available through {@link AsyncKuduClient#getSlowRpcTraces()}.
+     * Optional.
+     * If not provided, defaults to 0 which disables tracing.
+     * @param thresholdMs a duration in milliseconds
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder slowRpcTraceThresholdMs(long thresholdMs) {
+      Preconditions.checkArgument(thresholdMs >= 0, "The threshold cannot be negative");
+      this.slowRpcTraceThresholdMs = thresholdMs;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of the RPCs that get traced when tracing is enabled with
+     * {@link #slowRpcTraceThresholdMs(long)}. Lowering it reduces the overhead of tracing for
+     * clients that send a lot of small RPCs.
+     * Optional.
+     * If not provided, defaults to 1, meaning that all the RPCs are traced.
+     * @param samplingRate a number between 0 and 1
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder rpcTraceSamplingRate(double samplingRate) {
+      Preconditions.checkArgument(samplingRate >= 0 && samplingRate <= 1,
+          "The sampling rate must be between 0 and 1");
+      this.rpcTraceSamplingRate = samplingRate;
+      return this;
+    }
+
+    /**
+     * Sets how long the client trusts the tablet locations it got from the master. Locations
+     * that are used during the last quarter of this period are refreshed in the background, and
+     * the ones that weren't refreshed in time are looked up again before being used.
+     * Optional.
+     * If not provided, defaults to 5 minutes.
+     * @param ttlMs a duration in milliseconds, greater than 0
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder tabletLocationsTtlMs(long ttlMs) {
+      Preconditions.checkArgument(ttlMs > 0, "The TTL must be greater than 0");
+      this.tabletLocationsTtlMs = ttlMs;
+      return this;
+    }
+
+    /**
+     * Makes the client open a second connection to each tablet server the sessions with
+     * {@link SessionConfiguration.Priority#HIGH} priority write to, so that their writes don't
+     * wait behind the large batches of the other sessions on the same socket.
+     * Optional.
+     * If not provided, defaults to false, and all the sessions share one connection per server.
+     * @param enabled whether the high-priority writes get their own connections
+     * @return this builder
+     */
+    public AsyncKuduClientBuilder priorityConnections(boolean enabled) {
+      this.priorityConnections = enabled;
+      return this;
+    }
+
     /**
      * Set the executors which will be used for the embedded Netty boss and workers.
      * Optional.
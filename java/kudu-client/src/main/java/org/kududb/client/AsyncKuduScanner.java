@@ -151,8 +151,15 @@ public final class AsyncKuduScanner {
 
   private final boolean cacheBlocks;
 
+  /**
+   * If true, the rows are received in direct buffers from the client's pool.
+   */
+  private final boolean directBuffers;
+
   private final ReadMode readMode;
 
+  private final ReplicaSelection replicaSelection;
+
   private final long htTimestamp;
 
   /////////////////////
@@ -171,6 +178,11 @@ public final class AsyncKuduScanner {
    */
   private AsyncKuduClient.RemoteTablet tablet;
 
+  /**
+   * The UUID of the tablet server that holds our scanner, set once it's open.
+   */
+  private String tsUUID;
+
   /**
    * This is the scanner ID we got from the TabletServer.
    * It's generated randomly so any value is possible.
@@ -196,9 +208,10 @@ public final class AsyncKuduScanner {
   private static final AtomicBoolean PARTITION_PRUNE_WARN = new AtomicBoolean(true);
 
   AsyncKuduScanner(AsyncKuduClient client, KuduTable table, List<String> projectedCols,
-                   ReadMode readMode, long scanRequestTimeout,
+                   ReadMode readMode, ReplicaSelection replicaSelection,
+                   long scanRequestTimeout,
                    List<Tserver.ColumnRangePredicatePB> columnRangePredicates, long limit,
-                   boolean cacheBlocks, boolean prefetching,
+                   boolean cacheBlocks, boolean prefetching, boolean directBuffers,
                    byte[] startPrimaryKey, byte[] endPrimaryKey,
                    byte[] startPartitionKey, byte[] endPartitionKey,
                    long htTimestamp, int maxNumBytes) {
@@ -214,11 +227,13 @@ public final class AsyncKuduScanner {
     this.client = client;
     this.table = table;
     this.readMode = readMode;
+    this.replicaSelection = replicaSelection;
     this.scanRequestTimeout = scanRequestTimeout;
     this.columnRangePredicates = columnRangePredicates;
     this.limit = limit;
     this.cacheBlocks = cacheBlocks;
     this.prefetching = prefetching;
+    this.directBuffers = directBuffers;
     this.startPrimaryKey = startPrimaryKey;
     this.endPrimaryKey = endPrimaryKey;
     this.htTimestamp = htTimestamp;
@@ -322,6 +337,14 @@ public final class AsyncKuduScanner {
     return this.readMode;
   }
 
+  /**
+   * Returns the replica selection policy for this scanner.
+   * @return the configured replica selection policy for this scanner
+   */
+  public ReplicaSelection getReplicaSelection() {
+    return this.replicaSelection;
+  }
+
   long getSnapshotTimestamp() {
     return this.htTimestamp;
   }
@@ -472,6 +495,7 @@ public final class AsyncKuduScanner {
               + tablet);
         }
         tablet = null;
+        tsUUID = null;
         scannerId = "client debug closed".getBytes();   // Make debugging easier.
         return response == null ? null : response.data;
       }
@@ -517,6 +541,7 @@ public final class AsyncKuduScanner {
    */
   void invalidate() {
     tablet = null;
+    tsUUID = null;
   }
 
   /**
@@ -526,6 +551,13 @@ public final class AsyncKuduScanner {
     return tablet;
   }
 
+  /**
+   * Returns the UUID of the tablet server this scanner is open on, if any.
+   */
+  String currentTsUUID() {
+    return tsUUID;
+  }
+
   /**
    * Returns an RPC to open this scanner.
    */
@@ -684,12 +716,16 @@ public final class AsyncKuduScanner {
     @Override
     Pair<Response, Object> deserialize(final CallResponse callResponse,
                                        String tsUUID) throws Exception {
+      if (directBuffers) {
+        callResponse.readSidecarsOffHeap(client.getDirectBufferPool());
+      }
       ScanResponsePB.Builder builder = ScanResponsePB.newBuilder();
       readProtobuf(callResponse.getPBMessage(), builder);
       ScanResponsePB resp = builder.build();
       final byte[] id = resp.getScannerId().toByteArray();
       TabletServerErrorPB error = resp.hasError() ? resp.getError() : null;
       if (error != null && error.getCode().equals(TabletServerErrorPB.Code.TABLET_NOT_FOUND)) {
+        callResponse.releaseSidecarData();
         if (state == State.OPENING) {
           // Doing this will trigger finding the new location.
           return new Pair<Response, Object>(null, error);
@@ -698,6 +734,14 @@ public final class AsyncKuduScanner {
               "the tablet has moved and this isn't a fault tolerant scan");
         }
       }
+      if (state == State.OPENING) {
+        // Later requests must go to the same server, which isn't always the leader.
+        AsyncKuduScanner.this.tsUUID = tsUUID;
+      }
+      if (resp.hasSnapTimestamp()) {
+        // The snapshot the server picked or accepted, reads that follow can use it too.
+        client.updateLastPropagatedTimestamp(resp.getSnapTimestamp());
+      }
       RowResultIterator iterator = new RowResultIterator(
           deadlineTracker.getElapsedMillis(), tsUUID, schema, resp.getData(),
           callResponse);
@@ -726,6 +770,11 @@ public final class AsyncKuduScanner {
       // This key is used to lookup where the request needs to go
       return nextPartitionKey;
     }
+
+    @Override
+    ReplicaSelection getReplicaSelection() {
+      return replicaSelection;
+    }
   }
 
   /**
@@ -745,9 +794,9 @@ public final class AsyncKuduScanner {
      */
     public AsyncKuduScanner build() {
       return new AsyncKuduScanner(
-          client, table, projectedColumnNames, readMode,
+          client, table, projectedColumnNames, readMode, replicaSelection,
           scanRequestTimeout, columnRangePredicates, limit, cacheBlocks,
-          prefetching, lowerBoundPrimaryKey, upperBoundPrimaryKey,
+          prefetching, directBuffers, lowerBoundPrimaryKey, upperBoundPrimaryKey,
           lowerBoundPartitionKey, upperBoundPartitionKey,
           htTimestamp, maxNumBytes);
     }
@@ -128,6 +128,10 @@ public class AsyncKuduSession implements SessionConfiguration {
 
   private boolean ignoreAllDuplicateRows = false;
 
+  private boolean coalesceMutations = false;
+
+  private volatile Priority priority = Priority.NORMAL;
+
   /**
    * Package-private constructor meant to be used via AsyncKuduClient
    * @param client client that creates this session
@@ -225,6 +229,26 @@ public class AsyncKuduSession implements SessionConfiguration {
     this.ignoreAllDuplicateRows = ignoreAllDuplicateRows;
   }
 
+  @Override
+  public boolean isCoalesceMutations() {
+    return coalesceMutations;
+  }
+
+  @Override
+  public void setCoalesceMutations(boolean coalesceMutations) {
+    this.coalesceMutations = coalesceMutations;
+  }
+
+  @Override
+  public Priority getPriority() {
+    return priority;
+  }
+
+  @Override
+  public void setPriority(Priority priority) {
+    this.priority = priority;
+  }
+
   /**
    * Flushes the buffered operations and marks this sessions as closed.
    * See the javadoc on {@link #flush()} on how to deal with exceptions coming out of this method.
@@ -255,6 +279,18 @@ public class AsyncKuduSession implements SessionConfiguration {
     return flushAllBatches().addCallbackDeferring(new ConvertBatchToListOfResponsesCB());
   }
 
+  /**
+   * Creates a sink that writes a stream of operations through this session and reports which
+   * of them are durable, see {@link StreamingSink}.
+   * @param maxBytesInFlight how many bytes of operations, estimated, can be written without
+   * being persisted yet
+   * @param listener called as the checkpoints become durable, can be null
+   * @return a new sink
+   */
+  public StreamingSink newStreamingSink(long maxBytesInFlight, CheckpointListener listener) {
+    return new StreamingSink(this, maxBytesInFlight, listener);
+  }
+
   class OperationsInLookupDoneCB implements
       Callback<Deferred<ArrayList<BatchResponse>>, Void> {
     @Override
@@ -283,7 +319,10 @@ public class AsyncKuduSession implements SessionConfiguration {
       ArrayList<OperationResponse> responsesList =
           new ArrayList<>(batchResponsesList.size() * mutationBufferSpace);
       for (BatchResponse batchResponse : batchResponsesList) {
-        responsesList.addAll(batchResponse.getIndividualResponses());
+        // Null if the tablet's batch was already flushed by someone else.
+        if (batchResponse != null) {
+          responsesList.addAll(batchResponse.getIndividualResponses());
+        }
       }
       deferred.callback(responsesList);
       return deferred;
@@ -336,6 +375,7 @@ public class AsyncKuduSession implements SessionConfiguration {
         operation.setTimeoutMillis(timeoutMs);
       }
       operation.setExternalConsistencyMode(this.consistencyMode);
+      operation.setPriority(priority);
       return client.sendRpcToTablet(operation);
     }
 
@@ -360,6 +400,7 @@ public class AsyncKuduSession implements SessionConfiguration {
     synchronized (this) {
       operationsInLookup.add(operation);
     }
+    operation.traceStage(RpcTrace.Stage.LOOKUP_STARTED);
     // TODO starts looking a lot like sendRpcToTablet
     operation.attempt++;
     if (client.isTableNotServed(tableId)) {
@@ -402,6 +443,20 @@ public class AsyncKuduSession implements SessionConfiguration {
       this.operation = operation;
     }
     public Deferred<OperationResponse> call(final D arg) {
+      if (arg instanceof Master.GetTableLocationsResponsePB &&
+          client.isTabletNotRunning(operation.getTable().getTableId(),
+              operation.partitionKey())) {
+        // The master left out the operation's tablet, look it up again after sleeping.
+        client.getMetrics().recordRetry(ClientMetrics.RetryCause.TABLET_NOT_RUNNING);
+        final Deferred<OperationResponse> d = new Deferred<>();
+        client.newTimeout(new TimerTask() {
+          @Override
+          public void run(Timeout timeout) {
+            handleOperationInLookup(operation).chain(d);
+          }
+        }, client.getSleepTimeForRpc(operation));
+        return d;
+      }
       return handleOperationInLookup(operation);
     }
     public String toString() {
@@ -411,11 +466,18 @@ public class AsyncKuduSession implements SessionConfiguration {
 
   // This method takes an Object since we use it for both callback and errback.
   // The actual type doesn't matter, we just want to be called back in order to retry.
-  Callback<Deferred<OperationResponse>, Object>
-  getRetryOpInLookupCB(final Operation operation) {
-    final class RetryOpInFlightCB implements Callback<Deferred<OperationResponse>, Object> {
-      public Deferred<OperationResponse> call(final Object arg) {
-        return handleOperationInLookup(operation);
+  Callback<Object, Object>
+  getRetryOpInLookupCB(final Operation operation, final Deferred<OperationResponse> d) {
+    final class RetryOpInFlightCB implements Callback<Object, Object> {
+      public Object call(final Object arg) {
+        // We're called from the callbacks of the batch that was in the way, which must not wait
+        // for this operation: it may need the batch's later callbacks in order to be flushed.
+        try {
+          handleOperationInLookup(operation).chain(d);
+        } catch (Exception e) {
+          d.callback(e);
+        }
+        return arg;
       }
 
       public String toString() {
@@ -425,11 +487,14 @@ public class AsyncKuduSession implements SessionConfiguration {
     return new RetryOpInFlightCB();
   }
 
+  @SuppressWarnings("unchecked")
   private Deferred<OperationResponse> handleOperationInLookup(Operation operation) {
     try {
       return apply(operation); // Retry the RPC.
     } catch (PleaseThrottleException pte) {
-      return pte.getDeferred().addBothDeferring(getRetryOpInLookupCB(operation));
+      Deferred<OperationResponse> d = new Deferred<>();
+      pte.getDeferred().addBoth(getRetryOpInLookupCB(operation, d));
+      return d;
     }
   }
 
@@ -456,6 +521,7 @@ public class AsyncKuduSession implements SessionConfiguration {
           // There's is already another batch in flight for this tablet.
           // We cannot continue here, we have to send this back to the client.
           // This is our high watermark.
+          client.getMetrics().recordPleaseThrottle();
           throw new PleaseThrottleException("The RPC cannot be buffered because the current " +
               "buffer is full and the previous buffer hasn't been flushed yet", null,
               operation, operationsInFlight.get(tablet));
@@ -471,6 +537,7 @@ public class AsyncKuduSession implements SessionConfiguration {
     }
 
     Deferred<Void> lookupsDoneCopy = null;
+    Deferred<OperationResponse> d;
     synchronized (this) {
       // We need to get the batch again since we went out of the synchronized block. We can get a
       // new one, the same one, or null.
@@ -486,6 +553,7 @@ public class AsyncKuduSession implements SessionConfiguration {
         int randomWatermark = batch.ops.size() + 1 + randomizer.nextInt(mutationBufferSpace -
             mutationBufferLowWatermark);
         if (randomWatermark > mutationBufferSpace) {
+          client.getMetrics().recordPleaseThrottle();
           throw new PleaseThrottleException("The previous buffer hasn't been flushed and the " +
               "current one is over the low watermark, please retry later", null, operation,
               operationsInFlight.get(tablet));
@@ -494,22 +562,33 @@ public class AsyncKuduSession implements SessionConfiguration {
       if (batch == null) {
         // We found a tablet that needs batching, this is the only place where
         // we schedule a flush.
-        batch = new Batch(operation.getTable(), ignoreAllDuplicateRows);
+        batch = new Batch(operation.getTable(), ignoreAllDuplicateRows, coalesceMutations);
         batch.setExternalConsistencyMode(this.consistencyMode);
         Batch oldBatch = operations.put(tablet, batch);
         assert (oldBatch == null);
         addBatchCallbacks(batch);
         scheduleFlush = true;
       }
-      batch.ops.add(operation);
-      if (!operationsInLookup.isEmpty()) {
-
-        boolean operationWasLookingUpTablet = operationsInLookup.remove(operation);
-        if (operationWasLookingUpTablet) {
-          // We know that the operation we just added was in the 'operationsInLookup' list so we're
-          // very likely adding it out of order from a different thread.
-          // We'll need to sort the whole list later.
-          batch.needsSorting = true;
+      boolean operationWasLookingUpTablet = operationsInLookup.remove(operation);
+      if (operationWasLookingUpTablet) {
+        // We know that the operation we're adding was in the 'operationsInLookup' list so we're
+        // very likely adding it out of order from a different thread.
+        // We'll need to sort the whole list later.
+        batch.needsSorting = true;
+      }
+      // The operations still in lookup will be added later, an operation applied after them
+      // can't be merged with one that was applied before them.
+      batch.add(operation, operationsInLookup.isEmpty());
+      // Taken now, the batch could be flushed and answered before we return, and completing the
+      // operation resets its Deferred.
+      d = operation.getDeferred();
+      // From now on the operation's time is accounted for in its batch's trace.
+      final RpcTrace operationTrace = operation.trace;
+      operation.trace = null;
+      if (operationWasLookingUpTablet) {
+        if (operationTrace != null && batch.trace != null) {
+          operationTrace.record(RpcTrace.Stage.LOOKUP_DONE);
+          batch.trace.addLookupEvents(operationTrace);
         }
 
         if (lookupsDone != null && operationsInLookup.isEmpty()) {
@@ -532,7 +611,7 @@ public class AsyncKuduSession implements SessionConfiguration {
 
     // Get here if we accumulated an insert, regardless of if it scheduled
     // a flush.
-    return operation.getDeferred();
+    return d;
   }
 
   /**
@@ -565,8 +644,8 @@ public class AsyncKuduSession implements SessionConfiguration {
       @Override
       public Exception call(Exception e) throws Exception {
         // Send the same exception to all the operations.
-        for (int i = 0; i < request.ops.size(); i++) {
-          request.ops.get(i).errback(e);
+        for (Operation operation : request.getAppliedOperations()) {
+          operation.errback(e);
         }
         return e;
       }
@@ -632,7 +711,9 @@ public class AsyncKuduSession implements SessionConfiguration {
         batch.deadlineTracker.reset();
         batch.setTimeoutMillis(timeoutMs);
       }
+      batch.setPriority(priority);
     }
+    batch.traceStage(RpcTrace.Stage.FLUSHED);
     return client.sendRpcToTablet(batch);
   }
 
@@ -19,12 +19,16 @@ import org.kududb.WireProtocol;
 import org.kududb.annotations.InterfaceAudience;
 import org.kududb.tserver.Tserver;
 import org.kududb.util.Pair;
+import org.kududb.util.Slice;
 import org.jboss.netty.buffer.ChannelBuffer;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Used internally to batch Operations together before sending to the cluster
@@ -44,14 +48,117 @@ class Batch extends KuduRpc<BatchResponse> implements KuduRpc.HasKey {
   /** See {@link SessionConfiguration#setIgnoreAllDuplicateRows(boolean)} */
   final boolean ignoreAllDuplicateRows;
 
+  /**
+   * Only used when coalescing, see {@link SessionConfiguration#setCoalesceMutations(boolean)}.
+   * Maps the encoded primary keys to the last of their operations in 'ops'.
+   */
+  private final Map<Slice, LastOperation> lastOperations;
+
+  /**
+   * Maps the operations that are sent in place of others to the operations they replace, in the
+   * order they were applied. These get the response of the operation that was sent.
+   */
+  final Map<Operation, List<Operation>> coalesced = new IdentityHashMap<>();
+
   Batch(KuduTable table, boolean ignoreAllDuplicateRows) {
-    this(table, ignoreAllDuplicateRows, 1000);
+    this(table, ignoreAllDuplicateRows, false);
+  }
+
+  Batch(KuduTable table, boolean ignoreAllDuplicateRows, boolean coalesceMutations) {
+    this(table, ignoreAllDuplicateRows, coalesceMutations, 1000);
   }
 
-  Batch(KuduTable table, boolean ignoreAllDuplicateRows, int estimatedBatchSize) {
+  Batch(KuduTable table, boolean ignoreAllDuplicateRows, boolean coalesceMutations,
+        int estimatedBatchSize) {
     super(table);
     this.ops = new ArrayList<Operation>(estimatedBatchSize);
     this.ignoreAllDuplicateRows = ignoreAllDuplicateRows;
+    this.lastOperations = coalesceMutations ? new HashMap<Slice, LastOperation>() : null;
+  }
+
+  /**
+   * Adds an operation to this batch. When coalescing, an UPDATE or a DELETE that follows an
+   * UPDATE of the same row is merged with it: the two UPDATEs become one that sets the columns
+   * of both, and the DELETE replaces the UPDATE. Sending the result has the same outcome as
+   * sending both, whether the row exists or not. The other sequences don't have that property,
+   * for example an UPDATE following an INSERT would be lost if the INSERT failed because the row
+   * was already there, so they aren't merged.
+   * <p>
+   * Nothing is merged once operations were added out of order, nor while some of the session's
+   * operations are still in a tablet lookup: one of them could come between the two being merged.
+   * @param operation the operation to add
+   * @param noOperationsInLookup whether the session has no operations in a tablet lookup, not
+   * counting this one
+   * @return true if the operation was merged with another one, so it doesn't take more room
+   */
+  boolean add(Operation operation, boolean noOperationsInLookup) {
+    if (lastOperations == null || !hasPrimaryKey(operation)) {
+      ops.add(operation);
+      return false;
+    }
+    Slice key = new Slice(operation.getRow().encodePrimaryKey());
+    LastOperation last = lastOperations.get(key);
+    if (noOperationsInLookup && !needsSorting && last != null &&
+        last.sequenceNumber < operation.getSequenceNumber() &&
+        last.operation.getChangeType() == Operation.ChangeType.UPDATE &&
+        (operation.getChangeType() == Operation.ChangeType.UPDATE ||
+            operation.getChangeType() == Operation.ChangeType.DELETE)) {
+      List<Operation> replaced = coalesced.remove(last.operation);
+      if (replaced == null) {
+        replaced = new ArrayList<>(2);
+        replaced.add(last.operation);
+      }
+      replaced.add(operation);
+      Operation merged;
+      if (operation.getChangeType() == Operation.ChangeType.DELETE) {
+        merged = operation;
+      } else if (last.operation == replaced.get(0)) {
+        // Merge into a new operation rather than into the application's.
+        merged = new Update(last.operation.getTable());
+        merged.setSequenceNumber(last.operation.getSequenceNumber());
+        merged.getRow().setColumnsFrom(last.operation.getRow());
+        merged.getRow().setColumnsFrom(operation.getRow());
+      } else {
+        merged = last.operation;
+        merged.getRow().setColumnsFrom(operation.getRow());
+      }
+      coalesced.put(merged, replaced);
+      ops.set(last.index, merged);
+      last.operation = merged;
+      last.sequenceNumber = operation.getSequenceNumber();
+      return true;
+    }
+    lastOperations.put(key, new LastOperation(ops.size(), operation));
+    ops.add(operation);
+    return false;
+  }
+
+  private static boolean hasPrimaryKey(Operation operation) {
+    for (int i = 0; i < operation.getTable().getSchema().getPrimaryKeyColumnCount(); i++) {
+      if (!operation.getRow().isSet(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the operations that were added to this batch, including the ones that were merged
+   */
+  List<Operation> getAppliedOperations() {
+    if (coalesced.isEmpty()) {
+      return ops;
+    }
+    List<Operation> applied = new ArrayList<>(ops.size() + coalesced.size());
+    for (Operation operation : ops) {
+      List<Operation> replaced = coalesced.get(operation);
+      if (replaced == null) {
+        applied.add(operation);
+      } else {
+        applied.addAll(replaced);
+      }
+    }
+    return applied;
   }
 
   @Override
@@ -99,7 +206,7 @@ class Batch extends KuduRpc<BatchResponse> implements KuduRpc.HasKey {
     }
 
     BatchResponse response = new BatchResponse(deadlineTracker.getElapsedMillis(), tsUUID,
-        builder.getTimestamp(), errorsPB, ops);
+        builder.getTimestamp(), errorsPB, ops, coalesced);
     return new Pair<BatchResponse, Object>(response, builder.hasError() ? builder.getError() : null);
   }
 
@@ -109,6 +216,22 @@ class Batch extends KuduRpc<BatchResponse> implements KuduRpc.HasKey {
     return this.ops.get(0).partitionKey();
   }
 
+  /**
+   * Where the last operation on a row is in 'ops', and the sequence number of the last operation
+   * that was merged into it.
+   */
+  private static final class LastOperation {
+    final int index;
+    Operation operation;
+    long sequenceNumber;
+
+    LastOperation(int index, Operation operation) {
+      this.index = index;
+      this.operation = operation;
+      this.sequenceNumber = operation.getSequenceNumber();
+    }
+  }
+
   /**
    * Sorts the Operations by their sequence number.
    */
@@ -16,6 +16,7 @@ package org.kududb.client;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.kududb.annotations.InterfaceAudience;
 import org.kududb.tserver.Tserver;
@@ -37,13 +38,15 @@ public class BatchResponse extends KuduRpcResponse {
    * @param writeTimestamp HT's write timestamp
    * @param errorsPB a list of row errors, can be empty
    * @param operations the list of operations which created this response
+   * @param coalesced maps the operations that were sent in place of others to those, which get
+   * the same response, can be empty
    */
   BatchResponse(long elapsedMillis, String tsUUID, long writeTimestamp,
                 List<Tserver.WriteResponsePB.PerRowErrorPB> errorsPB,
-                List<Operation> operations) {
+                List<Operation> operations, Map<Operation, List<Operation>> coalesced) {
     super(elapsedMillis, tsUUID);
     this.writeTimestamp = writeTimestamp;
-    individualResponses = new ArrayList<>(operations.size());
+    individualResponses = new ArrayList<>(operations.size() + coalesced.size());
     if (errorsPB.isEmpty()) {
       rowErrors = Collections.emptyList();
     } else {
@@ -65,12 +68,22 @@ public class BatchResponse extends KuduRpcResponse {
         rowErrors.add(rowError);
         currentErrorIndex++;
       }
-      individualResponses.add(
-          new OperationResponse(currentOperation.deadlineTracker.getElapsedMillis(), tsUUID,
-              writeTimestamp, currentOperation, rowError));
+      List<Operation> replaced = coalesced.get(currentOperation);
+      if (replaced == null) {
+        individualResponses.add(
+            new OperationResponse(currentOperation.deadlineTracker.getElapsedMillis(), tsUUID,
+                writeTimestamp, currentOperation, rowError));
+        continue;
+      }
+      // The operation was sent in place of others, they all get its outcome.
+      for (Operation operation : replaced) {
+        individualResponses.add(
+            new OperationResponse(operation.deadlineTracker.getElapsedMillis(), tsUUID,
+                writeTimestamp, operation,
+                rowError == null ? null : rowError.forOperation(operation)));
+      }
     }
     assert (rowErrors.size() == errorsPB.size());
-    assert (individualResponses.size() == operations.size());
   }
 
   /**
@@ -1030,6 +1030,16 @@ public final class Bytes {
     return bs;
   }
 
+  public static BitSet toBitSet(ChannelBuffer buf, int index, int colCount) {
+    BitSet bs = new BitSet(colCount);
+    for (int i = 0; i < colCount; i++) {
+      if ((buf.getByte(index + (i / 8)) >> (i % 8) & 1) == 1) {
+        bs.set(i);
+      }
+    }
+    return bs;
+  }
+
   /**
    * This method will apply xor on the left most bit of the provided byte. This is used in Kudu to
    * have unsigned data types sorting correctly.
@@ -13,6 +13,7 @@
 // limitations under the License.
 package org.kududb.client;
 
+import java.nio.ByteOrder;
 import java.util.List;
 
 import org.kududb.annotations.InterfaceAudience;
@@ -20,6 +21,7 @@ import org.kududb.rpc.RpcHeader;
 import org.kududb.util.Slice;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 /**
  * This class handles information received from an RPC response, providing
@@ -31,9 +33,20 @@ final class CallResponse {
   private final RpcHeader.ResponseHeader header;
   private final int totalResponseSize;
 
-  // Non-header main message slice is generated upon request and cached.
+  // Non-header main message slice is generated upon request and cached. When the sidecars are
+  // read off-heap, it only covers the main protobuf message.
   private Slice message = null;
 
+  // Size of the non-header message, including the sidecars.
+  private int messageLength;
+
+  // Set when the sidecars should be copied into a direct buffer obtained from this pool instead
+  // of a byte array.
+  private DirectBufferPool sidecarPool = null;
+
+  // Direct buffer holding all the sidecars back to back, only used with 'sidecarPool'.
+  private ChannelBuffer sidecarData = null;
+
   /**
    * Performs some sanity checks on the sizes recorded in the packet
    * referred to by {@code buf}. Assumes that {@code buf} has not been
@@ -98,7 +111,8 @@ final class CallResponse {
    * @param sidecar The index of the sidecar to retrieve.
    * @return A slice pointing to the desired sidecar.
    * @throws IllegalStateException If the sidecar offsets specified in the
-   * header response PB are not valid offsets for the array.
+   * header response PB are not valid offsets for the array, or if the
+   * sidecars were read off-heap.
    * @throws IllegalArgumentException If the sidecar with the specified index
    * does not exist.
    * @throws IllegalArgumentException If the recorded size for the main message
@@ -107,32 +121,127 @@ final class CallResponse {
    */
   public Slice getSidecar(int sidecar) {
     cacheMessage();
+    if (this.sidecarPool != null) {
+      throw new IllegalStateException("The sidecars were read off-heap, use getSidecarBuffer()");
+    }
+    final int prevOffset = getSidecarOffset(sidecar);
+    return subslice(this.message, prevOffset, getSidecarLength(sidecar, prevOffset));
+  }
+
+  /**
+   * Works for both heap and off-heap sidecars. Heap sidecars are wrapped without copying.
+   * @param sidecar The index of the sidecar to retrieve.
+   * @return A little-endian buffer pointing to the desired sidecar, indexed from 0.
+   * @throws IllegalStateException If the sidecar offsets specified in the
+   * header response PB are not valid offsets for the array, or if the
+   * off-heap sidecars were already detached.
+   * @throws IllegalArgumentException If the sidecar with the specified index
+   * does not exist.
+   */
+  public ChannelBuffer getSidecarBuffer(int sidecar) {
+    cacheMessage();
+    final int prevOffset = getSidecarOffset(sidecar);
+    final int length = getSidecarLength(sidecar, prevOffset);
+    if (this.sidecarPool == null) {
+      return ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, this.message.getRawArray(),
+          this.message.getRawOffset() + prevOffset, length);
+    }
+    if (this.sidecarData == null) {
+      throw new IllegalStateException("The off-heap sidecars were already detached");
+    }
+    // The direct buffer starts where the main message ends.
+    return this.sidecarData.slice(prevOffset - this.message.length(), length);
+  }
+
+  /**
+   * Hands over the direct buffer holding the sidecars to the caller, who becomes responsible for
+   * releasing it to {@link #getSidecarPool()}. Slices previously returned by
+   * {@link #getSidecarBuffer(int)} stay valid until then.
+   * @return the direct buffer with all the sidecars, or null if they weren't read off-heap
+   */
+  ChannelBuffer detachSidecarData() {
+    final ChannelBuffer data = this.sidecarData;
+    this.sidecarData = null;
+    return data;
+  }
+
+  /**
+   * Gives the off-heap sidecars back to the pool, if they weren't detached.
+   */
+  void releaseSidecarData() {
+    final ChannelBuffer data = detachSidecarData();
+    if (data != null) {
+      this.sidecarPool.release(data);
+    }
+  }
 
+  /**
+   * Requests that the sidecars be copied into a direct buffer obtained from {@code pool} instead
+   * of the Java heap. Only the main protobuf message will be copied to a byte array.
+   * This must be called before accessing the message or any sidecar.
+   * @param pool The pool from which to get the direct buffer.
+   * @throws IllegalStateException If the message was already read.
+   */
+  void readSidecarsOffHeap(DirectBufferPool pool) {
+    if (this.message != null) {
+      throw new IllegalStateException("The message was already read");
+    }
+    this.sidecarPool = pool;
+  }
+
+  /**
+   * @return The pool used for off-heap sidecars, or null if they're on the heap.
+   */
+  DirectBufferPool getSidecarPool() {
+    return this.sidecarPool;
+  }
+
+  // Returns the offset of the sidecar relative to the beginning of the message.
+  private int getSidecarOffset(int sidecar) {
     List<Integer> sidecarList = this.header.getSidecarOffsetsList();
-    if (sidecar < 0 || sidecar > sidecarList.size()) {
+    if (sidecar < 0 || sidecar >= sidecarList.size()) {
       throw new IllegalArgumentException("Sidecar " + sidecar
           + " not valid, response has " + sidecarList.size() + " sidecars");
     }
+    return sidecarList.get(sidecar);
+  }
 
-    final int prevOffset = sidecarList.get(sidecar);
+  private int getSidecarLength(int sidecar, int prevOffset) {
+    List<Integer> sidecarList = this.header.getSidecarOffsetsList();
     final int nextOffset = sidecar + 1 == sidecarList.size() ?
-        this.message.length() : sidecarList.get(sidecar + 1);
+        this.messageLength : sidecarList.get(sidecar + 1);
     final int length = nextOffset - prevOffset;
 
-    if (prevOffset < 0 || length < 0 || prevOffset + length > this.message.length()) {
+    if (prevOffset < 0 || length < 0 || prevOffset + length > this.messageLength) {
       throw new IllegalStateException("Sidecar " + sidecar + " invalid "
           + "(offset = " + prevOffset + ", length = " + length + "). The size "
-          + "of the message " + "excluding the header is " + this.message.length());
+          + "of the message " + "excluding the header is " + this.messageLength);
     }
-
-    return subslice(this.message, prevOffset, length);
+    return length;
   }
 
   // Reads the message after the header if not read yet
   private void cacheMessage() {
     if (this.message != null) return;
     final int length = Bytes.readVarInt32(buf);
-    this.message = nextBytes(buf, length);
+    this.messageLength = length;
+    if (this.sidecarPool == null || this.header.getSidecarOffsetsCount() == 0) {
+      this.message = nextBytes(buf, length);
+      return;
+    }
+    // Only the main message goes to the heap, the sidecars are copied straight into a direct
+    // buffer.
+    KuduRpc.checkArrayLength(buf, length);
+    final int mainLength = this.header.getSidecarOffsets(0);
+    if (mainLength < 0 || mainLength > length) {
+      throw new IllegalStateException("Main protobuf message invalid. "
+          + "Length is " + mainLength + " while the size of the message "
+          + "excluding the header is " + length);
+    }
+    this.message = nextBytes(buf, mainLength);
+    final int sidecarsLength = length - mainLength;
+    this.sidecarData = this.sidecarPool.acquire(sidecarsLength);
+    buf.readBytes(this.sidecarData, sidecarsLength);
   }
 
   // Accounts for a parent slice's offset when making a new one with relative offsets.
@@ -149,6 +258,7 @@ final class CallResponse {
     if (buf.hasArray()) {  // Zero copy.
       payload = buf.array();
       offset = buf.arrayOffset() + buf.readerIndex();
+      buf.skipBytes(length);
     } else {  // We have to copy the entire payload out of the buffer :(
       payload = new byte[length];
       buf.readBytes(payload);
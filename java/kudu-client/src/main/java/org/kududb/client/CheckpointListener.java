@@ -0,0 +1,46 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+/**
+ * Receives the progress of a {@link StreamingSink}, see
+ * {@link AsyncKuduSession#newStreamingSink(long, CheckpointListener)}.
+ * <p>
+ * Implementations are called from the client's I/O threads, so they must not block, and they
+ * must not write to the sink they listen to.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface CheckpointListener {
+
+  /**
+   * Called when the operations written with a checkpoint, and with all the ones before it, are
+   * all persisted. Calls are in increasing order of checkpoint, but not every checkpoint is
+   * reported: when several become durable at once only the last one is.
+   * @param checkpoint the latest durable checkpoint
+   */
+  void onCheckpointDurable(long checkpoint);
+
+  /**
+   * Called once, when an operation fails. No checkpoint from this one on will ever be reported
+   * as durable by the sink.
+   * @param checkpoint the checkpoint of the operation that failed
+   * @param cause the exception the operation failed with, or a {@link NonRecoverableException}
+   * describing its row error
+   */
+  void onFailure(long checkpoint, Exception cause);
+}
@@ -0,0 +1,144 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.ZeroCopyLiteralByteString;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.kududb.Common;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.util.Pair;
+
+import static org.kududb.tserver.Tserver.*;
+import static org.kududb.tserver.TserverService.*;
+
+/**
+ * RPC that has a tablet server checksum all the rows of one of its tablets at a snapshot, without
+ * sending them back. Like a scan, it takes a first request to open a scanner on the server then
+ * one request per batch, each carrying the checksum so far, until the tablet is exhausted. The
+ * requests that continue a checksum must go to the server that opened its scanner.
+ */
+@InterfaceAudience.Private
+class ChecksumRequest extends KuduRpc<ChecksumResponse> implements KuduRpc.HasKey {
+
+  private final byte[] partitionKey;
+  private final long snapshotTimestamp;
+  private final String tsUUID;
+  private final byte[] scannerId;
+  private final long previousChecksum;
+  private final int callSeqId;
+
+  /**
+   * Creates the request that opens a checksum scanner.
+   * @param table the table the tablet belongs to
+   * @param partitionKey the tablet's start partition key
+   * @param tsUUID the replica to checksum, or null to use the leader
+   * @param snapshotTimestamp the timestamp of the snapshot to read at
+   */
+  ChecksumRequest(KuduTable table, byte[] partitionKey, String tsUUID, long snapshotTimestamp) {
+    this(table, partitionKey, tsUUID, snapshotTimestamp, null, 0, 0);
+  }
+
+  private ChecksumRequest(KuduTable table, byte[] partitionKey, String tsUUID,
+                          long snapshotTimestamp, byte[] scannerId, long previousChecksum,
+                          int callSeqId) {
+    super(table);
+    this.partitionKey = partitionKey;
+    this.tsUUID = tsUUID;
+    this.snapshotTimestamp = snapshotTimestamp;
+    this.scannerId = scannerId;
+    this.previousChecksum = previousChecksum;
+    this.callSeqId = callSeqId;
+  }
+
+  /**
+   * Creates the request that continues this checksum, on the same server.
+   * @param response the response to this request
+   * @return the next request
+   */
+  ChecksumRequest nextRequest(ChecksumResponse response) {
+    // Only the response that opens the scanner carries its ID.
+    byte[] nextScannerId = scannerId == null ? response.getScannerId() : scannerId;
+    return new ChecksumRequest(getTable(), partitionKey, response.getTsUUID(), snapshotTimestamp,
+        nextScannerId, response.getChecksum(), callSeqId + 1);
+  }
+
+  /**
+   * @return the UUID of the server this request has to go to, or null if it goes to the leader
+   */
+  String getTsUUID() {
+    return tsUUID;
+  }
+
+  @Override
+  String serviceName() { return TABLET_SERVER_SERVICE_NAME; }
+
+  @Override
+  String method() {
+    return "Checksum";
+  }
+
+  @Override
+  ChannelBuffer serialize(Message header) {
+    final ChecksumRequestPB.Builder builder = ChecksumRequestPB.newBuilder();
+    if (scannerId == null) {
+      NewScanRequestPB.Builder newBuilder = NewScanRequestPB.newBuilder();
+      newBuilder.addAllProjectedColumns(ProtobufHelper.schemaToListPb(getTable().getSchema()));
+      newBuilder.setTabletId(ZeroCopyLiteralByteString.wrap(getTablet().getTabletIdAsBytes()));
+      newBuilder.setCacheBlocks(false);
+      long lastPropagatedTimestamp = getTable().getAsyncClient().getLastPropagatedTimestamp();
+      if (lastPropagatedTimestamp != AsyncKuduClient.NO_TIMESTAMP) {
+        newBuilder.setPropagatedTimestamp(lastPropagatedTimestamp);
+      }
+      newBuilder.setReadMode(Common.ReadMode.READ_AT_SNAPSHOT);
+      newBuilder.setSnapTimestamp(snapshotTimestamp);
+      builder.setNewRequest(newBuilder.build());
+    } else {
+      builder.setContinueRequest(ContinueChecksumRequestPB.newBuilder()
+          .setScannerId(ZeroCopyLiteralByteString.wrap(scannerId))
+          .setPreviousChecksum(previousChecksum));
+    }
+    builder.setCallSeqId(callSeqId);
+    return toChannelBuffer(header, builder.build());
+  }
+
+  @Override
+  Pair<ChecksumResponse, Object> deserialize(CallResponse callResponse,
+                                             String tsUUID) throws Exception {
+    ChecksumResponsePB.Builder builder = ChecksumResponsePB.newBuilder();
+    readProtobuf(callResponse.getPBMessage(), builder);
+    TabletServerErrorPB error = builder.hasError() ? builder.getError() : null;
+    if (error != null && error.getCode().equals(TabletServerErrorPB.Code.TABLET_NOT_FOUND) &&
+        scannerId != null) {
+      // Retrying would only open a new scanner, the rows read so far would be lost.
+      throw new NonRecoverableException("Cannot continue the checksum, the tablet has moved");
+    }
+    ChecksumResponse response = new ChecksumResponse(deadlineTracker.getElapsedMillis(), tsUUID,
+        builder.getScannerId().toByteArray(), builder.getChecksum(),
+        builder.getHasMoreResults());
+    return new Pair<ChecksumResponse, Object>(response, error);
+  }
+
+  @Override
+  public byte[] partitionKey() {
+    return partitionKey;
+  }
+
+  @Override
+  public String toString() {
+    return "ChecksumRequest(table=" + getTable().getName() +
+        ", partitionKey=" + Bytes.pretty(partitionKey) + ", tsUUID=" + tsUUID +
+        ", scannerId=" + Bytes.pretty(scannerId) + ", attempt=" + attempt + ")";
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.annotations.InterfaceAudience;
+
+/**
+ * Response to a {@link ChecksumRequest}, it carries the checksum of all the rows that the
+ * tablet server's checksum scanner went over so far.
+ */
+@InterfaceAudience.Private
+class ChecksumResponse extends KuduRpcResponse {
+
+  private final byte[] scannerId;
+  private final long checksum;
+  private final boolean hasMoreResults;
+
+  ChecksumResponse(long elapsedMillis, String tsUUID, byte[] scannerId, long checksum,
+                   boolean hasMoreResults) {
+    super(elapsedMillis, tsUUID);
+    this.scannerId = scannerId;
+    this.checksum = checksum;
+    this.hasMoreResults = hasMoreResults;
+  }
+
+  /**
+   * @return the ID of the scanner to continue with if there are more results
+   */
+  byte[] getScannerId() {
+    return scannerId;
+  }
+
+  /**
+   * @return the checksum of all the rows read so far
+   */
+  long getChecksum() {
+    return checksum;
+  }
+
+  /**
+   * @return true if the tablet has more rows to checksum
+   */
+  boolean hasMoreResults() {
+    return hasMoreResults;
+  }
+
+  @Override
+  public String toString() {
+    return "ChecksumResponse(scannerId=" + Bytes.pretty(scannerId) + ", checksum=" + checksum +
+        ", hasMoreResults=" + hasMoreResults + ")";
+  }
+}
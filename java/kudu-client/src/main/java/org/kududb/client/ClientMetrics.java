@@ -0,0 +1,232 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+/**
+ * Client-wide metrics, shared by everything that goes through a single {@link AsyncKuduClient}.
+ * <p>
+ * Two families of latency histograms are kept, all in microseconds:
+ * <ul>
+ *   <li>Per method, like "Write", "Scan" or "GetTableLocations". These are measured from the
+ *   moment the RPC was created, or its batch was flushed, up to the moment its response was
+ *   handled, so they include the time spent looking up tablets, waiting for a connection and
+ *   sleeping between retries.</li>
+ *   <li>Per server, keyed by the UUID of the tablet server or by the master's address. These only
+ *   cover a single attempt, from the moment the RPC was written to the socket up to the moment
+ *   its response was read.</li>
+ * </ul>
+ * A per-method tail that isn't visible in the per-server histograms is spent in the client.
+ * <p>
+ * Everything here is cumulative since the creation of the client. Use
+ * {@link AsyncKuduClient#addMetricsReporter(MetricsReporter, long)} to get called periodically.
+ * <p>
+ * This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ClientMetrics {
+
+  /**
+   * The reasons for which the client retries an RPC.
+   */
+  public enum RetryCause {
+    /** The server doesn't have the tablet, or we lost the connection to it. */
+    TABLET_NOT_FOUND,
+    /** The server isn't the leader of the tablet, or isn't the leader master. */
+    NOT_LEADER,
+    /** The server asked us to back off, it's too busy or not ready to serve. */
+    SERVER_BUSY,
+    /** The connection to the server was reset before we got a response. */
+    CONNECTION_RESET,
+    /** None of the masters said that they were the leader. */
+    NO_LEADER_MASTER,
+    /** The master didn't return the tablet we looked up, it isn't running yet. */
+    TABLET_NOT_RUNNING,
+  }
+
+  private final ConcurrentMap<String, LatencyHistogram> methodLatencies =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+  private final ConcurrentMap<String, LatencyHistogram> serverLatencies =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+  private final AtomicLongArray retries = new AtomicLongArray(RetryCause.values().length);
+  private final AtomicLong masterLookups = new AtomicLong();
+  private final AtomicLong pleaseThrottleEvents = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  ClientMetrics() {
+  }
+
+  void recordMethodLatency(String method, long micros) {
+    getOrCreate(methodLatencies, method).record(micros);
+  }
+
+  void recordServerLatency(String server, long micros) {
+    getOrCreate(serverLatencies, server).record(micros);
+  }
+
+  void recordRetry(RetryCause cause) {
+    retries.incrementAndGet(cause.ordinal());
+  }
+
+  void recordMasterLookup() {
+    masterLookups.incrementAndGet();
+  }
+
+  void recordPleaseThrottle() {
+    pleaseThrottleEvents.incrementAndGet();
+  }
+
+  void recordBytesSent(int bytes) {
+    bytesSent.addAndGet(bytes);
+  }
+
+  void recordBytesReceived(int bytes) {
+    bytesReceived.addAndGet(bytes);
+  }
+
+  private static LatencyHistogram getOrCreate(ConcurrentMap<String, LatencyHistogram> histograms,
+                                              String key) {
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      LatencyHistogram oldHistogram = histograms.putIfAbsent(key, histogram);
+      if (oldHistogram != null) {
+        histogram = oldHistogram;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Gets the end-to-end latencies for a method.
+   * @param method the name of the RPC method, for example "Write"
+   * @return the method's histogram, or null if no such RPC completed yet
+   */
+  public LatencyHistogram getMethodLatency(String method) {
+    return methodLatencies.get(method);
+  }
+
+  /**
+   * @return an unmodifiable view of the end-to-end latencies, keyed by method name
+   */
+  public Map<String, LatencyHistogram> getMethodLatencies() {
+    return Collections.unmodifiableMap(methodLatencies);
+  }
+
+  /**
+   * Gets the per-attempt latencies for a server.
+   * @param server the UUID of a tablet server, or the address of a master
+   * @return the server's histogram, or null if it never responded
+   */
+  public LatencyHistogram getServerLatency(String server) {
+    return serverLatencies.get(server);
+  }
+
+  /**
+   * @return an unmodifiable view of the per-attempt latencies, keyed by server
+   */
+  public Map<String, LatencyHistogram> getServerLatencies() {
+    return Collections.unmodifiableMap(serverLatencies);
+  }
+
+  /**
+   * @param cause the reason for the retries
+   * @return the number of times an RPC was retried for that reason
+   */
+  public long getRetries(RetryCause cause) {
+    return retries.get(cause.ordinal());
+  }
+
+  /**
+   * @return the number of times an RPC was retried, for any reason
+   */
+  public long getTotalRetries() {
+    long total = 0;
+    for (int i = 0; i < retries.length(); i++) {
+      total += retries.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of times we asked the master where tablets are
+   */
+  public long getMasterLookups() {
+    return masterLookups.get();
+  }
+
+  /**
+   * @return the number of {@link PleaseThrottleException}s thrown by this client's sessions
+   */
+  public long getPleaseThrottleEvents() {
+    return pleaseThrottleEvents.get();
+  }
+
+  /**
+   * @return the number of bytes written to all the connections, including the RPC headers
+   */
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  /**
+   * @return the number of bytes read from all the connections, including the RPC headers
+   */
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder();
+    buf.append("ClientMetrics(masterLookups=").append(getMasterLookups());
+    buf.append(", pleaseThrottleEvents=").append(getPleaseThrottleEvents());
+    buf.append(", bytesSent=").append(getBytesSent());
+    buf.append(", bytesReceived=").append(getBytesReceived());
+    buf.append(", retries={");
+    boolean first = true;
+    for (RetryCause cause : RetryCause.values()) {
+      if (!first) {
+        buf.append(", ");
+      }
+      first = false;
+      buf.append(cause).append('=').append(getRetries(cause));
+    }
+    buf.append('}');
+    for (Map.Entry<String, LatencyHistogram> entry :
+        new TreeMap<String, LatencyHistogram>(methodLatencies).entrySet()) {
+      buf.append(", method ").append(entry.getKey()).append(": [")
+          .append(entry.getValue()).append(']');
+    }
+    for (Map.Entry<String, LatencyHistogram> entry :
+        new TreeMap<String, LatencyHistogram>(serverLatencies).entrySet()) {
+      buf.append(", server ").append(entry.getKey()).append(": [")
+          .append(entry.getValue()).append(']');
+    }
+    buf.append(')');
+    return buf.toString();
+  }
+}
@@ -15,6 +15,8 @@ package org.kududb.client;
 
 import com.google.common.base.Stopwatch;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * This is a wrapper class around {@link com.google.common.base.Stopwatch} used to track a relative
  * deadline in the future.
@@ -89,6 +91,10 @@ public class DeadlineTracker {
     return this.stopwatch.elapsedMillis();
   }
 
+  public long getElapsedMicros() {
+    return this.stopwatch.elapsedTime(TimeUnit.MICROSECONDS);
+  }
+
   /**
    * Tells if a non-zero deadline was set.
    * @return true if the deadline is greater than 0, false otherwise.
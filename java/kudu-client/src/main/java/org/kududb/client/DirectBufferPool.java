@@ -0,0 +1,113 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.kududb.annotations.InterfaceAudience;
+
+/**
+ * A small pool of little-endian direct {@link ChannelBuffer}s used to receive scan sidecars
+ * off-heap.
+ * <p>
+ * Buffers are handed out by {@link #acquire(int)} and must be given back with
+ * {@link #release(ChannelBuffer)} once nothing reads from them anymore. A buffer that is never
+ * released isn't leaked, it simply isn't reused and its memory will be reclaimed whenever the
+ * garbage collector gets to it.
+ * <p>
+ * This class is thread-safe.
+ */
+@InterfaceAudience.Private
+final class DirectBufferPool {
+
+  /**
+   * Smallest buffer we'll allocate, this avoids having many tiny buffers for small scan batches.
+   */
+  static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+  private final ConcurrentLinkedQueue<ChannelBuffer> freeBuffers =
+      new ConcurrentLinkedQueue<ChannelBuffer>();
+
+  /**
+   * Number of buffers currently sitting in {@link #freeBuffers}, tracked separately since
+   * {@link ConcurrentLinkedQueue#size()} isn't a constant-time operation.
+   */
+  private final AtomicInteger numFreeBuffers = new AtomicInteger();
+
+  private final int maxFreeBuffers;
+
+  /**
+   * @param maxFreeBuffers how many released buffers we keep around for reuse, extra ones are
+   *                       dropped
+   */
+  DirectBufferPool(int maxFreeBuffers) {
+    Preconditions.checkArgument(maxFreeBuffers >= 0, "Need a positive number of buffers, got %s",
+        maxFreeBuffers);
+    this.maxFreeBuffers = maxFreeBuffers;
+  }
+
+  /**
+   * Gets an empty buffer that can hold at least {@code minCapacity} bytes.
+   * @param minCapacity the number of bytes the caller needs to write
+   * @return a cleared little-endian direct buffer
+   */
+  ChannelBuffer acquire(int minCapacity) {
+    ChannelBuffer buf = freeBuffers.poll();
+    if (buf != null) {
+      numFreeBuffers.decrementAndGet();
+      if (buf.capacity() >= minCapacity) {
+        buf.clear();
+        return buf;
+      }
+      // Too small, let it be garbage collected and replace it with a bigger one.
+    }
+    return ChannelBuffers.directBuffer(ByteOrder.LITTLE_ENDIAN, roundUpCapacity(minCapacity));
+  }
+
+  /**
+   * Gives a buffer obtained from {@link #acquire(int)} back to the pool. The caller must not
+   * access it, nor any slice of it, after calling this method.
+   * @param buf the buffer to release
+   */
+  void release(ChannelBuffer buf) {
+    if (numFreeBuffers.incrementAndGet() > maxFreeBuffers) {
+      numFreeBuffers.decrementAndGet();
+      return;
+    }
+    freeBuffers.offer(buf);
+  }
+
+  /**
+   * @return the number of buffers waiting to be reused
+   */
+  int getNumFreeBuffers() {
+    return numFreeBuffers.get();
+  }
+
+  private static int roundUpCapacity(int minCapacity) {
+    if (minCapacity <= MIN_BUFFER_SIZE) {
+      return MIN_BUFFER_SIZE;
+    }
+    int highestOneBit = Integer.highestOneBit(minCapacity);
+    if (highestOneBit == minCapacity || highestOneBit == (1 << 30)) {
+      return minCapacity;
+    }
+    return highestOneBit << 1;
+  }
+}
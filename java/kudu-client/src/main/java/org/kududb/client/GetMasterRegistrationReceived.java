@@ -110,8 +110,9 @@ final class GetMasterRegistrationReceived {
           }
         }
         String allHosts = NetUtil.hostsAndPortsToString(masterAddrs);
-        // Doing a negative check because allUnrecoverable stays true if there are no exceptions.
-        if (!allUnrecoverable) {
+        // No exceptions means that every master answered as a follower, like during an
+        // election, the leader should be known soon.
+        if (exceptionsReceived.isEmpty() || !allUnrecoverable) {
           if (exceptionsReceived.isEmpty()) {
             LOG.warn("None of the provided masters (" + allHosts + ") is a leader, will retry.");
           } else {
@@ -30,9 +30,18 @@ class GetTableLocationsRequest extends KuduRpc<Master.GetTableLocationsResponseP
   private final byte[] startPartitionKey;
   private final byte[] endKey;
   private final String tableId;
+  private final int maxReturnedLocations;
 
   GetTableLocationsRequest(KuduTable table, byte[] startPartitionKey,
                            byte[] endPartitionKey, String tableId) {
+    this(table, startPartitionKey, endPartitionKey, tableId, 0);
+  }
+
+  /**
+   * @param maxReturnedLocations how many tablets the master returns at most, 0 to let it decide
+   */
+  GetTableLocationsRequest(KuduTable table, byte[] startPartitionKey,
+                           byte[] endPartitionKey, String tableId, int maxReturnedLocations) {
     super(table);
     if (startPartitionKey != null && endPartitionKey != null
         && Bytes.memcmp(startPartitionKey, endPartitionKey) > 0) {
@@ -42,6 +51,7 @@ class GetTableLocationsRequest extends KuduRpc<Master.GetTableLocationsResponseP
     this.startPartitionKey = startPartitionKey;
     this.endKey = endPartitionKey;
     this.tableId = tableId;
+    this.maxReturnedLocations = maxReturnedLocations;
   }
 
   @Override
@@ -76,6 +86,9 @@ class GetTableLocationsRequest extends KuduRpc<Master.GetTableLocationsResponseP
     if (endKey != null) {
       builder.setPartitionKeyEnd(ZeroCopyLiteralByteString.wrap(endKey));
     }
+    if (maxReturnedLocations > 0) {
+      builder.setMaxReturnedLocations(maxReturnedLocations);
+    }
     return toChannelBuffer(header, builder.build());
   }
 }
@@ -236,6 +236,53 @@ public class KuduClient implements AutoCloseable {
     return asyncClient.getDefaultAdminOperationTimeoutMs();
   }
 
+  /**
+   * Get the last timestamp received from a server, see
+   * {@link AsyncKuduClient#getLastPropagatedTimestamp()}.
+   * @return an HT timestamp, or {@link AsyncKuduClient#NO_TIMESTAMP} if none was received yet
+   */
+  public long getLastPropagatedTimestamp() {
+    return asyncClient.getLastPropagatedTimestamp();
+  }
+
+  /**
+   * Gets the current time of the tablet servers, see
+   * {@link AsyncKuduClient#getServerTimestamp(KuduTable)}.
+   * @param table the table to ask a tablet server of
+   * @return an HT timestamp
+   * @throws Exception if the tablet server couldn't be reached in time
+   */
+  public long getServerTimestamp(KuduTable table) throws Exception {
+    return asyncClient.getServerTimestamp(table).join(getDefaultAdminOperationTimeoutMs());
+  }
+
+  /**
+   * Get the metrics that this client has been collecting since it was created.
+   * @return this client's metrics
+   */
+  public ClientMetrics getMetrics() {
+    return asyncClient.getMetrics();
+  }
+
+  /**
+   * Periodically calls the specified reporter with this client's metrics, until the client is
+   * shut down.
+   * @param reporter the reporter to call, must not block
+   * @param intervalMs the time between two reports, in milliseconds
+   */
+  public void addMetricsReporter(MetricsReporter reporter, long intervalMs) {
+    asyncClient.addMetricsReporter(reporter, intervalMs);
+  }
+
+  /**
+   * Get the traces of the latest slow RPCs.
+   * @return up to the latest 100 traces, oldest first
+   * @see AsyncKuduClient#getSlowRpcTraces()
+   */
+  public List<String> getSlowRpcTraces() {
+    return asyncClient.getSlowRpcTraces();
+  }
+
   /**
    * Builder class to use in order to connect to Kudu.
    * All the parameters beyond those in the constructors are optional.
@@ -311,6 +358,61 @@ public class KuduClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Enables RPC tracing: the client records when each RPC goes through the different stages
+     * of its life, and logs the traces of the ones that took at least the specified time. They
+     * are also available through {@link KuduClient#getSlowRpcTraces()}.
+     * Optional.
+     * If not provided, defaults to 0 which disables tracing.
+     * @param thresholdMs a duration in milliseconds
+     * @return this builder
+     */
+    public KuduClientBuilder slowRpcTraceThresholdMs(long thresholdMs) {
+      clientBuilder.slowRpcTraceThresholdMs(thresholdMs);
+      return this;
+    }
+
+    /**
+     * Sets the fraction of the RPCs that get traced when tracing is enabled with
+     * {@link #slowRpcTraceThresholdMs(long)}.
+     * Optional.
+     * If not provided, defaults to 1, meaning that all the RPCs are traced.
+     * @param samplingRate a number between 0 and 1
+     * @return this builder
+     */
+    public KuduClientBuilder rpcTraceSamplingRate(double samplingRate) {
+      clientBuilder.rpcTraceSamplingRate(samplingRate);
+      return this;
+    }
+
+    /**
+     * Sets how long the client trusts the tablet locations it got from the master. Locations
+     * that are used during the last quarter of this period are refreshed in the background, and
+     * the ones that weren't refreshed in time are looked up again before being used.
+     * Optional.
+     * If not provided, defaults to 5 minutes.
+     * @param ttlMs a duration in milliseconds, greater than 0
+     * @return this builder
+     */
+    public KuduClientBuilder tabletLocationsTtlMs(long ttlMs) {
+      clientBuilder.tabletLocationsTtlMs(ttlMs);
+      return this;
+    }
+
+    /**
+     * Makes the client open a second connection to each tablet server the sessions with
+     * {@link SessionConfiguration.Priority#HIGH} priority write to, so that their writes don't
+     * wait behind the large batches of the other sessions on the same socket.
+     * Optional.
+     * If not provided, defaults to false, and all the sessions share one connection per server.
+     * @param enabled whether the high-priority writes get their own connections
+     * @return this builder
+     */
+    public KuduClientBuilder priorityConnections(boolean enabled) {
+      clientBuilder.priorityConnections(enabled);
+      return this;
+    }
+
     /**
      * Creates a new client that connects to the masters.
      * Doesn't block and won't throw an exception if the masters don't exist.
@@ -90,6 +90,8 @@ public abstract class KuduRpc<R> {
   protected long propagatedTimestamp = -1;
   protected ExternalConsistencyMode externalConsistencyMode = CLIENT_PROPAGATED;
 
+  private SessionConfiguration.Priority priority = SessionConfiguration.Priority.NORMAL;
+
   /**
    * How many times have we retried this RPC?.
    * Proper synchronization is required, although in practice most of the code
@@ -98,9 +100,56 @@ public abstract class KuduRpc<R> {
    */
   byte attempt;  // package-private for TabletClient and AsyncKuduClient only.
 
+  /**
+   * When the current attempt was written out, as given by {@link System#nanoTime()}.
+   */
+  long sendTimeNanos;  // package-private for TabletClient only.
+
+  /**
+   * How many times this RPC was retried without sleeping first.
+   */
+  byte immediateRetries;  // package-private for AsyncKuduClient only.
+
+  /**
+   * Where this RPC spent its time, null if its client isn't tracing RPCs or if it wasn't sampled.
+   * Also null between a callback and the next time this RPC gets sent, if it ever does.
+   * An operation that gets buffered in a session hands its trace over to its batch.
+   */
+  RpcTrace trace;  // package-private for AsyncKuduSession, AsyncKuduClient and TabletClient only.
+
+  /**
+   * Set when this RPC is called back so that its next trace gets started by the next stage
+   * it reaches, instead of allocating one for an RPC that's most likely never sent again.
+   */
+  private boolean startTraceOnNextSend;
+
   KuduRpc(KuduTable table) {
     this.table = table;
     this.deadlineTracker = new DeadlineTracker();
+    this.trace = newTrace();
+  }
+
+  private RpcTrace newTrace() {
+    if (table == null || table.getAsyncClient() == null) {
+      return null;
+    }
+    return table.getAsyncClient().newRpcTrace();
+  }
+
+  /**
+   * Records that this RPC reached the specified stage, if it's being traced. Starts a new trace
+   * first if this RPC is being sent again after a callback.
+   * @param stage the stage this RPC just reached
+   */
+  void traceStage(RpcTrace.Stage stage) {
+    if (startTraceOnNextSend) {
+      startTraceOnNextSend = false;
+      this.trace = newTrace();
+    }
+    final RpcTrace trace = this.trace;
+    if (trace != null) {
+      trace.record(stage);
+    }
   }
 
   /**
@@ -151,6 +200,18 @@ public abstract class KuduRpc<R> {
     return this.externalConsistencyMode;
   }
 
+  /**
+   * Sets the priority of this RPC, see {@link SessionConfiguration.Priority}.
+   * @param priority the priority to set
+   */
+  void setPriority(SessionConfiguration.Priority priority) {
+    this.priority = priority;
+  }
+
+  SessionConfiguration.Priority getPriority() {
+    return priority;
+  }
+
   /**
    * Sets the propagated timestamp for this RPC.
    * @param propagatedTimestamp the timestamp to propagate
@@ -159,14 +220,22 @@ public abstract class KuduRpc<R> {
     this.propagatedTimestamp = propagatedTimestamp;
   }
 
-  private void handleCallback(final Object result) {
+  private void handleCallback(final Object result, RpcTrace.Stage lastStage) {
     final Deferred<R> d = deferred;
     if (d == null) {
       return;
     }
     deferred = null;
     attempt = 0;
+    immediateRetries = 0;
     deadlineTracker.reset();
+    if (trace != null) {
+      // Failed RPCs are dumped too, a slow one that ends in a timeout is the most interesting.
+      trace.record(lastStage);
+      table.getAsyncClient().rpcTraceCompleted(this, trace);
+    }
+    trace = null;
+    startTraceOnNextSend = true;
     d.callback(result);
   }
 
@@ -180,14 +249,14 @@ public abstract class KuduRpc<R> {
    * RPC to be in-flight (guaranteeing this may be hard in error cases).
    */
   final void callback(final R result) {
-    handleCallback(result);
+    handleCallback(result, RpcTrace.Stage.COMPLETED);
   }
 
   /**
    * Same as callback, except that it accepts an Exception.
    */
   final void errback(final Exception e) {
-    handleCallback(e);
+    handleCallback(e, RpcTrace.Stage.FAILED);
   }
 
   /** Package private way of accessing / creating the Deferred of this RPC.  */
@@ -202,6 +271,13 @@ public abstract class KuduRpc<R> {
     return this.tablet;
   }
 
+  /**
+   * Which replica of the tablet this RPC can be sent to. Only scans may go to followers.
+   */
+  ReplicaSelection getReplicaSelection() {
+    return ReplicaSelection.LEADER_ONLY;
+  }
+
   void setTablet(AsyncKuduClient.RemoteTablet tablet) {
     this.tablet = tablet;
   }
@@ -81,9 +81,9 @@ public class KuduScanner {
      */
     public KuduScanner build() {
       return new KuduScanner(new AsyncKuduScanner(
-          client, table, projectedColumnNames, readMode,
+          client, table, projectedColumnNames, readMode, replicaSelection,
           scanRequestTimeout, columnRangePredicates, limit, cacheBlocks,
-          prefetching, lowerBoundPrimaryKey, upperBoundPrimaryKey,
+          prefetching, directBuffers, lowerBoundPrimaryKey, upperBoundPrimaryKey,
           lowerBoundPartitionKey, upperBoundPartitionKey,
           htTimestamp, maxNumBytes));
     }
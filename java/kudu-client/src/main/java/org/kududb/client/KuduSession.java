@@ -162,4 +162,24 @@ public class KuduSession implements SessionConfiguration {
   public void setIgnoreAllDuplicateRows(boolean ignoreAllDuplicateRows) {
     session.setIgnoreAllDuplicateRows(ignoreAllDuplicateRows);
   }
+
+  @Override
+  public boolean isCoalesceMutations() {
+    return session.isCoalesceMutations();
+  }
+
+  @Override
+  public void setCoalesceMutations(boolean coalesceMutations) {
+    session.setCoalesceMutations(coalesceMutations);
+  }
+
+  @Override
+  public Priority getPriority() {
+    return session.getPriority();
+  }
+
+  @Override
+  public void setPriority(Priority priority) {
+    session.setPriority(priority);
+  }
 }
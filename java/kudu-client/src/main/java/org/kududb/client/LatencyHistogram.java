@@ -0,0 +1,214 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+/**
+ * A lock-free histogram of latencies, in microseconds, in the spirit of HdrHistogram.
+ * <p>
+ * Values are recorded into log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKET_HALF_COUNT} buckets, so the value returned for a percentile is never more
+ * than about 3% away from the value that was actually recorded. Values under
+ * {@value #SUB_BUCKET_COUNT} microseconds are recorded exactly. Recording never allocates and
+ * costs a handful of atomic increments, which makes it cheap enough to be done for every RPC.
+ * <p>
+ * Readers may see a histogram that is being updated concurrently, in which case the different
+ * statistics may be slightly out of sync with each other.
+ * <p>
+ * This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class LatencyHistogram {
+
+  /** Values under this number are recorded in their own bucket. */
+  static final int SUB_BUCKET_COUNT = 64;
+  static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 5;
+  // Covers every positive long.
+  private static final int NUM_BUCKETS =
+      SUB_BUCKET_COUNT + (64 - SUB_BUCKET_HALF_COUNT_MAGNITUDE - 2) * SUB_BUCKET_HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalSum = new AtomicLong();
+  private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong maxValue = new AtomicLong(0);
+
+  /**
+   * Records a single latency.
+   * @param micros the latency in microseconds, negative values are recorded as 0
+   */
+  public void record(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    counts.incrementAndGet(bucketIndex(micros));
+    totalCount.incrementAndGet();
+    totalSum.addAndGet(micros);
+    long currentMin;
+    while (micros < (currentMin = minValue.get())) {
+      if (minValue.compareAndSet(currentMin, micros)) {
+        break;
+      }
+    }
+    long currentMax;
+    while (micros > (currentMax = maxValue.get())) {
+      if (maxValue.compareAndSet(currentMax, micros)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Adds all the values recorded in another histogram to this one.
+   * @param other the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    totalCount.addAndGet(other.getTotalCount());
+    totalSum.addAndGet(other.totalSum.get());
+    long otherMin = other.minValue.get();
+    long currentMin;
+    while (otherMin < (currentMin = minValue.get())) {
+      if (minValue.compareAndSet(currentMin, otherMin)) {
+        break;
+      }
+    }
+    long otherMax = other.maxValue.get();
+    long currentMax;
+    while (otherMax > (currentMax = maxValue.get())) {
+      if (maxValue.compareAndSet(currentMax, otherMax)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Forgets every value recorded so far. Values recorded concurrently may or may not be kept.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    totalSum.set(0);
+    minValue.set(Long.MAX_VALUE);
+    maxValue.set(0);
+  }
+
+  /**
+   * @return how many values were recorded
+   */
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * @return the smallest recorded value, or 0 if nothing was recorded
+   */
+  public long getMin() {
+    long min = minValue.get();
+    return min == Long.MAX_VALUE ? 0 : min;
+  }
+
+  /**
+   * @return the largest recorded value, or 0 if nothing was recorded
+   */
+  public long getMax() {
+    return maxValue.get();
+  }
+
+  /**
+   * @return the mean of the recorded values, or 0 if nothing was recorded
+   */
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalSum.get() / count;
+  }
+
+  /**
+   * Gets the value under which the specified percentage of the recorded values fall.
+   * @param percentile a percentile between 0 and 100, for example 99.9
+   * @return the highest value that's equivalent to the value at that percentile, never more than
+   * the maximum recorded value, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+        "The percentile must be between 0 and 100, got %s", percentile);
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= countAtPercentile) {
+        return Math.min(highestEquivalentValue(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Maps a value to its bucket. The first {@link #SUB_BUCKET_COUNT} buckets hold a single value,
+   * then every power of two gets {@link #SUB_BUCKET_HALF_COUNT} buckets.
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+    int subBucket = (int) (value >>> shift);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT +
+        (subBucket - SUB_BUCKET_HALF_COUNT);
+  }
+
+  /**
+   * @return the largest value that would be recorded in the specified bucket
+   */
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    long highest = ((subBucket + 1) << shift) - 1;
+    return highest < 0 ? Long.MAX_VALUE : highest;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getTotalCount() +
+        ", min=" + getMin() + "us" +
+        ", mean=" + String.format("%.1f", getMean()) + "us" +
+        ", p50=" + getValueAtPercentile(50) + "us" +
+        ", p99=" + getValueAtPercentile(99) + "us" +
+        ", p99.9=" + getValueAtPercentile(99.9) + "us" +
+        ", max=" + getMax() + "us";
+  }
+}
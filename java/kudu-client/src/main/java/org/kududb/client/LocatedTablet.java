@@ -111,6 +111,13 @@ public class LocatedTablet {
       this.pb = pb;
     }
 
+    /**
+     * @return the permanent UUID of the tablet server that hosts the replica
+     */
+    public String getUuid() {
+      return pb.getTsInfo().getPermanentUuid().toStringUtf8();
+    }
+
     public String getRpcHost() {
       if (pb.getTsInfo().getRpcAddressesList().isEmpty()) {
         return null;
@@ -0,0 +1,178 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.google.common.net.HostAndPort;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.kududb.Common;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.master.Master;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds out which master is the leader, on behalf of all the RPCs that need to know.
+ * <p>
+ * The leader is cached as the location of the master "tablet", like the location of any other
+ * tablet. When it's unknown, either because the client just started or because a master said
+ * it isn't the leader anymore, the RPCs that go to the master wait here while a single round
+ * of lookups is done. A lookup asks every master for its registration in parallel, see
+ * {@link AsyncKuduClient#getMasterTableLocationsPB()}. If no master is the leader yet, for
+ * example in the middle of an election, the lookup is repeated after a short delay. All the
+ * waiting RPCs are released as soon as a leader answers, instead of each of them sleeping and
+ * asking all the masters on its own.
+ * <p>
+ * A round gives up after {@link #MAX_LOOKUPS_PER_ROUND} lookups, the waiting RPCs then back off
+ * like they do for other retriable errors, which makes them respect their deadlines.
+ */
+@InterfaceAudience.Private
+final class MasterLeaderTracker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MasterLeaderTracker.class);
+
+  /** How long to wait before the second lookup of a round, in milliseconds. */
+  static final int MIN_LOOKUP_DELAY_MS = 20;
+  /** The delay between lookups doubles up to this, in milliseconds. */
+  static final int MAX_LOOKUP_DELAY_MS = 160;
+  static final int MAX_LOOKUPS_PER_ROUND = 10;
+
+  private final AsyncKuduClient client;
+
+  // The RPCs waiting for the current round to finish, null if there's no round in progress.
+  @GuardedBy("this")
+  private List<Deferred<Master.GetTableLocationsResponsePB>> waiters;
+
+  @GuardedBy("this")
+  private int lookupsInRound;
+
+  private volatile HostAndPort leader;
+
+  MasterLeaderTracker(AsyncKuduClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Finds the leader master, or waits for the lookup that's already in progress. The master
+   * table's location is updated before the returned Deferred is called back.
+   * @return a Deferred that gets the leader's location, or the exception of the last lookup if
+   * no leader could be found in this round
+   */
+  Deferred<Master.GetTableLocationsResponsePB> locateLeader() {
+    Deferred<Master.GetTableLocationsResponsePB> d =
+        new Deferred<Master.GetTableLocationsResponsePB>();
+    boolean startRound;
+    synchronized (this) {
+      startRound = waiters == null;
+      if (startRound) {
+        waiters = new ArrayList<Deferred<Master.GetTableLocationsResponsePB>>();
+        lookupsInRound = 0;
+      }
+      waiters.add(d);
+    }
+    if (startRound) {
+      lookup();
+    }
+    return d;
+  }
+
+  /**
+   * @return the address of the last master that was found to be the leader, or null if none
+   * was found yet
+   */
+  HostAndPort getLeader() {
+    return leader;
+  }
+
+  private void lookup() {
+    synchronized (this) {
+      lookupsInRound++;
+    }
+    client.getMasterTableLocationsPB().addCallbacks(new LookupCB(), new LookupErrback());
+  }
+
+  /**
+   * Ends the round, every waiting RPC gets the result.
+   */
+  private void release(Object result) {
+    List<Deferred<Master.GetTableLocationsResponsePB>> released;
+    synchronized (this) {
+      released = waiters;
+      waiters = null;
+    }
+    for (Deferred<Master.GetTableLocationsResponsePB> d : released) {
+      d.callback(result);
+    }
+  }
+
+  private final class LookupCB implements Callback<Void, Master.GetTableLocationsResponsePB> {
+    @Override
+    public Void call(Master.GetTableLocationsResponsePB response) {
+      try {
+        client.discoverTablets(client.masterTable, response);
+      } catch (NonRecoverableException e) {
+        release(e);
+        return null;
+      }
+      Common.HostPortPB address =
+          response.getTabletLocations(0).getReplicas(0).getTsInfo().getRpcAddresses(0);
+      HostAndPort newLeader = HostAndPort.fromParts(address.getHost(), address.getPort());
+      if (!newLeader.equals(leader)) {
+        LOG.info("The leader master is now " + newLeader);
+        leader = newLeader;
+      }
+      release(response);
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "leader master found";
+    }
+  }
+
+  private final class LookupErrback implements Callback<Void, Exception> {
+    @Override
+    public Void call(Exception e) {
+      int lookups;
+      synchronized (MasterLeaderTracker.this) {
+        lookups = lookupsInRound;
+      }
+      if (!(e instanceof NoLeaderMasterFoundException) || lookups >= MAX_LOOKUPS_PER_ROUND) {
+        release(e);
+        return null;
+      }
+      long delayMs = Math.min(MAX_LOOKUP_DELAY_MS, (long) MIN_LOOKUP_DELAY_MS << (lookups - 1));
+      LOG.debug("No leader master found, looking again in {}ms", delayMs);
+      client.newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          lookup();
+        }
+      }, delayMs);
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "no leader master found";
+    }
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+/**
+ * Receives the client's metrics periodically, see
+ * {@link AsyncKuduClient#addMetricsReporter(MetricsReporter, long)}.
+ * <p>
+ * Implementations are called from the client's timer thread, which is also used to retry RPCs
+ * and flush sessions, so they must not block. Hand the metrics off to another thread if
+ * reporting them requires I/O.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface MetricsReporter {
+
+  /**
+   * Called with the client's metrics, which are cumulative.
+   * @param metrics the metrics of the client this reporter was added to
+   */
+  void report(ClientMetrics metrics);
+}
@@ -149,6 +149,22 @@ public abstract class Operation extends KuduRpc<OperationResponse> implements Ku
     return this.row;
   }
 
+  /**
+   * Estimates how many bytes this operation takes once encoded in a write RPC: its row, its bit
+   * sets, and the data of its string and binary cells.
+   * @return an estimated size in bytes
+   */
+  public long getEstimatedSize() {
+    Schema schema = table.getSchema();
+    // The row size already accounts for the nulls bit set.
+    long size = 1 /* for the op type */ + schema.getRowSize() +
+        Bytes.getBitSetSize(schema.getColumnCount());
+    for (byte[] data : row.getVarLengthData()) {
+      size += data.length;
+    }
+    return size;
+  }
+
   /**
    * Helper method that puts a list of Operations together into a WriteRequestPB.
    * @param operations The list of ops to put together in a WriteRequestPB
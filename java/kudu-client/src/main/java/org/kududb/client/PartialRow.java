@@ -288,6 +288,21 @@ public class PartialRow {
     addStringUtf8(schema.getColumnIndex(columnName), val);
   }
 
+  /**
+   * Add a String for the specified value, encoded as UTF8, copying it out of a larger array.
+   * The array can be reused right after this.
+   * @param columnIndex the column's index in the schema
+   * @param val array that contains the value to add
+   * @param offset where the value starts in the array
+   * @param length the value's length in bytes
+   * @throws IllegalArgumentException if the column doesn't exist or the value doesn't match
+   * the column's type
+   */
+  public void addStringUtf8(int columnIndex, byte[] val, int offset, int length) {
+    checkColumn(schema.getColumnByIndex(columnIndex), Type.STRING);
+    addVarLengthData(columnIndex, Arrays.copyOfRange(val, offset, offset + length));
+  }
+
   /**
    * Add binary data with the specified value.
    * Note that the provided value must not be mutated after this.
@@ -351,7 +366,9 @@ public class PartialRow {
   public void reset() {
     this.varLengthData.clear();
     this.columnsBitSet.clear();
-    this.nullsBitSet.clear();
+    if (this.nullsBitSet != null) {
+      this.nullsBitSet.clear();
+    }
   }
 
   private void setNull(ColumnSchema column) {
@@ -400,6 +417,38 @@ public class PartialRow {
     return schema.getColumnOffset(columnIndex);
   }
 
+  /**
+   * Copies the columns that are set in another row of the same schema over this row's.
+   * @param row the row to copy the set columns of
+   */
+  void setColumnsFrom(PartialRow row) {
+    assert schema == row.schema;
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      if (!row.isSet(i)) {
+        continue;
+      }
+      if (row.isSetToNull(i)) {
+        columnsBitSet.set(i);
+        nullsBitSet.set(i);
+        continue;
+      }
+      if (nullsBitSet != null) {
+        nullsBitSet.clear(i);
+      }
+      int offset = getPositionInRowAllocAndSetBitSet(i);
+      Type type = schema.getColumnByIndex(i).getType();
+      if (type == Type.STRING || type == Type.BINARY) {
+        byte[] data = row.varLengthData.get((int) Bytes.getLong(row.rowAlloc, offset));
+        // Any data this column had stays in the list, but nothing refers to it anymore.
+        Bytes.setLong(rowAlloc, varLengthData.size(), offset);
+        Bytes.setLong(rowAlloc, data.length, offset + Longs.BYTES);
+        varLengthData.add(data);
+      } else {
+        System.arraycopy(row.rowAlloc, offset, rowAlloc, offset, type.getSize());
+      }
+    }
+  }
+
   /**
    * Tells if the specified column was set by the user
    * @param column column's index in the schema
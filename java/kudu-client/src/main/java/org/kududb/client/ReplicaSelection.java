@@ -0,0 +1,37 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+/**
+ * Policy with which to choose amongst multiple replicas of a tablet when scanning.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public enum ReplicaSelection {
+  /**
+   * Select the leader replica.
+   */
+  LEADER_ONLY,
+  /**
+   * Select a replica that runs on this host if there's one, else the leader, else any replica.
+   * <p>
+   * Followers may lag behind the leader, so this should be used along with
+   * {@link AsyncKuduScanner.ReadMode#READ_AT_SNAPSHOT}. The scanner then waits for the replica
+   * to have all the data up to its snapshot.
+   */
+  CLOSEST_REPLICA
+}
@@ -36,6 +36,16 @@ public class RowError {
     this.tsUUID = tsUUID;
   }
 
+  /**
+   * Package-private method to report the same error for another operation, one that was merged
+   * into the operation that failed.
+   * @param operation the operation to report this error for
+   * @return a copy of this error with the operation replaced
+   */
+  RowError forOperation(Operation operation) {
+    return new RowError(status, message, operation, tsUUID);
+  }
+
   /**
    * Get the string-representation of the error code that the tablet server returned.
    * @return A short string representation of the error.
@@ -18,9 +18,11 @@ import org.kududb.Schema;
 import org.kududb.Type;
 import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
-import org.kududb.util.Slice;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.BitSet;
@@ -29,6 +31,10 @@ import java.util.TimeZone;
 
 /**
  * RowResult represents one row from a scanner. Do not reuse or store the objects.
+ * <p>
+ * When the scanner was built with
+ * {@link AbstractKuduScannerBuilder#directBuffers(boolean)}, the data is read straight from
+ * off-heap memory and must not be accessed after {@link RowResultIterator#release()} is called.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Evolving
@@ -47,17 +53,17 @@ public class RowResult {
   private final int rowSize;
   private final int[] columnOffsets;
   private final Schema schema;
-  private final Slice rowData;
-  private final Slice indirectData;
+  private final ChannelBuffer rowData;
+  private final ChannelBuffer indirectData;
 
   /**
    * Prepares the row representation using the provided data. Doesn't copy data
-   * out of the byte arrays. Package private.
+   * out of the buffers. Package private.
    * @param schema Schema used to build the rowData
-   * @param rowData The Slice of data returned by the tablet server
+   * @param rowData The little-endian buffer of data returned by the tablet server
    * @param indirectData The full indirect data that contains the strings
    */
-  RowResult(Schema schema, Slice rowData, Slice indirectData) {
+  RowResult(Schema schema, ChannelBuffer rowData, ChannelBuffer indirectData) {
     this.schema = schema;
     this.rowData = rowData;
     this.indirectData = indirectData;
@@ -98,9 +104,8 @@ public class RowResult {
     this.offset = this.rowSize * this.index;
     if (schema.hasNullableColumns() && this.index != INDEX_RESET_LOCATION) {
       this.nullsBitSet = Bytes.toBitSet(
-          this.rowData.getRawArray(),
-          this.rowData.getRawOffset()
-          + getCurrentRowDataOffsetForColumn(schema.getColumnCount()),
+          this.rowData,
+          getCurrentRowDataOffsetForColumn(schema.getColumnCount()),
           schema.getColumnCount());
     }
   }
@@ -129,8 +134,7 @@ public class RowResult {
   public int getInt(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    return Bytes.getInt(this.rowData.getRawArray(),
-        this.rowData.getRawOffset() + getCurrentRowDataOffsetForColumn(columnIndex));
+    return this.rowData.getInt(getCurrentRowDataOffsetForColumn(columnIndex));
   }
 
   /**
@@ -153,8 +157,7 @@ public class RowResult {
   public short getShort(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    return Bytes.getShort(this.rowData.getRawArray(),
-        this.rowData.getRawOffset() + getCurrentRowDataOffsetForColumn(columnIndex));
+    return this.rowData.getShort(getCurrentRowDataOffsetForColumn(columnIndex));
   }
 
   /**
@@ -177,9 +180,7 @@ public class RowResult {
   public boolean getBoolean(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    byte b = Bytes.getByte(this.rowData.getRawArray(),
-                         this.rowData.getRawOffset()
-                         + getCurrentRowDataOffsetForColumn(columnIndex));
+    byte b = this.rowData.getByte(getCurrentRowDataOffsetForColumn(columnIndex));
     return b == 1;
   }
 
@@ -204,8 +205,7 @@ public class RowResult {
   public byte getByte(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    return Bytes.getByte(this.rowData.getRawArray(),
-        this.rowData.getRawOffset() + getCurrentRowDataOffsetForColumn(columnIndex));
+    return this.rowData.getByte(getCurrentRowDataOffsetForColumn(columnIndex));
   }
 
   /**
@@ -236,9 +236,7 @@ public class RowResult {
   public long getLong(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    return Bytes.getLong(this.rowData.getRawArray(),
-                         this.rowData.getRawOffset()
-                         + getCurrentRowDataOffsetForColumn(columnIndex));
+    return this.rowData.getLong(getCurrentRowDataOffsetForColumn(columnIndex));
   }
 
   /**
@@ -259,9 +257,7 @@ public class RowResult {
   public float getFloat(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    return Bytes.getFloat(this.rowData.getRawArray(),
-                          this.rowData.getRawOffset()
-                          + getCurrentRowDataOffsetForColumn(columnIndex));
+    return this.rowData.getFloat(getCurrentRowDataOffsetForColumn(columnIndex));
   }
 
   /**
@@ -282,9 +278,7 @@ public class RowResult {
   public double getDouble(int columnIndex) {
     checkValidColumn(columnIndex);
     checkNull(columnIndex);
-    return Bytes.getDouble(this.rowData.getRawArray(),
-                           this.rowData.getRawOffset()
-                           + getCurrentRowDataOffsetForColumn(columnIndex));
+    return this.rowData.getDouble(getCurrentRowDataOffsetForColumn(columnIndex));
   }
 
   /**
@@ -321,9 +315,10 @@ public class RowResult {
     long length = rowData.getLong(getCurrentRowDataOffsetForColumn(columnIndex) + 8);
     assert offset < Integer.MAX_VALUE;
     assert length < Integer.MAX_VALUE;
-    return Bytes.getString(indirectData.getRawArray(),
-                           indirectData.getRawOffset() + (int)offset,
-                           (int)length);
+    if (length == 0) {
+      return "";
+    }
+    return indirectData.toString((int) offset, (int) length, CharsetUtil.UTF_8);
   }
 
   /**
@@ -355,8 +350,7 @@ public class RowResult {
     assert offset < Integer.MAX_VALUE;
     assert length < Integer.MAX_VALUE;
     byte[] ret = new byte[(int)length];
-    System.arraycopy(indirectData.getRawArray(), indirectData.getRawOffset() + (int) offset,
-                     ret, 0, (int) length);
+    indirectData.getBytes((int) offset, ret);
     return ret;
   }
 
@@ -364,7 +358,7 @@ public class RowResult {
    * Get the specified column's binary data.
    *
    * This doesn't copy the data and instead returns a ByteBuffer that wraps it. The ByteBuffer
-   * is backed by 'indirectData' in this RowResult.
+   * is backed by 'indirectData' in this RowResult, which may be off-heap.
    *
    * @param columnName name of the column to get data for
    * @return a byte[] with the binary data.
@@ -379,7 +373,7 @@ public class RowResult {
    * Get the specified column's binary data.
    *
    * This doesn't copy the data and instead returns a ByteBuffer that wraps it. The ByteBuffer
-   * is backed by 'indirectData' in this RowResult.
+   * is backed by 'indirectData' in this RowResult, which may be off-heap.
    *
    * @param columnIndex Column index in the schema
    * @return a byte[] with the binary data.
@@ -395,8 +389,7 @@ public class RowResult {
     long length = rowData.getLong(getCurrentRowDataOffsetForColumn(columnIndex) + 8);
     assert offset < Integer.MAX_VALUE;
     assert length < Integer.MAX_VALUE;
-    return ByteBuffer.wrap(indirectData.getRawArray(), indirectData.getRawOffset() + (int) offset,
-        (int) length);
+    return indirectData.toByteBuffer((int) offset, (int) length).order(ByteOrder.BIG_ENDIAN);
   }
 
   /**
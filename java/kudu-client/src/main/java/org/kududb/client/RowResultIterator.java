@@ -18,11 +18,15 @@ import org.kududb.Schema;
 import org.kududb.WireProtocol;
 import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
-import org.kududb.util.Slice;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 /**
  * Class that contains the rows sent by a tablet server, exhausting this iterator only means
  * that all the rows from the last server response were read.
+ * <p>
+ * If the scanner was built with {@link AbstractKuduScannerBuilder#directBuffers(boolean)},
+ * the rows live in off-heap memory that should be given back by calling {@link #release()}
+ * once they have been consumed.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Evolving
@@ -30,12 +34,16 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
     Iterable<RowResult> {
 
   private final Schema schema;
-  private final Slice bs;
-  private final Slice indirectBs;
+  private final ChannelBuffer bs;
+  private final ChannelBuffer indirectBs;
   private final int numRows;
   private final RowResult rowResult;
   private int currentRow = 0;
 
+  // Only set when the rows were received off-heap.
+  private final DirectBufferPool pool;
+  private ChannelBuffer pooledBuffer;
+
   /**
    * Package private constructor, only meant to be instantiated from AsyncKuduScanner.
    * @param ellapsedMillis Time in milliseconds since RPC creation to now.
@@ -53,18 +61,23 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
       this.bs = this.indirectBs = null;
       this.rowResult = null;
       this.numRows = 0;
+      this.pool = null;
+      callResponse.releaseSidecarData();
       return;
     }
-    this.bs = callResponse.getSidecar(data.getRowsSidecar());
-    this.indirectBs = callResponse.getSidecar(data.getIndirectDataSidecar());
+    this.bs = callResponse.getSidecarBuffer(data.getRowsSidecar());
+    this.indirectBs = callResponse.getSidecarBuffer(data.getIndirectDataSidecar());
     this.numRows = data.getNumRows();
+    this.pool = callResponse.getSidecarPool();
+    this.pooledBuffer = callResponse.detachSidecarData();
 
     // Integrity check
     int rowSize = schema.getRowSize();
     int expectedSize = numRows * rowSize;
-    if (expectedSize != bs.length()) {
-      throw new NonRecoverableException("RowResult block has " + bs.length() + " bytes of data " +
-          "but expected " + expectedSize + " for " + numRows + " rows");
+    if (expectedSize != bs.capacity()) {
+      release();
+      throw new NonRecoverableException("RowResult block has " + bs.capacity() + " bytes of " +
+          "data but expected " + expectedSize + " for " + numRows + " rows");
     }
     this.rowResult = new RowResult(this.schema, this.bs, this.indirectBs);
   }
@@ -96,6 +109,20 @@ public class RowResultIterator extends KuduRpcResponse implements Iterator<RowRe
     return this.numRows;
   }
 
+  /**
+   * Gives the off-heap memory holding the rows back to the client so that it can be reused for
+   * another response. Neither this iterator nor any {@link RowResult} obtained from it can be
+   * used after calling this method. Does nothing when the rows were received on the heap, or if
+   * it was already called.
+   */
+  public void release() {
+    if (this.pooledBuffer != null) {
+      this.pool.release(this.pooledBuffer);
+      this.pooledBuffer = null;
+      this.currentRow = this.numRows;
+    }
+  }
+
   @Override
   public String toString() {
     return "RowResultIterator for " + this.numRows + " rows";
@@ -0,0 +1,148 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.annotations.InterfaceAudience;
+
+/**
+ * Records when an RPC goes through each stage of its life in the client, using
+ * {@link System#nanoTime()}.
+ * <p>
+ * A trace only holds a bounded number of events. Once it's full, every new event replaces the
+ * last one so that the trace still ends with the latest stage, and the replaced events are only
+ * counted. An RPC is generally handed from one thread to another between stages, so recording
+ * is synchronized, but it's never contended.
+ */
+@InterfaceAudience.Private
+final class RpcTrace {
+
+  /**
+   * The stages an RPC goes through.
+   */
+  enum Stage {
+    /** The RPC was created. For a batch this is when the first operation got buffered. */
+    CREATED,
+    /** The operation, or the RPC, started waiting on the master to locate its tablet. */
+    LOOKUP_STARTED,
+    /** The operation found its tablet and was added to its session's buffer. */
+    LOOKUP_DONE,
+    /** The session flushed the batch. */
+    FLUSHED,
+    /** The client is looking for the server to send the RPC to. */
+    SENDING,
+    /** The RPC is waiting for its connection to be established. */
+    QUEUED_FOR_CONNECTION,
+    /** The RPC is being serialized. */
+    ENCODING,
+    /** The RPC was written to its connection. */
+    WRITTEN,
+    /** The server's response started being decoded. */
+    RESPONSE_RECEIVED,
+    /** The RPC will be retried once its timer fires. */
+    RETRY_SCHEDULED,
+    /** The RPC's Deferred was called back. */
+    COMPLETED,
+    /** The RPC's Deferred was called back with an error. */
+    FAILED,
+  }
+
+  static final int MAX_EVENTS = 32;
+
+  private final Stage[] stages = new Stage[MAX_EVENTS];
+  private final long[] timestamps = new long[MAX_EVENTS];
+  private int numEvents;
+  private int numDroppedEvents;
+
+  synchronized void record(Stage stage) {
+    record(stage, System.nanoTime());
+  }
+
+  synchronized void record(Stage stage, long nanos) {
+    if (numEvents == MAX_EVENTS) {
+      numDroppedEvents++;
+      numEvents--;
+    }
+    stages[numEvents] = stage;
+    timestamps[numEvents] = nanos;
+    numEvents++;
+  }
+
+  /**
+   * Copies the lookup events of another trace into this one, keeping them sorted by time. Used to
+   * fold the trace of an operation that had to look up its tablet into the trace of its batch.
+   * @param other the trace to copy from
+   */
+  synchronized void addLookupEvents(RpcTrace other) {
+    synchronized (other) {
+      for (int i = 0; i < other.numEvents; i++) {
+        if (other.stages[i] != Stage.LOOKUP_STARTED && other.stages[i] != Stage.LOOKUP_DONE) {
+          continue;
+        }
+        if (numEvents == MAX_EVENTS) {
+          numDroppedEvents++;
+          continue;
+        }
+        int insertAt = numEvents;
+        while (insertAt > 0 && timestamps[insertAt - 1] > other.timestamps[i]) {
+          stages[insertAt] = stages[insertAt - 1];
+          timestamps[insertAt] = timestamps[insertAt - 1];
+          insertAt--;
+        }
+        stages[insertAt] = other.stages[i];
+        timestamps[insertAt] = other.timestamps[i];
+        numEvents++;
+      }
+    }
+  }
+
+  /**
+   * @return the time between the first and the last recorded events, in nanoseconds
+   */
+  synchronized long getDurationNanos() {
+    if (numEvents == 0) {
+      return 0;
+    }
+    return timestamps[numEvents - 1] - timestamps[0];
+  }
+
+  synchronized int getNumEvents() {
+    return numEvents;
+  }
+
+  synchronized Stage getStage(int index) {
+    return stages[index];
+  }
+
+  /**
+   * Prints each stage with the time elapsed since the first event and since the previous one,
+   * in microseconds.
+   */
+  @Override
+  public synchronized String toString() {
+    StringBuilder buf = new StringBuilder();
+    buf.append("RpcTrace(total=").append(getDurationNanos() / 1000).append("us");
+    for (int i = 0; i < numEvents; i++) {
+      buf.append(", ").append(stages[i]);
+      buf.append(" +").append((timestamps[i] - timestamps[0]) / 1000).append("us");
+      if (i > 0) {
+        buf.append(" (").append((timestamps[i] - timestamps[i - 1]) / 1000).append("us)");
+      }
+    }
+    if (numDroppedEvents > 0) {
+      buf.append(", ").append(numDroppedEvents).append(" events dropped");
+    }
+    buf.append(')');
+    return buf.toString();
+  }
+}
@@ -19,6 +19,11 @@ import org.kududb.annotations.InterfaceStability;
 /**
  * Interface that defines the methods used to configure a session. It also exposes ways to
  * query its state.
+ * <p>
+ * This interface is implemented by the client's sessions, applications aren't expected to
+ * implement it. Methods can be added to it, like {@link #setCoalesceMutations(boolean)} and
+ * {@link #setPriority(Priority)} and their getters were, which breaks the implementations
+ * outside of the client.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Evolving
@@ -51,6 +56,23 @@ public interface SessionConfiguration {
     MANUAL_FLUSH
   }
 
+  /**
+   * How the writes of a session are treated when they share the client's connections with the
+   * writes of other sessions.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Evolving
+  public enum Priority {
+    // The default, for bulk writes that care about throughput more than latency.
+    NORMAL,
+
+    // For latency-sensitive writes. They're sent ahead of the NORMAL ones that wait for a
+    // connection to be established and, if the client was built with separate priority
+    // connections, they go over their own connection to each tablet server so that they don't
+    // queue behind large batches.
+    HIGH
+  }
+
   /**
    * Get the current flush mode.
    * @return flush mode, AUTO_FLUSH_SYNC by default
@@ -137,4 +159,36 @@ public interface SessionConfiguration {
    * @param ignoreAllDuplicateRows true if this session should enforce this, else false
    */
   public void setIgnoreAllDuplicateRows(boolean ignoreAllDuplicateRows);
+
+  /**
+   * Tells if the session merges the mutations of a row that are buffered together.
+   * @return true if the session is coalescing mutations, else false
+   */
+  public boolean isCoalesceMutations();
+
+  /**
+   * Configures the option to merge the mutations of a row that are buffered together: an UPDATE
+   * or a DELETE that follows an UPDATE of the same row is merged with it, which cuts the writes
+   * of workloads that keep updating the same rows. Each merged operation still gets its own
+   * response, the one of the operation that was sent in its place, so a row error is reported
+   * to all of them. Other sequences, like an UPDATE following an INSERT, are sent as they are
+   * because merging them could change their outcome.
+   * This only applies to the batches of AUTO_FLUSH_BACKGROUND and MANUAL_FLUSH, and is disabled
+   * by default.
+   * @param coalesceMutations true if this session should merge mutations, else false
+   */
+  public void setCoalesceMutations(boolean coalesceMutations);
+
+  /**
+   * Get the priority of this session's writes.
+   * @return the priority, NORMAL by default
+   */
+  public Priority getPriority();
+
+  /**
+   * Set the priority of this session's writes. It applies to the operations that are sent
+   * after this call, including those that are already buffered.
+   * @param priority the new priority
+   */
+  public void setPriority(Priority priority);
 }
@@ -0,0 +1,394 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a stream of operations through a session and tells when they're durable, without
+ * having to flush or to track each operation.
+ * <p>
+ * Each operation is written with a checkpoint, for example the offset of the message it comes
+ * from. Checkpoints can't go down, and several operations can share one. A checkpoint is
+ * durable once all the operations written with it and with the checkpoints before it are
+ * persisted, and once the sink knows no other operation will come with it, that is when an
+ * operation is written with a later checkpoint or when {@link #flush()} is called. The latest
+ * durable checkpoint is reported to the {@link CheckpointListener}, and can also be polled with
+ * {@link #getDurableCheckpoint()}.
+ * <p>
+ * The sink bounds the estimated size of the operations that were written but aren't persisted
+ * yet. Once that budget is used up, {@link #write} throws a {@link PleaseThrottleException}
+ * whose Deferred fires when half the budget is free again, and the buffered operations are
+ * flushed right away so that it happens soon. The session otherwise flushes as its flush mode
+ * says, AUTO_FLUSH_BACKGROUND being the one that suits streaming.
+ * <p>
+ * An operation that fails, or that comes back with a row error, stops the sink: its checkpoint
+ * and the ones after it will never be durable, and the writes that come after it fail. The
+ * usual recovery is to start again from the last durable checkpoint, which is why
+ * {@link AsyncKuduSession#setIgnoreAllDuplicateRows(boolean)} is often set on the session.
+ * <p>
+ * This class is thread-safe, but the order of the checkpoints is only meaningful when the
+ * operations are written from a single thread.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class StreamingSink {
+
+  /** The value of {@link #getDurableCheckpoint()} before any checkpoint is durable. */
+  public static final long NO_CHECKPOINT = -1;
+
+  private final AsyncKuduSession session;
+  private final long maxBytesInFlight;
+  private final CheckpointListener listener;
+
+  /** The checkpoints that aren't durable yet, in order. */
+  @GuardedBy("this")
+  private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private long lastCheckpoint = NO_CHECKPOINT;
+
+  /** Whether the last checkpoint can't be written to anymore, set by {@link #flush()}. */
+  @GuardedBy("this")
+  private boolean sealed;
+
+  @GuardedBy("this")
+  private long durableCheckpoint = NO_CHECKPOINT;
+
+  @GuardedBy("this")
+  private long bytesInFlight;
+
+  @GuardedBy("this")
+  private int operationsInFlight;
+
+  @GuardedBy("this")
+  private Exception failure;
+
+  @GuardedBy("this")
+  private long failedCheckpoint;
+
+  /** Fired when enough of the budget is free again, only set when a write was throttled. */
+  @GuardedBy("this")
+  private Deferred<Void> budgetFreed;
+
+  @GuardedBy("this")
+  private List<Deferred<Long>> flushes = new ArrayList<>();
+
+  /**
+   * The listener is called outside of the lock above, this one keeps its calls in order.
+   */
+  private final Object listenerLock = new Object();
+
+  @GuardedBy("listenerLock")
+  private long reportedCheckpoint = NO_CHECKPOINT;
+
+  @GuardedBy("listenerLock")
+  private boolean failureReported;
+
+  /**
+   * Package-private constructor meant to be used via
+   * {@link AsyncKuduSession#newStreamingSink(long, CheckpointListener)}.
+   */
+  StreamingSink(AsyncKuduSession session, long maxBytesInFlight, CheckpointListener listener) {
+    if (maxBytesInFlight <= 0) {
+      throw new IllegalArgumentException("The in-flight byte budget must be greater than 0");
+    }
+    this.session = session;
+    this.maxBytesInFlight = maxBytesInFlight;
+    this.listener = listener;
+  }
+
+  /**
+   * Writes an operation through the session.
+   * @param operation operation to write
+   * @param checkpoint the operation's checkpoint, at least 0 and not lower than the previous
+   * one. It can only be the same as the previous one if {@link #flush()} wasn't called since
+   * @return the Deferred the session returned for this operation. After a failure, a Deferred
+   * that fails right away
+   * @throws PleaseThrottleException if the in-flight byte budget is used up, or if the session
+   * itself can't take more operations. The operation wasn't written and should be written
+   * again once the exception's Deferred fires
+   */
+  public Deferred<OperationResponse> write(final Operation operation, final long checkpoint) {
+    if (checkpoint < 0) {
+      throw new IllegalArgumentException("Checkpoints can't be negative: " + checkpoint);
+    }
+    final long size = operation.getEstimatedSize();
+    final Checkpoint group;
+    final long previousCheckpoint;
+    final boolean previousSealed;
+    Deferred<Void> throttle = null;
+    synchronized (this) {
+      previousCheckpoint = lastCheckpoint;
+      previousSealed = sealed;
+      if (checkpoint < lastCheckpoint || (checkpoint == lastCheckpoint && sealed)) {
+        throw new IllegalArgumentException("Checkpoint " + checkpoint + " comes after " +
+            lastCheckpoint + (sealed ? ", which was flushed" : ""));
+      }
+      if (failure != null) {
+        return Deferred.fromError(new NonRecoverableException(
+            "The sink stopped after a failure at checkpoint " + failedCheckpoint, failure));
+      }
+      if (bytesInFlight > 0 && bytesInFlight + size > maxBytesInFlight) {
+        if (budgetFreed == null) {
+          budgetFreed = new Deferred<>();
+        }
+        throttle = budgetFreed;
+        group = null;
+      } else {
+        if (checkpoint > lastCheckpoint) {
+          group = new Checkpoint(checkpoint);
+          checkpoints.addLast(group);
+          lastCheckpoint = checkpoint;
+          sealed = false;
+        } else {
+          // The last checkpoint isn't sealed, so it's still in the queue.
+          group = checkpoints.getLast();
+        }
+        group.operationsInFlight++;
+        operationsInFlight++;
+        bytesInFlight += size;
+      }
+    }
+    if (throttle != null) {
+      // Send what's buffered, the budget won't be freed otherwise in MANUAL_FLUSH.
+      session.flush();
+      throw new PleaseThrottleException("The sink has " + maxBytesInFlight +
+          " bytes in flight or more, throttling", null, operation, throttle);
+    }
+
+    Deferred<OperationResponse> d;
+    try {
+      d = session.apply(operation);
+    } catch (RuntimeException e) {
+      // The operation wasn't taken, most likely a PleaseThrottleException.
+      notWritten(group, size, previousCheckpoint, previousSealed);
+      throw e;
+    }
+    d.addCallbacks(new Callback<OperationResponse, OperationResponse>() {
+      @Override
+      public OperationResponse call(OperationResponse response) {
+        done(group, size, response.hasRowError() ?
+            new NonRecoverableException("Row error: " + response.getRowError()) : null);
+        return response;
+      }
+
+      @Override
+      public String toString() {
+        return "track operation at checkpoint " + checkpoint;
+      }
+    }, new Callback<Exception, Exception>() {
+      @Override
+      public Exception call(Exception e) {
+        done(group, size, e);
+        return e;
+      }
+
+      @Override
+      public String toString() {
+        return "track failed operation at checkpoint " + checkpoint;
+      }
+    });
+    return d;
+  }
+
+  /**
+   * Flushes the session and seals the last checkpoint, so that no more operations can be
+   * written with it and it can become durable.
+   * @return a Deferred that fires with the durable checkpoint once all the operations written
+   * so far are done, or with a {@link NonRecoverableException} if one of them failed
+   */
+  public Deferred<Long> flush() {
+    Deferred<Long> d = new Deferred<>();
+    List<Deferred<Long>> ready = null;
+    long durable;
+    long failed;
+    Exception cause;
+    synchronized (this) {
+      sealed = true;
+      advance();
+      flushes.add(d);
+      if (operationsInFlight == 0) {
+        ready = flushes;
+        flushes = new ArrayList<>();
+      }
+      durable = durableCheckpoint;
+      failed = failedCheckpoint;
+      cause = failure;
+    }
+    session.flush();
+    report(durable, failed, cause);
+    complete(ready, durable, failed, cause);
+    return d;
+  }
+
+  /**
+   * @return the latest checkpoint whose operations, along with all the ones before them, are
+   * persisted, or {@link #NO_CHECKPOINT}
+   */
+  public synchronized long getDurableCheckpoint() {
+    return durableCheckpoint;
+  }
+
+  /**
+   * @return the estimated size of the operations that were written but aren't done yet
+   */
+  public synchronized long getBytesInFlight() {
+    return bytesInFlight;
+  }
+
+  /**
+   * Accounts for an operation that's done.
+   */
+  private void done(Checkpoint group, long size, Exception failed) {
+    synchronized (this) {
+      release(group, size);
+      if (failed != null) {
+        group.failed = true;
+        if (failure == null) {
+          failure = failed;
+          failedCheckpoint = group.checkpoint;
+        }
+      }
+    }
+    settle();
+  }
+
+  /**
+   * Takes back an operation that the session didn't take, as if it had never been written.
+   * Its checkpoint goes away too if the operation started it and no other operation joined it
+   * since, so that it doesn't become durable without that operation.
+   */
+  private void notWritten(Checkpoint group, long size, long previousCheckpoint,
+                          boolean previousSealed) {
+    synchronized (this) {
+      release(group, size);
+      if (group.checkpoint != previousCheckpoint && group.operationsInFlight == 0 &&
+          checkpoints.peekLast() == group) {
+        checkpoints.removeLast();
+        lastCheckpoint = previousCheckpoint;
+        // A flush since then sealed the checkpoints written before it.
+        sealed |= previousSealed;
+      }
+    }
+    settle();
+  }
+
+  @GuardedBy("this")
+  private void release(Checkpoint group, long size) {
+    bytesInFlight -= size;
+    operationsInFlight--;
+    group.operationsInFlight--;
+  }
+
+  /**
+   * Advances the durable checkpoint after operations were released, then frees the budget and
+   * completes the flushes if it's time to.
+   */
+  private void settle() {
+    Deferred<Void> freed = null;
+    List<Deferred<Long>> ready = null;
+    long durable;
+    long failedAt;
+    Exception cause;
+    synchronized (this) {
+      advance();
+      if (budgetFreed != null && (bytesInFlight <= maxBytesInFlight / 2 || failure != null)) {
+        freed = budgetFreed;
+        budgetFreed = null;
+      }
+      if (operationsInFlight == 0 && !flushes.isEmpty()) {
+        ready = flushes;
+        flushes = new ArrayList<>();
+      }
+      durable = durableCheckpoint;
+      failedAt = failedCheckpoint;
+      cause = failure;
+    }
+    report(durable, failedAt, cause);
+    if (freed != null) {
+      freed.callback(null);
+    }
+    complete(ready, durable, failedAt, cause);
+  }
+
+  /**
+   * Moves the durable checkpoint past the checkpoints that are done and that can't get more
+   * operations.
+   */
+  @GuardedBy("this")
+  private void advance() {
+    while (!checkpoints.isEmpty()) {
+      Checkpoint head = checkpoints.getFirst();
+      if (head.failed || head.operationsInFlight > 0 ||
+          (head == checkpoints.getLast() && !sealed)) {
+        return;
+      }
+      durableCheckpoint = head.checkpoint;
+      checkpoints.removeFirst();
+    }
+  }
+
+  private void report(long durable, long failedAt, Exception cause) {
+    if (listener == null) {
+      return;
+    }
+    synchronized (listenerLock) {
+      if (durable > reportedCheckpoint) {
+        reportedCheckpoint = durable;
+        listener.onCheckpointDurable(durable);
+      }
+      if (cause != null && !failureReported) {
+        failureReported = true;
+        listener.onFailure(failedAt, cause);
+      }
+    }
+  }
+
+  private static void complete(List<Deferred<Long>> flushes, long durable, long failedAt,
+                               Exception cause) {
+    if (flushes == null) {
+      return;
+    }
+    for (Deferred<Long> d : flushes) {
+      if (cause == null) {
+        d.callback(durable);
+      } else {
+        d.callback(new NonRecoverableException(
+            "The sink stopped after a failure at checkpoint " + failedAt, cause));
+      }
+    }
+  }
+
+  /**
+   * The operations of a checkpoint that aren't done yet.
+   */
+  private static final class Checkpoint {
+    final long checkpoint;
+    int operationsInFlight;
+    boolean failed;
+
+    Checkpoint(long checkpoint) {
+      this.checkpoint = checkpoint;
+    }
+  }
+}
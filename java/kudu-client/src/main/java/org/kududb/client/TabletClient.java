@@ -27,6 +27,7 @@
 
 package org.kududb.client;
 
+import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
 
 import org.jboss.netty.handler.timeout.ReadTimeoutException;
@@ -52,6 +53,7 @@ import org.jboss.netty.handler.codec.replay.VoidEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.security.sasl.SaslException;
 
 import java.util.ArrayList;
@@ -138,14 +140,67 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
   private final long socketReadTimeoutMs;
 
+  private final String host;
+
+  private final int port;
+
+  /**
+   * The client this one carries the high-priority RPCs of, or {@code null} if this is a regular
+   * client. A lane isn't in the client caches, its errors are reported as its owner's.
+   */
+  private final TabletClient laneOwner;
+
+  /**
+   * The separate connection used for the high-priority RPCs sent to this server, created the
+   * first time one is sent.
+   */
+  @GuardedBy("this")
+  private TabletClient priorityLane;
+
   private SecureRpcHelper secureRpcHelper;
 
   public TabletClient(AsyncKuduClient client, String uuid) {
+    this(client, uuid, null, 0, null);
+  }
+
+  TabletClient(AsyncKuduClient client, String uuid, String host, int port,
+               TabletClient laneOwner) {
     this.kuduClient = client;
     this.uuid = uuid;
+    this.host = host;
+    this.port = port;
+    this.laneOwner = laneOwner;
     this.socketReadTimeoutMs = client.getDefaultSocketReadTimeoutMs();
   }
 
+  /**
+   * Returns the client to send the high-priority RPCs for this server through, so that they
+   * don't queue behind the other RPCs on the same socket. The connection is opened on first use
+   * and again after it was lost.
+   * @return a client with its own connection to the same server, or this client if it's
+   * already a lane or if it doesn't know the address of the server
+   */
+  synchronized TabletClient getPriorityLane() {
+    if (laneOwner != null || host == null || dead) {
+      return this;
+    }
+    if (priorityLane == null || !priorityLane.isAlive()) {
+      priorityLane = kuduClient.newPriorityLane(this, uuid, host, port);
+    }
+    return priorityLane;
+  }
+
+  boolean isPriorityLane() {
+    return laneOwner != null;
+  }
+
+  /**
+   * The client that the errors of the RPCs sent through this one are reported for.
+   */
+  private TabletClient errorReportingClient() {
+    return laneOwner == null ? this : laneOwner;
+  }
+
   <R> void sendRpc(KuduRpc<R> rpc) {
     if (!rpc.deadlineTracker.hasDeadline()) {
       LOG.warn(getPeerUuidLoggingString() + " sending an rpc without a timeout " + rpc);
@@ -158,7 +213,18 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
       final Channel chan = this.chan;  // Volatile read.
       if (chan != null) {  // Double check if we disconnected during encode().
-        Channels.write(chan, serialized);
+        final ChannelFuture future = Channels.write(chan, serialized);
+        final RpcTrace trace = rpc.trace;
+        if (trace != null) {
+          future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+              if (future.isSuccess()) {
+                trace.record(RpcTrace.Stage.WRITTEN);
+              }
+            }
+          });
+        }
         return;
       }
     }
@@ -173,7 +239,18 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
         if (pending_rpcs == null) {
           pending_rpcs = new ArrayList<KuduRpc<?>>();
         }
-        pending_rpcs.add(rpc);
+        if (rpc.getPriority() == SessionConfiguration.Priority.HIGH) {
+          // Goes after the other high-priority RPCs, but ahead of everything else.
+          int index = 0;
+          while (index < pending_rpcs.size() &&
+              pending_rpcs.get(index).getPriority() == SessionConfiguration.Priority.HIGH) {
+            index++;
+          }
+          pending_rpcs.add(index, rpc);
+        } else {
+          pending_rpcs.add(rpc);
+        }
+        rpc.traceStage(RpcTrace.Stage.QUEUED_FOR_CONNECTION);
       }
     }
     if (copyOfDead) {
@@ -191,6 +268,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   }
 
   private <R> ChannelBuffer encode(final KuduRpc<R> rpc) {
+    rpc.traceStage(RpcTrace.Stage.ENCODING);
     final int rpcid = this.rpcid.incrementAndGet();
     ChannelBuffer payload;
     final String service = rpc.serviceName();
@@ -240,11 +318,35 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     }
 
     payload = secureRpcHelper.wrap(payload);
+    kuduClient.getMetrics().recordBytesSent(payload.readableBytes());
+    rpc.sendTimeNanos = System.nanoTime();
 
     return payload;
   }
 
   public Deferred<Void> shutdown() {
+    final TabletClient lane;
+    synchronized (this) {
+      lane = priorityLane;
+      priorityLane = null;
+    }
+    if (lane == null) {
+      return shutdownConnection();
+    }
+    return lane.shutdown().addCallbackDeferring(new Callback<Deferred<Void>, Void>() {
+      @Override
+      public Deferred<Void> call(Void arg) {
+        return shutdownConnection();
+      }
+
+      @Override
+      public String toString() {
+        return "shutdown after the priority lane";
+      }
+    });
+  }
+
+  private Deferred<Void> shutdownConnection() {
     // First, check whether we have RPCs in flight and cancel them.
     for (Iterator<KuduRpc<?>> ite = rpcs_inflight.values().iterator(); ite
         .hasNext();) {
@@ -398,6 +500,14 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       }
     }
 
+    ClientMetrics metrics = kuduClient.getMetrics();
+    // The total size doesn't include the 4 bytes used to encode it.
+    metrics.recordBytesReceived(response.getTotalResponseSize() + 4);
+    metrics.recordServerLatency(uuid, (start - rpc.sendTimeNanos) / 1000);
+    if (rpc.trace != null) {
+      rpc.trace.record(RpcTrace.Stage.RESPONSE_RECEIVED, start);
+    }
+
     // This check is specifically for the ERROR_SERVER_TOO_BUSY case above.
     if (retryableHeaderException != null) {
       kuduClient.handleRetryableError(rpc, retryableHeaderException);
@@ -431,6 +541,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       }
     }
 
+    metrics.recordMethodLatency(rpc.method(), rpc.deadlineTracker.getElapsedMicros());
     try {
       if (decoded != null) {
         assert !(decoded.getFirst() instanceof Exception);
@@ -461,14 +572,14 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     WireProtocol.AppStatusPB.ErrorCode code = error.getStatus().getCode();
     TabletServerErrorException ex = new TabletServerErrorException(uuid, error.getStatus());
     if (error.getCode() == Tserver.TabletServerErrorPB.Code.TABLET_NOT_FOUND) {
-      kuduClient.handleTabletNotFound(rpc, ex, this);
+      kuduClient.handleTabletNotFound(rpc, ex, errorReportingClient());
       // we're not calling rpc.callback() so we rely on the client to retry that RPC
     } else if (code == WireProtocol.AppStatusPB.ErrorCode.SERVICE_UNAVAILABLE) {
       kuduClient.handleRetryableError(rpc, ex);
       // The following two error codes are an indication that the tablet isn't a leader.
     } else if (code == WireProtocol.AppStatusPB.ErrorCode.ILLEGAL_STATE ||
         code == WireProtocol.AppStatusPB.ErrorCode.ABORTED) {
-      kuduClient.handleNotLeader(rpc, ex, this);
+      kuduClient.handleNotLeader(rpc, ex, errorReportingClient());
     } else {
       return ex;
     }
@@ -487,7 +598,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     WireProtocol.AppStatusPB.ErrorCode code = error.getStatus().getCode();
     MasterErrorException ex = new MasterErrorException(uuid, error);
     if (error.getCode() == Master.MasterErrorPB.Code.NOT_THE_LEADER) {
-      kuduClient.handleNotLeader(rpc, ex, this);
+      kuduClient.handleNotLeader(rpc, ex, errorReportingClient());
     } else if (code == WireProtocol.AppStatusPB.ErrorCode.SERVICE_UNAVAILABLE &&
         (!(rpc instanceof GetMasterRegistrationRequest))) {
       // TODO: This is a crutch until we either don't have to retry RPCs going to the
@@ -629,14 +740,32 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     }
 
     final ArrayList<KuduRpc<?>> rpcs;
+    final TabletClient lane;
     synchronized (this) {
       dead = true;
       rpcs = pending_rpcs;
       pending_rpcs = null;
+      lane = priorityLane;
+      priorityLane = null;
     }
     if (rpcs != null) {
       failOrRetryRpcs(rpcs, exception);
     }
+    // The client that replaces this one in the caches gets its own lane, this one's RPCs are
+    // retried through it.
+    if (lane != null) {
+      lane.disconnect();
+    }
+  }
+
+  /**
+   * Closes the connection, the RPCs in flight are retried or failed like on a connection reset.
+   */
+  private void disconnect() {
+    final Channel chancopy = chan;
+    if (chancopy != null) {
+      Channels.close(chancopy);
+    }
   }
 
   /**
@@ -661,6 +790,9 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     AsyncKuduClient.RemoteTablet tablet = rpc.getTablet();
     if (tablet == null) {  // Can't retry, dunno where this RPC should go.
       rpc.errback(exception);
+    } else if (laneOwner != null) {
+      // Only this connection was lost, the owner's and the tablet's locations may still be good.
+      kuduClient.handlePriorityLaneReset(rpc, exception);
     } else {
       kuduClient.handleTabletNotFound(rpc, exception, this);
     }
@@ -697,6 +829,11 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   }
 
   public void becomeReady(Channel chan) {
+    if (laneOwner != null && !laneOwner.isAlive()) {
+      // The owner was disconnected while this lane was connecting, the queued RPCs are retried.
+      Channels.close(chan);
+      return;
+    }
     this.chan = chan;
     sendQueuedRpcs();
   }
@@ -0,0 +1,233 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.master.Master;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up the tablets that cover partition keys, batching the lookups of each table.
+ * <p>
+ * A table has at most one GetTableLocations RPC in flight. The keys that need to be looked up
+ * while it's in flight are collected, then looked up together with a single RPC that asks for
+ * the range between the smallest and the largest key, and for up to
+ * {@link #MAX_RETURNED_LOCATIONS} tablets. A burst of writes that touches hundreds of tablets
+ * that aren't cached yet thus costs a few RPCs to the master instead of one per key, and the
+ * tablets cache is filled once per RPC.
+ * <p>
+ * The keys after the last tablet of a response are kept for the next RPC, the other ones are
+ * released: their tablet is in the cache, or it wasn't returned because it isn't running and
+ * the lookup will be retried later.
+ */
+@InterfaceAudience.Private
+final class TabletLookupAggregator {
+
+  /** How many tablets are asked for when looking up more than one key. */
+  static final int MAX_RETURNED_LOCATIONS = 100;
+
+  private final AsyncKuduClient client;
+
+  private final ConcurrentHashMap<String, TableLookups> lookupsByTable =
+      new ConcurrentHashMap<String, TableLookups>();
+
+  TabletLookupAggregator(AsyncKuduClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Looks up the tablet that covers a partition key. The tablets cache is updated before the
+   * returned Deferred is called back.
+   * @param table the table to look up
+   * @param partitionKey the partition key to find the tablet of
+   * @return a Deferred that gets the response of the RPC that looked up the key, which may
+   * cover other keys too
+   */
+  Deferred<Master.GetTableLocationsResponsePB> lookup(KuduTable table, byte[] partitionKey) {
+    TableLookups lookups = lookupsByTable.get(table.getTableId());
+    if (lookups == null) {
+      lookups = new TableLookups(table);
+      TableLookups oldLookups = lookupsByTable.putIfAbsent(table.getTableId(), lookups);
+      if (oldLookups != null) {
+        lookups = oldLookups;
+      }
+    }
+    return lookups.add(partitionKey);
+  }
+
+  /**
+   * The lookups of a single table.
+   */
+  private final class TableLookups {
+    private final KuduTable table;
+
+    // The keys that wait for the next RPC, with the lookups that are waiting on each.
+    @GuardedBy("this")
+    private NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> pending =
+        newKeyMap();
+
+    @GuardedBy("this")
+    private boolean inFlight;
+
+    TableLookups(KuduTable table) {
+      this.table = table;
+    }
+
+    Deferred<Master.GetTableLocationsResponsePB> add(byte[] partitionKey) {
+      Deferred<Master.GetTableLocationsResponsePB> d =
+          new Deferred<Master.GetTableLocationsResponsePB>();
+      boolean send;
+      synchronized (this) {
+        List<Deferred<Master.GetTableLocationsResponsePB>> waiters = pending.get(partitionKey);
+        if (waiters == null) {
+          waiters = new ArrayList<Deferred<Master.GetTableLocationsResponsePB>>(1);
+          pending.put(partitionKey, waiters);
+        }
+        waiters.add(d);
+        send = !inFlight;
+        inFlight = true;
+      }
+      if (send) {
+        sendNext();
+      }
+      return d;
+    }
+
+    /**
+     * Sends an RPC for all the pending keys, or notes that there's nothing in flight anymore.
+     */
+    private void sendNext() {
+      NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> batch;
+      synchronized (this) {
+        if (pending.isEmpty()) {
+          inFlight = false;
+          return;
+        }
+        batch = pending;
+        pending = newKeyMap();
+      }
+      // A single key only needs the tablet that covers it, which the master returns first.
+      int maxReturnedLocations = batch.size() == 1 ? 0 : MAX_RETURNED_LOCATIONS;
+      client.getMetrics().recordMasterLookup();
+      GetTableLocationsRequest rpc = new GetTableLocationsRequest(client.masterTable,
+          batch.firstKey(), batch.lastKey(), table.getTableId(), maxReturnedLocations);
+      rpc.setTimeoutMillis(client.getDefaultAdminOperationTimeoutMs());
+      client.sendRpcToTablet(rpc).addCallbacks(new LookupCB(batch), new LookupErrback(batch));
+    }
+
+    /**
+     * Puts keys back in the pending ones, they'll be part of the next RPC.
+     */
+    private synchronized void requeue(
+        Map<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> keys) {
+      for (Map.Entry<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> entry :
+          keys.entrySet()) {
+        List<Deferred<Master.GetTableLocationsResponsePB>> waiters = pending.get(entry.getKey());
+        if (waiters == null) {
+          pending.put(entry.getKey(), entry.getValue());
+        } else {
+          waiters.addAll(entry.getValue());
+        }
+      }
+    }
+
+    private final class LookupCB implements Callback<Void, Master.GetTableLocationsResponsePB> {
+      private final NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>>
+          batch;
+
+      LookupCB(NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> batch) {
+        this.batch = batch;
+      }
+
+      @Override
+      public Void call(Master.GetTableLocationsResponsePB response) {
+        try {
+          client.discoverTablets(table, response);
+        } catch (NonRecoverableException e) {
+          release(batch, e);
+          sendNext();
+          return null;
+        }
+        int count = response.getTabletLocationsCount();
+        if (count > 0) {
+          // The master applies the limit before leaving out the tablets that aren't running, so
+          // the count doesn't tell if the response was cut short. The keys after the last tablet
+          // need another RPC, which starts after the first key of this one so it makes progress.
+          Partition last =
+              ProtobufHelper.pbToPartition(response.getTabletLocations(count - 1).getPartition());
+          if (!last.isEndPartition()) {
+            Map<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> notFound =
+                batch.tailMap(last.getPartitionKeyEnd(), true);
+            requeue(notFound);
+            notFound.clear();
+          }
+        }
+        release(batch, response);
+        sendNext();
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "batched lookup of " + batch.size() + " keys in table " + table.getName();
+      }
+    }
+
+    private final class LookupErrback implements Callback<Void, Exception> {
+      private final NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>>
+          batch;
+
+      LookupErrback(
+          NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> batch) {
+        this.batch = batch;
+      }
+
+      @Override
+      public Void call(Exception e) {
+        release(batch, e);
+        sendNext();
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "batched lookup of " + batch.size() + " keys in table " + table.getName() +
+            " failed";
+      }
+    }
+  }
+
+  private static void release(
+      Map<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>> keys, Object result) {
+    for (List<Deferred<Master.GetTableLocationsResponsePB>> waiters : keys.values()) {
+      for (Deferred<Master.GetTableLocationsResponsePB> d : waiters) {
+        d.callback(result);
+      }
+    }
+  }
+
+  private static NavigableMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>>
+      newKeyMap() {
+    return new TreeMap<byte[], List<Deferred<Master.GetTableLocationsResponsePB>>>(Bytes.MEMCMP);
+  }
+}
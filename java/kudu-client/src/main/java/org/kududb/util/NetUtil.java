@@ -21,7 +21,13 @@ import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
 import org.kududb.annotations.InterfaceAudience;
 
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Networking related methods.
@@ -29,6 +35,10 @@ import java.util.List;
 @InterfaceAudience.Private
 public class NetUtil {
 
+  /** Caches the result of {@link #isLocalAddress(String)}, keyed by IP. */
+  private static final ConcurrentMap<String, Boolean> LOCAL_ADDRESS_CACHE =
+      new ConcurrentHashMap<String, Boolean>();
+
   /**
    * Convert a list of {@link HostAndPort} objects to a comma separate string.
    * The inverse of {@link #parseStrings(String, int)}.
@@ -72,4 +82,27 @@ public class NetUtil {
     }
     return hostsAndPorts;
   }
+
+  /**
+   * Checks if an IP is bound to one of this host's network interfaces. The results are cached
+   * since it requires going through the interfaces.
+   *
+   * @param ip An IP address, as a string.
+   * @return True if the address is a loopback or a local address, false if it isn't or if
+   * it can't be parsed.
+   */
+  public static boolean isLocalAddress(String ip) {
+    Boolean isLocal = LOCAL_ADDRESS_CACHE.get(ip);
+    if (isLocal == null) {
+      try {
+        InetAddress addr = InetAddress.getByName(ip);
+        isLocal = addr.isAnyLocalAddress() || addr.isLoopbackAddress() ||
+            NetworkInterface.getByInetAddress(addr) != null;
+      } catch (UnknownHostException | SocketException e) {
+        isLocal = false;
+      }
+      LOCAL_ADDRESS_CACHE.put(ip, isLocal);
+    }
+    return isLocal;
+  }
 }
@@ -0,0 +1,489 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.google.protobuf.ByteString;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.kududb.ColumnSchema;
+import org.kududb.Common;
+import org.kududb.Schema;
+import org.kududb.WireProtocol;
+import org.kududb.WireProtocol.AppStatusPB;
+import org.kududb.master.Master;
+import org.kududb.util.HybridTimeUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Kudu cluster that runs inside the JVM: masters and tablet servers that keep their tablets
+ * in memory. The client connects to it like to a real cluster, which makes it
+ * possible to test and measure the client against slow or failing servers without starting
+ * processes, see {@link SimulatedServer}.
+ * <p>
+ * Only range partitioning is supported, and all the replicas of a tablet share its rows. The
+ * masters share the catalog, only the one that is the leader serves it, see
+ * {@link #setLeaderMaster(int)}.
+ */
+public class SimulatedCluster {
+
+  private final NioServerSocketChannelFactory channelFactory = new NioServerSocketChannelFactory(
+      Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+  private final HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+  private final List<SimulatedServer> masters;
+  private final List<SimulatedServer> tabletServers;
+  private final AtomicInteger nextTabletId = new AtomicInteger();
+  private volatile int leaderMasterIndex;
+  private volatile long clockOffsetMillis;
+
+  // Guarded by 'this'.
+  private final Map<String, Table> tablesByName = new HashMap<String, Table>();
+  private final Map<String, Table> tablesById = new HashMap<String, Table>();
+  private int nextTableId;
+  private int nextReplica;
+  private long lastTimestamp;
+
+  private final Map<String, SimulatedTablet> tablets =
+      new ConcurrentHashMap<String, SimulatedTablet>();
+
+  /**
+   * A table of the catalog, its tablets are sorted by partition key.
+   */
+  private static final class Table {
+    final String id;
+    final String name;
+    final Schema schema;
+    final Common.PartitionSchemaPB partitionSchema;
+    final int numReplicas;
+    final List<SimulatedTablet> tablets;
+
+    Table(String id, String name, Schema schema, Common.PartitionSchemaPB partitionSchema,
+          int numReplicas, List<SimulatedTablet> tablets) {
+      this.id = id;
+      this.name = name;
+      this.schema = schema;
+      this.partitionSchema = partitionSchema;
+      this.numReplicas = numReplicas;
+      this.tablets = tablets;
+    }
+  }
+
+  /**
+   * Creates a cluster with a single master, it has to be started before it can be used.
+   * @param numTabletServers how many tablet servers to simulate
+   */
+  public SimulatedCluster(int numTabletServers) {
+    this(1, numTabletServers);
+  }
+
+  /**
+   * Creates a cluster whose leader is the first master, it has to be started before it can be
+   * used.
+   * @param numMasters how many masters to simulate
+   * @param numTabletServers how many tablet servers to simulate
+   */
+  public SimulatedCluster(int numMasters, int numTabletServers) {
+    List<SimulatedServer> masterServers = new ArrayList<SimulatedServer>(numMasters);
+    for (int i = 0; i < numMasters; i++) {
+      masterServers.add(new SimulatedServer(this, true, "simulated-master-" + i));
+    }
+    masters = Collections.unmodifiableList(masterServers);
+    List<SimulatedServer> servers = new ArrayList<SimulatedServer>(numTabletServers);
+    for (int i = 0; i < numTabletServers; i++) {
+      servers.add(new SimulatedServer(this, false, "simulated-ts-" + i));
+    }
+    tabletServers = Collections.unmodifiableList(servers);
+  }
+
+  /**
+   * Starts all the servers, each listening on its own ephemeral port.
+   */
+  public void start() {
+    for (SimulatedServer master : masters) {
+      master.start(channelFactory);
+    }
+    for (SimulatedServer server : tabletServers) {
+      server.start(channelFactory);
+    }
+  }
+
+  /**
+   * Stops all the servers and releases their threads.
+   */
+  public void shutdown() {
+    for (SimulatedServer master : masters) {
+      master.shutdown();
+    }
+    for (SimulatedServer server : tabletServers) {
+      server.shutdown();
+    }
+    channelFactory.releaseExternalResources();
+    timer.stop();
+  }
+
+  /**
+   * @return the addresses of the masters, to pass to the client's builder
+   */
+  public String getMasterAddresses() {
+    StringBuilder addresses = new StringBuilder();
+    for (SimulatedServer master : masters) {
+      if (addresses.length() > 0) {
+        addresses.append(',');
+      }
+      addresses.append(master.getHost()).append(':').append(master.getPort());
+    }
+    return addresses.toString();
+  }
+
+  /**
+   * @return the leader master, or null if there's none
+   */
+  public SimulatedServer getMaster() {
+    int index = leaderMasterIndex;
+    return index < 0 ? null : masters.get(index);
+  }
+
+  public List<SimulatedServer> getMasters() {
+    return masters;
+  }
+
+  /**
+   * Makes a master the leader, the other ones start answering that they aren't the leader.
+   * @param index the index of the master in {@link #getMasters()}, or -1 for no leader, like
+   *              during an election
+   */
+  public void setLeaderMaster(int index) {
+    leaderMasterIndex = index;
+  }
+
+  boolean isLeaderMaster(SimulatedServer server) {
+    int index = leaderMasterIndex;
+    return index >= 0 && masters.get(index) == server;
+  }
+
+  public List<SimulatedServer> getTabletServers() {
+    return tabletServers;
+  }
+
+  /**
+   * Sets the latency of all the servers, see {@link SimulatedServer#setLatencyMillis(long)}.
+   */
+  public void setLatencyMillis(long latencyMillis) {
+    for (SimulatedServer master : masters) {
+      master.setLatencyMillis(latencyMillis);
+    }
+    for (SimulatedServer server : tabletServers) {
+      server.setLatencyMillis(latencyMillis);
+    }
+  }
+
+  /**
+   * @param tableName the name of a table
+   * @return how many rows the table has, or -1 if it doesn't exist
+   */
+  public long countRows(String tableName) {
+    List<SimulatedTablet> tableTablets;
+    synchronized (this) {
+      Table table = tablesByName.get(tableName);
+      if (table == null) {
+        return -1;
+      }
+      tableTablets = table.tablets;
+    }
+    long count = 0;
+    for (SimulatedTablet tablet : tableTablets) {
+      count += tablet.getNumRows();
+    }
+    return count;
+  }
+
+  /**
+   * Flushes every tablet of a table, the rows inserted from now on go to new rowsets.
+   * @param tableName the name of a table
+   */
+  public synchronized void flush(String tableName) {
+    for (SimulatedTablet tablet : tablesByName.get(tableName).tablets) {
+      tablet.flush();
+    }
+  }
+
+  /**
+   * Makes the master leave a tablet out of the locations it returns, like it does for the tablets
+   * that are still being created or that are being moved.
+   * @param tableName the name of a table
+   * @param index the index of the tablet in the table, in partition key order
+   * @param running false to leave the tablet out, true to return it again
+   */
+  public synchronized void setTabletRunning(String tableName, int index, boolean running) {
+    tablesByName.get(tableName).tablets.get(index).setRunning(running);
+  }
+
+  /**
+   * Moves the clock of the servers away from the local one, a negative offset makes the local
+   * clock look ahead of theirs.
+   * @param clockOffsetMillis how far the servers' clock is from the local one, in milliseconds
+   */
+  public void setClockOffsetMillis(long clockOffsetMillis) {
+    this.clockOffsetMillis = clockOffsetMillis;
+  }
+
+  Timer getTimer() {
+    return timer;
+  }
+
+  SimulatedTablet getTablet(String tabletId) {
+    return tablets.get(tabletId);
+  }
+
+  /**
+   * @return a hybrid time that's greater than all the ones returned before
+   */
+  synchronized long now() {
+    long timestamp = HybridTimeUtil.clockTimestampToHTTimestamp(
+        System.currentTimeMillis() + clockOffsetMillis, TimeUnit.MILLISECONDS);
+    lastTimestamp = Math.max(timestamp, lastTimestamp + 1);
+    return lastTimestamp;
+  }
+
+  /**
+   * Makes sure that the timestamps returned from now on are greater than one a client got.
+   * @param propagatedTimestamp a hybrid time that a client propagated
+   */
+  synchronized void updateClock(long propagatedTimestamp) {
+    lastTimestamp = Math.max(propagatedTimestamp, lastTimestamp);
+  }
+
+  synchronized Master.CreateTableResponsePB createTable(Master.CreateTableRequestPB request) {
+    Master.CreateTableResponsePB.Builder builder = Master.CreateTableResponsePB.newBuilder();
+    if (tablesByName.containsKey(request.getName())) {
+      return builder.setError(error(Master.MasterErrorPB.Code.TABLE_ALREADY_PRESENT,
+          AppStatusPB.ErrorCode.ALREADY_PRESENT, "Table " + request.getName() + " already exists"))
+          .build();
+    }
+    int numReplicas = request.hasNumReplicas() ? request.getNumReplicas() : 1;
+    if (numReplicas > tabletServers.size()) {
+      return builder.setError(error(Master.MasterErrorPB.Code.REPLICATION_FACTOR_TOO_HIGH,
+          AppStatusPB.ErrorCode.INVALID_ARGUMENT, "Not enough tablet servers for " +
+              numReplicas + " replicas")).build();
+    }
+    Common.PartitionSchemaPB partitionSchemaPb = request.getPartitionSchema();
+    if (partitionSchemaPb.getHashBucketSchemasCount() > 0) {
+      return builder.setError(error(Master.MasterErrorPB.Code.INVALID_SCHEMA,
+          AppStatusPB.ErrorCode.NOT_SUPPORTED, "The simulated master only supports range " +
+              "partitioning")).build();
+    }
+
+    // The master assigns the column IDs, then the partition schema refers to them.
+    List<Common.ColumnSchemaPB> columnPbs = request.getSchema().getColumnsList();
+    Common.SchemaPB.Builder schemaPb = Common.SchemaPB.newBuilder();
+    for (int i = 0; i < columnPbs.size(); i++) {
+      schemaPb.addColumns(columnPbs.get(i).toBuilder().setId(i));
+    }
+    Schema schema;
+    try {
+      schema = ProtobufHelper.pbToSchema(schemaPb.build());
+    } catch (IllegalArgumentException e) {
+      return builder.setError(error(Master.MasterErrorPB.Code.INVALID_SCHEMA,
+          AppStatusPB.ErrorCode.INVALID_ARGUMENT, e.getMessage())).build();
+    }
+    Common.PartitionSchemaPB.RangeSchemaPB.Builder rangeSchema =
+        Common.PartitionSchemaPB.RangeSchemaPB.newBuilder();
+    if (partitionSchemaPb.hasRangeSchema()) {
+      for (Common.PartitionSchemaPB.ColumnIdentifierPB column :
+          partitionSchemaPb.getRangeSchema().getColumnsList()) {
+        int index = column.hasId() ? column.getId() : schema.getColumnIndex(column.getName());
+        rangeSchema.addColumnsBuilder().setId(index);
+      }
+    } else {
+      for (int i = 0; i < schema.getPrimaryKeyColumnCount(); i++) {
+        rangeSchema.addColumnsBuilder().setId(i);
+      }
+    }
+    Common.PartitionSchemaPB partitionSchemaWithIds = Common.PartitionSchemaPB.newBuilder()
+        .setRangeSchema(rangeSchema)
+        .build();
+    PartitionSchema partitionSchema =
+        ProtobufHelper.pbToPartitionSchema(partitionSchemaWithIds, schema);
+
+    TreeSet<byte[]> splitKeys = new TreeSet<byte[]>(Bytes.MEMCMP);
+    if (request.hasSplitRows()) {
+      List<WireProtocol.RowOperationsPB.Type> types = new ArrayList<WireProtocol.RowOperationsPB.Type>();
+      for (PartialRow row : SimulatedTablet.decodeOperations(schema, request.getSplitRows(),
+          types)) {
+        try {
+          splitKeys.add(partitionSchema.encodePartitionKey(row));
+        } catch (IllegalStateException e) {
+          return builder.setError(error(Master.MasterErrorPB.Code.UNKNOWN_ERROR,
+              AppStatusPB.ErrorCode.INVALID_ARGUMENT, e.getMessage())).build();
+        }
+      }
+    }
+    List<byte[]> boundaries = new ArrayList<byte[]>();
+    boundaries.add(new byte[0]);
+    boundaries.addAll(splitKeys);
+    boundaries.add(new byte[0]);
+
+    String tableId = "simulated-table-" + nextTableId++;
+    List<SimulatedTablet> tableTablets = new ArrayList<SimulatedTablet>();
+    for (int i = 0; i + 1 < boundaries.size(); i++) {
+      List<SimulatedServer> replicas = new ArrayList<SimulatedServer>(numReplicas);
+      for (int r = 0; r < numReplicas; r++) {
+        replicas.add(tabletServers.get((nextReplica + r) % tabletServers.size()));
+      }
+      // Spread the leaders like the master spreads the replicas.
+      nextReplica++;
+      SimulatedTablet tablet = new SimulatedTablet(
+          "simulated-tablet-" + nextTabletId.getAndIncrement(), schema, boundaries.get(i),
+          boundaries.get(i + 1), Collections.unmodifiableList(replicas));
+      tableTablets.add(tablet);
+      tablets.put(tablet.getTabletId(), tablet);
+    }
+    Table table = new Table(tableId, request.getName(), schema, partitionSchemaWithIds,
+        numReplicas, Collections.unmodifiableList(tableTablets));
+    tablesByName.put(table.name, table);
+    tablesById.put(table.id, table);
+    return builder.setTableId(ByteString.copyFromUtf8(tableId)).build();
+  }
+
+  synchronized Master.IsCreateTableDoneResponsePB isCreateTableDone(
+      Master.IsCreateTableDoneRequestPB request) {
+    Master.IsCreateTableDoneResponsePB.Builder builder =
+        Master.IsCreateTableDoneResponsePB.newBuilder();
+    if (findTable(request.getTable()) == null) {
+      return builder.setError(tableNotFound(request.getTable())).build();
+    }
+    return builder.setDone(true).build();
+  }
+
+  synchronized Master.DeleteTableResponsePB deleteTable(Master.DeleteTableRequestPB request) {
+    Master.DeleteTableResponsePB.Builder builder = Master.DeleteTableResponsePB.newBuilder();
+    Table table = findTable(request.getTable());
+    if (table == null) {
+      return builder.setError(tableNotFound(request.getTable())).build();
+    }
+    tablesByName.remove(table.name);
+    tablesById.remove(table.id);
+    for (SimulatedTablet tablet : table.tablets) {
+      tablets.remove(tablet.getTabletId());
+    }
+    return builder.build();
+  }
+
+  synchronized Master.ListTablesResponsePB listTables(Master.ListTablesRequestPB request) {
+    Master.ListTablesResponsePB.Builder builder = Master.ListTablesResponsePB.newBuilder();
+    for (Table table : tablesByName.values()) {
+      if (!request.hasNameFilter() || table.name.contains(request.getNameFilter())) {
+        builder.addTablesBuilder().setId(ByteString.copyFromUtf8(table.id)).setName(table.name);
+      }
+    }
+    return builder.build();
+  }
+
+  synchronized Master.GetTableSchemaResponsePB getTableSchema(
+      Master.GetTableSchemaRequestPB request) {
+    Master.GetTableSchemaResponsePB.Builder builder = Master.GetTableSchemaResponsePB.newBuilder();
+    Table table = findTable(request.getTable());
+    if (table == null) {
+      return builder.setError(tableNotFound(request.getTable())).build();
+    }
+    Common.SchemaPB.Builder schemaPb = Common.SchemaPB.newBuilder();
+    int id = 0;
+    for (ColumnSchema column : table.schema.getColumns()) {
+      schemaPb.addColumns(ProtobufHelper.columnToPb(column).toBuilder().setId(id++));
+    }
+    return builder.setSchema(schemaPb)
+        .setPartitionSchema(table.partitionSchema)
+        .setTableId(ByteString.copyFromUtf8(table.id))
+        .setNumReplicas(table.numReplicas)
+        .setCreateTableDone(true)
+        .build();
+  }
+
+  /**
+   * Returns the tablets that overlap the requested partition key range, starting with the one
+   * that contains the start key.
+   */
+  synchronized Master.GetTableLocationsResponsePB getTableLocations(
+      Master.GetTableLocationsRequestPB request) {
+    Master.GetTableLocationsResponsePB.Builder builder =
+        Master.GetTableLocationsResponsePB.newBuilder();
+    Table table = findTable(request.getTable());
+    if (table == null) {
+      return builder.setError(tableNotFound(request.getTable())).build();
+    }
+    byte[] start = request.getPartitionKeyStart().toByteArray();
+    byte[] end = request.getPartitionKeyEnd().toByteArray();
+    int count = 0;
+    for (SimulatedTablet tablet : table.tablets) {
+      if (count == request.getMaxReturnedLocations()) {
+        break;
+      }
+      byte[] tabletEnd = tablet.getPartitionKeyEnd();
+      if (tabletEnd.length > 0 && Bytes.memcmp(tabletEnd, start) <= 0) {
+        continue;
+      }
+      // Like the real master, the end of the range is inclusive.
+      if (end.length > 0 && Bytes.memcmp(tablet.getPartitionKeyStart(), end) > 0) {
+        break;
+      }
+      // Like the real master, the tablets that aren't running count towards the limit.
+      count++;
+      if (!tablet.isRunning()) {
+        continue;
+      }
+      Master.TabletLocationsPB.Builder locations = builder.addTabletLocationsBuilder()
+          .setTabletId(ByteString.copyFromUtf8(tablet.getTabletId()))
+          .setPartition(Common.PartitionPB.newBuilder()
+              .setPartitionKeyStart(ByteString.copyFrom(tablet.getPartitionKeyStart()))
+              .setPartitionKeyEnd(ByteString.copyFrom(tabletEnd)))
+          .setStale(false);
+      for (SimulatedServer replica : tablet.getReplicas()) {
+        locations.addReplicasBuilder()
+            .setTsInfo(replica.getTsInfo())
+            .setRole(replica.getRole(tablet));
+      }
+    }
+    return builder.build();
+  }
+
+  private Table findTable(Master.TableIdentifierPB identifier) {
+    if (identifier.hasTableId()) {
+      return tablesById.get(identifier.getTableId().toStringUtf8());
+    }
+    return tablesByName.get(identifier.getTableName());
+  }
+
+  private static Master.MasterErrorPB tableNotFound(Master.TableIdentifierPB identifier) {
+    return error(Master.MasterErrorPB.Code.TABLE_NOT_FOUND, AppStatusPB.ErrorCode.NOT_FOUND,
+        "The table does not exist: " + identifier);
+  }
+
+  private static Master.MasterErrorPB error(Master.MasterErrorPB.Code code,
+                                            AppStatusPB.ErrorCode statusCode, String message) {
+    return Master.MasterErrorPB.newBuilder()
+        .setCode(code)
+        .setStatus(SimulatedServer.status(statusCode, message))
+        .build();
+  }
+}
@@ -0,0 +1,851 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.kududb.Common;
+import org.kududb.WireProtocol.AppStatusPB;
+import org.kududb.master.Master;
+import org.kududb.rpc.RpcHeader;
+import org.kududb.tserver.Tserver;
+import org.kududb.tserver.TserverService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A master or a tablet server of a {@link SimulatedCluster}. It speaks the same RPC protocol as
+ * the real servers, which {@link TabletClient} can't tell apart, but it only implements the
+ * calls that the client needs to create tables, locate tablets, write and scan.
+ * <p>
+ * Each server can be slowed down and made to fail, see {@link #setLatencyMillis(long)},
+ * {@link #setMaxRowsPerSecond(long)}, {@link #failNextRpcs(Fault, int)} and
+ * {@link #setFaultProbability(Fault, double)}.
+ */
+public class SimulatedServer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SimulatedServer.class);
+
+  /**
+   * Errors that a tablet server can be made to return to writes and scans.
+   */
+  public enum Fault {
+    /** The server isn't the tablet's leader anymore, the client has to find the new one. */
+    NOT_LEADER,
+    /** The server's RPC queue is full, the client has to retry later. */
+    SERVER_TOO_BUSY,
+    /** The server doesn't have the tablet anymore, the client has to locate it again. */
+    TABLET_NOT_FOUND
+  }
+
+  // "hrpc", the RPC version and two bytes for the authentication and serialization protocols.
+  private static final int PREAMBLE_LENGTH = 7;
+  private static final int SASL_CALL_ID = -33;
+  private static final int DEFAULT_BATCH_SIZE_BYTES = 1024 * 1024;
+
+  // The responses of the master's calls that only the leader serves.
+  private static final Map<String, Message> MASTER_RESPONSES =
+      ImmutableMap.<String, Message>builder()
+          .put("ListTabletServers", Master.ListTabletServersResponsePB.getDefaultInstance())
+          .put("CreateTable", Master.CreateTableResponsePB.getDefaultInstance())
+          .put("IsCreateTableDone", Master.IsCreateTableDoneResponsePB.getDefaultInstance())
+          .put("DeleteTable", Master.DeleteTableResponsePB.getDefaultInstance())
+          .put("ListTables", Master.ListTablesResponsePB.getDefaultInstance())
+          .put("GetTableSchema", Master.GetTableSchemaResponsePB.getDefaultInstance())
+          .put("GetTableLocations", Master.GetTableLocationsResponsePB.getDefaultInstance())
+          .build();
+
+  private final SimulatedCluster cluster;
+  private final boolean isMaster;
+  private final String uuid;
+  private final ChannelGroup channels;
+  private final Random random = new Random();
+  private final ConcurrentMap<String, AtomicLong> rpcCounts =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final Map<ByteString, Scanner> scanners = new ConcurrentHashMap<ByteString, Scanner>();
+  private final AtomicLong nextScannerId = new AtomicLong();
+  private final AtomicLong writtenRows = new AtomicLong();
+
+  // Guarded by 'this'.
+  private final Map<Fault, Integer> pendingFaults = new EnumMap<Fault, Integer>(Fault.class);
+  private final Map<Fault, Double> faultProbabilities = new EnumMap<Fault, Double>(Fault.class);
+  private long nextFreeNanos;
+  private boolean negotiationsPaused;
+  private List<HeldResponse> heldNegotiations = new ArrayList<HeldResponse>();
+
+  private volatile long latencyMillis;
+  private volatile long maxRowsPerSecond;
+  private InetSocketAddress address;
+
+  SimulatedServer(SimulatedCluster cluster, boolean isMaster, String uuid) {
+    this.cluster = cluster;
+    this.isMaster = isMaster;
+    this.uuid = uuid;
+    this.channels = new DefaultChannelGroup(uuid);
+  }
+
+  /**
+   * Starts listening on an ephemeral port of the loopback interface.
+   */
+  void start(ChannelFactory channelFactory) {
+    ServerBootstrap bootstrap = new ServerBootstrap(channelFactory);
+    bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+      @Override
+      public ChannelPipeline getPipeline() {
+        return Channels.pipeline(new RpcFrameDecoder(), new RpcHandler());
+      }
+    });
+    bootstrap.setOption("child.tcpNoDelay", true);
+    Channel channel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+    channels.add(channel);
+    address = (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  /**
+   * Closes the server's socket and all its connections.
+   */
+  void shutdown() {
+    channels.close().awaitUninterruptibly();
+  }
+
+  public String getUuid() {
+    return uuid;
+  }
+
+  public String getHost() {
+    return address.getHostString();
+  }
+
+  public int getPort() {
+    return address.getPort();
+  }
+
+  /**
+   * Delays every response by a fixed amount of time.
+   * @param latencyMillis how long to wait before responding, 0 to respond right away
+   */
+  public void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  /**
+   * Caps how many rows per second this server writes and scans, the responses are delayed until
+   * the server has the capacity to handle their rows.
+   * @param maxRowsPerSecond the cap, 0 for no cap
+   */
+  public void setMaxRowsPerSecond(long maxRowsPerSecond) {
+    this.maxRowsPerSecond = maxRowsPerSecond;
+  }
+
+  /**
+   * Makes the next writes and scans sent to this tablet server fail.
+   * @param fault the error to return
+   * @param count how many RPCs fail
+   */
+  public synchronized void failNextRpcs(Fault fault, int count) {
+    pendingFaults.put(fault, count);
+  }
+
+  /**
+   * Makes a fraction of the writes and scans sent to this tablet server fail.
+   * @param fault the error to return
+   * @param probability the probability that an RPC fails, 0 to never fail
+   */
+  public synchronized void setFaultProbability(Fault fault, double probability) {
+    faultProbabilities.put(fault, probability);
+  }
+
+  /**
+   * @param method the name of an RPC method, like "Write"
+   * @return how many calls to that method this server received, including those that failed
+   */
+  public long getRpcCount(String method) {
+    AtomicLong count = rpcCounts.get(method);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * @return how many row operations this server applied as a leader, including those that failed
+   */
+  public long getWrittenRowCount() {
+    return writtenRows.get();
+  }
+
+  /**
+   * @return how many scanners are open on this server, waiting for their next batch
+   */
+  public int getOpenScannerCount() {
+    return scanners.size();
+  }
+
+  /**
+   * Stops answering the clients' connection negotiations, so that the RPCs they send to this
+   * server wait in their queues until {@link #resumeNegotiations()} is called.
+   */
+  public synchronized void pauseNegotiations() {
+    negotiationsPaused = true;
+  }
+
+  /**
+   * Answers the negotiations held since {@link #pauseNegotiations()}, and the next ones right
+   * away.
+   */
+  public void resumeNegotiations() throws IOException {
+    List<HeldResponse> held;
+    synchronized (this) {
+      negotiationsPaused = false;
+      held = heldNegotiations;
+      heldNegotiations = new ArrayList<HeldResponse>();
+    }
+    for (HeldResponse response : held) {
+      send(response.channel, SASL_CALL_ID, response.response);
+    }
+  }
+
+  /**
+   * Holds the response to a negotiation if they're paused.
+   * @return true if the response was held
+   */
+  private synchronized boolean holdNegotiation(Channel channel, Response response) {
+    if (!negotiationsPaused) {
+      return false;
+    }
+    heldNegotiations.add(new HeldResponse(channel, response));
+    return true;
+  }
+
+  /**
+   * @return how many client connections are open on this server
+   */
+  public int getConnectionCount() {
+    // Not counting the server's own socket.
+    return channels.size() - 1;
+  }
+
+  private synchronized Fault nextFault() {
+    for (Map.Entry<Fault, Integer> entry : pendingFaults.entrySet()) {
+      if (entry.getValue() > 0) {
+        entry.setValue(entry.getValue() - 1);
+        return entry.getKey();
+      }
+    }
+    for (Map.Entry<Fault, Double> entry : faultProbabilities.entrySet()) {
+      if (random.nextDouble() < entry.getValue()) {
+        return entry.getKey();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reserves capacity for rows and returns how long it takes to get to them.
+   */
+  private synchronized long reserveCapacityNanos(int rows) {
+    long rowsPerSecond = maxRowsPerSecond;
+    if (rowsPerSecond <= 0 || rows == 0) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    nextFreeNanos = Math.max(now, nextFreeNanos) + rows * TimeUnit.SECONDS.toNanos(1) /
+        rowsPerSecond;
+    return nextFreeNanos - now;
+  }
+
+  /**
+   * Response to an RPC, with the number of rows it carried for throttling.
+   */
+  private static final class Response {
+    final Message pb;
+    final boolean isError;
+    final List<byte[]> sidecars;
+    final int rows;
+
+    Response(Message pb, boolean isError, List<byte[]> sidecars, int rows) {
+      this.pb = pb;
+      this.isError = isError;
+      this.sidecars = sidecars;
+      this.rows = rows;
+    }
+
+    static Response of(Message pb) {
+      return new Response(pb, false, Collections.<byte[]>emptyList(), 0);
+    }
+
+    static Response rpcError(RpcHeader.ErrorStatusPB.RpcErrorCodePB code, String message) {
+      return new Response(RpcHeader.ErrorStatusPB.newBuilder()
+          .setCode(code)
+          .setMessage(message)
+          .build(), true, Collections.<byte[]>emptyList(), 0);
+    }
+  }
+
+  /**
+   * A response to a negotiation, held until the negotiations are resumed.
+   */
+  private static final class HeldResponse {
+    final Channel channel;
+    final Response response;
+
+    HeldResponse(Channel channel, Response response) {
+      this.channel = channel;
+      this.response = response;
+    }
+  }
+
+  /**
+   * Splits the byte stream in frames, after skipping the connection preamble.
+   */
+  private static final class RpcFrameDecoder extends FrameDecoder {
+    private boolean readPreamble = false;
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buf) {
+      if (!readPreamble) {
+        if (buf.readableBytes() < PREAMBLE_LENGTH) {
+          return null;
+        }
+        buf.skipBytes(PREAMBLE_LENGTH);
+        readPreamble = true;
+      }
+      if (buf.readableBytes() < 4) {
+        return null;
+      }
+      int length = buf.getInt(buf.readerIndex());
+      if (buf.readableBytes() < 4 + length) {
+        return null;
+      }
+      buf.skipBytes(4);
+      return buf.readBytes(length);
+    }
+  }
+
+  private final class RpcHandler extends SimpleChannelUpstreamHandler {
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+      channels.add(e.getChannel());
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+      InputStream in = new ChannelBufferInputStream((ChannelBuffer) e.getMessage());
+      RpcHeader.RequestHeader header = RpcHeader.RequestHeader.parseDelimitedFrom(in);
+      int callId = header.getCallId();
+      if (callId == TabletClient.CONNECTION_CTX_CALL_ID) {
+        return;
+      }
+      Response response;
+      if (callId == SASL_CALL_ID) {
+        response = handleSasl(RpcHeader.SaslMessagePB.parseDelimitedFrom(in));
+        if (holdNegotiation(e.getChannel(), response)) {
+          return;
+        }
+      } else {
+        String method = header.getRemoteMethod().getMethodName();
+        AtomicLong count = rpcCounts.get(method);
+        if (count == null) {
+          rpcCounts.putIfAbsent(method, new AtomicLong());
+          count = rpcCounts.get(method);
+        }
+        count.incrementAndGet();
+        response = isMaster ? handleMasterRpc(method, in) : handleTabletServerRpc(method, in);
+      }
+      send(e.getChannel(), callId, response);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+      LOG.warn("Closing a connection to " + uuid + " after an unexpected exception",
+          e.getCause());
+      e.getChannel().close();
+    }
+  }
+
+  private void send(final Channel channel, int callId, Response response) throws IOException {
+    final ChannelBuffer buffer = serialize(callId, response);
+    long delayNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis) +
+        reserveCapacityNanos(response.rows);
+    if (delayNanos == 0) {
+      Channels.write(channel, buffer);
+      return;
+    }
+    cluster.getTimer().newTimeout(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) {
+        Channels.write(channel, buffer);
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Frames a response like {@link CallResponse} expects it: the response header, then the main
+   * message followed by the sidecars.
+   */
+  private static ChannelBuffer serialize(int callId, Response response) throws IOException {
+    RpcHeader.ResponseHeader.Builder headerBuilder =
+        RpcHeader.ResponseHeader.newBuilder().setCallId(callId);
+    if (response.isError) {
+      headerBuilder.setIsError(true);
+    }
+    int messageLength = response.pb.getSerializedSize();
+    for (byte[] sidecar : response.sidecars) {
+      headerBuilder.addSidecarOffsets(messageLength);
+      messageLength += sidecar.length;
+    }
+    RpcHeader.ResponseHeader header = headerBuilder.build();
+    int totalSize = CodedOutputStream.computeRawVarint32Size(header.getSerializedSize()) +
+        header.getSerializedSize() + CodedOutputStream.computeRawVarint32Size(messageLength) +
+        messageLength;
+    byte[] buf = new byte[4 + totalSize];
+    buf[0] = (byte) (totalSize >>> 24);
+    buf[1] = (byte) (totalSize >>> 16);
+    buf[2] = (byte) (totalSize >>> 8);
+    buf[3] = (byte) totalSize;
+    CodedOutputStream out = CodedOutputStream.newInstance(buf, 4, totalSize);
+    out.writeRawVarint32(header.getSerializedSize());
+    header.writeTo(out);
+    out.writeRawVarint32(messageLength);
+    response.pb.writeTo(out);
+    for (byte[] sidecar : response.sidecars) {
+      out.writeRawBytes(sidecar);
+    }
+    out.checkNoSpaceLeft();
+    return ChannelBuffers.wrappedBuffer(buf);
+  }
+
+  /**
+   * Accepts any client, like a server that only offers the PLAIN mechanism does.
+   */
+  private Response handleSasl(RpcHeader.SaslMessagePB message) {
+    RpcHeader.SaslMessagePB.Builder builder = RpcHeader.SaslMessagePB.newBuilder();
+    switch (message.getState()) {
+      case NEGOTIATE:
+        builder.setState(RpcHeader.SaslMessagePB.SaslState.NEGOTIATE);
+        builder.addAuthsBuilder().setMethod("plain").setMechanism("PLAIN");
+        break;
+      case INITIATE:
+        builder.setState(RpcHeader.SaslMessagePB.SaslState.SUCCESS);
+        break;
+      default:
+        throw new IllegalStateException("Unexpected SASL message " + message);
+    }
+    return Response.of(builder.build());
+  }
+
+  private Response handleMasterRpc(String method, InputStream in) throws IOException {
+    boolean isLeader = cluster.isLeaderMaster(this);
+    if (method.equals("GetMasterRegistration")) {
+      Master.GetMasterRegistrationRequestPB.parseDelimitedFrom(in);
+      return Response.of(Master.GetMasterRegistrationResponsePB.newBuilder()
+          .setInstanceId(getInstance())
+          .setRegistration(getRegistration())
+          .setRole(isLeader ? org.kududb.consensus.Metadata.RaftPeerPB.Role.LEADER :
+              org.kududb.consensus.Metadata.RaftPeerPB.Role.FOLLOWER)
+          .build());
+    } else if (!isLeader && MASTER_RESPONSES.containsKey(method)) {
+      return notTheLeaderMaster(MASTER_RESPONSES.get(method));
+    } else if (method.equals("ListTabletServers")) {
+      Master.ListTabletServersRequestPB.parseDelimitedFrom(in);
+      Master.ListTabletServersResponsePB.Builder builder =
+          Master.ListTabletServersResponsePB.newBuilder();
+      for (SimulatedServer server : cluster.getTabletServers()) {
+        builder.addServersBuilder()
+            .setInstanceId(server.getInstance())
+            .setRegistration(Master.TSRegistrationPB.newBuilder()
+                .addRpcAddresses(server.hostPort()))
+            .setMillisSinceHeartbeat(0);
+      }
+      return Response.of(builder.build());
+    } else if (method.equals("CreateTable")) {
+      return Response.of(cluster.createTable(Master.CreateTableRequestPB.parseDelimitedFrom(in)));
+    } else if (method.equals("IsCreateTableDone")) {
+      return Response.of(
+          cluster.isCreateTableDone(Master.IsCreateTableDoneRequestPB.parseDelimitedFrom(in)));
+    } else if (method.equals("DeleteTable")) {
+      return Response.of(cluster.deleteTable(Master.DeleteTableRequestPB.parseDelimitedFrom(in)));
+    } else if (method.equals("ListTables")) {
+      return Response.of(cluster.listTables(Master.ListTablesRequestPB.parseDelimitedFrom(in)));
+    } else if (method.equals("GetTableSchema")) {
+      return Response.of(
+          cluster.getTableSchema(Master.GetTableSchemaRequestPB.parseDelimitedFrom(in)));
+    } else if (method.equals("GetTableLocations")) {
+      return Response.of(
+          cluster.getTableLocations(Master.GetTableLocationsRequestPB.parseDelimitedFrom(in)));
+    }
+    return Response.rpcError(RpcHeader.ErrorStatusPB.RpcErrorCodePB.ERROR_NO_SUCH_METHOD,
+        "The simulated master doesn't implement " + method);
+  }
+
+  private Response handleTabletServerRpc(String method, InputStream in) throws IOException {
+    if (method.equals("Write")) {
+      return write(Tserver.WriteRequestPB.parseDelimitedFrom(in));
+    } else if (method.equals("Scan")) {
+      return scan(Tserver.ScanRequestPB.parseDelimitedFrom(in));
+    } else if (method.equals("Checksum")) {
+      return checksum(TserverService.ChecksumRequestPB.parseDelimitedFrom(in));
+    }
+    return Response.rpcError(RpcHeader.ErrorStatusPB.RpcErrorCodePB.ERROR_NO_SUCH_METHOD,
+        "The simulated tablet server doesn't implement " + method);
+  }
+
+  private Response write(Tserver.WriteRequestPB request) {
+    Tserver.WriteResponsePB.Builder builder = Tserver.WriteResponsePB.newBuilder();
+    Fault fault = nextFault();
+    if (fault == Fault.SERVER_TOO_BUSY) {
+      return serverTooBusy();
+    }
+    SimulatedTablet tablet = cluster.getTablet(request.getTabletId().toStringUtf8());
+    if (fault == Fault.TABLET_NOT_FOUND || tablet == null || !tablet.getReplicas().contains(this)) {
+      return Response.of(builder.setError(tabletNotFound()).build());
+    }
+    if (fault == Fault.NOT_LEADER || tablet.getLeader() != this) {
+      return Response.of(builder.setError(notTheLeader()).build());
+    }
+    List<Tserver.WriteResponsePB.PerRowErrorPB> errors =
+        new ArrayList<Tserver.WriteResponsePB.PerRowErrorPB>();
+    int rows = tablet.apply(request.getRowOperations(), errors);
+    writtenRows.addAndGet(rows);
+    builder.addAllPerRowErrors(errors);
+    builder.setTimestamp(cluster.now());
+    return new Response(builder.build(), false, Collections.<byte[]>emptyList(), rows);
+  }
+
+  /**
+   * An open scanner, it remembers where the next batch starts.
+   */
+  private static final class Scanner {
+    final SimulatedTablet tablet;
+    final int[] projection;
+    final byte[] startPrimaryKey;
+    final byte[] stopPrimaryKey;
+    // The rowsets are read from the newest to the oldest, each one in primary key order.
+    int rowset;
+    byte[] nextPrimaryKey;
+    long remainingRows;
+
+    Scanner(SimulatedTablet tablet, int[] projection, byte[] startPrimaryKey,
+            byte[] stopPrimaryKey, long remainingRows) {
+      this.tablet = tablet;
+      this.projection = projection;
+      this.startPrimaryKey = startPrimaryKey;
+      this.stopPrimaryKey = stopPrimaryKey;
+      this.rowset = tablet.getNumRowsets() - 1;
+      this.nextPrimaryKey = startPrimaryKey;
+      this.remainingRows = remainingRows;
+    }
+  }
+
+  private Response scan(Tserver.ScanRequestPB request) {
+    Tserver.ScanResponsePB.Builder builder = Tserver.ScanResponsePB.newBuilder();
+    Fault fault = nextFault();
+    if (fault == Fault.SERVER_TOO_BUSY) {
+      return serverTooBusy();
+    }
+    Scanner scanner;
+    ByteString scannerId;
+    if (request.hasNewScanRequest()) {
+      Tserver.NewScanRequestPB newRequest = request.getNewScanRequest();
+      SimulatedTablet tablet = cluster.getTablet(newRequest.getTabletId().toStringUtf8());
+      if (fault == Fault.TABLET_NOT_FOUND || tablet == null ||
+          !tablet.getReplicas().contains(this)) {
+        return Response.of(builder.setError(tabletNotFound()).build());
+      }
+      if (fault == Fault.NOT_LEADER) {
+        return Response.of(builder.setError(notTheLeader()).build());
+      }
+      long now = updateClock(newRequest);
+      Tserver.TabletServerErrorPB snapshotError = checkSnapshot(newRequest, now);
+      if (snapshotError != null) {
+        return Response.of(builder.setError(snapshotError).build());
+      }
+      int[] projection = new int[newRequest.getProjectedColumnsCount()];
+      for (int i = 0; i < projection.length; i++) {
+        String name = newRequest.getProjectedColumns(i).getName();
+        projection[i] = tablet.getSchema().getColumnIndex(name);
+      }
+      scanner = new Scanner(tablet, projection, newRequest.getStartPrimaryKey().toByteArray(),
+          newRequest.getStopPrimaryKey().toByteArray(),
+          newRequest.hasLimit() ? newRequest.getLimit() : Long.MAX_VALUE);
+      scannerId = ByteString.copyFromUtf8(uuid + "-" + nextScannerId.incrementAndGet());
+      if (newRequest.getReadMode() == Common.ReadMode.READ_AT_SNAPSHOT) {
+        builder.setSnapTimestamp(newRequest.hasSnapTimestamp() ?
+            newRequest.getSnapTimestamp() : now);
+      }
+    } else {
+      scannerId = request.getScannerId();
+      scanner = scanners.get(scannerId);
+      if (scanner == null) {
+        return Response.of(builder.setError(Tserver.TabletServerErrorPB.newBuilder()
+            .setCode(Tserver.TabletServerErrorPB.Code.SCANNER_EXPIRED)
+            .setStatus(status(AppStatusPB.ErrorCode.NOT_FOUND, "Scanner not found")))
+            .build());
+      }
+      if (fault != null) {
+        // The scanner is gone, like it would be if the tablet really moved.
+        scanners.remove(scannerId);
+        return Response.of(builder.setError(fault == Fault.NOT_LEADER ?
+            notTheLeader() : tabletNotFound()).build());
+      }
+    }
+    builder.setScannerId(scannerId);
+
+    List<PartialRow> rows = Collections.emptyList();
+    if (!request.getCloseScanner()) {
+      int batchSizeBytes = request.hasBatchSizeBytes() ?
+          request.getBatchSizeBytes() : DEFAULT_BATCH_SIZE_BYTES;
+      rows = nextBatch(scanner, batchSizeBytes);
+    }
+    boolean hasMore = !request.getCloseScanner() && scanner.remainingRows > 0 &&
+        !read(scanner, 1).isEmpty();
+    if (hasMore) {
+      scanners.put(scannerId, scanner);
+    } else {
+      scanners.remove(scannerId);
+    }
+    builder.setHasMoreResults(hasMore);
+
+    List<byte[]> sidecars = Collections.emptyList();
+    if (!rows.isEmpty()) {
+      ByteArrayOutputStream rowsData = new ByteArrayOutputStream();
+      ByteArrayOutputStream indirectData = new ByteArrayOutputStream();
+      SimulatedTablet.encodeRows(rows, scanner.projection, rowsData, indirectData);
+      sidecars = new ArrayList<byte[]>(2);
+      sidecars.add(rowsData.toByteArray());
+      sidecars.add(indirectData.toByteArray());
+      builder.setData(org.kududb.WireProtocol.RowwiseRowBlockPB.newBuilder()
+          .setNumRows(rows.size())
+          .setRowsSidecar(0)
+          .setIndirectDataSidecar(1));
+    }
+    return new Response(builder.build(), false, sidecars, rows.size());
+  }
+
+  /**
+   * Checksums a whole tablet in a single response, on any of its replicas.
+   */
+  private Response checksum(TserverService.ChecksumRequestPB request) {
+    TserverService.ChecksumResponsePB.Builder builder =
+        TserverService.ChecksumResponsePB.newBuilder();
+    Fault fault = nextFault();
+    if (fault == Fault.SERVER_TOO_BUSY) {
+      return serverTooBusy();
+    }
+    if (!request.hasNewRequest()) {
+      return Response.of(builder.setError(Tserver.TabletServerErrorPB.newBuilder()
+          .setCode(Tserver.TabletServerErrorPB.Code.SCANNER_EXPIRED)
+          .setStatus(status(AppStatusPB.ErrorCode.NOT_FOUND, "Scanner not found")))
+          .build());
+    }
+    Tserver.NewScanRequestPB newRequest = request.getNewRequest();
+    SimulatedTablet tablet = cluster.getTablet(newRequest.getTabletId().toStringUtf8());
+    if (fault == Fault.TABLET_NOT_FOUND || tablet == null ||
+        !tablet.getReplicas().contains(this)) {
+      return Response.of(builder.setError(tabletNotFound()).build());
+    }
+    long now = updateClock(newRequest);
+    Tserver.TabletServerErrorPB snapshotError = checkSnapshot(newRequest, now);
+    if (snapshotError != null) {
+      return Response.of(builder.setError(snapshotError).build());
+    }
+    return Response.of(builder
+        .setChecksum(tablet.checksum())
+        .setHasMoreResults(false)
+        .setSnapTimestamp(newRequest.hasSnapTimestamp() ? newRequest.getSnapTimestamp() : now)
+        .build());
+  }
+
+  /**
+   * Moves the clock past the timestamp the client propagated, if any.
+   * @return the current time
+   */
+  private long updateClock(Tserver.NewScanRequestPB newRequest) {
+    if (newRequest.hasPropagatedTimestamp()) {
+      cluster.updateClock(newRequest.getPropagatedTimestamp());
+    }
+    return cluster.now();
+  }
+
+  /**
+   * @return an error if the snapshot to read is in the future, like a real server returns, or
+   * null if it can be read
+   */
+  private static Tserver.TabletServerErrorPB checkSnapshot(Tserver.NewScanRequestPB newRequest,
+                                                           long now) {
+    if (newRequest.getReadMode() != Common.ReadMode.READ_AT_SNAPSHOT ||
+        !newRequest.hasSnapTimestamp() || newRequest.getSnapTimestamp() <= now) {
+      return null;
+    }
+    return Tserver.TabletServerErrorPB.newBuilder()
+        .setCode(Tserver.TabletServerErrorPB.Code.INVALID_SNAPSHOT)
+        .setStatus(status(AppStatusPB.ErrorCode.INVALID_ARGUMENT, "Snapshot time " +
+            newRequest.getSnapTimestamp() + " in the future. Max allowed timestamp is " + now))
+        .build();
+  }
+
+  /**
+   * Reads the rows that fit in a batch and moves the scanner past them.
+   */
+  private static List<PartialRow> nextBatch(Scanner scanner, int batchSizeBytes) {
+    if (batchSizeBytes == 0 || scanner.remainingRows == 0) {
+      return Collections.emptyList();
+    }
+    int fixedSize = 1;
+    for (int index : scanner.projection) {
+      fixedSize += scanner.tablet.getSchema().getColumnByIndex(index).getType().getSize();
+    }
+    int maxRows = (int) Math.min(scanner.remainingRows,
+        Math.max(1, batchSizeBytes / fixedSize));
+    List<PartialRow> rows = read(scanner, maxRows);
+    // Strings can make rows bigger than their fixed size, the batch is cut once it's full.
+    int size = 0;
+    int numRows = 0;
+    while (numRows < rows.size() && size < batchSizeBytes) {
+      size += SimulatedTablet.estimateEncodedSize(rows.get(numRows), scanner.projection);
+      numRows++;
+    }
+    rows = rows.subList(0, numRows);
+    if (!rows.isEmpty()) {
+      // The smallest key that comes after the last row's.
+      byte[] lastKey = rows.get(rows.size() - 1).encodePrimaryKey();
+      byte[] nextKey = new byte[lastKey.length + 1];
+      System.arraycopy(lastKey, 0, nextKey, 0, lastKey.length);
+      scanner.nextPrimaryKey = nextKey;
+      scanner.remainingRows -= rows.size();
+    }
+    return rows;
+  }
+
+  /**
+   * Reads rows from where the scanner is without moving it past them, it only moves to the next
+   * rowset if the current one has no rows left.
+   */
+  private static List<PartialRow> read(Scanner scanner, int maxRows) {
+    while (true) {
+      List<PartialRow> rows = scanner.tablet.read(scanner.rowset, scanner.nextPrimaryKey,
+          scanner.stopPrimaryKey, maxRows);
+      if (!rows.isEmpty() || scanner.rowset == 0) {
+        return rows;
+      }
+      scanner.rowset--;
+      scanner.nextPrimaryKey = scanner.startPrimaryKey;
+    }
+  }
+
+  private static Response serverTooBusy() {
+    return Response.rpcError(RpcHeader.ErrorStatusPB.RpcErrorCodePB.ERROR_SERVER_TOO_BUSY,
+        "The simulated service queue is full");
+  }
+
+  /**
+   * @param response the default instance of the response to return
+   * @return the response, with a NOT_THE_LEADER error like the followers return
+   */
+  private static Response notTheLeaderMaster(Message response) {
+    Master.MasterErrorPB error = Master.MasterErrorPB.newBuilder()
+        .setCode(Master.MasterErrorPB.Code.NOT_THE_LEADER)
+        .setStatus(status(AppStatusPB.ErrorCode.ILLEGAL_STATE, "Not the leader master"))
+        .build();
+    Message.Builder builder = response.newBuilderForType();
+    builder.setField(builder.getDescriptorForType().findFieldByName("error"), error);
+    return Response.of(builder.build());
+  }
+
+  private static Tserver.TabletServerErrorPB tabletNotFound() {
+    return Tserver.TabletServerErrorPB.newBuilder()
+        .setCode(Tserver.TabletServerErrorPB.Code.TABLET_NOT_FOUND)
+        .setStatus(status(AppStatusPB.ErrorCode.NOT_FOUND, "Tablet not found"))
+        .build();
+  }
+
+  private static Tserver.TabletServerErrorPB notTheLeader() {
+    return Tserver.TabletServerErrorPB.newBuilder()
+        .setCode(Tserver.TabletServerErrorPB.Code.NOT_THE_LEADER)
+        .setStatus(status(AppStatusPB.ErrorCode.ILLEGAL_STATE, "Not the leader"))
+        .build();
+  }
+
+  static AppStatusPB status(AppStatusPB.ErrorCode code, String message) {
+    return AppStatusPB.newBuilder().setCode(code).setMessage(message).build();
+  }
+
+  org.kududb.consensus.Metadata.RaftPeerPB.Role getRole(SimulatedTablet tablet) {
+    return tablet.getLeader() == this ? org.kududb.consensus.Metadata.RaftPeerPB.Role.LEADER :
+        org.kududb.consensus.Metadata.RaftPeerPB.Role.FOLLOWER;
+  }
+
+  Master.TSInfoPB getTsInfo() {
+    return Master.TSInfoPB.newBuilder()
+        .setPermanentUuid(ByteString.copyFromUtf8(uuid))
+        .addRpcAddresses(hostPort())
+        .build();
+  }
+
+  private org.kududb.WireProtocol.NodeInstancePB getInstance() {
+    return org.kududb.WireProtocol.NodeInstancePB.newBuilder()
+        .setPermanentUuid(ByteString.copyFromUtf8(uuid))
+        .setInstanceSeqno(0)
+        .build();
+  }
+
+  private org.kududb.WireProtocol.ServerRegistrationPB getRegistration() {
+    return org.kududb.WireProtocol.ServerRegistrationPB.newBuilder()
+        .addRpcAddresses(hostPort())
+        .build();
+  }
+
+  private Common.HostPortPB hostPort() {
+    return Common.HostPortPB.newBuilder().setHost(getHost()).setPort(getPort()).build();
+  }
+
+  @Override
+  public String toString() {
+    return (isMaster ? "SimulatedMaster(" : "SimulatedTabletServer(") + uuid + ")";
+  }
+}
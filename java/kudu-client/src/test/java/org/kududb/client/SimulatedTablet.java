@@ -0,0 +1,392 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.kududb.ColumnSchema;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.WireProtocol.AppStatusPB;
+import org.kududb.WireProtocol.RowOperationsPB;
+import org.kududb.tserver.Tserver.WriteResponsePB;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A tablet of a {@link SimulatedCluster}, its rows are kept in memory in primary key order. All
+ * the replicas of a tablet share the same instance, as if replication was instantaneous.
+ * <p>
+ * Like a real tablet, the rows are split in rowsets: inserts go to the last one, and
+ * {@link #flush()} starts a new one. Each rowset is sorted, but scans read the newest rowset
+ * first so their rows are only in primary key order when there's a single rowset.
+ */
+class SimulatedTablet {
+
+  private final String tabletId;
+  private final Schema schema;
+  private final byte[] partitionKeyStart;
+  private final byte[] partitionKeyEnd;
+  private final List<SimulatedServer> replicas;
+  private volatile boolean running = true;
+
+  // The rowsets from the oldest to the newest, they map encoded primary keys to rows. Guarded by
+  // 'this'.
+  private final List<NavigableMap<byte[], PartialRow>> rowsets =
+      new ArrayList<NavigableMap<byte[], PartialRow>>();
+
+  SimulatedTablet(String tabletId, Schema schema, byte[] partitionKeyStart,
+                  byte[] partitionKeyEnd, List<SimulatedServer> replicas) {
+    this.tabletId = tabletId;
+    this.schema = schema;
+    this.partitionKeyStart = partitionKeyStart;
+    this.partitionKeyEnd = partitionKeyEnd;
+    this.replicas = replicas;
+    flush();
+  }
+
+  String getTabletId() {
+    return tabletId;
+  }
+
+  Schema getSchema() {
+    return schema;
+  }
+
+  byte[] getPartitionKeyStart() {
+    return partitionKeyStart;
+  }
+
+  byte[] getPartitionKeyEnd() {
+    return partitionKeyEnd;
+  }
+
+  /**
+   * @return the servers that host this tablet, the first one is the leader
+   */
+  List<SimulatedServer> getReplicas() {
+    return replicas;
+  }
+
+  SimulatedServer getLeader() {
+    return replicas.get(0);
+  }
+
+  /**
+   * @return whether the master returns this tablet's locations
+   */
+  boolean isRunning() {
+    return running;
+  }
+
+  void setRunning(boolean running) {
+    this.running = running;
+  }
+
+  synchronized int getNumRows() {
+    int numRows = 0;
+    for (NavigableMap<byte[], PartialRow> rowset : rowsets) {
+      numRows += rowset.size();
+    }
+    return numRows;
+  }
+
+  /**
+   * Starts a new rowset, the rows that are inserted from now on go to it.
+   */
+  synchronized void flush() {
+    rowsets.add(new TreeMap<byte[], PartialRow>(Bytes.MEMCMP));
+  }
+
+  /**
+   * @return the sum of the checksums of the rows, it doesn't depend on how they're split in
+   * rowsets or tablets
+   */
+  synchronized long checksum() {
+    int[] projection = new int[schema.getColumnCount()];
+    for (int i = 0; i < projection.length; i++) {
+      projection[i] = i;
+    }
+    long checksum = 0;
+    for (NavigableMap<byte[], PartialRow> rowset : rowsets) {
+      for (PartialRow row : rowset.values()) {
+        ByteArrayOutputStream rowData = new ByteArrayOutputStream();
+        ByteArrayOutputStream indirectData = new ByteArrayOutputStream();
+        encodeRows(Collections.singletonList(row), projection, rowData, indirectData);
+        CRC32 crc = new CRC32();
+        crc.update(rowData.toByteArray());
+        crc.update(indirectData.toByteArray());
+        checksum += crc.getValue();
+      }
+    }
+    return checksum;
+  }
+
+  synchronized int getNumRowsets() {
+    return rowsets.size();
+  }
+
+  /**
+   * Applies encoded operations the way a tablet server would, row by row.
+   * @param operations the operations, as sent in a write request
+   * @param errors where the errors of the rows that couldn't be applied are added
+   * @return how many operations there were
+   */
+  synchronized int apply(RowOperationsPB operations,
+                         List<WriteResponsePB.PerRowErrorPB> errors) {
+    List<RowOperationsPB.Type> types = new ArrayList<RowOperationsPB.Type>();
+    List<PartialRow> decoded = decodeOperations(schema, operations, types);
+    for (int i = 0; i < decoded.size(); i++) {
+      PartialRow row = decoded.get(i);
+      byte[] key = row.encodePrimaryKey();
+      // Updates and deletes stay in the rowset of the row.
+      NavigableMap<byte[], PartialRow> rows = findRowset(key);
+      PartialRow existing = rows == null ? null : rows.get(key);
+      switch (types.get(i)) {
+        case INSERT:
+          if (existing != null) {
+            errors.add(rowError(i, AppStatusPB.ErrorCode.ALREADY_PRESENT, "key already present"));
+          } else {
+            rowsets.get(rowsets.size() - 1).put(key, row);
+          }
+          break;
+        case UPDATE:
+          if (existing == null) {
+            errors.add(rowError(i, AppStatusPB.ErrorCode.NOT_FOUND, "key not found"));
+          } else {
+            // Rows are never modified in place so that scans can read them without copying.
+            PartialRow merged = new PartialRow(existing);
+            merge(row, merged);
+            rows.put(key, merged);
+          }
+          break;
+        case DELETE:
+          if (existing == null) {
+            errors.add(rowError(i, AppStatusPB.ErrorCode.NOT_FOUND, "key not found"));
+          } else {
+            rows.remove(key);
+          }
+          break;
+        default:
+          errors.add(rowError(i, AppStatusPB.ErrorCode.INVALID_ARGUMENT,
+              "unsupported operation " + types.get(i)));
+      }
+    }
+    return decoded.size();
+  }
+
+  private NavigableMap<byte[], PartialRow> findRowset(byte[] key) {
+    for (NavigableMap<byte[], PartialRow> rowset : rowsets) {
+      if (rowset.containsKey(key)) {
+        return rowset;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the rows of a rowset between two primary keys, they must not be modified.
+   * @param rowset the index of the rowset, 0 is the oldest
+   * @param startPrimaryKey the first key to return, inclusive, empty to start at the beginning
+   * @param stopPrimaryKey the key to stop at, exclusive, empty to go until the end
+   * @param maxRows how many rows to return at most
+   * @return the rows, in primary key order
+   */
+  synchronized List<PartialRow> read(int rowset, byte[] startPrimaryKey, byte[] stopPrimaryKey,
+                                     int maxRows) {
+    NavigableMap<byte[], PartialRow> range =
+        rowsets.get(rowset).tailMap(startPrimaryKey, true);
+    if (stopPrimaryKey.length > 0) {
+      range = range.headMap(stopPrimaryKey, false);
+    }
+    List<PartialRow> result = new ArrayList<PartialRow>(Math.min(maxRows, range.size()));
+    for (Map.Entry<byte[], PartialRow> entry : range.entrySet()) {
+      if (result.size() == maxRows) {
+        break;
+      }
+      result.add(entry.getValue());
+    }
+    return result;
+  }
+
+  private void merge(PartialRow update, PartialRow existing) {
+    for (int i = schema.getPrimaryKeyColumnCount(); i < schema.getColumnCount(); i++) {
+      if (!update.isSet(i)) {
+        continue;
+      }
+      if (update.isSetToNull(i)) {
+        existing.setNull(i);
+      } else {
+        ColumnSchema column = schema.getColumnByIndex(i);
+        if (column.getType() == Type.STRING || column.getType() == Type.BINARY) {
+          setVarLengthColumn(existing, i, getVarLengthColumn(update, i));
+        } else {
+          System.arraycopy(update.getRowAlloc(), schema.getColumnOffset(i),
+              existing.getRowAlloc(), schema.getColumnOffset(i), column.getType().getSize());
+          existing.getColumnsBitSet().set(i);
+          if (existing.getNullsBitSet() != null) {
+            existing.getNullsBitSet().clear(i);
+          }
+        }
+      }
+    }
+  }
+
+  private static WriteResponsePB.PerRowErrorPB rowError(int index, AppStatusPB.ErrorCode code,
+                                                        String message) {
+    return WriteResponsePB.PerRowErrorPB.newBuilder()
+        .setRowIndex(index)
+        .setError(AppStatusPB.newBuilder().setCode(code).setMessage(message))
+        .build();
+  }
+
+  /**
+   * Decodes operations encoded by {@link Operation.OperationsEncoder}.
+   * @param schema the schema of the table the operations are for
+   * @param operations the encoded operations
+   * @param types where the type of each operation is added
+   * @return the rows of the operations
+   */
+  static List<PartialRow> decodeOperations(Schema schema, RowOperationsPB operations,
+                                           List<RowOperationsPB.Type> types) {
+    ByteBuffer data = operations.getRows().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    byte[] indirect = operations.getIndirectData().toByteArray();
+    int columnCount = schema.getColumnCount();
+    int bitSetSize = Bytes.getBitSetSize(columnCount);
+    byte[] bitSet = new byte[bitSetSize];
+    List<PartialRow> rows = new ArrayList<PartialRow>();
+    while (data.hasRemaining()) {
+      types.add(RowOperationsPB.Type.valueOf(data.get()));
+      data.get(bitSet);
+      BitSet columnsSet = Bytes.toBitSet(bitSet, 0, columnCount);
+      BitSet nulls = new BitSet();
+      if (schema.hasNullableColumns()) {
+        data.get(bitSet);
+        nulls = Bytes.toBitSet(bitSet, 0, columnCount);
+      }
+      PartialRow row = schema.newPartialRow();
+      for (int i = 0; i < columnCount; i++) {
+        if (!columnsSet.get(i)) {
+          continue;
+        }
+        if (nulls.get(i)) {
+          row.setNull(i);
+          continue;
+        }
+        Type type = schema.getColumnByIndex(i).getType();
+        if (type == Type.STRING || type == Type.BINARY) {
+          int offset = (int) data.getLong();
+          int length = (int) data.getLong();
+          byte[] value = new byte[length];
+          System.arraycopy(indirect, offset, value, 0, length);
+          setVarLengthColumn(row, i, value);
+        } else {
+          data.get(row.getRowAlloc(), schema.getColumnOffset(i), type.getSize());
+          row.getColumnsBitSet().set(i);
+        }
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static void setVarLengthColumn(PartialRow row, int columnIndex, byte[] value) {
+    if (row.getSchema().getColumnByIndex(columnIndex).getType() == Type.STRING) {
+      row.addStringUtf8(columnIndex, value);
+    } else {
+      row.addBinary(columnIndex, value);
+    }
+    if (row.getNullsBitSet() != null) {
+      row.getNullsBitSet().clear(columnIndex);
+    }
+  }
+
+  private static byte[] getVarLengthColumn(PartialRow row, int columnIndex) {
+    int index = (int) Bytes.getLong(row.getRowAlloc(),
+        row.getSchema().getColumnOffset(columnIndex));
+    return row.getVarLengthData().get(index);
+  }
+
+  /**
+   * Encodes rows in the row-wise format that scanners return, see {@link RowResult}.
+   * @param rows the rows to encode
+   * @param projection the indexes in the table's schema of the columns to return
+   * @param rowsData where the fixed size part of the rows are written
+   * @param indirectData where the strings and binary values are written
+   */
+  static void encodeRows(List<PartialRow> rows, int[] projection,
+                         ByteArrayOutputStream rowsData, ByteArrayOutputStream indirectData) {
+    if (rows.isEmpty()) {
+      return;
+    }
+    Schema schema = rows.get(0).getSchema();
+    boolean hasNullables = false;
+    int rowSize = 0;
+    for (int index : projection) {
+      ColumnSchema column = schema.getColumnByIndex(index);
+      hasNullables |= column.isNullable();
+      rowSize += column.getType().getSize();
+    }
+    if (hasNullables) {
+      rowSize += Bytes.getBitSetSize(projection.length);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(rowSize).order(ByteOrder.LITTLE_ENDIAN);
+    for (PartialRow row : rows) {
+      buffer.clear();
+      BitSet nulls = new BitSet(projection.length);
+      for (int i = 0; i < projection.length; i++) {
+        int index = projection[i];
+        Type type = schema.getColumnByIndex(index).getType();
+        if (!row.isSet(index) || row.isSetToNull(index)) {
+          // Columns that weren't set are null, the simulator has no default values.
+          nulls.set(i);
+          buffer.position(buffer.position() + type.getSize());
+        } else if (type == Type.STRING || type == Type.BINARY) {
+          byte[] value = getVarLengthColumn(row, index);
+          buffer.putLong(indirectData.size());
+          buffer.putLong(value.length);
+          indirectData.write(value, 0, value.length);
+        } else {
+          buffer.put(row.getRowAlloc(), schema.getColumnOffset(index), type.getSize());
+        }
+      }
+      if (hasNullables) {
+        buffer.put(Bytes.fromBitSet(nulls, projection.length));
+      }
+      rowsData.write(buffer.array(), 0, rowSize);
+    }
+  }
+
+  /**
+   * @return an estimate of how many bytes a row takes once encoded by {@link #encodeRows}
+   */
+  static int estimateEncodedSize(PartialRow row, int[] projection) {
+    int size = 0;
+    for (int index : projection) {
+      size += row.getSchema().getColumnByIndex(index).getType().getSize();
+    }
+    for (byte[] value : row.getVarLengthData()) {
+      size += value.length;
+    }
+    return size;
+  }
+}
@@ -21,6 +21,9 @@ import org.junit.Test;
 import org.kududb.Common;
 import org.kududb.consensus.Metadata;
 import org.kududb.master.Master;
+import org.kududb.util.HybridTimeUtil;
+
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -127,4 +130,93 @@ public class TestAsyncKuduClient extends BaseKuduTest {
       assertTrue(ex.getMessage().contains(badHostname));
     }
   }
-}
\ No newline at end of file
+
+  @Test(timeout = 100000)
+  public void testTabletLocationsExpiration() throws Exception {
+    assertEquals(0, countRowsInScan(client.newScannerBuilder(table).build()));
+    AsyncKuduClient.RemoteTablet tablet =
+        client.getTablet(table.getTableId(), AsyncKuduClient.EMPTY_ARRAY);
+    assertNotNull(tablet);
+    assertFalse(tablet.isExpired());
+
+    // An expired tablet isn't handed out anymore, but the next lookup refreshes it in place.
+    tablet.expireLocations();
+    assertNull(client.getTablet(table.getTableId(), AsyncKuduClient.EMPTY_ARRAY));
+    long lookups = client.getMetrics().getMasterLookups();
+    assertEquals(0, countRowsInScan(client.newScannerBuilder(table).build()));
+    assertTrue(client.getMetrics().getMasterLookups() > lookups);
+    assertSame(tablet, client.getTablet(table.getTableId(), AsyncKuduClient.EMPTY_ARRAY));
+    assertFalse(tablet.isExpired());
+  }
+
+  @Test(timeout = 100000)
+  public void testSleepTimeIgnoresImmediateRetries() throws Exception {
+    GetTableLocationsRequest rpc = new GetTableLocationsRequest(client.masterTable, null, null,
+        table.getTableId());
+    rpc.attempt = 5;
+    long sleepTime = client.getSleepTimeForRpc(rpc);
+    assertTrue(sleepTime >= 5 * AsyncKuduClient.SLEEP_TIME);
+
+    // The first 4 attempts went to other replicas without sleeping, this is the first backoff.
+    rpc.immediateRetries = AsyncKuduClient.MAX_IMMEDIATE_RETRIES;
+    sleepTime = client.getSleepTimeForRpc(rpc);
+    assertTrue(sleepTime >= AsyncKuduClient.SLEEP_TIME);
+    assertTrue(sleepTime < 2 * AsyncKuduClient.SLEEP_TIME);
+  }
+
+  @Test(timeout = 100000)
+  public void testChecksumTable() throws Exception {
+    String tableName = TABLE_NAME + "-checksum";
+    KuduTable fourTablets = createFourTabletsTableWithNineRows(tableName + "-four");
+    // The same rows in a single tablet.
+    KuduTable oneTablet = createTable(tableName + "-one", basicSchema, new CreateTableBuilder());
+    AsyncKuduSession session = client.newSession();
+    KuduScanner scanner = syncClient.newScannerBuilder(fourTablets).build();
+    while (scanner.hasMoreRows()) {
+      for (RowResult result : scanner.nextRows()) {
+        Insert insert = oneTablet.newInsert();
+        PartialRow row = insert.getRow();
+        row.addInt(0, result.getInt(0));
+        row.addInt(1, result.getInt(1));
+        row.addInt(2, result.getInt(2));
+        row.addString(3, result.getString(3));
+        row.addBoolean(4, result.getBoolean(4));
+        session.apply(insert).join(DEFAULT_SLEEP);
+      }
+    }
+    session.flush().join(DEFAULT_SLEEP);
+    long snapshot = Math.max(client.getLastPropagatedTimestamp(),
+        HybridTimeUtil.clockTimestampToHTTimestamp(System.currentTimeMillis(),
+            TimeUnit.MILLISECONDS));
+
+    long checksum = client.checksumTable(fourTablets, snapshot).join(DEFAULT_SLEEP);
+    assertTrue(checksum != 0);
+    assertEquals(checksum, (long) client.checksumTable(oneTablet, snapshot).join(DEFAULT_SLEEP));
+
+    // The replicas all agree, and the tablets add up to the table.
+    long sum = 0;
+    for (LocatedTablet tablet : fourTablets.getTabletsLocations(DEFAULT_SLEEP)) {
+      Long leaderChecksum = client.checksumTablet(fourTablets, tablet, null, snapshot)
+          .join(DEFAULT_SLEEP);
+      for (LocatedTablet.Replica replica : tablet.getReplicas()) {
+        assertEquals(leaderChecksum, client.checksumTablet(fourTablets, tablet,
+            replica.getUuid(), snapshot).join(DEFAULT_SLEEP));
+      }
+      sum += leaderChecksum;
+    }
+    assertEquals(checksum, sum);
+
+    // A change after the snapshot doesn't show up in it, but does in the next one.
+    Update update = oneTablet.newUpdate();
+    update.getRow().addInt(0, 11);
+    update.getRow().addString(3, "another string");
+    session.apply(update).join(DEFAULT_SLEEP);
+    session.close().join(DEFAULT_SLEEP);
+    assertEquals(checksum, (long) client.checksumTable(oneTablet, snapshot).join(DEFAULT_SLEEP));
+    long laterSnapshot = Math.max(client.getLastPropagatedTimestamp(),
+        HybridTimeUtil.clockTimestampToHTTimestamp(System.currentTimeMillis(),
+            TimeUnit.MILLISECONDS));
+    assertNotEquals(checksum,
+        (long) client.checksumTable(oneTablet, laterSnapshot).join(DEFAULT_SLEEP));
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.CodedOutputStream;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.kududb.ColumnSchema;
+import org.kududb.Schema;
+import org.kududb.Type;
+import org.kududb.WireProtocol;
+import org.kududb.rpc.RpcHeader;
+import org.kududb.tserver.Tserver;
+
+public class TestCallResponse {
+
+  private static final Schema SCHEMA = new Schema(ImmutableList.of(
+      new ColumnSchema.ColumnSchemaBuilder("key", Type.INT32).key(true).build(),
+      new ColumnSchema.ColumnSchemaBuilder("value", Type.STRING).build()));
+
+  private static final String[] VALUES = { "a", "bcd" };
+
+  /**
+   * Builds a scan response that looks like what a tablet server sends over the wire: the total
+   * size, the header, then the main message followed by the rows and indirect data sidecars.
+   */
+  private static ChannelBuffer buildScanResponse() throws Exception {
+    byte[] rows = new byte[VALUES.length * SCHEMA.getRowSize()];
+    byte[] indirect = new byte[4];
+    int indirectOffset = 0;
+    for (int i = 0; i < VALUES.length; i++) {
+      int rowOffset = i * SCHEMA.getRowSize();
+      Bytes.setInt(rows, i, rowOffset);
+      byte[] value = Bytes.fromString(VALUES[i]);
+      Bytes.setLong(rows, indirectOffset, rowOffset + 4);
+      Bytes.setLong(rows, value.length, rowOffset + 12);
+      System.arraycopy(value, 0, indirect, indirectOffset, value.length);
+      indirectOffset += value.length;
+    }
+
+    Tserver.ScanResponsePB main = Tserver.ScanResponsePB.newBuilder()
+        .setData(WireProtocol.RowwiseRowBlockPB.newBuilder()
+            .setNumRows(VALUES.length)
+            .setRowsSidecar(0)
+            .setIndirectDataSidecar(1))
+        .setHasMoreResults(false)
+        .build();
+    int mainSize = main.getSerializedSize();
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder()
+        .setCallId(1)
+        .addSidecarOffsets(mainSize)
+        .addSidecarOffsets(mainSize + rows.length)
+        .build();
+    int messageSize = mainSize + rows.length + indirect.length;
+    int totalSize = CodedOutputStream.computeRawVarint32Size(header.getSerializedSize()) +
+        header.getSerializedSize() + CodedOutputStream.computeRawVarint32Size(messageSize) +
+        messageSize;
+
+    byte[] buf = new byte[4 + totalSize];
+    CodedOutputStream out = CodedOutputStream.newInstance(buf, 4, totalSize);
+    out.writeRawVarint32(header.getSerializedSize());
+    header.writeTo(out);
+    out.writeRawVarint32(messageSize);
+    main.writeTo(out);
+    out.writeRawBytes(rows);
+    out.writeRawBytes(indirect);
+    out.checkNoSpaceLeft();
+    ChannelBuffer chanBuf = ChannelBuffers.wrappedBuffer(buf);
+    chanBuf.setInt(0, totalSize);
+    return chanBuf;
+  }
+
+  private static RowResultIterator toIterator(CallResponse response) {
+    Tserver.ScanResponsePB.Builder builder = Tserver.ScanResponsePB.newBuilder();
+    KuduRpc.readProtobuf(response.getPBMessage(), builder);
+    return new RowResultIterator(0, "fake-uuid", SCHEMA, builder.getData(), response);
+  }
+
+  private static void checkRows(RowResultIterator iterator) {
+    assertEquals(VALUES.length, iterator.getNumRows());
+    for (int i = 0; i < VALUES.length; i++) {
+      assertTrue(iterator.hasNext());
+      RowResult row = iterator.next();
+      assertEquals(i, row.getInt(0));
+      assertEquals(VALUES[i], row.getString(1));
+      assertEquals(VALUES[i], Bytes.getString(row.getBinaryCopy(1)));
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testHeapSidecars() throws Exception {
+    CallResponse response = new CallResponse(buildScanResponse());
+    assertEquals(1, response.getHeader().getCallId());
+    assertEquals(SCHEMA.getRowSize() * VALUES.length, response.getSidecar(0).length());
+    checkRows(toIterator(response));
+  }
+
+  @Test
+  public void testOffHeapSidecars() throws Exception {
+    DirectBufferPool pool = new DirectBufferPool(1);
+    CallResponse response = new CallResponse(buildScanResponse());
+    response.readSidecarsOffHeap(pool);
+    assertTrue(response.getSidecarBuffer(0).toByteBuffer().isDirect());
+
+    RowResultIterator iterator = toIterator(response);
+    checkRows(iterator);
+    assertEquals(0, pool.getNumFreeBuffers());
+    iterator.release();
+    assertEquals(1, pool.getNumFreeBuffers());
+    // Releasing twice doesn't give the buffer back twice.
+    iterator.release();
+    assertEquals(1, pool.getNumFreeBuffers());
+
+    // The next response reuses the buffer.
+    response = new CallResponse(buildScanResponse());
+    response.readSidecarsOffHeap(pool);
+    iterator = toIterator(response);
+    assertEquals(0, pool.getNumFreeBuffers());
+    checkRows(iterator);
+  }
+
+  @Test
+  public void testDirectBufferPool() {
+    DirectBufferPool pool = new DirectBufferPool(1);
+    ChannelBuffer small = pool.acquire(10);
+    assertEquals(DirectBufferPool.MIN_BUFFER_SIZE, small.capacity());
+    ChannelBuffer big = pool.acquire(DirectBufferPool.MIN_BUFFER_SIZE + 1);
+    assertEquals(2 * DirectBufferPool.MIN_BUFFER_SIZE, big.capacity());
+    pool.release(small);
+    pool.release(big);
+    // Only one buffer is kept.
+    assertEquals(1, pool.getNumFreeBuffers());
+    assertTrue(small == pool.acquire(100));
+    // The pool is empty now.
+    assertFalse(small == pool.acquire(100));
+  }
+}
@@ -271,4 +271,54 @@ public class TestKuduClient extends BaseKuduTest {
     assertEquals(1, countRowsInScan(scanner));
   }
 
+  /**
+   * Buffers a row long enough for its batch to be considered slow, then checks that the batch's
+   * trace was kept.
+   */
+  @Test(timeout = 100000)
+  public void testSlowRpcTraces() throws Exception {
+    try (KuduClient localClient = new KuduClient.KuduClientBuilder(masterAddresses)
+        .slowRpcTraceThresholdMs(100)
+        .build()) {
+      localClient.createTable(tableName, basicSchema);
+      KuduTable table = localClient.openTable(tableName);
+      KuduSession session = localClient.newSession();
+
+      session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+      session.apply(createBasicSchemaInsert(table, 0));
+      Thread.sleep(200);
+      session.flush();
+
+      // Admin RPCs like CreateTable may also have been slow, the write is the last one.
+      List<String> traces = localClient.getSlowRpcTraces();
+      assertFalse(traces.isEmpty());
+      String trace = traces.get(traces.size() - 1);
+      assertTrue(trace, trace.startsWith("Write RPC"));
+      assertTrue(trace, trace.contains("FLUSHED"));
+      assertTrue(trace, trace.contains("WRITTEN"));
+      assertTrue(trace, trace.contains("COMPLETED"));
+    }
+  }
+
+  /**
+   * Scans the closest replicas at a snapshot, which are local ones with a mini cluster, and
+   * makes sure every row is read once.
+   */
+  @Test(timeout = 100000)
+  public void testScanClosestReplica() throws Exception {
+    syncClient.createTable(tableName, basicSchema);
+    KuduTable table = syncClient.openTable(tableName);
+    KuduSession session = syncClient.newSession();
+    for (int i = 0; i < 10; i++) {
+      session.apply(createBasicSchemaInsert(table, i));
+    }
+    session.close();
+
+    AsyncKuduScanner scanner = client.newScannerBuilder(table)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .replicaSelection(ReplicaSelection.CLOSEST_REPLICA)
+        .build();
+    assertEquals(ReplicaSelection.CLOSEST_REPLICA, scanner.getReplicaSelection());
+    assertEquals(10, countRowsInScan(scanner));
+  }
 }
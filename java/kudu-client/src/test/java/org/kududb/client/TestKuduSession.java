@@ -45,6 +45,14 @@ public class TestKuduSession extends BaseKuduTest {
     }
     session.flush();
     assertEquals(20, countRowsInScan(client.newScannerBuilder(table).build()));
+
+    ClientMetrics metrics = syncClient.getMetrics();
+    assertTrue(metrics.getMethodLatency("Write").getTotalCount() >= 12);
+    assertTrue(metrics.getMethodLatency("Scan").getTotalCount() >= 2);
+    assertTrue(metrics.getMasterLookups() > 0);
+    assertTrue(metrics.getBytesSent() > 0);
+    assertTrue(metrics.getBytesReceived() > 0);
+    assertFalse(metrics.getServerLatencies().isEmpty());
   }
 
   @Test(timeout = 100000)
@@ -0,0 +1,87 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testBuckets() {
+    long previousHighest = -1;
+    for (int i = 0; i < 500; i++) {
+      long highest = LatencyHistogram.highestEquivalentValue(i);
+      assertEquals(i, LatencyHistogram.bucketIndex(previousHighest + 1));
+      assertEquals(i, LatencyHistogram.bucketIndex(highest));
+      previousHighest = highest;
+    }
+    assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) >= 0);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    assertEquals(0, histogram.getMin());
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(10000, histogram.getTotalCount());
+    assertEquals(1, histogram.getMin());
+    assertEquals(10000, histogram.getMax());
+    assertEquals(5000.5, histogram.getMean(), 0.001);
+    assertEquals(1, histogram.getValueAtPercentile(0));
+    assertEquals(10000, histogram.getValueAtPercentile(100));
+    assertWithinPrecision(5000, histogram.getValueAtPercentile(50));
+    assertWithinPrecision(9900, histogram.getValueAtPercentile(99));
+
+    LatencyHistogram other = new LatencyHistogram();
+    other.record(1000000);
+    histogram.add(other);
+    assertEquals(10001, histogram.getTotalCount());
+    assertEquals(1000000, histogram.getMax());
+    assertEquals(1000000, histogram.getValueAtPercentile(100));
+
+    histogram.reset();
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getMax());
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue("expected " + expected + " but got " + actual,
+        actual >= expected && actual <= expected * 1.04);
+  }
+
+  @Test
+  public void testClientMetrics() {
+    ClientMetrics metrics = new ClientMetrics();
+    assertNull(metrics.getMethodLatency("Write"));
+    metrics.recordMethodLatency("Write", 100);
+    metrics.recordMethodLatency("Write", 200);
+    metrics.recordServerLatency("ts-1", 50);
+    metrics.recordRetry(ClientMetrics.RetryCause.NOT_LEADER);
+    metrics.recordRetry(ClientMetrics.RetryCause.NOT_LEADER);
+    metrics.recordRetry(ClientMetrics.RetryCause.SERVER_BUSY);
+    assertEquals(2, metrics.getMethodLatency("Write").getTotalCount());
+    assertEquals(1, metrics.getServerLatencies().size());
+    assertEquals(2, metrics.getRetries(ClientMetrics.RetryCause.NOT_LEADER));
+    assertEquals(0, metrics.getRetries(ClientMetrics.RetryCause.TABLET_NOT_FOUND));
+    assertEquals(3, metrics.getTotalRetries());
+    assertTrue(metrics.toString().contains("method Write: [count=2"));
+  }
+}
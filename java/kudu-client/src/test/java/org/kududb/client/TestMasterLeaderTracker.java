@@ -0,0 +1,125 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.google.common.net.HostAndPort;
+import com.stumbleupon.async.Deferred;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fails over the masters of a {@link SimulatedCluster}.
+ */
+public class TestMasterLeaderTracker {
+
+  private static final int NUM_MASTERS = 3;
+  private static final int NUM_RPCS = 20;
+
+  private SimulatedCluster cluster;
+  private AsyncKuduClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(NUM_MASTERS, 1);
+    cluster.start();
+    client = new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown().join();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * The RPCs that wait for the leader share a single lookup.
+   */
+  @Test(timeout = 100000)
+  public void testConcurrentLookups() throws Exception {
+    joinAll(listTablesConcurrently());
+    // The lookup is over once the leader answers, the other masters may not have been asked yet.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (countRegistrationRpcs() < NUM_MASTERS && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(NUM_MASTERS, countRegistrationRpcs());
+    assertLeader(0);
+  }
+
+  @Test(timeout = 100000)
+  public void testLeaderChange() throws Exception {
+    joinAll(listTablesConcurrently());
+    cluster.setLeaderMaster(2);
+    joinAll(listTablesConcurrently());
+    assertLeader(2);
+    // The first lookup, then at least one after the old leader said it wasn't the leader.
+    assertTrue(countRegistrationRpcs() <= 3 * NUM_MASTERS);
+  }
+
+  /**
+   * The RPCs are released soon after a new leader is elected, rather than after backing off.
+   */
+  @Test(timeout = 100000)
+  public void testElection() throws Exception {
+    joinAll(listTablesConcurrently());
+    // The old leader steps down, and answers that it isn't the leader anymore.
+    cluster.setLeaderMaster(-1);
+    List<Deferred<ListTablesResponse>> rpcs = listTablesConcurrently();
+    Thread.sleep(600);
+    cluster.setLeaderMaster(1);
+    long start = System.nanoTime();
+    joinAll(rpcs);
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < AsyncKuduClient.SLEEP_TIME);
+    assertLeader(1);
+  }
+
+  private List<Deferred<ListTablesResponse>> listTablesConcurrently() {
+    List<Deferred<ListTablesResponse>> rpcs = new ArrayList<Deferred<ListTablesResponse>>();
+    for (int i = 0; i < NUM_RPCS; i++) {
+      rpcs.add(client.getTablesList());
+    }
+    return rpcs;
+  }
+
+  private static void joinAll(List<Deferred<ListTablesResponse>> rpcs) throws Exception {
+    for (Deferred<ListTablesResponse> rpc : rpcs) {
+      rpc.join(10000);
+    }
+  }
+
+  private long countRegistrationRpcs() {
+    long count = 0;
+    for (SimulatedServer master : cluster.getMasters()) {
+      count += master.getRpcCount("GetMasterRegistration");
+    }
+    return count;
+  }
+
+  private void assertLeader(int index) {
+    SimulatedServer leader = cluster.getMasters().get(index);
+    assertEquals(HostAndPort.fromParts(leader.getHost(), leader.getPort()),
+        client.getMasterLeaderTracker().getLeader());
+  }
+}
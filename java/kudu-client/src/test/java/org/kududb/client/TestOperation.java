@@ -80,6 +80,9 @@ public class TestOperation {
 
       // Should have used up whole buffer.
       assertEquals(rows.length, offset);
+
+      // When every column is set the estimate is exact.
+      assertEquals(rows.length + rowOps.getIndirectData().size(), insert.getEstimatedSize());
     }
 
     // Setting a field to NULL should add to the null bitmap and remove
@@ -0,0 +1,68 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestRpcTrace {
+
+  @Test
+  public void testRecord() {
+    RpcTrace trace = new RpcTrace();
+    assertEquals(0, trace.getDurationNanos());
+    trace.record(RpcTrace.Stage.CREATED, 1000);
+    trace.record(RpcTrace.Stage.WRITTEN, 3000);
+    trace.record(RpcTrace.Stage.COMPLETED, 10000);
+    assertEquals(9000, trace.getDurationNanos());
+    assertEquals("RpcTrace(total=9us, CREATED +0us, WRITTEN +2us (2us), COMPLETED +9us (7us))",
+        trace.toString());
+  }
+
+  @Test
+  public void testOverflow() {
+    RpcTrace trace = new RpcTrace();
+    for (int i = 0; i < RpcTrace.MAX_EVENTS + 5; i++) {
+      trace.record(RpcTrace.Stage.RETRY_SCHEDULED, i * 1000);
+    }
+    trace.record(RpcTrace.Stage.COMPLETED, 100000);
+    assertEquals(RpcTrace.MAX_EVENTS, trace.getNumEvents());
+    // The last event is always kept.
+    assertEquals(RpcTrace.Stage.COMPLETED, trace.getStage(RpcTrace.MAX_EVENTS - 1));
+    assertEquals(100000, trace.getDurationNanos());
+    assertTrue(trace.toString().endsWith("6 events dropped)"));
+  }
+
+  @Test
+  public void testAddLookupEvents() {
+    RpcTrace operationTrace = new RpcTrace();
+    operationTrace.record(RpcTrace.Stage.CREATED, 0);
+    operationTrace.record(RpcTrace.Stage.LOOKUP_STARTED, 1000);
+    operationTrace.record(RpcTrace.Stage.LOOKUP_DONE, 5000);
+
+    RpcTrace batchTrace = new RpcTrace();
+    batchTrace.record(RpcTrace.Stage.CREATED, 2000);
+    batchTrace.record(RpcTrace.Stage.FLUSHED, 6000);
+    batchTrace.addLookupEvents(operationTrace);
+
+    assertEquals(4, batchTrace.getNumEvents());
+    assertEquals(RpcTrace.Stage.LOOKUP_STARTED, batchTrace.getStage(0));
+    assertEquals(RpcTrace.Stage.CREATED, batchTrace.getStage(1));
+    assertEquals(RpcTrace.Stage.LOOKUP_DONE, batchTrace.getStage(2));
+    assertEquals(RpcTrace.Stage.FLUSHED, batchTrace.getStage(3));
+    assertEquals(5000, batchTrace.getDurationNanos());
+  }
+}
@@ -0,0 +1,573 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+import org.kududb.util.HybridTimeUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the client against a {@link SimulatedCluster}, no Kudu processes are needed.
+ */
+public class TestSimulatedCluster {
+
+  private static final String TABLE_NAME = "simulated";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+
+  private SimulatedCluster cluster;
+  private KuduClient client;
+  private KuduTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(3);
+    cluster.start();
+    client = new KuduClient.KuduClientBuilder(cluster.getMasterAddresses()).build();
+    CreateTableBuilder builder = new CreateTableBuilder();
+    builder.setNumReplicas(3);
+    for (int key : new int[] {100, 200, 300}) {
+      PartialRow splitRow = SCHEMA.newPartialRow();
+      splitRow.addInt(0, key);
+      builder.addSplitRow(splitRow);
+    }
+    table = client.createTable(TABLE_NAME, SCHEMA, builder);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testWriteAndScan() throws Exception {
+    assertEquals(4, table.getTabletsLocations(10000).size());
+    assertTrue(client.tableExists(TABLE_NAME));
+
+    KuduSession session = client.newSession();
+    for (int i = 0; i < 400; i++) {
+      assertFalse(session.apply(createInsert(i)).hasRowError());
+    }
+    assertTrue(session.apply(createInsert(0)).hasRowError());
+
+    Update update = table.newUpdate();
+    update.getRow().addInt(0, 150);
+    update.getRow().addInt(1, 42);
+    update.getRow().setNull(3);
+    assertFalse(session.apply(update).hasRowError());
+    Delete delete = table.newDelete();
+    delete.getRow().addInt(0, 399);
+    assertFalse(session.apply(delete).hasRowError());
+    assertEquals(399, cluster.countRows(TABLE_NAME));
+
+    KuduScanner scanner = client.newScannerBuilder(table)
+        .maxNumBytes(1024)
+        .build();
+    int expectedKey = 0;
+    while (scanner.hasMoreRows()) {
+      for (RowResult result : scanner.nextRows()) {
+        assertEquals(expectedKey, result.getInt(0));
+        if (expectedKey == 150) {
+          assertEquals(42, result.getInt(1));
+          assertTrue(result.isNull(3));
+        } else {
+          assertEquals(expectedKey * 2, result.getInt(1));
+          assertEquals("row " + expectedKey, result.getString(3));
+        }
+        expectedKey++;
+      }
+    }
+    assertEquals(399, expectedKey);
+
+    long scans = 0;
+    for (SimulatedServer server : cluster.getTabletServers()) {
+      scans += server.getRpcCount("Scan");
+    }
+    assertTrue("The batches weren't split, scans: " + scans, scans > 8);
+
+    PartialRow lowerBound = SCHEMA.newPartialRow();
+    lowerBound.addInt(0, 50);
+    PartialRow upperBound = SCHEMA.newPartialRow();
+    upperBound.addInt(0, 250);
+    scanner = client.newScannerBuilder(table)
+        .lowerBound(lowerBound)
+        .exclusiveUpperBound(upperBound)
+        .setProjectedColumnNames(Collections.singletonList("column1_i"))
+        .build();
+    assertEquals(200, countRows(scanner));
+
+    client.deleteTable(TABLE_NAME);
+    assertFalse(client.tableExists(TABLE_NAME));
+  }
+
+  @Test(timeout = 100000)
+  public void testFaults() throws Exception {
+    for (SimulatedServer.Fault fault : SimulatedServer.Fault.values()) {
+      for (SimulatedServer server : cluster.getTabletServers()) {
+        server.failNextRpcs(fault, 2);
+      }
+      int first = fault.ordinal() * 100;
+      KuduSession session = client.newSession();
+      for (int i = first; i < first + 100; i++) {
+        assertFalse(session.apply(createInsert(i)).hasRowError());
+      }
+      assertEquals(first + 100, countRows(client.newScannerBuilder(table).build()));
+    }
+
+    for (SimulatedServer server : cluster.getTabletServers()) {
+      server.setFaultProbability(SimulatedServer.Fault.SERVER_TOO_BUSY, 0.2);
+    }
+    KuduSession session = client.newSession();
+    for (int i = 300; i < 400; i++) {
+      assertFalse(session.apply(createInsert(i)).hasRowError());
+    }
+    assertEquals(400, cluster.countRows(TABLE_NAME));
+  }
+
+  /**
+   * Operations that are throttled right after their lookup are retried once the batch that was
+   * in the way is flushed, that batch mustn't wait for them in turn.
+   */
+  @Test(timeout = 100000)
+  public void testThrottlingAfterLookups() throws Exception {
+    KuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    session.setMutationBufferSpace(10);
+    for (int i = 0; i < 400; i++) {
+      session.apply(createInsert(i));
+    }
+    session.flush();
+    assertEquals(400, cluster.countRows(TABLE_NAME));
+  }
+
+  /**
+   * The UPDATEs of a row that are buffered together are sent as one, and every operation still
+   * gets the outcome it would have had on its own.
+   */
+  @Test(timeout = 100000)
+  public void testCoalesceMutations() throws Exception {
+    KuduSession session = client.newSession();
+    for (int i = 0; i < 10; i++) {
+      assertFalse(session.apply(createInsert(i)).hasRowError());
+    }
+    long writtenBefore = countWrittenRows();
+
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    session.setCoalesceMutations(true);
+    // Merged into a single UPDATE.
+    session.apply(createUpdate(1, 100, null));
+    session.apply(createUpdate(1, null, 200));
+    session.apply(createUpdate(1, 101, null));
+    // The DELETE replaces the UPDATE.
+    session.apply(createUpdate(2, 100, null));
+    Delete delete = table.newDelete();
+    delete.getRow().addInt(0, 2);
+    session.apply(delete);
+    // Merged, and both fail since the row doesn't exist.
+    session.apply(createUpdate(50, 100, null));
+    session.apply(createUpdate(50, null, 200));
+    // Not merged, the INSERT fails but the UPDATE goes through.
+    session.apply(createInsert(3));
+    session.apply(createUpdate(3, 300, null));
+    List<OperationResponse> responses = session.flush();
+
+    assertEquals(9, responses.size());
+    assertEquals(5, countWrittenRows() - writtenBefore);
+    List<RowError> errors = OperationResponse.collectErrors(responses);
+    assertEquals(3, errors.size());
+    for (int i = 0; i < 3; i++) {
+      assertSame(responses.get(5 + i).getOperation(), errors.get(i).getOperation());
+    }
+
+    KuduScanner scanner = client.newScannerBuilder(table).build();
+    int rows = 0;
+    while (scanner.hasMoreRows()) {
+      for (RowResult result : scanner.nextRows()) {
+        rows++;
+        int key = result.getInt(0);
+        assertNotEquals(2, key);
+        if (key == 1) {
+          assertEquals(101, result.getInt(1));
+          assertEquals(200, result.getInt(2));
+        } else if (key == 3) {
+          assertEquals(300, result.getInt(1));
+        } else {
+          assertEquals(key * 2, result.getInt(1));
+        }
+      }
+    }
+    assertEquals(9, rows);
+  }
+
+  /**
+   * An INSERT whose tablet is being looked up comes between two UPDATEs of its row, they can't be
+   * merged: the first UPDATE fails and the second one applies to the inserted row. Nothing is
+   * merged either once the INSERT was added out of order.
+   */
+  @Test(timeout = 100000)
+  public void testNoCoalescingAcrossLookups() throws Exception {
+    Batch batch = new Batch(table, false, true);
+    Operation update1 = createUpdate(5, 100, null);
+    update1.setSequenceNumber(1);
+    Operation insert = createInsert(5);
+    insert.setSequenceNumber(2);
+    Operation update3 = createUpdate(5, null, 200);
+    update3.setSequenceNumber(3);
+    Operation update4 = createUpdate(5, 101, null);
+    update4.setSequenceNumber(4);
+
+    assertFalse(batch.add(update1, true));
+    assertFalse(batch.add(update3, false));
+    // The lookup is over.
+    batch.needsSorting = true;
+    assertFalse(batch.add(insert, true));
+    assertFalse(batch.add(update4, true));
+    assertEquals(4, batch.ops.size());
+    assertTrue(batch.coalesced.isEmpty());
+  }
+
+  /**
+   * The master leaves out the tablets that aren't running, the writes for them wait until they
+   * are instead of failing.
+   */
+  @Test(timeout = 100000)
+  public void testTabletNotRunning() throws Exception {
+    cluster.setTabletRunning(TABLE_NAME, 1, false);
+    KuduClient localClient = new KuduClient.KuduClientBuilder(cluster.getMasterAddresses()).build();
+    try {
+      KuduTable localTable = localClient.openTable(TABLE_NAME);
+      KuduSession bufferingSession = localClient.newSession();
+      bufferingSession.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+      // The last two keys are looked up together while the first lookup is in flight, the
+      // response only has the tablet of the last one.
+      for (SimulatedServer master : cluster.getMasters()) {
+        master.setLatencyMillis(100);
+      }
+      bufferingSession.apply(createInsert(localTable, 50));
+      bufferingSession.apply(createInsert(localTable, 160));
+      bufferingSession.apply(createInsert(localTable, 250));
+
+      cluster.getTimer().newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          cluster.setTabletRunning(TABLE_NAME, 1, true);
+        }
+      }, 500, TimeUnit.MILLISECONDS);
+      KuduSession session = localClient.newSession();
+      assertFalse(session.apply(createInsert(localTable, 150)).hasRowError());
+      for (OperationResponse response : bufferingSession.flush()) {
+        assertFalse(response.hasRowError());
+      }
+      assertEquals(4, cluster.countRows(TABLE_NAME));
+      assertTrue(localClient.getMetrics().getRetries(
+          ClientMetrics.RetryCause.TABLET_NOT_RUNNING) > 0);
+    } finally {
+      localClient.shutdown();
+    }
+  }
+
+  /**
+   * The checksum of a table waits for the tablets that aren't running instead of skipping them,
+   * and fails if they don't come back before the admin timeout.
+   */
+  @Test(timeout = 100000)
+  public void testChecksumTabletNotRunning() throws Exception {
+    KuduSession session = client.newSession();
+    for (int key = 0; key < 400; key += 10) {
+      session.apply(createInsert(key));
+    }
+    session.close();
+    AsyncKuduClient localClient =
+        new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses())
+            .defaultAdminOperationTimeoutMs(2000)
+            .build();
+    try {
+      KuduTable localTable = localClient.openTable(TABLE_NAME).join();
+      long timestamp = localClient.getServerTimestamp(localTable).join();
+      long checksum = localClient.checksumTable(localTable, timestamp).join();
+
+      cluster.setTabletRunning(TABLE_NAME, 1, false);
+      cluster.getTimer().newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          cluster.setTabletRunning(TABLE_NAME, 1, true);
+        }
+      }, 500, TimeUnit.MILLISECONDS);
+      assertEquals(checksum, (long) localClient.checksumTable(localTable, timestamp).join());
+      assertTrue(localClient.getMetrics().getRetries(
+          ClientMetrics.RetryCause.TABLET_NOT_RUNNING) > 0);
+
+      cluster.setTabletRunning(TABLE_NAME, 2, false);
+      try {
+        localClient.checksumTable(localTable, timestamp).join();
+        fail("A tablet isn't running, the checksum should have failed");
+      } catch (NonRecoverableException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("isn't running"));
+      }
+    } finally {
+      localClient.shutdown().join();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testServerTimestamp() throws Exception {
+    cluster.setClockOffsetMillis(-60000);
+    long localNow = HybridTimeUtil.clockTimestampToHTTimestamp(System.currentTimeMillis(),
+        TimeUnit.MILLISECONDS);
+    long timestamp = client.getServerTimestamp(table);
+    assertTrue(timestamp < localNow);
+    assertEquals(timestamp, client.getLastPropagatedTimestamp());
+
+    // Snapshot scans at that timestamp are accepted, the ones at the local time aren't.
+    KuduScanner scanner = client.newScannerBuilder(table)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .snapshotTimestamp(timestamp)
+        .build();
+    assertEquals(0, countRows(scanner));
+    scanner = client.newScannerBuilder(table)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .snapshotTimestamp(localNow)
+        .build();
+    try {
+      countRows(scanner);
+      fail("The snapshot should be in the future of the servers");
+    } catch (TabletServerErrorException e) {
+      // expected
+    }
+  }
+
+  /**
+   * The tablet lookup of a buffered operation shows up in its batch's trace, and RPCs that fail
+   * are traced like the ones that succeed.
+   */
+  @Test(timeout = 100000)
+  public void testSlowRpcTraces() throws Exception {
+    cluster.setLatencyMillis(50);
+    KuduClient tracingClient = new KuduClient.KuduClientBuilder(cluster.getMasterAddresses())
+        .slowRpcTraceThresholdMs(10)
+        .build();
+    try {
+      KuduTable tracingTable = tracingClient.openTable(TABLE_NAME);
+      KuduSession session = tracingClient.newSession();
+      session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+      session.apply(createInsert(tracingTable, 0));
+      session.flush();
+      String trace = lastTrace(tracingClient, "Write RPC");
+      assertTrue(trace, trace.contains("LOOKUP_STARTED"));
+      assertTrue(trace, trace.contains("LOOKUP_DONE"));
+      // Recorded once the write went through, between the encoding and the response.
+      assertTrue(trace, trace.indexOf("ENCODING") < trace.indexOf("WRITTEN"));
+      assertTrue(trace, trace.indexOf("WRITTEN") < trace.indexOf("RESPONSE_RECEIVED"));
+      assertTrue(trace, trace.contains("COMPLETED"));
+
+      for (SimulatedServer server : cluster.getTabletServers()) {
+        server.setFaultProbability(SimulatedServer.Fault.SERVER_TOO_BUSY, 1);
+      }
+      session.setTimeoutMillis(500);
+      session.apply(createInsert(tracingTable, 1));
+      try {
+        session.flush();
+      } catch (Exception e) {
+        // Expected, the write times out.
+      }
+      trace = lastTrace(tracingClient, "Write RPC");
+      assertTrue(trace, trace.contains("FAILED"));
+    } finally {
+      tracingClient.shutdown();
+    }
+  }
+
+  /**
+   * With priority connections enabled, the writes of a HIGH priority session go over a second
+   * connection to the leader, and the other sessions keep using the shared one.
+   */
+  @Test(timeout = 100000)
+  public void testPriorityConnections() throws Exception {
+    KuduClient priorityClient = new KuduClient.KuduClientBuilder(cluster.getMasterAddresses())
+        .priorityConnections(true)
+        .build();
+    try {
+      KuduTable priorityTable = priorityClient.openTable(TABLE_NAME);
+      KuduSession session = priorityClient.newSession();
+      for (int i = 0; i < 400; i += 100) {
+        assertFalse(session.apply(createInsert(priorityTable, i)).hasRowError());
+      }
+      int connections = countConnections();
+
+      KuduSession prioritySession = priorityClient.newSession();
+      prioritySession.setPriority(SessionConfiguration.Priority.HIGH);
+      assertFalse(prioritySession.apply(createInsert(priorityTable, 1)).hasRowError());
+      assertEquals(connections + 1, countConnections());
+      // The lane is reused, and the NORMAL session still doesn't use it.
+      assertFalse(prioritySession.apply(createInsert(priorityTable, 2)).hasRowError());
+      assertFalse(session.apply(createInsert(priorityTable, 3)).hasRowError());
+      assertEquals(connections + 1, countConnections());
+      assertEquals(7, cluster.countRows(TABLE_NAME));
+    } finally {
+      priorityClient.shutdown();
+    }
+  }
+
+  /**
+   * Without priority connections, the HIGH priority writes that wait for the connection to the
+   * leader still go ahead of the NORMAL ones queued before them, and each priority keeps its
+   * order.
+   */
+  @Test(timeout = 100000)
+  public void testHighPriorityOvertakesQueuedRpcs() throws Exception {
+    AsyncKuduClient asyncClient =
+        new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build();
+    try {
+      KuduTable asyncTable = asyncClient.openTable(TABLE_NAME).join(10000);
+      // Caches the locations, so that the writes go straight to the leader's connection.
+      asyncTable.getTabletsLocations(10000);
+      for (SimulatedServer server : cluster.getTabletServers()) {
+        server.pauseNegotiations();
+      }
+
+      AsyncKuduSession session = asyncClient.newSession();
+      AsyncKuduSession prioritySession = asyncClient.newSession();
+      prioritySession.setPriority(SessionConfiguration.Priority.HIGH);
+      final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+      List<Deferred<OperationResponse>> responses = new ArrayList<Deferred<OperationResponse>>();
+      // All the rows go to the first tablet, so to a single leader.
+      for (int key = 0; key < 6; key++) {
+        final int completedKey = key;
+        AsyncKuduSession target = key % 3 == 2 ? prioritySession : session;
+        responses.add(target.apply(createInsert(asyncTable, key)).addCallback(
+            new Callback<OperationResponse, OperationResponse>() {
+              @Override
+              public OperationResponse call(OperationResponse response) {
+                completed.add(completedKey);
+                return response;
+              }
+            }));
+      }
+
+      for (SimulatedServer server : cluster.getTabletServers()) {
+        server.resumeNegotiations();
+      }
+      Deferred.group(responses).join(10000);
+      // The connection sends in order and the server answers in order.
+      assertEquals(Arrays.asList(2, 5, 0, 1, 3, 4), completed);
+    } finally {
+      asyncClient.shutdown().join(10000);
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testLatencyAndThroughputCap() throws Exception {
+    cluster.setLatencyMillis(100);
+    KuduSession session = client.newSession();
+    long start = System.nanoTime();
+    session.apply(createInsert(0));
+    assertTrue(System.nanoTime() - start >= 100 * 1000000L);
+
+    cluster.setLatencyMillis(0);
+    for (SimulatedServer server : cluster.getTabletServers()) {
+      server.setMaxRowsPerSecond(500);
+    }
+    session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+    // All the rows go to the first tablet, so to a single leader.
+    for (int i = 1; i < 100; i++) {
+      session.apply(createInsert(i));
+    }
+    start = System.nanoTime();
+    session.flush();
+    long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis >= 150);
+    assertEquals(100, cluster.countRows(TABLE_NAME));
+  }
+
+  private Insert createInsert(int key) {
+    return createInsert(table, key);
+  }
+
+  private static Insert createInsert(KuduTable table, int key) {
+    Insert insert = table.newInsert();
+    PartialRow row = insert.getRow();
+    row.addInt(0, key);
+    row.addInt(1, key * 2);
+    row.addInt(2, key * 3);
+    row.addString(3, "row " + key);
+    row.addBoolean(4, key % 2 == 0);
+    return insert;
+  }
+
+  private Update createUpdate(int key, Integer column1, Integer column2) {
+    Update update = table.newUpdate();
+    PartialRow row = update.getRow();
+    row.addInt(0, key);
+    if (column1 != null) {
+      row.addInt(1, column1);
+    }
+    if (column2 != null) {
+      row.addInt(2, column2);
+    }
+    return update;
+  }
+
+  private static String lastTrace(KuduClient client, String prefix) {
+    List<String> traces = client.getSlowRpcTraces();
+    for (int i = traces.size() - 1; i >= 0; i--) {
+      if (traces.get(i).startsWith(prefix)) {
+        return traces.get(i);
+      }
+    }
+    fail("No trace starts with " + prefix + ": " + traces);
+    return null;
+  }
+
+  private int countConnections() {
+    int count = 0;
+    for (SimulatedServer server : cluster.getTabletServers()) {
+      count += server.getConnectionCount();
+    }
+    return count;
+  }
+
+  private long countWrittenRows() {
+    long count = 0;
+    for (SimulatedServer server : cluster.getTabletServers()) {
+      count += server.getWrittenRowCount();
+    }
+    return count;
+  }
+
+  private static int countRows(KuduScanner scanner) throws Exception {
+    int count = 0;
+    while (scanner.hasMoreRows()) {
+      count += scanner.nextRows().getNumRows();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams writes through a {@link StreamingSink} to a {@link SimulatedCluster}.
+ */
+public class TestStreamingSink {
+
+  private static final String TABLE_NAME = "sink";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+  private static final int NUM_ROWS = 2000;
+  // Three operations share each checkpoint.
+  private static final int ROWS_PER_CHECKPOINT = 3;
+
+  private SimulatedCluster cluster;
+  private AsyncKuduClient client;
+  private KuduTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(1);
+    cluster.start();
+    client = new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build();
+    CreateTableBuilder builder = new CreateTableBuilder();
+    for (int key : new int[] {500, 1000, 1500}) {
+      PartialRow splitRow = SCHEMA.newPartialRow();
+      splitRow.addInt(0, key);
+      builder.addSplitRow(splitRow);
+    }
+    table = client.createTable(TABLE_NAME, SCHEMA, builder).join(10000);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown().join();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testCheckpointsUnderBudget() throws Exception {
+    cluster.setLatencyMillis(5);
+    AsyncKuduSession session = client.newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_BACKGROUND);
+    session.setFlushInterval(10);
+    RecordingListener listener = new RecordingListener();
+    long budget = 50 * createInsert(0).getEstimatedSize();
+    StreamingSink sink = session.newStreamingSink(budget, listener);
+
+    int throttled = 0;
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Insert insert = createInsert(i);
+      while (true) {
+        try {
+          sink.write(insert, i / ROWS_PER_CHECKPOINT);
+          break;
+        } catch (PleaseThrottleException e) {
+          throttled++;
+          e.getDeferred().join(10000);
+        }
+      }
+      assertTrue(sink.getBytesInFlight() <= budget);
+    }
+    assertTrue(throttled > 0);
+
+    long last = (NUM_ROWS - 1) / ROWS_PER_CHECKPOINT;
+    assertEquals(last, (long) sink.flush().join(10000));
+    assertEquals(last, sink.getDurableCheckpoint());
+    assertEquals(0, sink.getBytesInFlight());
+    assertEquals(NUM_ROWS, cluster.countRows(TABLE_NAME));
+
+    assertNull(listener.failure);
+    assertEquals(last, (long) listener.durable.get(listener.durable.size() - 1));
+    for (int i = 1; i < listener.durable.size(); i++) {
+      assertTrue(listener.durable.get(i) > listener.durable.get(i - 1));
+    }
+
+    // The last checkpoint was flushed, so it can't get more operations.
+    try {
+      sink.write(createInsert(NUM_ROWS), last);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testFailureStopsTheCheckpoints() throws Exception {
+    AsyncKuduSession session = client.newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_SYNC);
+    RecordingListener listener = new RecordingListener();
+    StreamingSink sink = session.newStreamingSink(1024 * 1024, listener);
+
+    sink.write(createInsert(1), 1).join(10000);
+    sink.write(createInsert(2), 2).join(10000);
+    // A duplicate row, it fails with a row error.
+    assertTrue(sink.write(createInsert(1), 3).join(10000).hasRowError());
+    assertEquals(3, listener.failedCheckpoint.get());
+    assertTrue(listener.failure instanceof NonRecoverableException);
+    assertEquals(2, sink.getDurableCheckpoint());
+
+    try {
+      sink.write(createInsert(4), 4).join(10000);
+      fail();
+    } catch (NonRecoverableException e) {
+      // Expected.
+    }
+    try {
+      sink.flush().join(10000);
+      fail();
+    } catch (NonRecoverableException e) {
+      // Expected.
+    }
+    assertEquals(2, sink.getDurableCheckpoint());
+    assertEquals(2, cluster.countRows(TABLE_NAME));
+  }
+
+  /**
+   * An operation the session doesn't take isn't counted, its checkpoint can't become durable
+   * without it.
+   */
+  @Test(timeout = 100000)
+  public void testOperationNotTaken() throws Exception {
+    AsyncKuduSession session = client.newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(1);
+    StreamingSink sink = session.newStreamingSink(1024 * 1024, null);
+    // Looks up the tablet so that the next operations are buffered right away.
+    sink.write(createInsert(0), 0);
+    assertEquals(0, (long) sink.flush().join(10000));
+
+    sink.write(createInsert(1), 1);
+    try {
+      sink.write(createInsert(2), 2);
+      fail();
+    } catch (NonRecoverableException e) {
+      // Expected, the buffer is full in MANUAL_FLUSH.
+    }
+    assertEquals(1, (long) sink.flush().join(10000));
+    assertEquals(1, sink.getDurableCheckpoint());
+    assertEquals(0, sink.getBytesInFlight());
+
+    sink.write(createInsert(2), 2);
+    assertEquals(2, (long) sink.flush().join(10000));
+    assertEquals(3, cluster.countRows(TABLE_NAME));
+  }
+
+  private Insert createInsert(int key) {
+    Insert insert = table.newInsert();
+    PartialRow row = insert.getRow();
+    row.addInt(0, key);
+    row.addInt(1, key * 2);
+    row.addInt(2, key * 3);
+    row.addString(3, "row " + key);
+    row.addBoolean(4, key % 2 == 0);
+    return insert;
+  }
+
+  private static class RecordingListener implements CheckpointListener {
+    final List<Long> durable = new CopyOnWriteArrayList<>();
+    final AtomicLong failedCheckpoint = new AtomicLong(StreamingSink.NO_CHECKPOINT);
+    volatile Exception failure;
+
+    @Override
+    public void onCheckpointDurable(long checkpoint) {
+      durable.add(checkpoint);
+    }
+
+    @Override
+    public void onFailure(long checkpoint, Exception cause) {
+      failedCheckpoint.set(checkpoint);
+      failure = cause;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.client;
+
+import com.stumbleupon.async.Deferred;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes to many tablets at once on a {@link SimulatedCluster}, and counts the lookups that
+ * reach the master.
+ */
+public class TestTabletLookupAggregator {
+
+  private static final String TABLE_NAME = "lookups";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+  // More than a single batched lookup can return.
+  private static final int NUM_TABLETS = 2 * TabletLookupAggregator.MAX_RETURNED_LOCATIONS + 50;
+
+  private SimulatedCluster cluster;
+  private AsyncKuduClient client;
+  private KuduTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(1);
+    cluster.start();
+    client = new AsyncKuduClient.AsyncKuduClientBuilder(cluster.getMasterAddresses()).build();
+    CreateTableBuilder builder = new CreateTableBuilder();
+    for (int i = 1; i < NUM_TABLETS; i++) {
+      PartialRow splitRow = SCHEMA.newPartialRow();
+      splitRow.addInt(0, i * 10);
+      builder.addSplitRow(splitRow);
+    }
+    table = client.createTable(TABLE_NAME, SCHEMA, builder).join(10000);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown().join();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testBurstOfWrites() throws Exception {
+    long lookupsBefore = cluster.getMaster().getRpcCount("GetTableLocations");
+    AsyncKuduSession session = client.newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_BACKGROUND);
+    List<Deferred<OperationResponse>> responses = new ArrayList<Deferred<OperationResponse>>();
+    for (int i = 0; i < NUM_TABLETS; i++) {
+      responses.add(session.apply(createInsert(i * 10)));
+    }
+    session.flush().join(10000);
+    for (Deferred<OperationResponse> response : responses) {
+      assertFalse(response.join(10000).hasRowError());
+    }
+    assertEquals(NUM_TABLETS, cluster.countRows(TABLE_NAME));
+
+    long lookups = cluster.getMaster().getRpcCount("GetTableLocations") - lookupsBefore;
+    // The first key, then the others in batches.
+    assertTrue("Lookups: " + lookups, lookups <= 10);
+
+    // Every tablet is cached now.
+    for (int i = 0; i < NUM_TABLETS; i++) {
+      session.apply(createInsert(i * 10 + 1));
+    }
+    session.flush().join(10000);
+    assertEquals(2 * NUM_TABLETS, cluster.countRows(TABLE_NAME));
+    assertEquals(lookupsBefore + lookups,
+        cluster.getMaster().getRpcCount("GetTableLocations"));
+  }
+
+  @Test(timeout = 100000)
+  public void testTabletsNotRunning() throws Exception {
+    // The master leaves these out of its responses, the first batch is shorter than the limit.
+    final int[] notRunning = { 1, 5, TabletLookupAggregator.MAX_RETURNED_LOCATIONS + 10 };
+    for (int index : notRunning) {
+      cluster.setTabletRunning(TABLE_NAME, index, false);
+    }
+    cluster.getTimer().newTimeout(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) {
+        for (int index : notRunning) {
+          cluster.setTabletRunning(TABLE_NAME, index, true);
+        }
+      }
+    }, 500, TimeUnit.MILLISECONDS);
+
+    AsyncKuduSession session = client.newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_BACKGROUND);
+    List<Deferred<OperationResponse>> responses = new ArrayList<Deferred<OperationResponse>>();
+    for (int i = 0; i < NUM_TABLETS; i++) {
+      responses.add(session.apply(createInsert(i * 10)));
+    }
+    session.flush().join(10000);
+    for (Deferred<OperationResponse> response : responses) {
+      assertFalse(response.join(10000).hasRowError());
+    }
+    assertEquals(NUM_TABLETS, cluster.countRows(TABLE_NAME));
+    assertTrue(client.getMetrics().getRetries(ClientMetrics.RetryCause.TABLET_NOT_RUNNING) > 0);
+  }
+
+  private Insert createInsert(int key) {
+    Insert insert = table.newInsert();
+    PartialRow row = insert.getRow();
+    row.addInt(0, key);
+    row.addInt(1, key * 2);
+    row.addInt(2, key * 3);
+    row.addString(3, "row " + key);
+    row.addBoolean(4, key % 2 == 0);
+    return insert;
+  }
+}
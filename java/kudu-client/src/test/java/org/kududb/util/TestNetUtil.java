@@ -21,6 +21,8 @@ import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test for {@link NetUtil}.
@@ -67,4 +69,11 @@ public class TestNetUtil {
     );
     assertEquals(NetUtil.hostsAndPortsToString(hostsAndPorts), "127.0.0.1:1111,1.2.3.4.5:0");
   }
+
+  @Test
+  public void testIsLocalAddress() {
+    assertTrue(NetUtil.isLocalAddress("127.0.0.1"));
+    // TEST-NET-1, reserved for documentation.
+    assertFalse(NetUtil.isLocalAddress("192.0.2.1"));
+  }
 }
@@ -0,0 +1,172 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.Bytes;
+import org.kududb.client.Operation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Map output key for bulk loads, see
+ * {@link KuduTableMapReduceUtil.TableOutputFormatConfigurator#bulkLoad(boolean)}.
+ * <p>
+ * It holds a row's encoded partition key and primary key, and sorts by partition key then by
+ * primary key. This means that rows are sorted by tablet, and in primary key order within each
+ * tablet, which is the order in which the tablets can ingest them the fastest. Mappers emit one
+ * key per row, with whatever value their reducers need to create the row's {@link Operation}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class KuduBulkLoadKey implements WritableComparable<KuduBulkLoadKey> {
+
+  static {
+    WritableComparator.define(KuduBulkLoadKey.class, new Comparator());
+  }
+
+  private byte[] partitionKey;
+  private byte[] primaryKey;
+
+  /**
+   * Creates an empty key, used when deserializing.
+   */
+  public KuduBulkLoadKey() {
+    this(new byte[0], new byte[0]);
+  }
+
+  /**
+   * Creates the key of an operation's row.
+   * @param operation an operation whose primary key columns are all set
+   */
+  public KuduBulkLoadKey(Operation operation) {
+    set(operation);
+  }
+
+  KuduBulkLoadKey(byte[] partitionKey, byte[] primaryKey) {
+    this.partitionKey = partitionKey;
+    this.primaryKey = primaryKey;
+  }
+
+  /**
+   * Makes this key the key of another operation's row, so that a mapper can reuse it.
+   * @param operation an operation whose primary key columns are all set
+   */
+  public void set(Operation operation) {
+    this.partitionKey = operation.partitionKey();
+    this.primaryKey = operation.getRow().encodePrimaryKey();
+  }
+
+  /**
+   * @return the encoded partition key, which determines the tablet the row goes to
+   */
+  public byte[] getPartitionKey() {
+    return partitionKey;
+  }
+
+  /**
+   * @return the encoded primary key
+   */
+  public byte[] getPrimaryKey() {
+    return primaryKey;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, partitionKey.length);
+    out.write(partitionKey);
+    WritableUtils.writeVInt(out, primaryKey.length);
+    out.write(primaryKey);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    partitionKey = new byte[WritableUtils.readVInt(in)];
+    in.readFully(partitionKey);
+    primaryKey = new byte[WritableUtils.readVInt(in)];
+    in.readFully(primaryKey);
+  }
+
+  @Override
+  public int compareTo(KuduBulkLoadKey other) {
+    int result = Bytes.memcmp(partitionKey, other.partitionKey);
+    if (result != 0) {
+      return result;
+    }
+    return Bytes.memcmp(primaryKey, other.primaryKey);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof KuduBulkLoadKey)) {
+      return false;
+    }
+    return compareTo((KuduBulkLoadKey) o) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(partitionKey) + Arrays.hashCode(primaryKey);
+  }
+
+  @Override
+  public String toString() {
+    return "KuduBulkLoadKey(partitionKey=" + Bytes.pretty(partitionKey) +
+        ", primaryKey=" + Bytes.pretty(primaryKey) + ")";
+  }
+
+  /**
+   * Compares serialized keys without deserializing them, which is what the shuffle spends most
+   * of its time doing.
+   */
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(KuduBulkLoadKey.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        int lengthSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int lengthSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        int length1 = readVInt(b1, s1);
+        int length2 = readVInt(b2, s2);
+        int result = compareBytes(b1, s1 + lengthSize1, length1, b2, s2 + lengthSize2, length2);
+        if (result != 0) {
+          return result;
+        }
+        // The partition keys are equal, so are their lengths.
+        s1 += lengthSize1 + length1;
+        s2 += lengthSize2 + length2;
+        lengthSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        lengthSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareBytes(b1, s1 + lengthSize1, readVInt(b1, s1),
+            b2, s2 + lengthSize2, readVInt(b2, s2));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.client.KuduClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Shares {@link KuduClient}s between the input and output formats that run in the same JVM.
+ * <p>
+ * Each client has its own threads, timer and connections, and learns where the tablets are as
+ * it's used, so creating one for every task is expensive when the JVM is reused for many short
+ * tasks. Clients are keyed by master addresses and operation timeout, and reference counted.
+ * Once a client isn't used anymore it's shut down, or it's kept open for
+ * {@link #CLIENT_IDLE_TIMEOUT_MS_KEY} in case another task needs it. An idle client's threads
+ * aren't daemon threads, they keep the JVM alive until the client is shut down.
+ * <p>
+ * This class is thread-safe.
+ */
+@InterfaceAudience.Private
+class KuduClientCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KuduClientCache.class);
+
+  /**
+   * Job parameter that specifies how long an unused client is kept open (default: 0, clients
+   * are shut down as soon as the last task that used them is done). Keeping them open helps
+   * JVMs that are reused for many short tasks, but a JVM that's done with its work can't exit
+   * until its idle clients are shut down.
+   */
+  static final String CLIENT_IDLE_TIMEOUT_MS_KEY = "kudu.mapreduce.client.idle.timeout.ms";
+
+  static final long DEFAULT_CLIENT_IDLE_TIMEOUT_MS = 0;
+
+  private static final Map<String, CachedClient> CLIENTS_BY_KEY =
+      new HashMap<String, CachedClient>();
+  private static final Map<KuduClient, CachedClient> CLIENTS =
+      new IdentityHashMap<KuduClient, CachedClient>();
+
+  // Created the first time a client becomes idle.
+  private static Timer idleTimer;
+
+  /**
+   * Doesn't need instantiation
+   */
+  private KuduClientCache() { }
+
+  private static final class CachedClient {
+    final String key;
+    final KuduClient client;
+    final long idleTimeoutMs;
+    int refCount;
+    TimerTask shutdownTask;
+
+    CachedClient(String key, KuduClient client, long idleTimeoutMs) {
+      this.key = key;
+      this.client = client;
+      this.idleTimeoutMs = idleTimeoutMs;
+    }
+  }
+
+  /**
+   * Gets a client for the specified masters, creating it if needed. Every call must be followed
+   * by exactly one call to {@link #release(KuduClient)}.
+   * @param conf the job's configuration
+   * @param masterAddresses a comma-separated list of masters' hosts and ports
+   * @param operationTimeoutMs the client's default operation timeout
+   * @return a client that may be shared with other tasks
+   */
+  static synchronized KuduClient acquire(Configuration conf, String masterAddresses,
+                                         long operationTimeoutMs) {
+    String key = masterAddresses + "/" + operationTimeoutMs;
+    CachedClient cached = CLIENTS_BY_KEY.get(key);
+    if (cached == null) {
+      KuduClient client = new KuduClient.KuduClientBuilder(masterAddresses)
+          .defaultOperationTimeoutMs(operationTimeoutMs)
+          .build();
+      cached = new CachedClient(key, client,
+          conf.getLong(CLIENT_IDLE_TIMEOUT_MS_KEY, DEFAULT_CLIENT_IDLE_TIMEOUT_MS));
+      CLIENTS_BY_KEY.put(key, cached);
+      CLIENTS.put(client, cached);
+    } else if (cached.shutdownTask != null) {
+      cached.shutdownTask.cancel();
+      cached.shutdownTask = null;
+    }
+    cached.refCount++;
+    return cached.client;
+  }
+
+  /**
+   * Gives back a client obtained with {@link #acquire(Configuration, String, long)}. The client
+   * must not be used anymore by the caller.
+   * @param client the client to give back
+   * @throws IOException if the client had to be shut down and that failed
+   */
+  static void release(KuduClient client) throws IOException {
+    CachedClient toShutdown;
+    synchronized (KuduClientCache.class) {
+      final CachedClient cached = CLIENTS.get(client);
+      if (cached == null || cached.refCount == 0) {
+        throw new IllegalStateException("This client isn't in use: " + client);
+      }
+      cached.refCount--;
+      if (cached.refCount > 0) {
+        return;
+      }
+      if (cached.idleTimeoutMs > 0) {
+        cached.shutdownTask = new TimerTask() {
+          @Override
+          public void run() {
+            synchronized (KuduClientCache.class) {
+              if (cached.shutdownTask != this) {
+                return; // Someone acquired it in the meantime.
+              }
+              remove(cached);
+            }
+            shutdown(cached.client);
+          }
+        };
+        if (idleTimer == null) {
+          idleTimer = new Timer("kudu-mapreduce-client-cache", true);
+        }
+        idleTimer.schedule(cached.shutdownTask, cached.idleTimeoutMs);
+        return;
+      }
+      remove(cached);
+      toShutdown = cached;
+    }
+    try {
+      toShutdown.client.shutdown();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  // Must be called while synchronized on the class.
+  private static void remove(CachedClient cached) {
+    CLIENTS_BY_KEY.remove(cached.key);
+    CLIENTS.remove(cached.client);
+  }
+
+  private static void shutdown(KuduClient client) {
+    try {
+      client.shutdown();
+    } catch (Exception e) {
+      LOG.warn("Couldn't shut down an idle client", e);
+    }
+  }
+
+  /**
+   * @return the number of clients currently cached, in use or idle
+   */
+  static synchronized int getNumClients() {
+    return CLIENTS.size();
+  }
+}
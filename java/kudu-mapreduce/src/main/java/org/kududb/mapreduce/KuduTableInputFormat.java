@@ -18,7 +18,9 @@ package org.kududb.mapreduce;
 import com.google.common.base.Objects;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.net.util.Base64;
+import org.kududb.ColumnSchema;
 import org.kududb.Schema;
 import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
@@ -44,21 +46,33 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>
- * This input format generates one split per tablet and the only location for each split is that
- * tablet's leader.
+ * This input format generates one split per tablet, located on all of that tablet's replicas.
+ * The record readers scan the replica that runs on their host if there's one, at a snapshot so
+ * that followers return the same data as the leader. All the splits of a job read the same
+ * snapshot, picked by {@link #getSplits(JobContext)}. When {@link #SPLIT_SIZE_ROWS_KEY} is set,
+ * tablets that hold more rows than that are further divided into primary key ranges, see
+ * {@link #getSplits(JobContext)}.
  * </p>
  *
  * <p>
  * Hadoop doesn't have the concept of "closing" the input format so in order to release the
  * resources we assume that once either {@link #getSplits(org.apache.hadoop.mapreduce.JobContext)}
  * or {@link KuduTableInputFormat.TableRecordReader#close()} have been called that
- * the object won't be used again and the AsyncKuduClient is shut down.
+ * the object won't be used again and the client is released. Clients are shared by all the
+ * tasks that run in the same JVM, see {@link KuduClientCache}.
  * </p>
  */
 @InterfaceAudience.Public
@@ -68,8 +82,6 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
 
   private static final Log LOG = LogFactory.getLog(KuduTableInputFormat.class);
 
-  private static final long SLEEP_TIME_FOR_RETRIES_MS = 1000;
-
   /** Job parameter that specifies the input table. */
   static final String INPUT_TABLE_KEY = "kudu.mapreduce.input.table";
 
@@ -99,6 +111,33 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
    */
   static final String COLUMN_PROJECTION_KEY = "kudu.mapreduce.column.projection";
 
+  /**
+   * Job parameter that specifies roughly how many rows each split should hold (default: 0).
+   *
+   * Setting it to 0 means to generate one split per tablet. Any other value makes getSplits
+   * scan the primary keys of every tablet in order to find where to split it. This happens on
+   * the job client before the job is submitted and reads the whole primary key of the table,
+   * {@link #SPLIT_SAMPLING_THREADS_KEY} tablets at a time, so on a large table it can take as
+   * long as a scan of the key columns.
+   */
+  static final String SPLIT_SIZE_ROWS_KEY = "kudu.mapreduce.split.size.rows";
+
+  /**
+   * Job parameter that specifies how many tablets getSplits scans at the same time to find
+   * their split points, when {@link #SPLIT_SIZE_ROWS_KEY} is set (default: 8).
+   */
+  static final String SPLIT_SAMPLING_THREADS_KEY = "kudu.mapreduce.split.sampling.threads";
+
+  static final int DEFAULT_SPLIT_SAMPLING_THREADS = 8;
+
+  /**
+   * Job parameter that specifies the HT timestamp of the snapshot to read (default: unset).
+   *
+   * When it's not set, getSplits picks the current time and every split reads that same
+   * snapshot. Setting it makes a job read the same data each time it runs.
+   */
+  static final String SNAPSHOT_TIMESTAMP_KEY = "kudu.mapreduce.snapshot.timestamp";
+
   /**
    * The reverse DNS lookup cache mapping: address from Kudu => hostname for Hadoop. This cache is
    * used in order to not do DNS lookups multiple times for each tablet server.
@@ -107,13 +146,26 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
 
   private Configuration conf;
   private KuduClient client;
+  private boolean clientReleased;
   private KuduTable table;
   private long operationTimeoutMs;
   private String nameServer;
   private boolean cacheBlocks;
   private List<String> projectedCols;
   private byte[] rawPredicates;
+  private long splitSizeRows;
+  private int samplingThreads;
+  private long snapshotTimestamp;
+  // Used to turn row counts into split lengths, strings only count for their fixed size.
+  private int projectedRowSize;
 
+  /**
+   * Generates one split per tablet, or more if {@link #SPLIT_SIZE_ROWS_KEY} is set. In the latter
+   * case the primary keys of each tablet are read, several tablets at a time, in order to find a
+   * split point every split-size rows, so that the number of mappers follows the amount of data
+   * instead of the number of tablets. The split points are only as fresh as the sampling scan, rows that are
+   * written after it simply make their split a bit bigger.
+   */
   @Override
   public List<InputSplit> getSplits(JobContext jobContext)
       throws IOException, InterruptedException {
@@ -121,68 +173,237 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
       if (table == null) {
         throw new IOException("No table was provided");
       }
-      List<InputSplit> splits;
-      DeadlineTracker deadline = new DeadlineTracker();
-      deadline.setDeadline(operationTimeoutMs);
-      // If the job is started while a leader election is running, we might not be able to find a
-      // leader right away. We'll wait as long as the user is willing to wait with the operation
-      // timeout, and once we've waited long enough we just start picking the first replica we see
-      // for those tablets that don't have a leader. The client will later try to find the leader
-      // and it might fail, in which case the task will get retried.
-      retryloop:
-      while (true) {
-        List<LocatedTablet> locations;
-        try {
-          locations = table.getTabletsLocations(operationTimeoutMs);
-        } catch (Exception e) {
-          throw new IOException("Could not get the tablets locations", e);
-        }
+      List<LocatedTablet> locations;
+      try {
+        locations = table.getTabletsLocations(operationTimeoutMs);
+      } catch (Exception e) {
+        throw new IOException("Could not get the tablets locations", e);
+      }
 
-        if (locations.isEmpty()) {
-          throw new IOException("The requested table has 0 tablets, cannot continue");
-        }
+      if (locations.isEmpty()) {
+        throw new IOException("The requested table has 0 tablets, cannot continue");
+      }
 
-        // For the moment we only pass the leader since that's who we read from.
-        // If we've been trying to get a leader for each tablet for too long, we stop looping
-        // and just finish with what we have.
-        splits = new ArrayList<InputSplit>(locations.size());
-        for (LocatedTablet locatedTablet : locations) {
-          List<String> addresses = Lists.newArrayList();
-          LocatedTablet.Replica replica = locatedTablet.getLeaderReplica();
-          if (replica == null) {
-            if (deadline.wouldSleepingTimeout(SLEEP_TIME_FOR_RETRIES_MS)) {
-              LOG.debug("We ran out of retries, picking a non-leader replica for this tablet: " +
-                  locatedTablet.toString());
-              // We already checked it's not empty.
-              replica = locatedTablet.getReplicas().get(0);
-            } else {
-              LOG.debug("Retrying creating the splits because this tablet is missing a leader: " +
-                  locatedTablet.toString());
-              Thread.sleep(SLEEP_TIME_FOR_RETRIES_MS);
-              continue retryloop;
+      long splitsSnapshotTimestamp = snapshotTimestamp != AsyncKuduClient.NO_TIMESTAMP ?
+          snapshotTimestamp : pickSnapshotTimestamp();
+      List<SampledKeys> samples = splitSizeRows > 0 ?
+          sampleSplitKeys(locations, splitsSnapshotTimestamp) : null;
+
+      // We pass every replica since the record readers can scan any of them, with the leader
+      // first. A tablet that's in the middle of a leader election is still readable this way.
+      List<InputSplit> splits = new ArrayList<InputSplit>(locations.size());
+      for (int tablet = 0; tablet < locations.size(); tablet++) {
+        LocatedTablet locatedTablet = locations.get(tablet);
+        List<String> addresses = Lists.newArrayList();
+        LocatedTablet.Replica leader = locatedTablet.getLeaderReplica();
+        if (leader != null) {
+          addresses.add(reverseDNS(leader.getRpcHost(), leader.getRpcPort()));
+        }
+        for (LocatedTablet.Replica replica : locatedTablet.getReplicas()) {
+          if (replica != leader) {
+            String address = reverseDNS(replica.getRpcHost(), replica.getRpcPort());
+            if (!addresses.contains(address)) {
+              addresses.add(address);
             }
           }
-          addresses.add(reverseDNS(replica.getRpcHost(), replica.getRpcPort()));
-          String[] addressesArray = addresses.toArray(new String[addresses.size()]);
-          Partition partition = locatedTablet.getPartition();
-          TableSplit split = new TableSplit(partition.getPartitionKeyStart(),
-                                            partition.getPartitionKeyEnd(),
-                                            addressesArray);
-          splits.add(split);
         }
-        return splits;
+        String[] addressesArray = addresses.toArray(new String[addresses.size()]);
+        Partition partition = locatedTablet.getPartition();
+        // Without sampling we don't know how many rows the tablet has.
+        List<byte[]> splitKeys = samples == null ?
+            Collections.<byte[]>emptyList() : samples.get(tablet).splitKeys;
+        long tabletRows = samples == null ? 0 : samples.get(tablet).numRows;
+        byte[] startPrimaryKey = AsyncKuduClient.EMPTY_ARRAY;
+        for (int i = 0; i <= splitKeys.size(); i++) {
+          byte[] endPrimaryKey;
+          long numRows;
+          if (i < splitKeys.size()) {
+            endPrimaryKey = splitKeys.get(i);
+            numRows = splitSizeRows;
+          } else {
+            endPrimaryKey = AsyncKuduClient.EMPTY_ARRAY;
+            numRows = tabletRows - splitKeys.size() * splitSizeRows;
+          }
+          splits.add(new TableSplit(partition.getPartitionKeyStart(),
+                                    partition.getPartitionKeyEnd(),
+                                    startPrimaryKey,
+                                    endPrimaryKey,
+                                    numRows,
+                                    numRows * projectedRowSize,
+                                    splitsSnapshotTimestamp,
+                                    addressesArray));
+          startPrimaryKey = endPrimaryKey;
+        }
       }
+      return splits;
     } finally {
       shutdownClient();
     }
   }
 
-  private void shutdownClient() throws IOException {
+  /**
+   * Picks the snapshot that all the splits will read. We ask a tablet server for its current
+   * time instead of using the local clock: a snapshot that's ahead of the servers' clock is
+   * rejected as being in the future.
+   * @return an HT timestamp
+   * @throws IOException if no tablet server could be reached
+   */
+  private long pickSnapshotTimestamp() throws IOException {
+    try {
+      return client.getServerTimestamp(table);
+    } catch (Exception e) {
+      throw new IOException("Could not get the current time of the tablet servers", e);
+    }
+  }
+
+  /**
+   * The split points of a tablet, and how many rows it has.
+   */
+  private static final class SampledKeys {
+    // The encoded primary keys where the tablet should be split, in order.
+    final List<byte[]> splitKeys;
+    final long numRows;
+
+    SampledKeys(List<byte[]> splitKeys, long numRows) {
+      this.splitKeys = splitKeys;
+      this.numRows = numRows;
+    }
+  }
+
+  /**
+   * Finds the split points of every tablet, scanning {@link #SPLIT_SAMPLING_THREADS_KEY} tablets
+   * at the same time.
+   * @param locations the tablets
+   * @param htTimestamp the snapshot to scan, the same that the splits will read
+   * @return the split points of each tablet, in the same order as the locations
+   * @throws IOException if a tablet couldn't be scanned
+   * @throws InterruptedException if interrupted while waiting for the scans
+   */
+  private List<SampledKeys> sampleSplitKeys(List<LocatedTablet> locations,
+                                            final long htTimestamp)
+      throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(samplingThreads, locations.size()),
+        new ThreadFactoryBuilder()
+            .setNameFormat("kudu-split-sampling-%d")
+            .setDaemon(true)
+            .build());
     try {
-      client.shutdown();
+      List<Future<SampledKeys>> futures = new ArrayList<Future<SampledKeys>>(locations.size());
+      for (LocatedTablet locatedTablet : locations) {
+        final Partition partition = locatedTablet.getPartition();
+        futures.add(executor.submit(new Callable<SampledKeys>() {
+          @Override
+          public SampledKeys call() throws IOException {
+            return sampleSplitKeys(partition, htTimestamp);
+          }
+        }));
+      }
+      List<SampledKeys> samples = new ArrayList<SampledKeys>(locations.size());
+      for (Future<SampledKeys> future : futures) {
+        try {
+          samples.add(future.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException(e.getCause());
+        }
+      }
+      return samples;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Scans the primary key columns of a tablet and keeps the key of every
+   * {@link #SPLIT_SIZE_ROWS_KEY}th row. The scan returns the rows of one rowset after the other,
+   * so the keys are sorted before being used as split points. Each rowset gives keys in
+   * proportion to its rows, which keeps the number of rows between two sorted keys close to the
+   * split size.
+   * @param partition the tablet's partition
+   * @param htTimestamp the snapshot to scan, the same that the splits will read
+   * @return the tablet's split points and number of rows
+   * @throws IOException if the tablet couldn't be scanned
+   */
+  private SampledKeys sampleSplitKeys(Partition partition, long htTimestamp)
+      throws IOException {
+    Schema schema = table.getSchema();
+    List<String> keyColumns = new ArrayList<String>(schema.getPrimaryKeyColumnCount());
+    for (ColumnSchema column : schema.getPrimaryKeyColumns()) {
+      keyColumns.add(column.getName());
+    }
+    KuduScanner scanner = client.newScannerBuilder(table)
+        .setProjectedColumnNames(keyColumns)
+        .lowerBoundPartitionKeyRaw(partition.getPartitionKeyStart())
+        .exclusiveUpperBoundPartitionKeyRaw(partition.getPartitionKeyEnd())
+        .cacheBlocks(false)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .snapshotTimestamp(htTimestamp)
+        .build();
+    // Sorts the keys and drops the duplicates, a split must not be empty.
+    TreeSet<byte[]> sampledKeys = new TreeSet<byte[]>(Bytes.MEMCMP);
+    long numRows = 0;
+    long rowsInSplit = 0;
+    try {
+      while (scanner.hasMoreRows()) {
+        RowResultIterator rows = scanner.nextRows();
+        while (rows.hasNext()) {
+          RowResult row = rows.next();
+          if (rowsInSplit == splitSizeRows) {
+            sampledKeys.add(encodePrimaryKey(schema, row));
+            rowsInSplit = 0;
+          }
+          rowsInSplit++;
+          numRows++;
+        }
+      }
+    } catch (IOException e) {
+      throw e;
     } catch (Exception e) {
-      throw new IOException(e);
+      throw new IOException("Could not sample the primary keys of " + partition, e);
+    } finally {
+      try {
+        scanner.close();
+      } catch (Exception e) {
+        LOG.warn("Could not close the sampling scanner", e);
+      }
     }
+    return new SampledKeys(new ArrayList<byte[]>(sampledKeys), numRows);
+  }
+
+  /**
+   * Encodes the primary key of a row that was read with a projection of the key columns only.
+   */
+  static byte[] encodePrimaryKey(Schema schema, RowResult row) {
+    PartialRow key = schema.newPartialRow();
+    for (int i = 0; i < schema.getPrimaryKeyColumnCount(); i++) {
+      switch (schema.getColumnByIndex(i).getType()) {
+        case INT8: key.addByte(i, row.getByte(i)); break;
+        case INT16: key.addShort(i, row.getShort(i)); break;
+        case INT32: key.addInt(i, row.getInt(i)); break;
+        case INT64:
+        case TIMESTAMP: key.addLong(i, row.getLong(i)); break;
+        case STRING: key.addStringUtf8(i, row.getBinaryCopy(i)); break;
+        case BINARY: key.addBinary(i, row.getBinaryCopy(i)); break;
+        default:
+          throw new IllegalArgumentException("Unsupported primary key type " +
+              schema.getColumnByIndex(i).getType());
+      }
+    }
+    return key.encodePrimaryKey();
+  }
+
+  /**
+   * Gives the client back to the cache, it only gets shut down once no other task uses it.
+   */
+  void shutdownClient() throws IOException {
+    if (clientReleased) {
+      return;
+    }
+    clientReleased = true;
+    KuduClientCache.release(client);
   }
 
   /**
@@ -214,6 +435,35 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
     return location;
   }
 
+  /**
+   * Creates a scanner that reads a split with this input format's settings.
+   * @param split the split to read
+   * @param columns the columns to read, null to read them all or empty to read none
+   * @return a new scanner
+   */
+  @SuppressWarnings("deprecation")
+  KuduScanner newScanner(TableSplit split, List<String> columns) {
+    KuduScanner.KuduScannerBuilder builder = client.newScannerBuilder(table)
+        .setProjectedColumnNames(columns)
+        .lowerBoundPartitionKeyRaw(split.getStartPartitionKey())
+        .exclusiveUpperBoundPartitionKeyRaw(split.getEndPartitionKey())
+        .cacheBlocks(cacheBlocks)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+        .replicaSelection(ReplicaSelection.CLOSEST_REPLICA)
+        .addColumnRangePredicatesRaw(rawPredicates);
+    if (split.getSnapshotTimestamp() != AsyncKuduClient.NO_TIMESTAMP) {
+      builder.snapshotTimestamp(split.getSnapshotTimestamp());
+    }
+    // The primary keys come from the sampling scan, so they are already encoded.
+    if (split.getStartPrimaryKey().length > 0) {
+      builder.lowerBoundRaw(split.getStartPrimaryKey());
+    }
+    if (split.getEndPrimaryKey().length > 0) {
+      builder.exclusiveUpperBoundRaw(split.getEndPrimaryKey());
+    }
+    return builder.build();
+  }
+
   @Override
   public RecordReader<NullWritable, RowResult> createRecordReader(InputSplit inputSplit,
       TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
@@ -231,12 +481,16 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
     this.nameServer = conf.get(NAME_SERVER_KEY);
     this.cacheBlocks = conf.getBoolean(SCAN_CACHE_BLOCKS, false);
 
-    this.client = new KuduClient.KuduClientBuilder(masterAddresses)
-        .defaultOperationTimeoutMs(operationTimeoutMs)
-        .build();
+    this.client = KuduClientCache.acquire(conf, masterAddresses, operationTimeoutMs);
+    this.clientReleased = false;
     try {
       this.table = client.openTable(tableName);
     } catch (Exception ex) {
+      try {
+        shutdownClient();
+      } catch (IOException e) {
+        LOG.warn("Couldn't release the client", e);
+      }
       throw new RuntimeException("Could not obtain the table from the master, " +
           "is the master running and is this table created? tablename=" + tableName + " and " +
           "master address= " + masterAddresses, ex);
@@ -260,8 +514,30 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
       }
     }
 
+    Schema tableSchema = table.getSchema();
+    if (projectedCols == null) {
+      this.projectedRowSize = tableSchema.getRowSize();
+    } else {
+      this.projectedRowSize = 0;
+      for (String columnName : projectedCols) {
+        this.projectedRowSize += tableSchema.getColumn(columnName).getType().getSize();
+      }
+    }
+
     String encodedPredicates = conf.get(ENCODED_COLUMN_RANGE_PREDICATES_KEY, "");
     rawPredicates = Base64.decodeBase64(encodedPredicates);
+
+    this.snapshotTimestamp = conf.getLong(SNAPSHOT_TIMESTAMP_KEY, AsyncKuduClient.NO_TIMESTAMP);
+    this.splitSizeRows = conf.getLong(SPLIT_SIZE_ROWS_KEY, 0);
+    if (splitSizeRows < 0) {
+      throw new IllegalArgumentException("The split size must be >= 0, got " + splitSizeRows);
+    }
+    this.samplingThreads = conf.getInt(SPLIT_SAMPLING_THREADS_KEY,
+        DEFAULT_SPLIT_SAMPLING_THREADS);
+    if (samplingThreads <= 0) {
+      throw new IllegalArgumentException("The number of sampling threads must be > 0, got " +
+          samplingThreads);
+    }
   }
 
   /**
@@ -287,20 +563,60 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
 
     private byte[] startPartitionKey;
     private byte[] endPartitionKey;
+    // Empty when the split covers the whole tablet.
+    private byte[] startPrimaryKey;
+    private byte[] endPrimaryKey;
+    // Both are 0 when the split's size is unknown.
+    private long numRows;
+    private long length;
+    private long snapshotTimestamp;
     private String[] locations;
 
     public TableSplit() { } // Writable
 
     public TableSplit(byte[] startPartitionKey, byte[] endPartitionKey, String[] locations) {
+      this(startPartitionKey, endPartitionKey, AsyncKuduClient.EMPTY_ARRAY,
+          AsyncKuduClient.EMPTY_ARRAY, 0, 0, AsyncKuduClient.NO_TIMESTAMP, locations);
+    }
+
+    public TableSplit(byte[] startPartitionKey, byte[] endPartitionKey,
+                      byte[] startPrimaryKey, byte[] endPrimaryKey,
+                      long numRows, long length, long snapshotTimestamp,
+                      String[] locations) {
       this.startPartitionKey = startPartitionKey;
       this.endPartitionKey = endPartitionKey;
+      this.startPrimaryKey = startPrimaryKey;
+      this.endPrimaryKey = endPrimaryKey;
+      this.numRows = numRows;
+      this.length = length;
+      this.snapshotTimestamp = snapshotTimestamp;
       this.locations = locations;
     }
 
+    /**
+     * The estimated number of bytes this split will read, based on the number of rows that were
+     * counted when sampling the tablet and on the size of the projected columns.
+     * @return an estimated length, or 0 if the tablet wasn't sampled
+     */
     @Override
     public long getLength() throws IOException, InterruptedException {
-      // TODO Guesstimate a size
-      return 0;
+      return length;
+    }
+
+    /**
+     * @return the number of rows that were counted in this split when sampling the tablet, or 0
+     * if it wasn't sampled
+     */
+    public long getNumRows() {
+      return numRows;
+    }
+
+    /**
+     * @return the HT timestamp of the snapshot to read, shared by all the splits of a job, or
+     * {@link AsyncKuduClient#NO_TIMESTAMP} to let the server pick one
+     */
+    public long getSnapshotTimestamp() {
+      return snapshotTimestamp;
     }
 
     @Override
@@ -316,15 +632,32 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
       return endPartitionKey;
     }
 
+    public byte[] getStartPrimaryKey() {
+      return startPrimaryKey;
+    }
+
+    public byte[] getEndPrimaryKey() {
+      return endPrimaryKey;
+    }
+
     @Override
     public int compareTo(TableSplit tableSplit) {
-      return Bytes.memcmp(startPartitionKey, tableSplit.getStartPartitionKey());
+      int cmp = Bytes.memcmp(startPartitionKey, tableSplit.getStartPartitionKey());
+      if (cmp != 0) {
+        return cmp;
+      }
+      return Bytes.memcmp(startPrimaryKey, tableSplit.getStartPrimaryKey());
     }
 
     @Override
     public void write(DataOutput dataOutput) throws IOException {
       Bytes.writeByteArray(dataOutput, startPartitionKey);
       Bytes.writeByteArray(dataOutput, endPartitionKey);
+      Bytes.writeByteArray(dataOutput, startPrimaryKey);
+      Bytes.writeByteArray(dataOutput, endPrimaryKey);
+      dataOutput.writeLong(numRows);
+      dataOutput.writeLong(length);
+      dataOutput.writeLong(snapshotTimestamp);
       dataOutput.writeInt(locations.length);
       for (String location : locations) {
         byte[] str = Bytes.fromString(location);
@@ -336,6 +669,11 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
     public void readFields(DataInput dataInput) throws IOException {
       startPartitionKey = Bytes.readByteArray(dataInput);
       endPartitionKey = Bytes.readByteArray(dataInput);
+      startPrimaryKey = Bytes.readByteArray(dataInput);
+      endPrimaryKey = Bytes.readByteArray(dataInput);
+      numRows = dataInput.readLong();
+      length = dataInput.readLong();
+      snapshotTimestamp = dataInput.readLong();
       locations = new String[dataInput.readInt()];
       for (int i = 0; i < locations.length; i++) {
         byte[] str = Bytes.readByteArray(dataInput);
@@ -346,7 +684,7 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
     @Override
     public int hashCode() {
       // We currently just care about the row key since we're within the same table
-      return Arrays.hashCode(startPartitionKey);
+      return 31 * Arrays.hashCode(startPartitionKey) + Arrays.hashCode(startPrimaryKey);
     }
 
     @Override
@@ -364,6 +702,11 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
       return Objects.toStringHelper(this)
                     .add("startPartitionKey", Bytes.pretty(startPartitionKey))
                     .add("endPartitionKey", Bytes.pretty(endPartitionKey))
+                    .add("startPrimaryKey", Bytes.pretty(startPrimaryKey))
+                    .add("endPrimaryKey", Bytes.pretty(endPrimaryKey))
+                    .add("numRows", numRows)
+                    .add("length", length)
+                    .add("snapshotTimestamp", snapshotTimestamp)
                     .add("locations", Arrays.toString(locations))
                     .toString();
     }
@@ -371,11 +714,17 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
 
   class TableRecordReader extends RecordReader<NullWritable, RowResult> {
 
+    /** Progress is reported for every row, but only recomputed this often. */
+    private static final int PROGRESS_UPDATE_INTERVAL_ROWS = 1000;
+
     private final NullWritable currentKey = NullWritable.get();
     private RowResult currentValue;
     private RowResultIterator iterator;
     private KuduScanner scanner;
     private TableSplit split;
+    private long rowsRead;
+    private float progress;
+    private boolean done;
 
     @Override
     public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
@@ -384,13 +733,7 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
       }
 
       split = (TableSplit) inputSplit;
-      scanner = client.newScannerBuilder(table)
-          .setProjectedColumnNames(projectedCols)
-          .lowerBoundPartitionKeyRaw(split.getStartPartitionKey())
-          .exclusiveUpperBoundPartitionKeyRaw(split.getEndPartitionKey())
-          .cacheBlocks(cacheBlocks)
-          .addColumnRangePredicatesRaw(rawPredicates)
-          .build();
+      scanner = newScanner(split, projectedCols);
 
       // Calling this now to set iterator.
       tryRefreshIterator();
@@ -402,13 +745,28 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
         tryRefreshIterator();
         if (!iterator.hasNext()) {
           // Means we still have the same iterator, we're done
+          done = true;
           return false;
         }
       }
       currentValue = iterator.next();
+      if (rowsRead++ % PROGRESS_UPDATE_INTERVAL_ROWS == 0) {
+        updateProgress();
+      }
       return true;
     }
 
+    /**
+     * Uses the number of rows read so far out of the number of rows that were counted when
+     * sampling the tablet. The rows don't come in primary key order, so where the current row's
+     * key sits in the split says nothing about how much is left.
+     */
+    private void updateProgress() {
+      if (split.getNumRows() > 0) {
+        progress = Math.min(1f, (float) rowsRead / split.getNumRows());
+      }
+    }
+
     /**
      * If the scanner has more rows, get a new iterator else don't do anything.
      * @throws IOException
@@ -436,8 +794,7 @@ public class KuduTableInputFormat extends InputFormat<NullWritable, RowResult>
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
-      // TODO Guesstimate progress
-      return 0;
+      return done ? 1f : progress;
     }
 
     @Override
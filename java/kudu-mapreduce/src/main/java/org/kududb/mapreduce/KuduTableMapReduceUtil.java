@@ -30,6 +30,7 @@ import org.kududb.annotations.InterfaceAudience;
 import org.kududb.annotations.InterfaceStability;
 import org.kududb.client.AsyncKuduClient;
 import org.kududb.client.ColumnRangePredicate;
+import org.kududb.client.KuduClient;
 import org.kududb.client.KuduTable;
 import org.kududb.client.Operation;
 
@@ -106,6 +107,9 @@ public class KuduTableMapReduceUtil {
 
     protected String masterAddresses;
     protected long operationTimeoutMs = AsyncKuduClient.DEFAULT_OPERATION_TIMEOUT_MS;
+    protected int asyncSessions;
+    protected long maxInFlightBytes = KuduTableOutputFormat.DEFAULT_MAX_IN_FLIGHT_BYTES;
+    protected boolean bulkLoad;
 
     /**
      * {@inheritDoc}
@@ -114,6 +118,55 @@ public class KuduTableMapReduceUtil {
       super(job, table);
     }
 
+    /**
+     * Sets how many asynchronous sessions each task writes with. Rows are spread over the
+     * sessions by tablet, and the task only waits on the tablet servers once
+     * {@link #maxInFlightBytes(long)} is reached. The default, 0, writes with a single session.
+     * @param asyncSessions the number of sessions per task, or 0 to use a single session
+     * @return this instance
+     * @throws IllegalArgumentException if the number of sessions is lower than 0
+     */
+    public S asyncSessions(int asyncSessions) {
+      if (asyncSessions < 0) {
+        throw new IllegalArgumentException("The number of sessions must be => 0, " +
+            "passed value is: " + asyncSessions);
+      }
+      this.asyncSessions = asyncSessions;
+      return (S) this;
+    }
+
+    /**
+     * Sets how many bytes of rows each task can have buffered or sent without having been
+     * acknowledged, when writing with asynchronous sessions. Defaults to 64MB.
+     * @param maxInFlightBytes the maximum number of bytes in flight
+     * @return this instance
+     * @throws IllegalArgumentException if the number of bytes isn't positive
+     */
+    public S maxInFlightBytes(long maxInFlightBytes) {
+      if (maxInFlightBytes <= 0) {
+        throw new IllegalArgumentException("The number of bytes in flight must be > 0, " +
+            "passed value is: " + maxInFlightBytes);
+      }
+      this.maxInFlightBytes = maxInFlightBytes;
+      return (S) this;
+    }
+
+    /**
+     * Sets the job up to bulk load rows, which is much faster than having every task write to
+     * every tablet in random order. Turned off by default.
+     * <p>
+     * The job gets one reducer per tablet and a {@link KuduTotalOrderPartitioner}. Mappers must
+     * emit a {@link KuduBulkLoadKey} for each row, then each reducer receives the rows of a single
+     * tablet in primary key order and writes them as large sequential batches. Splitting the
+     * table in more tablets thus gives the job more reducers.
+     * @param bulkLoad whether the job bulk loads rows
+     * @return this instance
+     */
+    public S bulkLoad(boolean bulkLoad) {
+      this.bulkLoad = bulkLoad;
+      return (S) this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -126,10 +179,39 @@ public class KuduTableMapReduceUtil {
       conf.set(KuduTableOutputFormat.MASTER_ADDRESSES_KEY, masterAddresses);
       conf.set(KuduTableOutputFormat.OUTPUT_TABLE_KEY, table);
       conf.setLong(KuduTableOutputFormat.OPERATION_TIMEOUT_MS_KEY, operationTimeoutMs);
+      conf.setInt(KuduTableOutputFormat.ASYNC_SESSIONS_KEY, asyncSessions);
+      conf.setLong(KuduTableOutputFormat.MAX_IN_FLIGHT_BYTES_KEY, maxInFlightBytes);
+      if (bulkLoad) {
+        TabletBoundaries tablets = getTabletBoundaries();
+        conf.set(KuduTotalOrderPartitioner.TABLET_BOUNDARIES_KEY, tablets.toBase64String());
+        conf.setBoolean(KuduTableOutputFormat.SORTED_WRITES_KEY, true);
+        job.setMapOutputKeyClass(KuduBulkLoadKey.class);
+        job.setPartitionerClass(KuduTotalOrderPartitioner.class);
+        job.setNumReduceTasks(tablets.getNumTablets());
+      }
       if (addDependencies) {
         addDependencyJars(job);
       }
     }
+
+    private TabletBoundaries getTabletBoundaries() throws IOException {
+      KuduClient client = new KuduClient.KuduClientBuilder(masterAddresses)
+          .defaultOperationTimeoutMs(operationTimeoutMs)
+          .build();
+      try {
+        return TabletBoundaries.fromTable(client.openTable(table), operationTimeoutMs);
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Could not open table " + table, e);
+      } finally {
+        try {
+          client.shutdown();
+        } catch (Exception e) {
+          LOG.warn("Couldn't shut down the client", e);
+        }
+      }
+    }
   }
 
   /**
@@ -146,6 +228,8 @@ public class KuduTableMapReduceUtil {
     protected long operationTimeoutMs = AsyncKuduClient.DEFAULT_OPERATION_TIMEOUT_MS;
     protected final String columnProjection;
     protected boolean cacheBlocks;
+    protected long splitSizeRows;
+    protected long snapshotTimestamp = AsyncKuduClient.NO_TIMESTAMP;
     protected List<ColumnRangePredicate> columnRangePredicates = new ArrayList<>();
 
     /**
@@ -170,6 +254,35 @@ public class KuduTableMapReduceUtil {
       return (S) this;
     }
 
+    /**
+     * Sets roughly how many rows each split should hold. Tablets that hold more rows get
+     * divided into multiple splits, which requires scanning the primary keys of the whole table
+     * when the job is submitted: on a large table that takes about as long as reading the key
+     * columns. The default, 0, generates one split per tablet.
+     * @param splitSizeRows the number of rows per split, or 0 to split by tablet
+     * @return this instance
+     * @throws IllegalArgumentException if the split size is lower than 0
+     */
+    public S splitSizeRows(long splitSizeRows) {
+      if (splitSizeRows < 0) {
+        throw new IllegalArgumentException("The split size must be => 0, " +
+            "passed value is: " + splitSizeRows);
+      }
+      this.splitSizeRows = splitSizeRows;
+      return (S) this;
+    }
+
+    /**
+     * Sets the snapshot that the job reads, so that running it again reads the same data. By
+     * default the job reads the data as of the moment its splits are computed.
+     * @param htTimestamp an HT timestamp, see {@link org.kududb.util.HybridTimeUtil}
+     * @return this instance
+     */
+    public S snapshotTimestamp(long htTimestamp) {
+      this.snapshotTimestamp = htTimestamp;
+      return (S) this;
+    }
+
     /**
      * Configures the job with all the passed parameters.
      * @throws IOException If addDependencies is enabled and a problem is encountered reading
@@ -184,6 +297,10 @@ public class KuduTableMapReduceUtil {
       conf.set(KuduTableInputFormat.INPUT_TABLE_KEY, table);
       conf.setLong(KuduTableInputFormat.OPERATION_TIMEOUT_MS_KEY, operationTimeoutMs);
       conf.setBoolean(KuduTableInputFormat.SCAN_CACHE_BLOCKS, cacheBlocks);
+      conf.setLong(KuduTableInputFormat.SPLIT_SIZE_ROWS_KEY, splitSizeRows);
+      if (snapshotTimestamp != AsyncKuduClient.NO_TIMESTAMP) {
+        conf.setLong(KuduTableInputFormat.SNAPSHOT_TIMESTAMP_KEY, snapshotTimestamp);
+      }
 
       if (columnProjection != null) {
         conf.set(KuduTableInputFormat.COLUMN_PROJECTION_KEY, columnProjection);
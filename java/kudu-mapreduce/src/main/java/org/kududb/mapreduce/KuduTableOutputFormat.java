@@ -19,6 +19,7 @@ import org.kududb.client.*;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.OutputCommitter;
 import org.apache.hadoop.mapreduce.OutputFormat;
@@ -27,9 +28,15 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -46,7 +53,8 @@ import java.util.concurrent.atomic.AtomicLong;
  * resources we assume that once either
  * {@link #checkOutputSpecs(org.apache.hadoop.mapreduce.JobContext)}
  * or {@link TableRecordWriter#close(org.apache.hadoop.mapreduce.TaskAttemptContext)}
- * have been called that the object won't be used again and the KuduClient is shut down.
+ * have been called that the object won't be used again and the KuduClient is released. Clients
+ * are shared by all the tasks that run in the same JVM, see {@link KuduClientCache}.
  * </p>
  */
 @InterfaceAudience.Public
@@ -68,6 +76,29 @@ public class KuduTableOutputFormat extends OutputFormat<NullWritable,Operation>
   /** Number of rows that are buffered before flushing to the tablet server */
   static final String BUFFER_ROW_COUNT_KEY = "kudu.mapreduce.buffer.row.count";
 
+  /**
+   * Job parameter that specifies how many asynchronous sessions each record writer uses
+   * (default: 0). With 0, rows are applied to a single session and the task's thread waits
+   * whenever its buffer is full. Otherwise the rows are spread over that many sessions by tablet,
+   * and the task only waits when {@link #MAX_IN_FLIGHT_BYTES_KEY} is reached.
+   */
+  static final String ASYNC_SESSIONS_KEY = "kudu.mapreduce.async.sessions";
+
+  /**
+   * Job parameter that specifies how many bytes of rows can be buffered or sent without having
+   * been acknowledged, when using asynchronous sessions (default: 64MB).
+   */
+  static final String MAX_IN_FLIGHT_BYTES_KEY = "kudu.mapreduce.max.in.flight.bytes";
+
+  static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * Job parameter that specifies whether each task receives its rows sorted by
+   * {@link KuduBulkLoadKey} (default: false). If so, the rows are sent in batches that each go to
+   * a single tablet, and the next batch is filled while the previous one is being written.
+   */
+  static final String SORTED_WRITES_KEY = "kudu.mapreduce.sorted.writes";
+
   /**
    * Job parameter that specifies which key is to be used to reach the KuduTableOutputFormat
    * belonging to the caller
@@ -91,9 +122,14 @@ public class KuduTableOutputFormat extends OutputFormat<NullWritable,Operation>
   private Configuration conf = null;
 
   private KuduClient client;
+  private boolean clientReleased;
   private KuduTable table;
   private KuduSession session;
   private long operationTimeoutMs;
+  private int bufferSpace;
+  private int asyncSessions;
+  private long maxInFlightBytes;
+  private boolean sortedWrites;
 
   @Override
   public void setConf(Configuration entries) {
@@ -103,34 +139,47 @@ public class KuduTableOutputFormat extends OutputFormat<NullWritable,Operation>
     String tableName = this.conf.get(OUTPUT_TABLE_KEY);
     this.operationTimeoutMs = this.conf.getLong(OPERATION_TIMEOUT_MS_KEY,
         AsyncKuduClient.DEFAULT_OPERATION_TIMEOUT_MS);
-    int bufferSpace = this.conf.getInt(BUFFER_ROW_COUNT_KEY, 1000);
+    this.bufferSpace = this.conf.getInt(BUFFER_ROW_COUNT_KEY, 1000);
+    this.asyncSessions = this.conf.getInt(ASYNC_SESSIONS_KEY, 0);
+    this.maxInFlightBytes = this.conf.getLong(MAX_IN_FLIGHT_BYTES_KEY,
+        DEFAULT_MAX_IN_FLIGHT_BYTES);
+    this.sortedWrites = this.conf.getBoolean(SORTED_WRITES_KEY, false);
 
-    this.client = new KuduClient.KuduClientBuilder(masterAddress)
-        .defaultOperationTimeoutMs(operationTimeoutMs)
-        .build();
+    this.client = KuduClientCache.acquire(conf, masterAddress, operationTimeoutMs);
+    this.clientReleased = false;
     try {
       this.table = client.openTable(tableName);
     } catch (Exception ex) {
+      try {
+        shutdownClient();
+      } catch (IOException e) {
+        LOG.warn("Couldn't release the client", e);
+      }
       throw new RuntimeException("Could not obtain the table from the master, " +
           "is the master running and is this table created? tablename=" + tableName + " and " +
           "master address= " + masterAddress, ex);
     }
-    this.session = client.newSession();
-    this.session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_BACKGROUND);
-    this.session.setMutationBufferSpace(bufferSpace);
-    this.session.setIgnoreAllDuplicateRows(true);
+    if (!sortedWrites && asyncSessions == 0) {
+      this.session = client.newSession();
+      this.session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_BACKGROUND);
+      this.session.setMutationBufferSpace(bufferSpace);
+      this.session.setIgnoreAllDuplicateRows(true);
+    }
     String multitonKey = String.valueOf(Thread.currentThread().getId());
     assert(MULTITON.get(multitonKey) == null);
     MULTITON.put(multitonKey, this);
     entries.set(MULTITON_KEY, multitonKey);
   }
 
+  /**
+   * Gives the client back to the cache, it only gets shut down once no other task uses it.
+   */
   private void shutdownClient() throws IOException {
-    try {
-      client.shutdown();
-    } catch (Exception e) {
-      throw new IOException(e);
+    if (clientReleased) {
+      return;
     }
+    clientReleased = true;
+    KuduClientCache.release(client);
   }
 
   public static KuduTable getKuduTable(String multitonKey) {
@@ -149,9 +198,27 @@ public class KuduTableOutputFormat extends OutputFormat<NullWritable,Operation>
   @Override
   public RecordWriter<NullWritable, Operation> getRecordWriter(TaskAttemptContext taskAttemptContext)
       throws IOException, InterruptedException {
+    if (sortedWrites) {
+      return new SortedTableRecordWriter();
+    }
+    if (asyncSessions > 0) {
+      return new AsyncTableRecordWriter(taskAttemptContext);
+    }
     return new TableRecordWriter(this.session);
   }
 
+  /**
+   * Uses the boundaries that were put in the configuration when the job was set up, if any, so
+   * that the tasks don't all ask the master for them.
+   */
+  private TabletBoundaries getTabletBoundaries() throws IOException {
+    String encoded = conf.get(KuduTotalOrderPartitioner.TABLET_BOUNDARIES_KEY);
+    if (encoded != null) {
+      return TabletBoundaries.fromBase64String(encoded);
+    }
+    return TabletBoundaries.fromTable(table, operationTimeoutMs);
+  }
+
   @Override
   public void checkOutputSpecs(JobContext jobContext) throws IOException, InterruptedException {
     shutdownClient();
@@ -209,4 +276,227 @@ public class KuduTableOutputFormat extends OutputFormat<NullWritable,Operation>
       }
     }
   }
+
+  /**
+   * Record writer that applies rows to multiple {@link AsyncKuduSession}s without waiting for
+   * them, so that the task's thread never waits on the network unless too many bytes are in
+   * flight. Each tablet's rows always go to the same session so that the sessions' batches stay
+   * big. Errors are counted as the responses come back.
+   */
+  protected class AsyncTableRecordWriter extends RecordWriter<NullWritable, Operation> {
+
+    private final AtomicLong rowsWithErrors = new AtomicLong();
+    private final Counter rowsWithErrorsCounter;
+    private final AsyncKuduSession[] sessions;
+    private final TabletBoundaries tablets;
+    // Permits are bytes, capped to what an int can hold.
+    private final int maxPermits;
+    private final Semaphore inFlightBytes;
+
+    public AsyncTableRecordWriter(TaskAttemptContext taskAttemptContext) throws IOException {
+      this.rowsWithErrorsCounter = taskAttemptContext == null ?
+          null : taskAttemptContext.getCounter(Counters.ROWS_WITH_ERRORS);
+      this.sessions = new AsyncKuduSession[asyncSessions];
+      for (int i = 0; i < sessions.length; i++) {
+        AsyncKuduSession session = table.getAsyncClient().newSession();
+        session.setFlushMode(AsyncKuduSession.FlushMode.AUTO_FLUSH_BACKGROUND);
+        session.setMutationBufferSpace(bufferSpace);
+        session.setIgnoreAllDuplicateRows(true);
+        session.setTimeoutMillis(operationTimeoutMs);
+        sessions[i] = session;
+      }
+      this.tablets = getTabletBoundaries();
+      this.maxPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes));
+      this.inFlightBytes = new Semaphore(maxPermits);
+    }
+
+    @Override
+    public void write(NullWritable key, final Operation operation)
+        throws IOException, InterruptedException {
+      final int size = (int) Math.min(maxPermits, operation.getEstimatedSize());
+      inFlightBytes.acquire(size);
+      AsyncKuduSession session = sessions[
+          tablets.getTabletIndex(operation.partitionKey()) % sessions.length];
+      Deferred<OperationResponse> d;
+      while (true) {
+        try {
+          d = session.apply(operation);
+          break;
+        } catch (PleaseThrottleException pte) {
+          // This session's buffers are full, wait for one of them to be flushed.
+          try {
+            pte.getDeferred().join(operationTimeoutMs);
+          } catch (Exception e) {
+            // The flush failed, the rows it held were already counted as errors.
+          }
+        } catch (Exception e) {
+          inFlightBytes.release(size);
+          throw new IOException("Encountered an error while writing", e);
+        }
+      }
+      d.addCallbacks(new Callback<Void, OperationResponse>() {
+        @Override
+        public Void call(OperationResponse response) throws Exception {
+          inFlightBytes.release(size);
+          if (response.hasRowError()) {
+            recordError(response.getRowError().toString());
+          }
+          return null;
+        }
+      }, new Callback<Void, Exception>() {
+        @Override
+        public Void call(Exception e) throws Exception {
+          inFlightBytes.release(size);
+          recordError(e.toString());
+          return null;
+        }
+      });
+    }
+
+    private void recordError(String error) {
+      long errors = rowsWithErrors.incrementAndGet();
+      if (rowsWithErrorsCounter != null) {
+        rowsWithErrorsCounter.increment(1);
+      }
+      if (errors == 1) {
+        LOG.warn("Got a row error, the first one being " + error);
+      }
+    }
+
+    @Override
+    public void close(TaskAttemptContext taskAttemptContext) throws IOException,
+        InterruptedException {
+      try {
+        List<Deferred<List<OperationResponse>>> closes =
+            new ArrayList<Deferred<List<OperationResponse>>>(sessions.length);
+        for (AsyncKuduSession session : sessions) {
+          closes.add(session.close());
+        }
+        Deferred.group(closes).join(operationTimeoutMs);
+        // Wait for the callbacks of the last rows.
+        if (!inFlightBytes.tryAcquire(maxPermits, operationTimeoutMs, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Timed out waiting for the rows in flight");
+        }
+        shutdownClient();
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Encountered an error while closing this task", e);
+      } finally {
+        if (rowsWithErrors.get() > 0) {
+          LOG.warn("Got errors for " + rowsWithErrors.get() + " rows");
+        }
+      }
+    }
+  }
+
+  /**
+   * Record writer for tasks that get their rows sorted by {@link KuduBulkLoadKey}, like the
+   * reducers of a bulk load. The rows are buffered until the buffer is full or until a row for
+   * another tablet comes in, so every batch is a large run of consecutive keys for a single tablet.
+   * A batch is sent while the next one is being filled, and the rows never wait for more than
+   * one batch to be acknowledged.
+   */
+  protected class SortedTableRecordWriter extends RecordWriter<NullWritable, Operation> {
+
+    private final AtomicLong rowsWithErrors = new AtomicLong();
+    private final AsyncKuduSession session;
+    private final TabletBoundaries tablets;
+    private int currentTablet = -1;
+    private byte[] lastPartitionKey;
+    private int bufferedOperations;
+    private Deferred<List<OperationResponse>> lastFlush;
+    private boolean warnedUnsorted;
+
+    public SortedTableRecordWriter() throws IOException {
+      this.tablets = getTabletBoundaries();
+      this.session = table.getAsyncClient().newSession();
+      session.setFlushMode(AsyncKuduSession.FlushMode.MANUAL_FLUSH);
+      // The operations of a flush that's waiting on tablet lookups stay buffered, so leave room
+      // for them next to the batch being filled.
+      session.setMutationBufferSpace(bufferSpace * 2);
+      session.setIgnoreAllDuplicateRows(true);
+      session.setTimeoutMillis(operationTimeoutMs);
+    }
+
+    @Override
+    public void write(NullWritable key, Operation operation)
+        throws IOException, InterruptedException {
+      byte[] partitionKey = operation.partitionKey();
+      if (!warnedUnsorted && lastPartitionKey != null &&
+          Bytes.memcmp(partitionKey, lastPartitionKey) < 0) {
+        LOG.warn("The rows aren't sorted by partition key, writing them will be slower");
+        warnedUnsorted = true;
+      }
+      lastPartitionKey = partitionKey;
+      int tablet = tablets.getTabletIndex(partitionKey);
+      if (tablet != currentTablet || bufferedOperations >= bufferSpace) {
+        flush();
+        currentTablet = tablet;
+      }
+      try {
+        session.apply(operation);
+      } catch (Exception e) {
+        throw new IOException("Encountered an error while writing", e);
+      }
+      bufferedOperations++;
+    }
+
+    /**
+     * Waits for the previous batch to be written, then starts writing the buffered rows.
+     */
+    private void flush() throws IOException {
+      if (bufferedOperations == 0) {
+        return;
+      }
+      waitForLastFlush();
+      lastFlush = session.flush();
+      bufferedOperations = 0;
+    }
+
+    private void waitForLastFlush() throws IOException {
+      if (lastFlush == null) {
+        return;
+      }
+      List<OperationResponse> responses;
+      try {
+        responses = lastFlush.join(operationTimeoutMs);
+      } catch (Exception e) {
+        throw new IOException("Encountered an error while writing", e);
+      }
+      lastFlush = null;
+      if (responses == null) {
+        return;
+      }
+      for (OperationResponse response : responses) {
+        if (response.hasRowError()) {
+          if (rowsWithErrors.incrementAndGet() == 1) {
+            LOG.warn("Got a row error, the first one being " + response.getRowError());
+          }
+        }
+      }
+    }
+
+    @Override
+    public void close(TaskAttemptContext taskAttemptContext) throws IOException,
+        InterruptedException {
+      try {
+        flush();
+        waitForLastFlush();
+        session.close().join(operationTimeoutMs);
+        shutdownClient();
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Encountered an error while closing this task", e);
+      } finally {
+        if (taskAttemptContext != null) {
+          taskAttemptContext.getCounter(Counters.ROWS_WITH_ERRORS).setValue(rowsWithErrors.get());
+        }
+        if (rowsWithErrors.get() > 0) {
+          LOG.warn("Got errors for " + rowsWithErrors.get() + " rows");
+        }
+      }
+    }
+  }
 }
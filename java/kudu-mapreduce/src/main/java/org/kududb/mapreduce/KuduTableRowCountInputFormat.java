@@ -0,0 +1,136 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+import org.kududb.client.KuduScanner;
+import org.kududb.client.RowResultIterator;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Input format that counts rows instead of reading them. It's configured and split exactly like
+ * {@link KuduTableInputFormat}, see {@link KuduTableMapReduceUtil}, but its scanners don't read
+ * any column and its record readers return one record per batch of rows, whose value is the
+ * number of rows in the batch. The rows themselves are never materialized.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class KuduTableRowCountInputFormat extends InputFormat<NullWritable, LongWritable>
+    implements Configurable {
+
+  private final KuduTableInputFormat inputFormat = new KuduTableInputFormat();
+
+  @Override
+  public List<InputSplit> getSplits(JobContext jobContext)
+      throws IOException, InterruptedException {
+    return inputFormat.getSplits(jobContext);
+  }
+
+  @Override
+  public RecordReader<NullWritable, LongWritable> createRecordReader(InputSplit inputSplit,
+      TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
+    return new RowCountRecordReader();
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    inputFormat.setConf(conf);
+  }
+
+  @Override
+  public Configuration getConf() {
+    return inputFormat.getConf();
+  }
+
+  class RowCountRecordReader extends RecordReader<NullWritable, LongWritable> {
+
+    private final NullWritable currentKey = NullWritable.get();
+    private final LongWritable currentValue = new LongWritable();
+    private KuduScanner scanner;
+    private KuduTableInputFormat.TableSplit split;
+    private long rowsRead;
+    private boolean done;
+
+    @Override
+    public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
+        throws IOException, InterruptedException {
+      if (!(inputSplit instanceof KuduTableInputFormat.TableSplit)) {
+        throw new IllegalArgumentException("TableSplit is the only accepted input split");
+      }
+      split = (KuduTableInputFormat.TableSplit) inputSplit;
+      scanner = inputFormat.newScanner(split, Collections.<String>emptyList());
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      while (scanner.hasMoreRows()) {
+        RowResultIterator iterator;
+        try {
+          iterator = scanner.nextRows();
+        } catch (Exception e) {
+          throw new IOException("Couldn't get scan data", e);
+        }
+        // Batches can be empty, for example the one that comes with closing the scanner.
+        if (iterator != null && iterator.getNumRows() > 0) {
+          currentValue.set(iterator.getNumRows());
+          rowsRead += iterator.getNumRows();
+          return true;
+        }
+      }
+      done = true;
+      return false;
+    }
+
+    @Override
+    public NullWritable getCurrentKey() throws IOException, InterruptedException {
+      return currentKey;
+    }
+
+    @Override
+    public LongWritable getCurrentValue() throws IOException, InterruptedException {
+      return currentValue;
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      if (done) {
+        return 1f;
+      }
+      return split.getNumRows() > 0 ? Math.min(1f, (float) rowsRead / split.getNumRows()) : 0f;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        scanner.close();
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+      inputFormat.shutdownClient();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.annotations.InterfaceStability;
+
+import java.io.IOException;
+
+/**
+ * Partitioner that sends all the rows of a tablet to the same reducer, and the rows of
+ * consecutive tablets to the same or to consecutive reducers. With as many reducers as there are
+ * tablets, which is how
+ * {@link KuduTableMapReduceUtil.TableOutputFormatConfigurator#bulkLoad(boolean)} sets jobs up,
+ * every reducer writes to exactly one tablet.
+ * <p>
+ * The tablets' boundaries are read from {@link #TABLET_BOUNDARIES_KEY}, they are fetched when the
+ * job is configured so that the tasks don't need to contact the master.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class KuduTotalOrderPartitioner<V> extends Partitioner<KuduBulkLoadKey, V>
+    implements Configurable {
+
+  /** Job parameter that holds the encoded start partition keys of the output table's tablets. */
+  static final String TABLET_BOUNDARIES_KEY = "kudu.mapreduce.tablet.boundaries";
+
+  private Configuration conf;
+  private TabletBoundaries tablets;
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    String encoded = conf.get(TABLET_BOUNDARIES_KEY);
+    if (encoded == null) {
+      throw new IllegalArgumentException(TABLET_BOUNDARIES_KEY + " isn't set, configure the " +
+          "job with KuduTableMapReduceUtil's bulk load mode");
+    }
+    try {
+      this.tablets = TabletBoundaries.fromBase64String(encoded);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not decode " + TABLET_BOUNDARIES_KEY, e);
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public int getPartition(KuduBulkLoadKey key, V value, int numPartitions) {
+    int tablet = tablets.getTabletIndex(key.getPartitionKey());
+    // Spreads the tablets evenly, keeping them in order.
+    return (int) ((long) tablet * numPartitions / tablets.getNumTablets());
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.commons.net.util.Base64;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+import org.kududb.annotations.InterfaceAudience;
+import org.kududb.client.Bytes;
+import org.kududb.client.KuduTable;
+import org.kududb.client.LocatedTablet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The start partition keys of a table's tablets, sorted, used to find which tablet a row goes to
+ * without asking the client. They can be written into a job's configuration so that tasks don't
+ * all have to ask the master for them.
+ */
+@InterfaceAudience.Private
+final class TabletBoundaries {
+
+  private static final Comparator<byte[]> MEMCMP = new Comparator<byte[]>() {
+    @Override
+    public int compare(byte[] a, byte[] b) {
+      return Bytes.memcmp(a, b);
+    }
+  };
+
+  private final byte[][] startKeys;
+
+  TabletBoundaries(byte[][] startKeys) {
+    Arrays.sort(startKeys, MEMCMP);
+    this.startKeys = startKeys;
+  }
+
+  /**
+   * Gets the boundaries of a table's tablets from the master.
+   * @param table the table
+   * @param timeoutMs how long to wait for the master
+   * @return the table's tablet boundaries
+   * @throws IOException if the tablets couldn't be located
+   */
+  static TabletBoundaries fromTable(KuduTable table, long timeoutMs) throws IOException {
+    List<LocatedTablet> tablets;
+    try {
+      tablets = table.getTabletsLocations(timeoutMs);
+    } catch (Exception e) {
+      throw new IOException("Could not get the tablets locations", e);
+    }
+    byte[][] startKeys = new byte[tablets.size()][];
+    for (int i = 0; i < startKeys.length; i++) {
+      startKeys[i] = tablets.get(i).getPartition().getPartitionKeyStart();
+    }
+    return new TabletBoundaries(startKeys);
+  }
+
+  /**
+   * Reads boundaries written by {@link #toBase64String()}.
+   * @param encoded the encoded boundaries
+   * @return the decoded boundaries
+   * @throws IOException if the string couldn't be decoded
+   */
+  static TabletBoundaries fromBase64String(String encoded) throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    byte[] bytes = Base64.decodeBase64(encoded);
+    in.reset(bytes, bytes.length);
+    byte[][] startKeys = new byte[WritableUtils.readVInt(in)][];
+    for (int i = 0; i < startKeys.length; i++) {
+      startKeys[i] = new byte[WritableUtils.readVInt(in)];
+      in.readFully(startKeys[i]);
+    }
+    return new TabletBoundaries(startKeys);
+  }
+
+  /**
+   * @return the boundaries encoded in a string that can be put in a configuration
+   */
+  String toBase64String() throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    WritableUtils.writeVInt(out, startKeys.length);
+    for (byte[] startKey : startKeys) {
+      WritableUtils.writeVInt(out, startKey.length);
+      out.write(startKey);
+    }
+    return Base64.encodeBase64String(Arrays.copyOf(out.getData(), out.getLength()));
+  }
+
+  int getNumTablets() {
+    return startKeys.length;
+  }
+
+  /**
+   * Finds the tablet a partition key belongs to, that is the last one that starts at or before
+   * it. Tablets are numbered in partition key order, starting at 0.
+   * @param partitionKey an encoded partition key
+   * @return the tablet's index
+   */
+  int getTabletIndex(byte[] partitionKey) {
+    int low = 0;
+    int high = startKeys.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (Bytes.memcmp(startKeys[mid], partitionKey) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+import org.kududb.client.KuduClient;
+import org.kududb.client.SimulatedCluster;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Clients don't connect until they're used, so most of these tests don't need a cluster.
+ */
+public class TestKuduClientCache {
+
+  private static final String MASTERS = "127.0.0.1:7051";
+
+  @Test
+  public void testSharing() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(KuduClientCache.CLIENT_IDLE_TIMEOUT_MS_KEY, 0);
+    int numClients = KuduClientCache.getNumClients();
+
+    KuduClient client = KuduClientCache.acquire(conf, MASTERS, 1000);
+    assertSame(client, KuduClientCache.acquire(conf, MASTERS, 1000));
+    KuduClient otherTimeout = KuduClientCache.acquire(conf, MASTERS, 2000);
+    assertNotSame(client, otherTimeout);
+    assertEquals(numClients + 2, KuduClientCache.getNumClients());
+
+    KuduClientCache.release(client);
+    KuduClientCache.release(otherTimeout);
+    assertEquals(numClients + 1, KuduClientCache.getNumClients());
+    KuduClientCache.release(client);
+    assertEquals(numClients, KuduClientCache.getNumClients());
+
+    try {
+      KuduClientCache.release(client);
+      fail("The client was already released");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    KuduClient newClient = KuduClientCache.acquire(conf, MASTERS, 1000);
+    assertNotSame(client, newClient);
+    KuduClientCache.release(newClient);
+  }
+
+  @Test(timeout = 10000)
+  public void testIdleTimeout() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(KuduClientCache.CLIENT_IDLE_TIMEOUT_MS_KEY, 100);
+    String masters = MASTERS + ",127.0.0.2:7051";
+    int numClients = KuduClientCache.getNumClients();
+
+    KuduClient client = KuduClientCache.acquire(conf, masters, 1000);
+    KuduClientCache.release(client);
+    // The next task gets the same client as long as it comes soon enough.
+    assertSame(client, KuduClientCache.acquire(conf, masters, 1000));
+    KuduClientCache.release(client);
+    assertEquals(numClients + 1, KuduClientCache.getNumClients());
+
+    // Then the idle client gets shut down.
+    while (KuduClientCache.getNumClients() != numClients) {
+      Thread.sleep(50);
+    }
+    KuduClient newClient = KuduClientCache.acquire(conf, masters, 1000);
+    assertNotSame(client, newClient);
+    KuduClientCache.release(newClient);
+  }
+
+  /**
+   * By default nothing is left that would keep the JVM alive once the clients are released.
+   */
+  @Test(timeout = 100000)
+  public void testNoThreadsLeftAfterRelease() throws Exception {
+    Set<Thread> threadsBefore = getNonDaemonThreads();
+    SimulatedCluster cluster = new SimulatedCluster(1);
+    cluster.start();
+    try {
+      KuduClient client =
+          KuduClientCache.acquire(new Configuration(), cluster.getMasterAddresses(), 1000);
+      client.getTablesList();
+      KuduClientCache.release(client);
+    } finally {
+      cluster.shutdown();
+    }
+
+    long deadline = System.currentTimeMillis() + 10000;
+    Set<Thread> threadsLeft = getNonDaemonThreads();
+    threadsLeft.removeAll(threadsBefore);
+    while (!threadsLeft.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+      threadsLeft = getNonDaemonThreads();
+      threadsLeft.removeAll(threadsBefore);
+    }
+    assertTrue("Threads left: " + threadsLeft, threadsLeft.isEmpty());
+  }
+
+  private static Set<Thread> getNonDaemonThreads() {
+    Set<Thread> threads = new HashSet<Thread>();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (!thread.isDaemon() && thread.isAlive()) {
+        threads.add(thread);
+      }
+    }
+    return threads;
+  }
+}
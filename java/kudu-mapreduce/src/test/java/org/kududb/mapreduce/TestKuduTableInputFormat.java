@@ -103,6 +103,82 @@ public class TestKuduTableInputFormat extends BaseKuduTest {
     assertFalse(reader.nextKeyValue());
   }
 
+  @Test
+  public void testSplitSizeRows() throws Exception {
+    String tableName = TABLE_NAME + "-splits";
+    createTable(tableName, getBasicSchema(), new CreateTableBuilder());
+    KuduTable table = openTable(tableName);
+    AsyncKuduSession session = client.newSession();
+    for (int i = 0; i < 100; i++) {
+      Insert insert = table.newInsert();
+      PartialRow row = insert.getRow();
+      row.addInt(0, i);
+      row.addInt(1, i);
+      row.addInt(2, i);
+      row.addString(3, "a string");
+      row.addBoolean(4, true);
+      session.apply(insert).join(DEFAULT_SLEEP);
+    }
+    session.close().join(DEFAULT_SLEEP);
+
+    Configuration conf = new Configuration();
+    conf.set(KuduTableInputFormat.MASTER_ADDRESSES_KEY, getMasterAddresses());
+    conf.set(KuduTableInputFormat.INPUT_TABLE_KEY, tableName);
+    conf.setLong(KuduTableInputFormat.SPLIT_SIZE_ROWS_KEY, 30);
+    KuduTableInputFormat input = new KuduTableInputFormat();
+    input.setConf(conf);
+    List<InputSplit> splits = input.getSplits(null);
+    assertEquals(4, splits.size());
+    long totalRows = 0;
+    for (InputSplit split : splits) {
+      assertTrue(split.getLength() > 0);
+      totalRows += ((KuduTableInputFormat.TableSplit) split).getNumRows();
+    }
+    assertEquals(100, totalRows);
+
+    // All the splits read the same snapshot, taken before this row gets inserted.
+    long snapshotTimestamp =
+        ((KuduTableInputFormat.TableSplit) splits.get(0)).getSnapshotTimestamp();
+    assertTrue(snapshotTimestamp != AsyncKuduClient.NO_TIMESTAMP);
+    for (InputSplit split : splits) {
+      assertEquals(snapshotTimestamp,
+          ((KuduTableInputFormat.TableSplit) split).getSnapshotTimestamp());
+    }
+    session = client.newSession();
+    Insert insert = table.newInsert();
+    PartialRow row = insert.getRow();
+    row.addInt(0, 100);
+    row.addInt(1, 100);
+    row.addInt(2, 100);
+    row.addString(3, "a string");
+    row.addBoolean(4, true);
+    session.apply(insert).join(DEFAULT_SLEEP);
+    session.close().join(DEFAULT_SLEEP);
+
+    // Every row is read exactly once.
+    boolean[] keysRead = new boolean[100];
+    int rowsRead = 0;
+    for (InputSplit split : splits) {
+      input = new KuduTableInputFormat();
+      input.setConf(conf);
+      RecordReader<NullWritable, RowResult> reader = input.createRecordReader(split, null);
+      reader.initialize(split, null);
+      int rowsInSplit = 0;
+      while (reader.nextKeyValue()) {
+        int key = reader.getCurrentValue().getInt(0);
+        assertFalse(keysRead[key]);
+        keysRead[key] = true;
+        rowsRead++;
+        assertTrue(reader.getProgress() < 1f);
+        rowsInSplit++;
+      }
+      assertEquals(1f, reader.getProgress(), 0f);
+      reader.close();
+      assertTrue(rowsInSplit <= 30);
+    }
+    assertEquals(100, rowsRead);
+  }
+
   private RecordReader<NullWritable, RowResult> createRecordReader(String columnProjection,
         List<ColumnRangePredicate> predicates) throws IOException, InterruptedException {
     KuduTableInputFormat input = new KuduTableInputFormat();
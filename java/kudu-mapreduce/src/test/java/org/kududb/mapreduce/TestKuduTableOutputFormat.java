@@ -60,4 +60,32 @@ public class TestKuduTableOutputFormat extends BaseKuduTest {
     AsyncKuduScanner.AsyncKuduScannerBuilder builder = client.newScannerBuilder(table);
     assertEquals(1, countRowsInScan(builder.build()));
   }
+
+  @Test
+  public void testAsyncSessions() throws Exception {
+    String tableName = TABLE_NAME + "-async";
+    CreateTableBuilder builder = new CreateTableBuilder();
+    PartialRow splitRow = getBasicSchema().newPartialRow();
+    splitRow.addInt(0, 50);
+    builder.addSplitRow(splitRow);
+    createTable(tableName, getBasicSchema(), builder);
+
+    KuduTableOutputFormat output = new KuduTableOutputFormat();
+    Configuration conf = new Configuration();
+    conf.set(KuduTableOutputFormat.MASTER_ADDRESSES_KEY, getMasterAddresses());
+    conf.set(KuduTableOutputFormat.OUTPUT_TABLE_KEY, tableName);
+    conf.setInt(KuduTableOutputFormat.ASYNC_SESSIONS_KEY, 2);
+    // Small enough that the writer has to wait for some rows to be acknowledged.
+    conf.setLong(KuduTableOutputFormat.MAX_IN_FLIGHT_BYTES_KEY, 1024);
+    output.setConf(conf);
+
+    KuduTable table = KuduTableOutputFormat.getKuduTable(
+        conf.get(KuduTableOutputFormat.MULTITON_KEY));
+    RecordWriter<NullWritable, Operation> rw = output.getRecordWriter(null);
+    for (int i = 0; i < 100; i++) {
+      rw.write(NullWritable.get(), createBasicSchemaInsert(table, i));
+    }
+    rw.close(null);
+    assertEquals(100, countRowsInScan(client.newScannerBuilder(table).build()));
+  }
 }
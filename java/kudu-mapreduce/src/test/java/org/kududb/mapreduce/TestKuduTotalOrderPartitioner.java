@@ -0,0 +1,85 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestKuduTotalOrderPartitioner {
+
+  private static byte[] b(String s) {
+    return s.getBytes();
+  }
+
+  @Test
+  public void testPartitioning() throws Exception {
+    TabletBoundaries tablets = new TabletBoundaries(
+        new byte[][] { b("m"), new byte[0], b("t"), b("c") });
+    Configuration conf = new Configuration();
+    conf.set(KuduTotalOrderPartitioner.TABLET_BOUNDARIES_KEY, tablets.toBase64String());
+    KuduTotalOrderPartitioner<Object> partitioner = new KuduTotalOrderPartitioner<Object>();
+    partitioner.setConf(conf);
+
+    // One reducer per tablet.
+    assertEquals(0, partitioner.getPartition(key("a", "a"), null, 4));
+    assertEquals(1, partitioner.getPartition(key("c", "c"), null, 4));
+    assertEquals(1, partitioner.getPartition(key("l", "l"), null, 4));
+    assertEquals(2, partitioner.getPartition(key("m", "m"), null, 4));
+    assertEquals(3, partitioner.getPartition(key("z", "z"), null, 4));
+
+    // Consecutive tablets share reducers.
+    assertEquals(0, partitioner.getPartition(key("a", "a"), null, 2));
+    assertEquals(0, partitioner.getPartition(key("d", "d"), null, 2));
+    assertEquals(1, partitioner.getPartition(key("m", "m"), null, 2));
+    assertEquals(1, partitioner.getPartition(key("z", "z"), null, 2));
+  }
+
+  @Test
+  public void testKeyOrdering() throws Exception {
+    KuduBulkLoadKey[] sorted = {
+        key("", ""),
+        key("", "a"),
+        key("a", "z"),
+        key("a", "zz"),
+        key("ab", ""),
+        key("b", "a"),
+    };
+    WritableComparator comparator = WritableComparator.get(KuduBulkLoadKey.class);
+    for (int i = 0; i < sorted.length; i++) {
+      for (int j = 0; j < sorted.length; j++) {
+        int expected = Integer.signum(Integer.compare(i, j));
+        assertEquals(expected, Integer.signum(sorted[i].compareTo(sorted[j])));
+        byte[] a = serialize(sorted[i]);
+        byte[] b = serialize(sorted[j]);
+        assertEquals(expected, Integer.signum(comparator.compare(a, 0, a.length, b, 0, b.length)));
+      }
+    }
+  }
+
+  private static KuduBulkLoadKey key(String partitionKey, String primaryKey) {
+    return new KuduBulkLoadKey(b(partitionKey), b(primaryKey));
+  }
+
+  private static byte[] serialize(KuduBulkLoadKey key) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    key.write(out);
+    byte[] bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2015 Cloudera, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package org.kududb.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kududb.Schema;
+import org.kududb.client.*;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link KuduTableInputFormat} against a {@link SimulatedCluster}, which can have tablets
+ * with several rowsets and servers whose clock is behind the local one.
+ */
+public class TestSimulatedInputFormat {
+
+  private static final String TABLE_NAME = "input";
+  private static final Schema SCHEMA = BaseKuduTest.getBasicSchema();
+
+  private SimulatedCluster cluster;
+  private KuduClient client;
+  private KuduTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new SimulatedCluster(1);
+    cluster.start();
+    client = new KuduClient.KuduClientBuilder(cluster.getMasterAddresses()).build();
+    table = client.createTable(TABLE_NAME, SCHEMA, new CreateTableBuilder());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (client != null) {
+      client.shutdown();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 100000)
+  public void testSplitsOfSeveralRowsets() throws Exception {
+    // The even keys, then the odd ones, then every tenth one again in a third rowset.
+    insertRows(0, 2);
+    cluster.flush(TABLE_NAME);
+    insertRows(1, 2);
+    cluster.flush(TABLE_NAME);
+    KuduSession session = client.newSession();
+    for (int key = 0; key < 100; key += 10) {
+      session.apply(delete(key));
+    }
+    session.close();
+    insertRows(0, 10);
+
+    List<InputSplit> splits = newInputFormat().getSplits(null);
+    assertTrue(splits.size() > 1);
+    long totalRows = 0;
+    for (InputSplit split : splits) {
+      KuduTableInputFormat.TableSplit tableSplit = (KuduTableInputFormat.TableSplit) split;
+      if (tableSplit.getStartPrimaryKey().length > 0 &&
+          tableSplit.getEndPrimaryKey().length > 0) {
+        assertTrue(split.toString(), Bytes.memcmp(tableSplit.getStartPrimaryKey(),
+            tableSplit.getEndPrimaryKey()) < 0);
+      }
+      totalRows += tableSplit.getNumRows();
+    }
+    assertEquals(100, totalRows);
+
+    // The splits don't overlap, every row is read exactly once. The progress only goes forward
+    // although the rows don't come in key order.
+    BitSet keysRead = new BitSet();
+    for (InputSplit split : splits) {
+      KuduTableInputFormat input = newInputFormat();
+      RecordReader<NullWritable, RowResult> reader = input.createRecordReader(split, null);
+      reader.initialize(split, null);
+      float progress = 0;
+      while (reader.nextKeyValue()) {
+        int key = reader.getCurrentValue().getInt(0);
+        assertFalse("Key " + key + " read twice", keysRead.get(key));
+        keysRead.set(key);
+        assertTrue(reader.getProgress() >= progress);
+        assertTrue(reader.getProgress() < 1f);
+        progress = reader.getProgress();
+      }
+      assertEquals(1f, reader.getProgress(), 0f);
+      reader.close();
+    }
+    assertEquals(100, keysRead.cardinality());
+  }
+
+  /**
+   * The tablets are sampled in parallel, their splits still come in the tablets' order.
+   */
+  @Test(timeout = 100000)
+  public void testSplitsOfSeveralTablets() throws Exception {
+    client.deleteTable(TABLE_NAME);
+    CreateTableBuilder builder = new CreateTableBuilder();
+    for (int key : new int[] {25, 50, 75}) {
+      PartialRow splitRow = SCHEMA.newPartialRow();
+      splitRow.addInt(0, key);
+      builder.addSplitRow(splitRow);
+    }
+    table = client.createTable(TABLE_NAME, SCHEMA, builder);
+    insertRows(0, 1);
+
+    Configuration conf = new Configuration();
+    conf.setInt(KuduTableInputFormat.SPLIT_SAMPLING_THREADS_KEY, 2);
+    List<InputSplit> splits = newInputFormat(conf).getSplits(null);
+    // At most 30 rows per split, so 4 tablets of 25 rows aren't split.
+    assertEquals(4, splits.size());
+    byte[] previousStart = null;
+    long totalRows = 0;
+    for (InputSplit split : splits) {
+      KuduTableInputFormat.TableSplit tableSplit = (KuduTableInputFormat.TableSplit) split;
+      if (previousStart != null) {
+        assertTrue(Bytes.memcmp(previousStart, tableSplit.getStartPartitionKey()) < 0);
+      }
+      previousStart = tableSplit.getStartPartitionKey();
+      assertEquals(25, tableSplit.getNumRows());
+      totalRows += tableSplit.getNumRows();
+    }
+    assertEquals(100, totalRows);
+  }
+
+  @Test(timeout = 100000)
+  public void testServersClockBehind() throws Exception {
+    // A snapshot taken from the local clock would be in the servers' future.
+    cluster.setClockOffsetMillis(-60000);
+    insertRows(0, 1);
+    List<InputSplit> splits = newInputFormat().getSplits(null);
+    int rowsRead = 0;
+    for (InputSplit split : splits) {
+      RecordReader<NullWritable, RowResult> reader =
+          newInputFormat().createRecordReader(split, null);
+      reader.initialize(split, null);
+      while (reader.nextKeyValue()) {
+        rowsRead++;
+      }
+      reader.close();
+    }
+    assertEquals(100, rowsRead);
+  }
+
+  private KuduTableInputFormat newInputFormat() {
+    return newInputFormat(new Configuration());
+  }
+
+  private KuduTableInputFormat newInputFormat(Configuration conf) {
+    conf.set(KuduTableInputFormat.MASTER_ADDRESSES_KEY, cluster.getMasterAddresses());
+    conf.set(KuduTableInputFormat.INPUT_TABLE_KEY, TABLE_NAME);
+    conf.setLong(KuduTableInputFormat.SPLIT_SIZE_ROWS_KEY, 30);
+    KuduTableInputFormat input = new KuduTableInputFormat();
+    input.setConf(conf);
+    return input;
+  }
+
+  /**
+   * Inserts the keys under 100 that start at a key and are a step apart.
+   */
+  private void insertRows(int firstKey, int step) throws Exception {
+    KuduSession session = client.newSession();
+    for (int key = firstKey; key < 100; key += step) {
+      Insert insert = table.newInsert();
+      PartialRow row = insert.getRow();
+      row.addInt(0, key);
+      row.addInt(1, key);
+      row.addInt(2, key);
+      row.addString(3, "a string");
+      row.addBoolean(4, true);
+      session.apply(insert);
+    }
+    session.close();
+  }
+
+  private Delete delete(int key) {
+    Delete delete = table.newDelete();
+    delete.getRow().addInt(0, key);
+    return delete;
+  }
+}